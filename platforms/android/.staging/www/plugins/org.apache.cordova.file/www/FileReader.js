@@ -384,6 +384,103 @@ FileReader.prototype.readAsArrayBuffer = function(file) {
         }, "File", "readAsArrayBuffer", execArgs);
 };
 
+var nextChunkedReadId = 0;
+
+/**
+ * Read file and deliver its contents as a series of ArrayBuffers, so that
+ * large files never have to be held in memory at once.
+ *
+ * Each chunk is passed to the onchunk handler. Native only reads ahead as far
+ * as the chunks that have been handed to onchunk, so memory stays bounded.
+ * The result of the read is null; onload fires after the last chunk.
+ *
+ * @param file          {File} File object containing file properties
+ * @param chunkSize     {Number} Optional size of each chunk, in bytes
+ */
+FileReader.prototype.readAsArrayBufferChunked = function(file, chunkSize) {
+    if (initRead(this, file)) {
+        return this._realReader.readAsArrayBuffer(file);
+    }
+
+    var me = this;
+    var readId = 'read' + (nextChunkedReadId++);
+    var execArgs = [this._localURL, file.start, file.end, readId, chunkSize || 0, 2];
+
+    exec(
+        // Success callback, called once per chunk and then once at the end.
+        function(r) {
+            // If DONE (cancelled), then tell native to stop reading.
+            if (me._readyState === FileReader.DONE) {
+                exec(null, null, "File", "abortChunkedRead", [readId]);
+                return;
+            }
+
+            if (r instanceof ArrayBuffer) {
+                if (typeof me.onchunk === "function") {
+                    me.onchunk(r);
+                }
+                exec(null, null, "File", "grantReadCredits", [readId, 1]);
+                return;
+            }
+
+            // DONE state
+            me._readyState = FileReader.DONE;
+
+            me._result = null;
+
+            // The final result counts the bytes read. Anything else means a chunk was lost.
+            if (!r || typeof r.loaded !== "number") {
+                exec(null, null, "File", "abortChunkedRead", [readId]);
+                me._error = new FileError(FileError.NOT_READABLE_ERR);
+                if (typeof me.onerror === "function") {
+                    me.onerror(new ProgressEvent("error", {target:me}));
+                }
+                if (typeof me.onloadend === "function") {
+                    me.onloadend(new ProgressEvent("loadend", {target:me}));
+                }
+                return;
+            }
+
+            // If onload callback
+            if (typeof me.onload === "function") {
+                me.onload(new ProgressEvent("load", {target:me}));
+            }
+
+            // If onloadend callback
+            if (typeof me.onloadend === "function") {
+                me.onloadend(new ProgressEvent("loadend", {target:me}));
+            }
+        },
+        // Error callback
+        function(e) {
+            // Native may still be reading, e.g. if a chunk couldn't be delivered.
+            exec(null, null, "File", "abortChunkedRead", [readId]);
+
+            // If DONE (cancelled), then don't do anything
+            if (me._readyState === FileReader.DONE) {
+                return;
+            }
+
+            // DONE state
+            me._readyState = FileReader.DONE;
+
+            me._result = null;
+
+            // Save error
+            me._error = new FileError(e);
+
+            // If onerror callback
+            if (typeof me.onerror === "function") {
+                me.onerror(new ProgressEvent("error", {target:me}));
+            }
+
+            // If onloadend callback
+            if (typeof me.onloadend === "function") {
+                me.onloadend(new ProgressEvent("loadend", {target:me}));
+            }
+        }, "File", "readAsArrayBufferChunked", execArgs);
+};
+
 module.exports = FileReader;
 
 });
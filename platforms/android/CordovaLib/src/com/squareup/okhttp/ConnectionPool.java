@@ -19,11 +19,14 @@ package com.squareup.okhttp;
 import com.squareup.okhttp.internal.Platform;
 import com.squareup.okhttp.internal.Util;
 import java.net.SocketException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.ListIterator;
-import java.util.concurrent.Callable;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -53,7 +56,6 @@ import java.util.concurrent.TimeUnit;
  * initialized lazily.
  */
 public class ConnectionPool {
-  private static final int MAX_CONNECTIONS_TO_CLEANUP = 2;
   private static final long DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000; // 5 min
 
   private static final ConnectionPool systemDefault;
@@ -77,42 +79,33 @@ public class ConnectionPool {
   private final int maxIdleConnections;
   private final long keepAliveDurationNs;
 
-  private final LinkedList<Connection> connections = new LinkedList<Connection>();
+  /** Every pooled connection, from oldest to newest. */
+  private final LinkedHashSet<Connection> connections = new LinkedHashSet<Connection>();
 
-  /** We use a single background thread to cleanup expired connections. */
+  /** The pooled connections to each address, from newest to oldest. */
+  private final Map<Address, ArrayDeque<Connection>> connectionsByAddress =
+      new HashMap<Address, ArrayDeque<Connection>>();
+
+  /**
+   * We use a single background thread to cleanup expired connections. It
+   * sleeps until the next connection is due to expire, and exits when the pool
+   * is empty.
+   */
   private final ExecutorService executorService =
       new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
-  private final Callable<Void> connectionsCleanupCallable = new Callable<Void>() {
-    @Override public Void call() throws Exception {
-      List<Connection> expiredConnections = new ArrayList<Connection>(MAX_CONNECTIONS_TO_CLEANUP);
-      int idleConnectionCount = 0;
-      synchronized (ConnectionPool.this) {
-        for (ListIterator<Connection> i = connections.listIterator(connections.size());
-            i.hasPrevious(); ) {
-          Connection connection = i.previous();
-          if (!connection.isAlive() || connection.isExpired(keepAliveDurationNs)) {
-            i.remove();
-            expiredConnections.add(connection);
-            if (expiredConnections.size() == MAX_CONNECTIONS_TO_CLEANUP) break;
-          } else if (connection.isIdle()) {
-            idleConnectionCount++;
-          }
-        }
-
-        for (ListIterator<Connection> i = connections.listIterator(connections.size());
-            i.hasPrevious() && idleConnectionCount > maxIdleConnections; ) {
-          Connection connection = i.previous();
-          if (connection.isIdle()) {
-            expiredConnections.add(connection);
-            i.remove();
-            --idleConnectionCount;
+  private boolean cleanupRunning;
+  private final Runnable cleanupRunnable = new Runnable() {
+    @Override public void run() {
+      while (true) {
+        long waitNanos = cleanup(System.nanoTime());
+        if (waitNanos < 0) return;
+        synchronized (ConnectionPool.this) {
+          try {
+            ConnectionPool.this.wait(waitNanos / 1000000, (int) (waitNanos % 1000000));
+          } catch (InterruptedException ignored) {
           }
         }
       }
-      for (Connection expiredConnection : expiredConnections) {
-        Util.closeQuietly(expiredConnection);
-      }
-      return null;
     }
   };
 
@@ -122,29 +115,110 @@ public class ConnectionPool {
   }
 
   /**
-   * Returns a snapshot of the connections in this pool, ordered from newest to
-   * oldest. Waits for the cleanup callable to run if it is currently scheduled.
+   * Closes the connections that have died or been idle for too long, and
+   * returns how many nanoseconds to wait before the next one expires, or -1 if
+   * the pool is empty and the cleanup thread should stop.
    */
-  List<Connection> getConnections() {
-    waitForCleanupCallableToRun();
+  long cleanup(long now) {
+    List<Connection> expiredConnections = new ArrayList<Connection>();
+    long nextExpiryNs = Long.MAX_VALUE;
     synchronized (this) {
-      return new ArrayList<Connection>(connections);
+      for (Iterator<Connection> i = connections.iterator(); i.hasNext(); ) {
+        Connection connection = i.next();
+        if (!connection.isAlive()) {
+          i.remove();
+          removeFromAddress(connection);
+          expiredConnections.add(connection);
+        } else if (connection.isIdle()) {
+          long expiryNs = connection.getIdleStartTimeNs() + keepAliveDurationNs;
+          if (expiryNs - now <= 0) {
+            i.remove();
+            removeFromAddress(connection);
+            expiredConnections.add(connection);
+          } else if (expiryNs - now < nextExpiryNs) {
+            nextExpiryNs = expiryNs - now;
+          }
+        } else if (keepAliveDurationNs < nextExpiryNs) {
+          // A busy SPDY connection can't expire before it goes idle; look again later.
+          nextExpiryNs = keepAliveDurationNs;
+        }
+      }
+      if (connections.isEmpty()) {
+        cleanupRunning = false;
+        nextExpiryNs = -1;
+      }
+    }
+    for (Connection expiredConnection : expiredConnections) {
+      Util.closeQuietly(expiredConnection);
+    }
+    return nextExpiryNs;
+  }
+
+  /** Adds {@code connection} as the newest connection to its address. Call with the lock held. */
+  private void addConnection(Connection connection) {
+    Address address = connection.getRoute().getAddress();
+    ArrayDeque<Connection> addressConnections = connectionsByAddress.get(address);
+    if (addressConnections == null) {
+      addressConnections = new ArrayDeque<Connection>();
+      connectionsByAddress.put(address, addressConnections);
+    }
+    addressConnections.addFirst(connection);
+    connections.add(connection);
+    if (!cleanupRunning) {
+      cleanupRunning = true;
+      executorService.execute(cleanupRunnable);
+    }
+  }
+
+  /** Call with the lock held. */
+  private void removeFromAddress(Connection connection) {
+    Address address = connection.getRoute().getAddress();
+    ArrayDeque<Connection> addressConnections = connectionsByAddress.get(address);
+    if (addressConnections != null) {
+      addressConnections.remove(connection);
+      if (addressConnections.isEmpty()) {
+        connectionsByAddress.remove(address);
+      }
     }
   }
 
   /**
-   * Blocks until the executor service has processed all currently enqueued
-   * jobs.
+   * Removes the oldest idle connections until no more than the maximum are
+   * idle, and returns them for the caller to close. Call with the lock held.
    */
-  private void waitForCleanupCallableToRun() {
-    try {
-      executorService.submit(new Runnable() {
-        @Override public void run() {
-        }
-      }).get();
-    } catch (Exception e) {
-      throw new AssertionError();
+  private List<Connection> trimIdleConnections() {
+    if (connections.size() <= maxIdleConnections) {
+      return Collections.emptyList();
     }
+    int idleConnectionCount = 0;
+    for (Connection connection : connections) {
+      if (connection.isIdle()) idleConnectionCount++;
+    }
+    if (idleConnectionCount <= maxIdleConnections) {
+      return Collections.emptyList();
+    }
+    List<Connection> evictedConnections = new ArrayList<Connection>();
+    for (Iterator<Connection> i = connections.iterator();
+        i.hasNext() && idleConnectionCount > maxIdleConnections; ) {
+      Connection connection = i.next();
+      if (connection.isIdle()) {
+        i.remove();
+        removeFromAddress(connection);
+        evictedConnections.add(connection);
+        --idleConnectionCount;
+      }
+    }
+    return evictedConnections;
+  }
+
+  /**
+   * Returns a snapshot of the connections in this pool, ordered from newest to
+   * oldest.
+   */
+  synchronized List<Connection> getConnections() {
+    List<Connection> result = new ArrayList<Connection>(connections);
+    Collections.reverse(result);
+    return result;
   }
 
   public static ConnectionPool getDefault() {
@@ -175,36 +249,52 @@ public class ConnectionPool {
   }
 
   /** Returns a recycled connection to {@code address}, or null if no such connection exists. */
-  public synchronized Connection get(Address address) {
+  public Connection get(Address address) {
     Connection foundConnection = null;
-    for (ListIterator<Connection> i = connections.listIterator(connections.size());
-        i.hasPrevious(); ) {
-      Connection connection = i.previous();
-      if (!connection.getRoute().getAddress().equals(address)
-          || !connection.isAlive()
-          || System.nanoTime() - connection.getIdleStartTimeNs() >= keepAliveDurationNs) {
-        continue;
-      }
-      i.remove();
-      if (!connection.isSpdy()) {
-        try {
-          Platform.get().tagSocket(connection.getSocket());
-        } catch (SocketException e) {
-          Util.closeQuietly(connection);
-          // When unable to tag, skip recycling and close
-          Platform.get().logW("Unable to tagSocket(): " + e);
+    List<Connection> deadConnections = new ArrayList<Connection>(0);
+    synchronized (this) {
+      ArrayDeque<Connection> addressConnections = connectionsByAddress.get(address);
+      if (addressConnections == null) return null;
+
+      for (Iterator<Connection> i = addressConnections.iterator(); i.hasNext(); ) {
+        Connection connection = i.next();
+        if (!connection.isAlive()) {
+          i.remove();
+          connections.remove(connection);
+          deadConnections.add(connection);
           continue;
         }
+        if (System.nanoTime() - connection.getIdleStartTimeNs() >= keepAliveDurationNs) {
+          continue; // The cleanup thread will close it.
+        }
+        i.remove();
+        connections.remove(connection);
+        if (!connection.isSpdy()) {
+          try {
+            Platform.get().tagSocket(connection.getSocket());
+          } catch (SocketException e) {
+            deadConnections.add(connection);
+            // When unable to tag, skip recycling and close
+            Platform.get().logW("Unable to tagSocket(): " + e);
+            continue;
+          }
+        }
+        foundConnection = connection;
+        break;
       }
-      foundConnection = connection;
-      break;
-    }
 
-    if (foundConnection != null && foundConnection.isSpdy()) {
-      connections.addFirst(foundConnection); // Add it back after iteration.
+      if (foundConnection != null && foundConnection.isSpdy()) {
+        // Add it back after iteration, as the newest connection.
+        addressConnections.addFirst(foundConnection);
+        connections.add(foundConnection);
+      } else if (addressConnections.isEmpty()) {
+        connectionsByAddress.remove(address);
+      }
     }
 
-    executorService.submit(connectionsCleanupCallable);
+    for (Connection deadConnection : deadConnections) {
+      Util.closeQuietly(deadConnection);
+    }
     return foundConnection;
   }
 
@@ -215,8 +305,6 @@ public class ConnectionPool {
    * <p>It is an error to use {@code connection} after calling this method.
    */
   public void recycle(Connection connection) {
-    executorService.submit(connectionsCleanupCallable);
-
     if (connection.isSpdy()) {
       return;
     }
@@ -235,9 +323,14 @@ public class ConnectionPool {
       return;
     }
 
+    List<Connection> evictedConnections;
     synchronized (this) {
-      connections.addFirst(connection);
       connection.resetIdleStartTime();
+      addConnection(connection);
+      evictedConnections = trimIdleConnections();
+    }
+    for (Connection evictedConnection : evictedConnections) {
+      Util.closeQuietly(evictedConnection);
     }
   }
 
@@ -246,14 +339,15 @@ public class ConnectionPool {
    * continue to use {@code connection}.
    */
   public void maybeShare(Connection connection) {
-    executorService.submit(connectionsCleanupCallable);
     if (!connection.isSpdy()) {
       // Only SPDY connections are sharable.
       return;
     }
     if (connection.isAlive()) {
       synchronized (this) {
-        connections.addFirst(connection);
+        if (!connections.contains(connection)) {
+          addConnection(connection);
+        }
       }
     }
   }
@@ -264,6 +358,8 @@ public class ConnectionPool {
     synchronized (this) {
       connections = new ArrayList<Connection>(this.connections);
       this.connections.clear();
+      this.connectionsByAddress.clear();
+      notifyAll(); // Let the cleanup thread see that the pool is empty and stop.
     }
 
     for (Connection connection : connections) {
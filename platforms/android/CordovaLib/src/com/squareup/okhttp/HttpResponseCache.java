@@ -53,6 +53,8 @@ import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import javax.net.ssl.HttpsURLConnection;
@@ -81,6 +83,11 @@ import static com.squareup.okhttp.internal.Util.UTF_8;
  * changed, or a short 'not modified' response if the client's copy is still
  * valid. Such responses increment both the network count and hit count.
  *
+ * <p>Recently used small responses are also kept in memory, along with their
+ * parsed headers, so that repeated requests for them skip the filesystem.
+ * {@link #getMemoryHitCount()} and {@link #getDiskHitCount()} report which
+ * tier cached responses were read from.
+ *
  * <p>The best way to improve the cache hit rate is by configuring the web
  * server to return cacheable responses. Although this client honors all <a
  * href="http://www.ietf.org/rfc/rfc2616.txt">HTTP/1.1 (RFC 2068)</a> cache
@@ -128,7 +135,14 @@ public final class HttpResponseCache extends ResponseCache {
   private static final int ENTRY_BODY = 1;
   private static final int ENTRY_COUNT = 2;
 
+  /** The default limit on the memory tier, if it is smaller than maxSize / 8. */
+  private static final long DEFAULT_MEMORY_SIZE = 1024 * 1024;
+
+  /** Responses with bodies larger than this are only cached on disk. */
+  private static final int MAX_MEMORY_BODY_SIZE = 64 * 1024;
+
   private final DiskLruCache cache;
+  private final MemoryCache memoryCache;
 
   /* read and write statistics, all guarded by 'this' */
   private int writeSuccessCount;
@@ -136,6 +150,8 @@ public final class HttpResponseCache extends ResponseCache {
   private int networkCount;
   private int hitCount;
   private int requestCount;
+  private int memoryHitCount;
+  private int diskHitCount;
 
   /**
    * Although this class only exposes the limited ResponseCache API, it
@@ -168,7 +184,21 @@ public final class HttpResponseCache extends ResponseCache {
   };
 
   public HttpResponseCache(File directory, long maxSize) throws IOException {
+    this(directory, maxSize, Math.min(maxSize / 8, DEFAULT_MEMORY_SIZE));
+  }
+
+  /**
+   * @param memorySize the maximum number of bytes of recently used small
+   *     responses to also hold in memory. Zero disables the memory tier.
+   */
+  public HttpResponseCache(File directory, long maxSize, long memorySize) throws IOException {
     cache = DiskLruCache.open(directory, VERSION, ENTRY_COUNT, maxSize);
+    memoryCache = new MemoryCache(memorySize);
+    cache.setEvictionListener(new DiskLruCache.EvictionListener() {
+      @Override public void onEvicted(String key) {
+        memoryCache.remove(key);
+      }
+    });
   }
 
   private String uriToKey(URI uri) {
@@ -197,6 +227,28 @@ public final class HttpResponseCache extends ResponseCache {
   @Override public CacheResponse get(URI uri, String requestMethod,
       Map<String, List<String>> requestHeaders) {
     String key = uriToKey(uri);
+    MemoryEntry memoryEntry = memoryCache.get(key);
+    if (memoryEntry != null) {
+      if (!memoryEntry.entry.matches(uri, requestMethod, requestHeaders)) {
+        return null;
+      }
+      // Count the hit against the disk entry too so that it doesn't age out of
+      // the disk LRU while it is being served from memory.
+      boolean onDisk;
+      try {
+        onDisk = cache.touch(key);
+      } catch (IOException e) {
+        onDisk = false;
+      }
+      if (onDisk) {
+        trackMemoryHit();
+        return newCacheResponse(memoryEntry.entry, memoryEntry.snapshot,
+            new ByteArrayInputStream(memoryEntry.body));
+      }
+      memoryCache.remove(key);
+    }
+
+    long generation = memoryCache.generation();
     DiskLruCache.Snapshot snapshot;
     Entry entry;
     try {
@@ -214,9 +266,31 @@ public final class HttpResponseCache extends ResponseCache {
       snapshot.close();
       return null;
     }
+    trackDiskHit();
 
-    return entry.isHttps() ? new EntrySecureCacheResponse(entry, snapshot)
-        : new EntryCacheResponse(entry, snapshot);
+    long bodyLength = snapshot.getLength(ENTRY_BODY);
+    if (bodyLength > MAX_MEMORY_BODY_SIZE || bodyLength > memoryCache.maxSize) {
+      return newCacheResponse(entry, snapshot, newBodyInputStream(snapshot));
+    }
+
+    // Small enough to keep in memory. Read the whole body now and release the files.
+    byte[] body = new byte[(int) bodyLength];
+    try {
+      Util.readFully(snapshot.getInputStream(ENTRY_BODY), body);
+    } catch (IOException e) {
+      return null;
+    } finally {
+      snapshot.close();
+    }
+    long size = snapshot.getLength(ENTRY_METADATA) + bodyLength;
+    memoryCache.put(key, new MemoryEntry(entry, body, snapshot, size), generation);
+    return newCacheResponse(entry, snapshot, new ByteArrayInputStream(body));
+  }
+
+  private static CacheResponse newCacheResponse(
+      Entry entry, DiskLruCache.Snapshot snapshot, InputStream body) {
+    return entry.isHttps() ? new EntrySecureCacheResponse(entry, snapshot, body)
+        : new EntryCacheResponse(entry, snapshot, body);
   }
 
   @Override public CacheRequest put(URI uri, URLConnection urlConnection) throws IOException {
@@ -230,6 +304,7 @@ public final class HttpResponseCache extends ResponseCache {
 
     if (requestMethod.equals("POST") || requestMethod.equals("PUT") || requestMethod.equals(
         "DELETE")) {
+      memoryCache.remove(key);
       try {
         cache.remove(key);
       } catch (IOException ignored) {
@@ -263,8 +338,9 @@ public final class HttpResponseCache extends ResponseCache {
       if (editor == null) {
         return null;
       }
+      memoryCache.remove(key);
       entry.writeTo(editor);
-      return new CacheRequestImpl(editor);
+      return new CacheRequestImpl(key, editor);
     } catch (IOException e) {
       abortQuietly(editor);
       return null;
@@ -291,6 +367,10 @@ public final class HttpResponseCache extends ResponseCache {
       }
     } catch (IOException e) {
       abortQuietly(editor);
+    } finally {
+      // Whether or not the disk entry was updated, the copy in memory now has
+      // stale headers or no longer matches the disk.
+      memoryCache.remove(uriToKey(uri));
     }
   }
 
@@ -320,9 +400,15 @@ public final class HttpResponseCache extends ResponseCache {
    * the cache.
    */
   public void delete() throws IOException {
+    memoryCache.evictAll();
     cache.delete();
   }
 
+  /** Trims the cache to its maximum size and forces buffered operations to the filesystem. */
+  public void flush() throws IOException {
+    cache.flush();
+  }
+
   public synchronized int getWriteAbortCount() {
     return writeAbortCount;
   }
@@ -349,6 +435,14 @@ public final class HttpResponseCache extends ResponseCache {
     hitCount++;
   }
 
+  private synchronized void trackMemoryHit() {
+    memoryHitCount++;
+  }
+
+  private synchronized void trackDiskHit() {
+    diskHitCount++;
+  }
+
   public synchronized int getNetworkCount() {
     return networkCount;
   }
@@ -361,13 +455,35 @@ public final class HttpResponseCache extends ResponseCache {
     return requestCount;
   }
 
+  /**
+   * Returns the number of cached responses that were read from memory. Like
+   * {@link #getDiskHitCount()}, this counts candidate responses; a candidate
+   * that turns out to be stale may still require network use.
+   */
+  public synchronized int getMemoryHitCount() {
+    return memoryHitCount;
+  }
+
+  /** Returns the number of cached responses that were read from the filesystem. */
+  public synchronized int getDiskHitCount() {
+    return diskHitCount;
+  }
+
+  /** Returns the number of bytes currently held by the memory tier. */
+  public long getMemorySize() {
+    return memoryCache.size();
+  }
+
   private final class CacheRequestImpl extends CacheRequest {
+    private final String key;
     private final DiskLruCache.Editor editor;
     private OutputStream cacheOut;
     private boolean done;
     private OutputStream body;
 
-    public CacheRequestImpl(final DiskLruCache.Editor editor) throws IOException {
+    public CacheRequestImpl(final String key, final DiskLruCache.Editor editor)
+        throws IOException {
+      this.key = key;
       this.editor = editor;
       this.cacheOut = editor.newOutputStream(ENTRY_BODY);
       this.body = new FilterOutputStream(cacheOut) {
@@ -381,6 +497,8 @@ public final class HttpResponseCache extends ResponseCache {
           }
           super.close();
           editor.commit();
+          // A read may have cached the previous response since the edit began.
+          memoryCache.remove(key);
         }
 
         @Override
@@ -605,6 +723,88 @@ public final class HttpResponseCache extends ResponseCache {
     }
   }
 
+  /** A parsed entry and its body, read from the disk cache. */
+  private static final class MemoryEntry {
+    private final Entry entry;
+    private final byte[] body;
+    /** Closed; retained so that a conditional hit can update the disk entry. */
+    private final DiskLruCache.Snapshot snapshot;
+    private final long size;
+
+    MemoryEntry(Entry entry, byte[] body, DiskLruCache.Snapshot snapshot, long size) {
+      this.entry = entry;
+      this.body = body;
+      this.snapshot = snapshot;
+      this.size = size;
+    }
+  }
+
+  /**
+   * A size-bounded LRU cache of recently read entries. It only ever holds
+   * copies of what is on disk: every write to a key and every eviction from
+   * disk removes it from here.
+   */
+  private static final class MemoryCache {
+    private final LinkedHashMap<String, MemoryEntry> entries =
+        new LinkedHashMap<String, MemoryEntry>(0, 0.75f, true);
+    private final long maxSize;
+
+    // Guarded by this.
+    private long size;
+
+    /**
+     * Incremented on every removal. An entry read from disk is only stored
+     * if no removal happened since the read began, since that removal may
+     * have been for a newer response than the one read.
+     */
+    private long generation;
+
+    MemoryCache(long maxSize) {
+      this.maxSize = maxSize;
+    }
+
+    synchronized MemoryEntry get(String key) {
+      return entries.get(key);
+    }
+
+    synchronized long generation() {
+      return generation;
+    }
+
+    synchronized void put(String key, MemoryEntry entry, long readGeneration) {
+      if (readGeneration != generation || entry.size > maxSize) {
+        return;
+      }
+      MemoryEntry previous = entries.put(key, entry);
+      if (previous != null) {
+        size -= previous.size;
+      }
+      size += entry.size;
+      for (Iterator<MemoryEntry> i = entries.values().iterator(); size > maxSize; ) {
+        size -= i.next().size;
+        i.remove();
+      }
+    }
+
+    synchronized void remove(String key) {
+      generation++;
+      MemoryEntry previous = entries.remove(key);
+      if (previous != null) {
+        size -= previous.size;
+      }
+    }
+
+    synchronized void evictAll() {
+      generation++;
+      entries.clear();
+      size = 0;
+    }
+
+    synchronized long size() {
+      return size;
+    }
+  }
+
   /**
    * Returns an input stream that reads the body of a snapshot, closing the
    * snapshot when the stream is closed.
@@ -623,10 +823,10 @@ public final class HttpResponseCache extends ResponseCache {
     private final DiskLruCache.Snapshot snapshot;
     private final InputStream in;
 
-    public EntryCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot) {
+    public EntryCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot, InputStream in) {
       this.entry = entry;
       this.snapshot = snapshot;
-      this.in = newBodyInputStream(snapshot);
+      this.in = in;
     }
 
     @Override public Map<String, List<String>> getHeaders() {
@@ -643,10 +843,10 @@ public final class HttpResponseCache extends ResponseCache {
     private final DiskLruCache.Snapshot snapshot;
     private final InputStream in;
 
-    public EntrySecureCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot) {
+    public EntrySecureCacheResponse(Entry entry, DiskLruCache.Snapshot snapshot, InputStream in) {
       this.entry = entry;
       this.snapshot = snapshot;
-      this.in = newBodyInputStream(snapshot);
+      this.in = in;
     }
 
     @Override public Map<String, List<String>> getHeaders() {
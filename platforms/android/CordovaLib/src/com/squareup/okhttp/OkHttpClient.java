@@ -15,6 +15,7 @@
  */
 package com.squareup.okhttp;
 
+import com.squareup.okhttp.internal.Dns;
 import com.squareup.okhttp.internal.http.HttpURLConnectionImpl;
 import com.squareup.okhttp.internal.http.HttpsURLConnectionImpl;
 import com.squareup.okhttp.internal.http.OkResponseCache;
@@ -42,6 +43,8 @@ public final class OkHttpClient {
   private SSLSocketFactory sslSocketFactory;
   private HostnameVerifier hostnameVerifier;
   private ConnectionPool connectionPool;
+  private Dns dns;
+  private boolean routeRacing;
   private boolean followProtocolRedirects = true;
 
   /**
@@ -164,6 +167,38 @@ public final class OkHttpClient {
     return connectionPool;
   }
 
+  /**
+   * Sets the service used to resolve host names.
+   *
+   * <p>If unset, {@link Dns#DEFAULT} will be used, which looks up every host
+   * with {@link java.net.InetAddress#getAllByName}.
+   */
+  public OkHttpClient setDns(Dns dns) {
+    this.dns = dns;
+    return this;
+  }
+
+  public Dns getDns() {
+    return dns;
+  }
+
+  /**
+   * Configure this client to connect to several of a host's addresses in
+   * parallel, staggered, and use whichever connects first. This avoids waiting
+   * a full connect timeout on an address that doesn't answer, such as a
+   * blackholed IPv6 route.
+   *
+   * <p>If unset, routes are tried one at a time.
+   */
+  public OkHttpClient setRouteRacing(boolean routeRacing) {
+    this.routeRacing = routeRacing;
+    return this;
+  }
+
+  public boolean getRouteRacing() {
+    return routeRacing;
+  }
+
   /**
    * Configure this client to follow redirects from HTTPS to HTTP and from HTTP
    * to HTTPS.
@@ -210,6 +245,8 @@ public final class OkHttpClient {
         ? hostnameVerifier
         : HttpsURLConnection.getDefaultHostnameVerifier();
     result.connectionPool = connectionPool != null ? connectionPool : ConnectionPool.getDefault();
+    result.dns = dns != null ? dns : Dns.DEFAULT;
+    result.routeRacing = routeRacing;
     result.followProtocolRedirects = followProtocolRedirects;
     return result;
   }
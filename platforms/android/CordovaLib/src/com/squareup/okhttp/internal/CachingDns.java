@@ -0,0 +1,277 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Dns} that remembers the results of a delegate's lookups. Successful
+ * lookups are kept for a positive TTL and failed ones for a shorter negative
+ * TTL. {@link InetAddress} doesn't expose the TTLs of the DNS records, so both
+ * are fixed when the cache is created.
+ *
+ * <p>Concurrent lookups of the same host share a single call to the delegate.
+ * {@link #prefetch} resolves hosts in the background, so that the first request
+ * to each of them doesn't wait on the network for its name.
+ */
+public final class CachingDns implements Dns {
+  private static final long DEFAULT_POSITIVE_TTL_MS = 60 * 1000;
+  private static final long DEFAULT_NEGATIVE_TTL_MS = 10 * 1000;
+  private static final int DEFAULT_MAX_ENTRIES = 128;
+  private static final int PREFETCH_THREADS = 2;
+
+  private final Dns delegate;
+  private final long positiveTtlNs;
+  private final long negativeTtlNs;
+  private final int maxEntries;
+
+  /** Guarded by this. In access order, so the least recently used host is evicted first. */
+  private final Map<String, Entry> cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    // Inside this class Entry would mean Map.Entry, so name ours in full.
+    @Override protected boolean removeEldestEntry(Map.Entry<String, CachingDns.Entry> eldest) {
+      return size() > maxEntries;
+    }
+  };
+
+  /** Guarded by this. Lookups that are waiting on the delegate. */
+  private final Map<String, Lookup> lookupsInFlight = new HashMap<String, Lookup>();
+
+  private final ThreadPoolExecutor prefetchExecutor = new ThreadPoolExecutor(PREFETCH_THREADS,
+      PREFETCH_THREADS, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+
+  private int hitCount;
+  private int negativeHitCount;
+  private int missCount;
+  private int coalescedCount;
+  private int lookupCount;
+  private int lookupFailureCount;
+  private long totalLookupTimeNs;
+  private long maxLookupTimeNs;
+
+  public CachingDns(Dns delegate) {
+    this(delegate, DEFAULT_POSITIVE_TTL_MS, DEFAULT_NEGATIVE_TTL_MS, DEFAULT_MAX_ENTRIES);
+  }
+
+  public CachingDns(Dns delegate, long positiveTtlMs, long negativeTtlMs, int maxEntries) {
+    if (delegate == null) throw new NullPointerException("delegate == null");
+    if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries <= 0");
+    this.delegate = delegate;
+    this.positiveTtlNs = TimeUnit.MILLISECONDS.toNanos(positiveTtlMs);
+    this.negativeTtlNs = TimeUnit.MILLISECONDS.toNanos(negativeTtlMs);
+    this.maxEntries = maxEntries;
+    prefetchExecutor.allowCoreThreadTimeOut(true);
+  }
+
+  @Override public InetAddress[] getAllByName(String host) throws UnknownHostException {
+    String key = host.toLowerCase(Locale.US);
+    Lookup lookup;
+    boolean owner = false;
+    synchronized (this) {
+      Entry entry = cache.get(key);
+      if (entry != null && entry.expiresAtNs - System.nanoTime() > 0) {
+        if (entry.addresses != null) {
+          hitCount++;
+          return entry.addresses.clone();
+        }
+        negativeHitCount++;
+        throw new UnknownHostException(entry.failureMessage);
+      }
+      missCount++;
+      lookup = lookupsInFlight.get(key);
+      if (lookup == null) {
+        lookup = new Lookup();
+        lookupsInFlight.put(key, lookup);
+        owner = true;
+      } else {
+        coalescedCount++;
+      }
+    }
+    if (owner) {
+      resolve(key, host, lookup);
+    }
+    return lookup.get();
+  }
+
+  private void resolve(String key, String host, Lookup lookup) {
+    InetAddress[] addresses = null;
+    Throwable failure = null;
+    long startNs = System.nanoTime();
+    try {
+      addresses = delegate.getAllByName(host);
+    } catch (UnknownHostException e) {
+      failure = e;
+    } catch (RuntimeException e) {
+      failure = e;
+    } catch (Error e) {
+      failure = e;
+      throw e;
+    } finally {
+      // Whatever happened, the lookup must stop being in flight and its waiters must be released.
+      long nowNs = System.nanoTime();
+      long elapsedNs = nowNs - startNs;
+      try {
+        synchronized (this) {
+          lookupsInFlight.remove(key);
+          lookupCount++;
+          totalLookupTimeNs += elapsedNs;
+          maxLookupTimeNs = Math.max(maxLookupTimeNs, elapsedNs);
+          if (addresses != null) {
+            cache.put(key, new Entry(addresses, null, nowNs + positiveTtlNs));
+          } else {
+            lookupFailureCount++;
+            // Only a definite "no such host" is cached; anything else is retried next time.
+            if (failure instanceof UnknownHostException) {
+              cache.put(key, new Entry(null, failure.getMessage(), nowNs + negativeTtlNs));
+            }
+          }
+        }
+      } finally {
+        lookup.complete(addresses, failure);
+      }
+    }
+  }
+
+  /**
+   * Resolves each of {@code hosts} in the background, unless it is already
+   * cached or being looked up.
+   */
+  public void prefetch(Collection<String> hosts) {
+    for (final String host : hosts) {
+      String key = host.toLowerCase(Locale.US);
+      synchronized (this) {
+        Entry entry = cache.get(key);
+        if ((entry != null && entry.expiresAtNs - System.nanoTime() > 0)
+            || lookupsInFlight.containsKey(key)) {
+          continue;
+        }
+      }
+      prefetchExecutor.execute(new NamedRunnable("OkHttp DNS prefetch " + host) {
+        @Override protected void execute() {
+          try {
+            getAllByName(host);
+          } catch (UnknownHostException ignored) {
+          } catch (RuntimeException e) {
+            Platform.get().logW("DNS prefetch of " + host + " failed: " + e);
+          }
+        }
+      });
+    }
+  }
+
+  /** Forgets every cached lookup, for example after the network changes. */
+  public synchronized void evictAll() {
+    cache.clear();
+  }
+
+  /**
+   * Forgets the cached lookup of {@code host}, for example after connecting
+   * to every one of its addresses failed. A lookup in flight is unaffected.
+   */
+  public synchronized void evict(String host) {
+    cache.remove(host.toLowerCase(Locale.US));
+  }
+
+  public synchronized int getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of lookups answered from a cached failure. */
+  public synchronized int getNegativeHitCount() {
+    return negativeHitCount;
+  }
+
+  public synchronized int getMissCount() {
+    return missCount;
+  }
+
+  /** Returns the number of misses that waited on another thread's lookup of the same host. */
+  public synchronized int getCoalescedCount() {
+    return coalescedCount;
+  }
+
+  /** Returns the number of calls made to the delegate. */
+  public synchronized int getLookupCount() {
+    return lookupCount;
+  }
+
+  public synchronized int getLookupFailureCount() {
+    return lookupFailureCount;
+  }
+
+  /** Returns the total time spent in the delegate, in milliseconds. */
+  public synchronized long getTotalLookupTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(totalLookupTimeNs);
+  }
+
+  /** Returns the time taken by the slowest call to the delegate, in milliseconds. */
+  public synchronized long getMaxLookupTimeMs() {
+    return TimeUnit.NANOSECONDS.toMillis(maxLookupTimeNs);
+  }
+
+  private static final class Entry {
+    final InetAddress[] addresses;
+    final String failureMessage;
+    final long expiresAtNs;
+
+    Entry(InetAddress[] addresses, String failureMessage, long expiresAtNs) {
+      this.addresses = addresses;
+      this.failureMessage = failureMessage;
+      this.expiresAtNs = expiresAtNs;
+    }
+  }
+
+  /** A call to the delegate that other threads may be waiting on. */
+  private static final class Lookup {
+    private final CountDownLatch done = new CountDownLatch(1);
+    private InetAddress[] addresses;
+    private Throwable failure;
+
+    void complete(InetAddress[] addresses, Throwable failure) {
+      this.addresses = addresses;
+      this.failure = failure;
+      done.countDown();
+    }
+
+    InetAddress[] get() throws UnknownHostException {
+      try {
+        done.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new UnknownHostException("Interrupted while resolving");
+      }
+      if (failure instanceof UnknownHostException) {
+        throw new UnknownHostException(failure.getMessage());
+      } else if (failure instanceof Error) {
+        throw (Error) failure;
+      } else if (failure != null) {
+        throw (RuntimeException) failure;
+      }
+      return addresses.clone();
+    }
+  }
+}
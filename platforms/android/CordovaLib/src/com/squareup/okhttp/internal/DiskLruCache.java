@@ -16,7 +16,7 @@
 
 package com.squareup.okhttp.internal;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
 import java.io.EOFException;
 import java.io.File;
@@ -27,19 +27,30 @@ import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
 import java.io.Writer;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 /**
  * A cache that uses a bounded amount of space on a filesystem. Each cache
@@ -79,100 +90,148 @@ import java.util.regex.Pattern;
  * observe the value at the time that {@link #get} was called. Updates and
  * removals after the call do not impact ongoing reads.
  *
+ * <p>This class is safe for concurrent use. Entries are indexed in memory and
+ * guarded by striped locks, so operations on different keys rarely contend.
+ * The journal is appended to by a dedicated thread that flushes queued records
+ * in batches; reads never wait for it. Eviction order is approximately least
+ * recently used.
+ *
  * <p>This class is tolerant of some I/O errors. If files are missing from the
  * filesystem, the corresponding entries will be dropped from the cache. If
  * an error occurs while writing a cache value, the edit will fail silently.
- * Callers should handle other problems by catching {@code IOException} and
- * responding appropriately.
+ * If the journal can't be written, the cache becomes read-only: {@link #edit}
+ * and {@link #remove} throw, and edits already in progress are discarded when
+ * committed, since the journal would not record them. Callers should handle
+ * other problems by catching {@code IOException} and responding appropriately.
  */
 public final class DiskLruCache implements Closeable {
-  static final String JOURNAL_FILE = "journal";
-  static final String JOURNAL_FILE_TEMP = "journal.tmp";
-  static final String JOURNAL_FILE_BACKUP = "journal.bkp";
+  static final String JOURNAL_FILE = "journal.bin";
+  static final String JOURNAL_FILE_TEMP = "journal.bin.tmp";
+  static final String JOURNAL_FILE_BACKUP = "journal.bin.bkp";
+  static final String LEGACY_JOURNAL_FILE = "journal";
+  static final String LEGACY_JOURNAL_FILE_TEMP = "journal.tmp";
+  static final String LEGACY_JOURNAL_FILE_BACKUP = "journal.bkp";
   static final String MAGIC = "libcore.io.DiskLruCache";
   static final String VERSION_1 = "1";
+  static final int BINARY_MAGIC = 0x444c5255; // "DLRU"
+  static final int VERSION_2 = 2;
+  static final int MAX_KEY_LENGTH = 64;
   static final long ANY_SEQUENCE_NUMBER = -1;
   static final Pattern LEGAL_KEY_PATTERN = Pattern.compile("[a-z0-9_-]{1,64}");
   private static final String CLEAN = "CLEAN";
   private static final String DIRTY = "DIRTY";
   private static final String REMOVE = "REMOVE";
   private static final String READ = "READ";
+  private static final byte OP_CLEAN = 1;
+  private static final byte OP_DIRTY = 2;
+  private static final byte OP_REMOVE = 3;
+  private static final byte OP_READ = 4;
+  private static final int HEADER_SIZE = 16;
+  private static final Object REBUILD = new Object();
+  private static final Object CLOSE = new Object();
 
     /*
-     * This cache uses a journal file named "journal". A typical journal file
-     * looks like this:
-     *     libcore.io.DiskLruCache
-     *     1
-     *     100
-     *     2
+     * This cache uses a binary journal file named "journal.bin". It starts
+     * with a 16 byte header of four big-endian ints: the magic number
+     * 0x444c5255, the journal version (2), the application's version, and
+     * the value count.
+     *
+     * The header is followed by fixed-width records, one per cache operation:
+     *     op         1 byte: CLEAN (1), DIRTY (2), REMOVE (3) or READ (4)
+     *     key length 1 byte
+     *     key        64 bytes of ASCII, padded with zeros
+     *     lengths    8 bytes per value. Only meaningful for CLEAN records.
+     *     checksum   4 byte CRC32 of the preceding bytes of the record.
+     *
+     *   o DIRTY records track that an entry is actively being created or
+     *     updated. Every successful DIRTY action should be followed by a CLEAN
+     *     or REMOVE action. DIRTY records without a matching CLEAN or REMOVE
+     *     indicate that temporary files may need to be deleted.
+     *   o CLEAN records track a cache entry that has been successfully
+     *     published and may be read, along with the lengths of its values.
+     *   o READ records track accesses for LRU.
+     *   o REMOVE records track entries that have been deleted.
+     *
+     * Because records are the same size the whole journal is replayed from a
+     * single sequential read when the cache is opened. A checksum mismatch in
+     * the final record means the process died mid-write; that record is
+     * dropped and the journal is rewritten. A mismatch anywhere else means the
+     * journal is corrupt.
      *
+     * The journal file is appended to as cache operations occur. It is
+     * periodically compacted into a snapshot holding one record per live
+     * entry, in LRU order. A temporary file named "journal.bin.tmp" will be
+     * used during compaction; that file should be deleted if it exists when
+     * the cache is opened.
+     *
+     * Earlier versions wrote a text journal named "journal", with a header of
+     * "libcore.io.DiskLruCache", the version "1", the application's version,
+     * the value count and a blank line, followed by lines like these:
      *     CLEAN 3400330d1dfc7f3f7f4b8d4d803dfcf6 832 21054
      *     DIRTY 335c4c6028171cfddfbaae1a9c313c52
-     *     CLEAN 335c4c6028171cfddfbaae1a9c313c52 3934 2342
      *     REMOVE 335c4c6028171cfddfbaae1a9c313c52
-     *     DIRTY 1ab96a171faeeee38496d8b330771a7a
-     *     CLEAN 1ab96a171faeeee38496d8b330771a7a 1600 234
-     *     READ 335c4c6028171cfddfbaae1a9c313c52
      *     READ 3400330d1dfc7f3f7f4b8d4d803dfcf6
-     *
-     * The first five lines of the journal form its header. They are the
-     * constant string "libcore.io.DiskLruCache", the disk cache's version,
-     * the application's version, the value count, and a blank line.
-     *
-     * Each of the subsequent lines in the file is a record of the state of a
-     * cache entry. Each line contains space-separated values: a state, a key,
-     * and optional state-specific values.
-     *   o DIRTY lines track that an entry is actively being created or updated.
-     *     Every successful DIRTY action should be followed by a CLEAN or REMOVE
-     *     action. DIRTY lines without a matching CLEAN or REMOVE indicate that
-     *     temporary files may need to be deleted.
-     *   o CLEAN lines track a cache entry that has been successfully published
-     *     and may be read. A publish line is followed by the lengths of each of
-     *     its values.
-     *   o READ lines track accesses for LRU.
-     *   o REMOVE lines track entries that have been deleted.
-     *
-     * The journal file is appended to as cache operations occur. The journal may
-     * occasionally be compacted by dropping redundant lines. A temporary file named
-     * "journal.tmp" will be used during compaction; that file should be deleted if
-     * it exists when the cache is opened.
+     * When only a text journal is found it is replayed and replaced with a
+     * binary one.
      */
 
+  /** The number of locks that entries are spread across, by key. */
+  private static final int LOCK_STRIPES = 16;
+
   private final File directory;
   private final File journalFile;
   private final File journalFileTmp;
   private final File journalFileBackup;
   private final int appVersion;
-  private long maxSize;
+  private volatile long maxSize;
   private final int valueCount;
-  private long size = 0;
-  private Writer journalWriter;
-  private final LinkedHashMap<String, Entry> lruEntries =
-      new LinkedHashMap<String, Entry>(0, 0.75f, true);
-  private int redundantOpCount;
+  private final int recordSize;
+  private final AtomicLong size = new AtomicLong();
+  private volatile Journal journal;
+  private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+  private final AtomicInteger redundantOpCount = new AtomicInteger();
+
+  /**
+   * Each entry's state is only read or changed while holding the lock that
+   * its key hashes to, so operations on different keys rarely wait for each
+   * other. The map itself is concurrent.
+   */
+  private final Object[] locks = new Object[LOCK_STRIPES];
+
+  /**
+   * Entries record the time of their last access from this clock, and the
+   * least recently accessed are evicted first.
+   */
+  private final AtomicLong accessClock = new AtomicLong();
 
   /**
    * To differentiate between old and current snapshots, each entry is given
    * a sequence number each time an edit is committed. A snapshot is stale if
    * its sequence number is not equal to its entry's sequence number.
    */
-  private long nextSequenceNumber = 0;
+  private final AtomicLong nextSequenceNumber = new AtomicLong();
+
+  /** True while a journal rebuild is queued and hasn't finished yet. */
+  private final AtomicBoolean rebuildPending = new AtomicBoolean();
+
+  private volatile EvictionListener evictionListener;
+
+  /**
+   * Held while trimming, so that a trim which finds the cache within bounds
+   * also waits for a concurrent one to finish notifying its listener.
+   */
+  private final Object trimLock = new Object();
 
   /** This cache uses a single background thread to evict entries. */
   final ThreadPoolExecutor executorService =
       new ThreadPoolExecutor(0, 1, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
   private final Callable<Void> cleanupCallable = new Callable<Void>() {
     public Void call() throws Exception {
-      synchronized (DiskLruCache.this) {
-        if (journalWriter == null) {
-          return null; // Closed.
-        }
-        trimToSize();
-        if (journalRebuildRequired()) {
-          rebuildJournal();
-          redundantOpCount = 0;
-        }
+      if (journal == null) {
+        return null; // Closed.
       }
+      trimToSize();
+      scheduleRebuildIfRequired();
       return null;
     }
   };
@@ -184,7 +243,11 @@ public final class DiskLruCache implements Closeable {
     this.journalFileTmp = new File(directory, JOURNAL_FILE_TEMP);
     this.journalFileBackup = new File(directory, JOURNAL_FILE_BACKUP);
     this.valueCount = valueCount;
+    this.recordSize = 2 + MAX_KEY_LENGTH + 8 * valueCount + 4;
     this.maxSize = maxSize;
+    for (int i = 0; i < locks.length; i++) {
+      locks[i] = new Object();
+    }
   }
 
   /**
@@ -206,25 +269,26 @@ public final class DiskLruCache implements Closeable {
     }
 
     // If a bkp file exists, use it instead.
-    File backupFile = new File(directory, JOURNAL_FILE_BACKUP);
-    if (backupFile.exists()) {
-      File journalFile = new File(directory, JOURNAL_FILE);
-      // If journal file also exists just delete backup file.
-      if (journalFile.exists()) {
-        backupFile.delete();
-      } else {
-        renameTo(backupFile, journalFile, false);
-      }
-    }
+    restoreBackup(directory, JOURNAL_FILE, JOURNAL_FILE_BACKUP);
+    restoreBackup(directory, LEGACY_JOURNAL_FILE, LEGACY_JOURNAL_FILE_BACKUP);
 
     // Prefer to pick up where we left off.
     DiskLruCache cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
-    if (cache.journalFile.exists()) {
+    File legacyJournalFile = new File(directory, LEGACY_JOURNAL_FILE);
+    if (cache.journalFile.exists() || legacyJournalFile.exists()) {
       try {
-        cache.readJournal();
+        boolean rewrite;
+        if (cache.journalFile.exists()) {
+          rewrite = cache.readJournal();
+        } else {
+          cache.readLegacyJournal(legacyJournalFile);
+          rewrite = true;
+        }
         cache.processJournal();
-        cache.journalWriter = new BufferedWriter(
-            new OutputStreamWriter(new FileOutputStream(cache.journalFile, true), Util.US_ASCII));
+        cache.journal = cache.new Journal(rewrite
+            ? cache.rebuildJournal()
+            : new BufferedOutputStream(new FileOutputStream(cache.journalFile, true)));
+        deleteIfExists(legacyJournalFile);
         return cache;
       } catch (IOException journalIsCorrupt) {
         Platform.get().logW("DiskLruCache " + directory + " is corrupt: "
@@ -236,12 +300,137 @@ public final class DiskLruCache implements Closeable {
     // Create a new empty cache.
     directory.mkdirs();
     cache = new DiskLruCache(directory, appVersion, valueCount, maxSize);
-    cache.rebuildJournal();
+    cache.journal = cache.new Journal(cache.rebuildJournal());
     return cache;
   }
 
-  private void readJournal() throws IOException {
-    StrictLineReader reader = new StrictLineReader(new FileInputStream(journalFile), Util.US_ASCII);
+  private static void restoreBackup(File directory, String fileName, String backupFileName)
+      throws IOException {
+    File backupFile = new File(directory, backupFileName);
+    if (backupFile.exists()) {
+      File journalFile = new File(directory, fileName);
+      // If journal file also exists just delete backup file.
+      if (journalFile.exists()) {
+        backupFile.delete();
+      } else {
+        renameTo(backupFile, journalFile, false);
+      }
+    }
+  }
+
+  /**
+   * Replays the binary journal. Returns true if its final record was only
+   * partially written and the journal should be rewritten.
+   */
+  private boolean readJournal() throws IOException {
+    byte[] data;
+    RandomAccessFile file = new RandomAccessFile(journalFile, "r");
+    try {
+      long length = file.length();
+      if (length > Integer.MAX_VALUE) {
+        throw new IOException("journal too large: " + length);
+      }
+      data = new byte[(int) length];
+      file.readFully(data);
+    } finally {
+      Util.closeQuietly(file);
+    }
+
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    if (data.length < HEADER_SIZE) {
+      throw new IOException("unexpected journal length: " + data.length);
+    }
+    int magic = buffer.getInt();
+    int version = buffer.getInt();
+    int appVersionValue = buffer.getInt();
+    int valueCountValue = buffer.getInt();
+    if (magic != BINARY_MAGIC
+        || version != VERSION_2
+        || appVersionValue != appVersion
+        || valueCountValue != valueCount) {
+      throw new IOException("unexpected journal header: [" + Integer.toHexString(magic) + ", "
+          + version + ", " + appVersionValue + ", " + valueCountValue + "]");
+    }
+
+    CRC32 crc = new CRC32();
+    int checksumOffset = recordSize - 4;
+    int recordCount = 0;
+    boolean torn = false;
+    for (int offset = HEADER_SIZE; offset < data.length; offset += recordSize) {
+      boolean last = offset + recordSize >= data.length;
+      if (data.length - offset < recordSize) {
+        torn = true; // The process died while appending this record.
+        break;
+      }
+      crc.reset();
+      crc.update(data, offset, checksumOffset);
+      if ((int) crc.getValue() != buffer.getInt(offset + checksumOffset)) {
+        if (last) {
+          torn = true;
+          break;
+        }
+        throw new IOException("journal checksum mismatch at " + offset);
+      }
+      readJournalRecord(buffer, offset);
+      recordCount++;
+    }
+    redundantOpCount.set(recordCount - entries.size());
+    return torn;
+  }
+
+  private void readJournalRecord(ByteBuffer buffer, int offset) throws IOException {
+    byte[] data = buffer.array();
+    byte op = data[offset];
+    int keyLength = data[offset + 1] & 0xff;
+    if (keyLength == 0 || keyLength > MAX_KEY_LENGTH) {
+      throw new IOException("unexpected journal key length: " + keyLength);
+    }
+    String key = new String(data, offset + 2, keyLength, Util.US_ASCII);
+
+    switch (op) {
+      case OP_CLEAN:
+        Entry clean = replayEntry(key);
+        clean.readable = true;
+        clean.currentEditor = null;
+        int lengthsOffset = offset + 2 + MAX_KEY_LENGTH;
+        for (int i = 0; i < valueCount; i++) {
+          clean.lengths[i] = buffer.getLong(lengthsOffset + 8 * i);
+        }
+        break;
+      case OP_DIRTY:
+        Entry dirty = replayEntry(key);
+        dirty.currentEditor = new Editor(dirty);
+        break;
+      case OP_REMOVE:
+        entries.remove(key);
+        break;
+      case OP_READ:
+        replayEntry(key);
+        break;
+      default:
+        throw new IOException("unexpected journal op: " + op);
+    }
+  }
+
+  /**
+   * Returns the entry for {@code key}, creating it if necessary, and marks it
+   * as the most recently used. Replaying the journal in order reproduces the
+   * LRU order.
+   */
+  private Entry replayEntry(String key) {
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      entry = new Entry(key);
+      entries.put(key, entry);
+    }
+    entry.lastAccess = accessClock.incrementAndGet();
+    return entry;
+  }
+
+  /** Replays a text journal written by an earlier version of this class. */
+  private void readLegacyJournal(File legacyJournalFile) throws IOException {
+    StrictLineReader reader =
+        new StrictLineReader(new FileInputStream(legacyJournalFile), Util.US_ASCII);
     try {
       String magic = reader.readLine();
       String version = reader.readLine();
@@ -260,19 +449,19 @@ public final class DiskLruCache implements Closeable {
       int lineCount = 0;
       while (true) {
         try {
-          readJournalLine(reader.readLine());
+          readLegacyJournalLine(reader.readLine());
           lineCount++;
         } catch (EOFException endOfJournal) {
           break;
         }
       }
-      redundantOpCount = lineCount - lruEntries.size();
+      redundantOpCount.set(lineCount - entries.size());
     } finally {
       Util.closeQuietly(reader);
     }
   }
 
-  private void readJournalLine(String line) throws IOException {
+  private void readLegacyJournalLine(String line) throws IOException {
     int firstSpace = line.indexOf(' ');
     if (firstSpace == -1) {
       throw new IOException("unexpected journal line: " + line);
@@ -284,19 +473,14 @@ public final class DiskLruCache implements Closeable {
     if (secondSpace == -1) {
       key = line.substring(keyBegin);
       if (firstSpace == REMOVE.length() && line.startsWith(REMOVE)) {
-        lruEntries.remove(key);
+        entries.remove(key);
         return;
       }
     } else {
       key = line.substring(keyBegin, secondSpace);
     }
 
-    Entry entry = lruEntries.get(key);
-    if (entry == null) {
-      entry = new Entry(key);
-      lruEntries.put(key, entry);
-    }
-
+    Entry entry = replayEntry(key);
     if (secondSpace != -1 && firstSpace == CLEAN.length() && line.startsWith(CLEAN)) {
       String[] parts = line.substring(secondSpace + 1).split(" ");
       entry.readable = true;
@@ -305,7 +489,7 @@ public final class DiskLruCache implements Closeable {
     } else if (secondSpace == -1 && firstSpace == DIRTY.length() && line.startsWith(DIRTY)) {
       entry.currentEditor = new Editor(entry);
     } else if (secondSpace == -1 && firstSpace == READ.length() && line.startsWith(READ)) {
-      // This work was already done by calling lruEntries.get().
+      // This work was already done by calling replayEntry().
     } else {
       throw new IOException("unexpected journal line: " + line);
     }
@@ -317,11 +501,12 @@ public final class DiskLruCache implements Closeable {
    */
   private void processJournal() throws IOException {
     deleteIfExists(journalFileTmp);
-    for (Iterator<Entry> i = lruEntries.values().iterator(); i.hasNext(); ) {
+    deleteIfExists(new File(directory, LEGACY_JOURNAL_FILE_TEMP));
+    for (Iterator<Entry> i = entries.values().iterator(); i.hasNext(); ) {
       Entry entry = i.next();
       if (entry.currentEditor == null) {
         for (int t = 0; t < valueCount; t++) {
-          size += entry.lengths[t];
+          size.addAndGet(entry.lengths[t]);
         }
       } else {
         entry.currentEditor = null;
@@ -335,36 +520,36 @@ public final class DiskLruCache implements Closeable {
   }
 
   /**
-   * Creates a new journal that omits redundant information. This replaces the
-   * current journal if it exists.
+   * Writes a compacted journal holding one record per live entry, replaces
+   * the current journal with it, and returns a stream that appends to it.
+   * Called when the cache is opened, and afterwards only on the journal
+   * thread.
    */
-  private synchronized void rebuildJournal() throws IOException {
-    if (journalWriter != null) {
-      journalWriter.close();
-    }
-
-    Writer writer = new BufferedWriter(
-        new OutputStreamWriter(new FileOutputStream(journalFileTmp), Util.US_ASCII));
+  private OutputStream rebuildJournal() throws IOException {
+    OutputStream out = new BufferedOutputStream(new FileOutputStream(journalFileTmp));
     try {
-      writer.write(MAGIC);
-      writer.write("\n");
-      writer.write(VERSION_1);
-      writer.write("\n");
-      writer.write(Integer.toString(appVersion));
-      writer.write("\n");
-      writer.write(Integer.toString(valueCount));
-      writer.write("\n");
-      writer.write("\n");
-
-      for (Entry entry : lruEntries.values()) {
-        if (entry.currentEditor != null) {
-          writer.write(DIRTY + ' ' + entry.key + '\n');
-        } else {
-          writer.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      header.putInt(BINARY_MAGIC);
+      header.putInt(VERSION_2);
+      header.putInt(appVersion);
+      header.putInt(valueCount);
+      out.write(header.array());
+
+      // Least recently used first, so that reading the journal restores the LRU order.
+      for (Entry entry : entriesByAccess()) {
+        synchronized (lockFor(entry.key)) {
+          if (entries.get(entry.key) != entry) {
+            continue; // Removed since the list was made.
+          }
+          if (entry.currentEditor != null) {
+            out.write(record(OP_DIRTY, entry.key, null));
+          } else if (entry.readable) {
+            out.write(record(OP_CLEAN, entry.key, entry.lengths));
+          }
         }
       }
     } finally {
-      writer.close();
+      out.close();
     }
 
     if (journalFile.exists()) {
@@ -373,8 +558,28 @@ public final class DiskLruCache implements Closeable {
     renameTo(journalFileTmp, journalFile, false);
     journalFileBackup.delete();
 
-    journalWriter = new BufferedWriter(
-        new OutputStreamWriter(new FileOutputStream(journalFile, true), Util.US_ASCII));
+    return new BufferedOutputStream(new FileOutputStream(journalFile, true));
+  }
+
+  /** Returns a journal record for {@code op} on {@code key}. */
+  private byte[] record(byte op, String key, long[] lengths) {
+    byte[] record = new byte[recordSize];
+    ByteBuffer buffer = ByteBuffer.wrap(record);
+    buffer.put(op);
+    buffer.put((byte) key.length());
+    for (int i = 0, length = key.length(); i < length; i++) {
+      buffer.put((byte) key.charAt(i));
+    }
+    buffer.position(2 + MAX_KEY_LENGTH);
+    if (lengths != null) {
+      for (long length : lengths) {
+        buffer.putLong(length);
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(record, 0, recordSize - 4);
+    buffer.putInt(recordSize - 4, (int) crc.getValue());
+    return record;
   }
 
   private static void deleteIfExists(File file) throws IOException {
@@ -392,50 +597,97 @@ public final class DiskLruCache implements Closeable {
     }
   }
 
+  private Object lockFor(String key) {
+    return locks[(key.hashCode() & 0x7fffffff) % locks.length];
+  }
+
+  /** Returns the entries from least to most recently accessed. */
+  private List<Entry> entriesByAccess() {
+    // Access times change while sorting, so sort on a copy of them.
+    List<Entry> list = new ArrayList<Entry>(entries.values());
+    final Map<Entry, Long> accessTimes = new HashMap<Entry, Long>(list.size() * 2);
+    for (Entry entry : list) {
+      accessTimes.put(entry, entry.lastAccess);
+    }
+    Collections.sort(list, new Comparator<Entry>() {
+      @Override public int compare(Entry a, Entry b) {
+        long aTime = accessTimes.get(a);
+        long bTime = accessTimes.get(b);
+        return aTime < bTime ? -1 : (aTime == bTime ? 0 : 1);
+      }
+    });
+    return list;
+  }
+
   /**
    * Returns a snapshot of the entry named {@code key}, or null if it doesn't
    * exist is not currently readable. If a value is returned, it is moved to
-   * the head of the LRU queue.
+   * the head of the LRU queue. This never waits for the journal to be written.
    */
-  public synchronized Snapshot get(String key) throws IOException {
-    checkNotClosed();
+  public Snapshot get(String key) throws IOException {
+    Journal journal = checkNotClosed();
     validateKey(key);
-    Entry entry = lruEntries.get(key);
+    Entry entry = entries.get(key);
     if (entry == null) {
       return null;
     }
 
-    if (!entry.readable) {
-      return null;
-    }
-
-    // Open all streams eagerly to guarantee that we see a single published
-    // snapshot. If we opened streams lazily then the streams could come
-    // from different edits.
     InputStream[] ins = new InputStream[valueCount];
-    try {
-      for (int i = 0; i < valueCount; i++) {
-        ins[i] = new FileInputStream(entry.getCleanFile(i));
+    long sequenceNumber;
+    long[] lengths;
+    synchronized (lockFor(key)) {
+      if (!entry.readable || entries.get(key) != entry) {
+        return null;
       }
-    } catch (FileNotFoundException e) {
-      // A file must have been deleted manually!
-      for (int i = 0; i < valueCount; i++) {
-        if (ins[i] != null) {
-          Util.closeQuietly(ins[i]);
-        } else {
-          break;
+
+      // Open all streams eagerly to guarantee that we see a single published
+      // snapshot. If we opened streams lazily then the streams could come
+      // from different edits.
+      try {
+        for (int i = 0; i < valueCount; i++) {
+          ins[i] = new FileInputStream(entry.getCleanFile(i));
         }
+      } catch (FileNotFoundException e) {
+        // A file must have been deleted manually!
+        for (int i = 0; i < valueCount; i++) {
+          if (ins[i] != null) {
+            Util.closeQuietly(ins[i]);
+          } else {
+            break;
+          }
+        }
+        return null;
       }
-      return null;
+      sequenceNumber = entry.sequenceNumber;
+      lengths = entry.lengths.clone();
     }
 
-    redundantOpCount++;
-    journalWriter.append(READ + ' ' + key + '\n');
-    if (journalRebuildRequired()) {
-      executorService.submit(cleanupCallable);
+    entry.lastAccess = accessClock.incrementAndGet();
+    redundantOpCount.incrementAndGet();
+    journal.append(record(OP_READ, key, null));
+    scheduleRebuildIfRequired();
+
+    return new Snapshot(key, sequenceNumber, ins, lengths);
+  }
+
+  /**
+   * Moves the entry named {@code key} to the head of the LRU queue as if it
+   * had been read with {@link #get}, without opening its files. Returns false
+   * if the entry doesn't exist or is not currently readable.
+   */
+  public boolean touch(String key) throws IOException {
+    Journal journal = checkNotClosed();
+    validateKey(key);
+    Entry entry = entries.get(key);
+    if (entry == null || !entry.readable) {
+      return false;
     }
 
-    return new Snapshot(key, entry.sequenceNumber, ins, entry.lengths);
+    entry.lastAccess = accessClock.incrementAndGet();
+    redundantOpCount.incrementAndGet();
+    journal.append(record(OP_READ, key, null));
+    scheduleRebuildIfRequired();
+    return true;
   }
 
   /**
@@ -446,27 +698,38 @@ public final class DiskLruCache implements Closeable {
     return edit(key, ANY_SEQUENCE_NUMBER);
   }
 
-  private synchronized Editor edit(String key, long expectedSequenceNumber) throws IOException {
-    checkNotClosed();
+  private Editor edit(String key, long expectedSequenceNumber) throws IOException {
+    Journal journal = checkNotClosed();
     validateKey(key);
-    Entry entry = lruEntries.get(key);
-    if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
-        || entry.sequenceNumber != expectedSequenceNumber)) {
-      return null; // Snapshot is stale.
-    }
-    if (entry == null) {
-      entry = new Entry(key);
-      lruEntries.put(key, entry);
-    } else if (entry.currentEditor != null) {
-      return null; // Another edit is in progress.
-    }
+    checkJournalWritable(journal);
+    Editor editor;
+    long journalPosition;
+    synchronized (lockFor(key)) {
+      Entry entry = entries.get(key);
+      if (expectedSequenceNumber != ANY_SEQUENCE_NUMBER && (entry == null
+          || entry.sequenceNumber != expectedSequenceNumber)) {
+        return null; // Snapshot is stale.
+      }
+      if (entry == null) {
+        entry = new Entry(key);
+        entries.put(key, entry);
+      } else if (entry.currentEditor != null) {
+        return null; // Another edit is in progress.
+      }
+      entry.lastAccess = accessClock.incrementAndGet();
 
-    Editor editor = new Editor(entry);
-    entry.currentEditor = editor;
+      editor = new Editor(entry);
+      entry.currentEditor = editor;
+      journalPosition = journal.append(record(OP_DIRTY, key, null));
+    }
 
     // Flush the journal before creating files to prevent file leaks.
-    journalWriter.write(DIRTY + ' ' + key + '\n');
-    journalWriter.flush();
+    try {
+      journal.awaitFlushed(journalPosition);
+    } catch (IOException e) {
+      editor.abortUnlessCommitted();
+      throw e;
+    }
     return editor;
   }
 
@@ -487,7 +750,7 @@ public final class DiskLruCache implements Closeable {
    * Changes the maximum number of bytes the cache can store and queues a job
    * to trim the existing store, if necessary.
    */
-  public synchronized void setMaxSize(long maxSize) {
+  public void setMaxSize(long maxSize) {
     this.maxSize = maxSize;
     executorService.submit(cleanupCallable);
   }
@@ -497,61 +760,66 @@ public final class DiskLruCache implements Closeable {
    * this cache. This may be greater than the max size if a background
    * deletion is pending.
    */
-  public synchronized long size() {
-    return size;
+  public long size() {
+    return size.get();
   }
 
-  private synchronized void completeEdit(Editor editor, boolean success) throws IOException {
+  private void completeEdit(Editor editor, boolean success) throws IOException {
     Entry entry = editor.entry;
-    if (entry.currentEditor != editor) {
-      throw new IllegalStateException();
+    Journal journal = this.journal;
+    if (success && journal != null && journal.failure() != null) {
+      success = false; // The CLEAN record would be lost, so keep the previous value.
     }
+    synchronized (lockFor(entry.key)) {
+      if (entry.currentEditor != editor) {
+        throw new IllegalStateException();
+      }
 
-    // If this edit is creating the entry for the first time, every index must have a value.
-    if (success && !entry.readable) {
-      for (int i = 0; i < valueCount; i++) {
-        if (!editor.written[i]) {
-          editor.abort();
-          throw new IllegalStateException("Newly created entry didn't create value for index " + i);
-        }
-        if (!entry.getDirtyFile(i).exists()) {
-          editor.abort();
-          return;
+      // If this edit is creating the entry for the first time, every index must have a value.
+      if (success && !entry.readable) {
+        for (int i = 0; i < valueCount; i++) {
+          if (!editor.written[i]) {
+            editor.abort();
+            throw new IllegalStateException("Newly created entry didn't create value for index " + i);
+          }
+          if (!entry.getDirtyFile(i).exists()) {
+            editor.abort();
+            return;
+          }
         }
       }
-    }
 
-    for (int i = 0; i < valueCount; i++) {
-      File dirty = entry.getDirtyFile(i);
-      if (success) {
-        if (dirty.exists()) {
-          File clean = entry.getCleanFile(i);
-          dirty.renameTo(clean);
-          long oldLength = entry.lengths[i];
-          long newLength = clean.length();
-          entry.lengths[i] = newLength;
-          size = size - oldLength + newLength;
+      for (int i = 0; i < valueCount; i++) {
+        File dirty = entry.getDirtyFile(i);
+        if (success) {
+          if (dirty.exists()) {
+            File clean = entry.getCleanFile(i);
+            dirty.renameTo(clean);
+            long oldLength = entry.lengths[i];
+            long newLength = clean.length();
+            entry.lengths[i] = newLength;
+            size.addAndGet(newLength - oldLength);
+          }
+        } else {
+          deleteIfExists(dirty);
         }
-      } else {
-        deleteIfExists(dirty);
       }
-    }
 
-    redundantOpCount++;
-    entry.currentEditor = null;
-    if (entry.readable | success) {
-      entry.readable = true;
-      journalWriter.write(CLEAN + ' ' + entry.key + entry.getLengths() + '\n');
-      if (success) {
-        entry.sequenceNumber = nextSequenceNumber++;
+      redundantOpCount.incrementAndGet();
+      entry.currentEditor = null;
+      if (entry.readable | success) {
+        entry.readable = true;
+        appendToJournal(record(OP_CLEAN, entry.key, entry.lengths));
+        if (success) {
+          entry.sequenceNumber = nextSequenceNumber.getAndIncrement();
+        }
+      } else {
+        entries.remove(entry.key);
+        appendToJournal(record(OP_REMOVE, entry.key, null));
       }
-    } else {
-      lruEntries.remove(entry.key);
-      journalWriter.write(REMOVE + ' ' + entry.key + '\n');
     }
-    journalWriter.flush();
 
-    if (size > maxSize || journalRebuildRequired()) {
+    if (size.get() > maxSize || journalRebuildRequired()) {
       executorService.submit(cleanupCallable);
     }
   }
@@ -562,8 +830,17 @@ public final class DiskLruCache implements Closeable {
    */
   private boolean journalRebuildRequired() {
     final int redundantOpCompactThreshold = 2000;
-    return redundantOpCount >= redundantOpCompactThreshold //
-        && redundantOpCount >= lruEntries.size();
+    int redundantOps = redundantOpCount.get();
+    return redundantOps >= redundantOpCompactThreshold //
+        && redundantOps >= entries.size();
+  }
+
+  /** Queues a rebuild on the journal thread, unless one is already queued. */
+  private void scheduleRebuildIfRequired() {
+    Journal journal = this.journal;
+    if (journal != null && journalRebuildRequired() && rebuildPending.compareAndSet(false, true)) {
+      journal.requestRebuild();
+    }
   }
 
   /**
@@ -572,74 +849,130 @@ public final class DiskLruCache implements Closeable {
    *
    * @return true if an entry was removed.
    */
-  public synchronized boolean remove(String key) throws IOException {
-    checkNotClosed();
+  public boolean remove(String key) throws IOException {
+    Journal journal = checkNotClosed();
     validateKey(key);
-    Entry entry = lruEntries.get(key);
-    if (entry == null || entry.currentEditor != null) {
-      return false;
-    }
-
-    for (int i = 0; i < valueCount; i++) {
-      File file = entry.getCleanFile(i);
-      if (!file.delete()) {
-        throw new IOException("failed to delete " + file);
+    checkJournalWritable(journal);
+    synchronized (lockFor(key)) {
+      Entry entry = entries.get(key);
+      if (entry == null || entry.currentEditor != null) {
+        return false;
       }
-      size -= entry.lengths[i];
-      entry.lengths[i] = 0;
-    }
 
-    redundantOpCount++;
-    journalWriter.append(REMOVE + ' ' + key + '\n');
-    lruEntries.remove(key);
+      for (int i = 0; i < valueCount; i++) {
+        File file = entry.getCleanFile(i);
+        if (!file.delete()) {
+          throw new IOException("failed to delete " + file);
+        }
+        size.addAndGet(-entry.lengths[i]);
+        entry.lengths[i] = 0;
+      }
 
-    if (journalRebuildRequired()) {
-      executorService.submit(cleanupCallable);
+      redundantOpCount.incrementAndGet();
+      journal.append(record(OP_REMOVE, key, null));
+      entries.remove(key);
     }
 
+    scheduleRebuildIfRequired();
     return true;
   }
 
   /** Returns true if this cache has been closed. */
   public boolean isClosed() {
-    return journalWriter == null;
+    return journal == null;
   }
 
-  private void checkNotClosed() {
-    if (journalWriter == null) {
+  private Journal checkNotClosed() {
+    Journal journal = this.journal;
+    if (journal == null) {
       throw new IllegalStateException("cache is closed");
     }
+    return journal;
+  }
+
+  /** Throws if changes can't be recorded because writing the journal failed. */
+  private void checkJournalWritable(Journal journal) throws IOException {
+    IOException failure = journal.failure();
+    if (failure != null) {
+      throw new IOException("cache journal is not writable", failure);
+    }
+  }
+
+  /**
+   * Queues {@code record} for the journal. Records are dropped if the cache
+   * was closed while an edit was completing.
+   */
+  private void appendToJournal(byte[] record) {
+    Journal journal = this.journal;
+    if (journal != null) {
+      journal.append(record);
+    }
   }
 
   /** Force buffered operations to the filesystem. */
   public synchronized void flush() throws IOException {
-    checkNotClosed();
+    Journal journal = checkNotClosed();
     trimToSize();
-    journalWriter.flush();
+    journal.awaitFlushed(journal.position());
   }
 
   /** Closes this cache. Stored values will remain on the filesystem. */
   public synchronized void close() throws IOException {
-    if (journalWriter == null) {
+    Journal journal = this.journal;
+    if (journal == null) {
       return; // Already closed.
     }
-    for (Entry entry : new ArrayList<Entry>(lruEntries.values())) {
-      if (entry.currentEditor != null) {
-        entry.currentEditor.abort();
+    for (Entry entry : new ArrayList<Entry>(entries.values())) {
+      Editor editor;
+      synchronized (lockFor(entry.key)) {
+        editor = entry.currentEditor;
+      }
+      if (editor != null) {
+        try {
+          editor.abort();
+        } catch (IllegalStateException ignored) {
+          // It completed on another thread.
+        }
       }
     }
     trimToSize();
-    journalWriter.close();
-    journalWriter = null;
+    this.journal = null;
+    journal.close();
   }
 
   private void trimToSize() throws IOException {
-    while (size > maxSize) {
-      Map.Entry<String, Entry> toEvict = lruEntries.entrySet().iterator().next();
-      remove(toEvict.getKey());
+    synchronized (trimLock) {
+      Journal journal = this.journal;
+      if (size.get() <= maxSize || (journal != null && journal.failure() != null)) {
+        return;
+      }
+      EvictionListener listener = evictionListener;
+      for (Entry toEvict : entriesByAccess()) {
+        if (size.get() <= maxSize) {
+          break;
+        }
+        if (remove(toEvict.key) && listener != null) {
+          listener.onEvicted(toEvict.key);
+        }
+      }
     }
   }
 
+  /**
+   * Sets the listener that is told about entries dropped to keep the cache
+   * within its maximum size. Entries removed with {@link #remove} are not
+   * reported.
+   */
+  public void setEvictionListener(EvictionListener listener) {
+    this.evictionListener = listener;
+  }
+
+  /** Receives the keys of entries evicted by the cache. */
+  public interface EvictionListener {
+    /** Called on the thread that trimmed the cache, after the entry is gone. */
+    void onEvicted(String key);
+  }
+
   /**
    * Closes the cache and deletes all of its stored values. This will delete
    * all files in the cache directory including files that weren't created by
@@ -730,7 +1063,7 @@ public final class DiskLruCache implements Closeable {
      * or null if no value has been committed.
      */
     public InputStream newInputStream(int index) throws IOException {
-      synchronized (DiskLruCache.this) {
+      synchronized (lockFor(entry.key)) {
         if (entry.currentEditor != this) {
           throw new IllegalStateException();
         }
@@ -762,7 +1095,7 @@ public final class DiskLruCache implements Closeable {
      * IOExceptions.
      */
     public OutputStream newOutputStream(int index) throws IOException {
-      synchronized (DiskLruCache.this) {
+      synchronized (lockFor(entry.key)) {
         if (entry.currentEditor != this) {
           throw new IllegalStateException();
         }
@@ -868,6 +1201,145 @@ public final class DiskLruCache implements Closeable {
     }
   }
 
+  /**
+   * Appends records to the journal file on a dedicated thread. Records that
+   * are queued while the thread is writing are written and flushed together,
+   * so a burst of operations costs one flush. Only {@link #edit} waits for its
+   * record to reach the file; everything else returns immediately.
+   */
+  private final class Journal implements Runnable {
+    private final LinkedBlockingQueue<Object> queue = new LinkedBlockingQueue<Object>();
+    private final Thread thread;
+
+    /** Written only by the journal thread. */
+    private OutputStream out;
+
+    // Guarded by this. Positions count the items that have been queued.
+    private long appended;
+    private long flushed;
+    private boolean closing;
+    private boolean done;
+    private IOException failure;
+
+    private Journal(OutputStream out) {
+      this.out = out;
+      this.thread = new Thread(this, "OkHttp DiskLruCache " + directory);
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    /** Queues {@code record} and returns its position in the journal. */
+    synchronized long append(byte[] record) {
+      if (closing) {
+        return appended;
+      }
+      queue.add(record);
+      return ++appended;
+    }
+
+    /** Returns the error that stopped the journal thread, or null if it is still writing. */
+    synchronized IOException failure() {
+      return failure;
+    }
+
+    /** Returns the position of the most recently queued record. */
+    synchronized long position() {
+      return appended;
+    }
+
+    /**
+     * Queues a compaction of the journal. Records queued afterwards are appended
+     * to the compacted journal.
+     */
+    synchronized void requestRebuild() {
+      if (closing) {
+        return;
+      }
+      queue.add(REBUILD);
+      appended++;
+    }
+
+    /** Waits until every record up to {@code position} has been flushed. */
+    synchronized void awaitFlushed(long position) throws IOException {
+      boolean interrupted = false;
+      while (flushed < position && !done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (failure != null) {
+        throw failure;
+      }
+    }
+
+    /** Writes the queued records, closes the journal file and stops the thread. */
+    void close() throws IOException {
+      synchronized (this) {
+        if (closing) {
+          return;
+        }
+        closing = true;
+        queue.add(CLOSE);
+        appended++;
+      }
+      awaitFlushed(Long.MAX_VALUE);
+    }
+
+    @Override public void run() {
+      List<Object> batch = new ArrayList<Object>();
+      try {
+        while (true) {
+          batch.add(queue.take());
+          queue.drainTo(batch);
+          boolean close = false;
+          for (Object item : batch) {
+            if (item == REBUILD) {
+              out.close();
+              out = rebuildJournal();
+              redundantOpCount.set(0);
+              rebuildPending.set(false);
+            } else if (item == CLOSE) {
+              close = true;
+            } else {
+              out.write((byte[]) item);
+            }
+          }
+          out.flush();
+          synchronized (this) {
+            flushed += batch.size();
+            notifyAll();
+          }
+          batch.clear();
+          if (close) {
+            return;
+          }
+        }
+      } catch (IOException e) {
+        Platform.get().logW("DiskLruCache " + directory + " failed to write journal: " + e);
+        synchronized (this) {
+          failure = e;
+        }
+      } catch (InterruptedException e) {
+        synchronized (this) {
+          failure = new InterruptedIOException("journal thread interrupted");
+        }
+        Thread.currentThread().interrupt();
+      } finally {
+        Util.closeQuietly(out);
+        synchronized (this) {
+          closing = true;
+          done = true;
+          notifyAll();
+        }
+      }
+    }
+  }
+
   private final class Entry {
     private final String key;
 
@@ -883,19 +1355,14 @@ public final class DiskLruCache implements Closeable {
     /** The sequence number of the most recently committed edit to this entry. */
     private long sequenceNumber;
 
+    /** When this entry was last read or edited, from the cache's access clock. */
+    private volatile long lastAccess;
+
     private Entry(String key) {
       this.key = key;
       this.lengths = new long[valueCount];
     }
 
-    public String getLengths() throws IOException {
-      StringBuilder result = new StringBuilder();
-      for (long size : lengths) {
-        result.append(' ').append(size);
-      }
-      return result.toString();
-    }
-
     /** Set lengths using decimal numbers like "10123". */
     private void setLengths(String[] strings) throws IOException {
       if (strings.length != valueCount) {
@@ -0,0 +1,138 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal;
+
+import java.util.Locale;
+
+/**
+ * Canonical instances of well-known header field names. Headers read from the
+ * network or the cache share these instances instead of each holding its own
+ * copy, and a name can be matched straight from the bytes it was read from,
+ * without decoding it first.
+ *
+ * <p>Both the conventional capitalization (like "Content-Type") and the lower
+ * case form used by SPDY (like "content-type") are recognized.
+ */
+public final class HeaderNames {
+  private static final String[] NAMES = {
+      ":host", ":method", ":path", ":scheme", ":status", ":version",
+      "Accept", "Accept-Charset", "Accept-Encoding", "Accept-Language", "Accept-Ranges",
+      "Access-Control-Allow-Origin", "Age", "Allow", "Authorization", "Cache-Control",
+      "Connection", "Content-Disposition", "Content-Encoding", "Content-Language",
+      "Content-Length", "Content-Location", "Content-Range", "Content-Type", "Cookie", "Date",
+      "ETag", "Expect", "Expires", "Host", "If-Match", "If-Modified-Since", "If-None-Match",
+      "If-Range", "If-Unmodified-Since", "Keep-Alive", "Last-Modified", "Link", "Location",
+      "P3P", "Pragma", "Proxy-Authenticate", "Proxy-Authorization", "Proxy-Connection",
+      "Range", "Referer", "Refresh", "Retry-After", "Server", "Set-Cookie", "Set-Cookie2",
+      "Strict-Transport-Security", "TE", "Trailer", "Transfer-Encoding", "Upgrade",
+      "User-Agent", "Vary", "Via", "WWW-Authenticate", "Warning", "X-Android-Received-Millis",
+      "X-Android-Response-Source", "X-Android-Sent-Millis", "X-Content-Type-Options",
+      "X-Frame-Options", "X-Powered-By", "X-XSS-Protection"
+  };
+
+  /** Open-addressed by {@link String#hashCode}. Empty slots are null. */
+  private static final String[] TABLE = new String[512];
+
+  /** The lower case form of the name in the same slot of {@link #TABLE}. */
+  private static final String[] LOWER_CASE = new String[TABLE.length];
+
+  static {
+    for (String name : NAMES) {
+      String lowerCase = name.toLowerCase(Locale.US);
+      put(name, lowerCase);
+      if (!lowerCase.equals(name)) {
+        put(lowerCase, lowerCase);
+      }
+    }
+  }
+
+  private HeaderNames() {
+  }
+
+  private static void put(String name, String lowerCase) {
+    int mask = TABLE.length - 1;
+    int i = name.hashCode() & mask;
+    while (TABLE[i] != null) {
+      i = (i + 1) & mask;
+    }
+    TABLE[i] = name;
+    LOWER_CASE[i] = lowerCase;
+  }
+
+  /** Returns the slot holding {@code name}, or -1 if it isn't well known. */
+  private static int slot(String name) {
+    int mask = TABLE.length - 1;
+    for (int i = name.hashCode() & mask; TABLE[i] != null; i = (i + 1) & mask) {
+      if (TABLE[i].equals(name)) return i;
+    }
+    return -1;
+  }
+
+  /** Returns the canonical instance equal to {@code name}, or {@code name} itself. */
+  public static String intern(String name) {
+    int slot = slot(name);
+    return slot != -1 ? TABLE[slot] : name;
+  }
+
+  /**
+   * Returns the canonical instance whose characters are the {@code length}
+   * bytes at {@code offset}, or null if those bytes aren't a well-known name.
+   */
+  public static String intern(byte[] bytes, int offset, int length) {
+    int hash = 0;
+    for (int i = offset, end = offset + length; i < end; i++) {
+      hash = 31 * hash + (bytes[i] & 0xff);
+    }
+    int mask = TABLE.length - 1;
+    for (int i = hash & mask; TABLE[i] != null; i = (i + 1) & mask) {
+      if (regionMatches(TABLE[i], bytes, offset, length)) return TABLE[i];
+    }
+    return null;
+  }
+
+  private static boolean regionMatches(String name, byte[] bytes, int offset, int length) {
+    if (name.length() != length) return false;
+    for (int i = 0; i < length; i++) {
+      if (name.charAt(i) != (bytes[offset + i] & 0xff)) return false;
+    }
+    return true;
+  }
+
+  /** Returns {@code name} in lower case, allocating only if it isn't well known. */
+  public static String toLowerCase(String name) {
+    int slot = slot(name);
+    return slot != -1 ? LOWER_CASE[slot] : name.toLowerCase(Locale.US);
+  }
+
+  /**
+   * Returns a hash of {@code name} that is the same for any two names that
+   * are {@link String#equalsIgnoreCase equal ignoring case}.
+   */
+  public static int hashIgnoreCase(String name) {
+    int hash = 0;
+    for (int i = 0, length = name.length(); i < length; i++) {
+      char c = name.charAt(i);
+      if (c >= 'A' && c <= 'Z') {
+        c += 'a' - 'A';
+      } else if (c >= 0x80) {
+        c = Character.toLowerCase(Character.toUpperCase(c));
+      }
+      hash = 31 * hash + c;
+    }
+    return hash;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal.http;
+
+import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.internal.NamedRunnable;
+import com.squareup.okhttp.internal.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Refreshes cached responses that were served stale under {@code
+ * stale-while-revalidate}. The refresh is a conditional request with {@code
+ * max-age=0}, so the cache is updated either by a 304 or by a full response.
+ *
+ * <p>At most {@link #MAX_CONCURRENT} refreshes run at once and a few more may
+ * wait. A refresh is dropped if the same URL is already being refreshed or if
+ * too many are waiting; the next stale hit will try again.
+ */
+final class BackgroundRevalidator {
+  static final int MAX_CONCURRENT = 2;
+  private static final int MAX_WAITING = 16;
+
+  private static final ExecutorService executor = new ThreadPoolExecutor(MAX_CONCURRENT,
+      MAX_CONCURRENT, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(MAX_WAITING));
+  static {
+    ((ThreadPoolExecutor) executor).allowCoreThreadTimeOut(true);
+  }
+
+  /** URLs being refreshed or waiting to be. Guarded by itself. */
+  private static final Set<String> pending = new HashSet<String>();
+
+  private BackgroundRevalidator() {
+  }
+
+  /**
+   * Schedules a refresh of {@code url}, sending {@code requestHeaders} so that
+   * the response varies the same way as the one that was served.
+   */
+  static void revalidate(final OkHttpClient client, final URL url,
+      final RawHeaders requestHeaders) {
+    final String key = url.toString();
+    synchronized (pending) {
+      if (!pending.add(key)) {
+        return;
+      }
+    }
+    try {
+      executor.execute(new NamedRunnable("OkHttp revalidate " + key) {
+        @Override protected void execute() {
+          HttpURLConnection connection = null;
+          try {
+            connection = client.open(url);
+            for (int i = 0; i < requestHeaders.length(); i++) {
+              connection.addRequestProperty(requestHeaders.getFieldName(i),
+                  requestHeaders.getValue(i));
+            }
+            connection.setRequestProperty("Cache-Control", "max-age=0");
+            InputStream in = connection.getInputStream();
+            // Read to the end so that a full response is committed to the cache.
+            Util.skipAll(in);
+            in.close();
+          } catch (IOException ignored) {
+            // The stale response stays cached until it expires or is replaced.
+          } finally {
+            if (connection != null) {
+              connection.disconnect();
+            }
+            synchronized (pending) {
+              pending.remove(key);
+            }
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      synchronized (pending) {
+        pending.remove(key);
+      }
+    }
+  }
+}
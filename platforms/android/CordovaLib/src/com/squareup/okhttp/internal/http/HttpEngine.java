@@ -21,7 +21,6 @@ import com.squareup.okhttp.Address;
 import com.squareup.okhttp.Connection;
 import com.squareup.okhttp.ResponseSource;
 import com.squareup.okhttp.TunnelRequest;
-import com.squareup.okhttp.internal.Dns;
 import com.squareup.okhttp.internal.Platform;
 import com.squareup.okhttp.internal.Util;
 import java.io.ByteArrayInputStream;
@@ -234,6 +233,9 @@ public class HttpEngine {
     if (responseSource == ResponseSource.CACHE) {
       this.cacheResponse = candidate;
       setResponse(cachedResponseHeaders, cachedResponseBody);
+      if (cachedResponseHeaders.isBackgroundRevalidationRequired()) {
+        policy.revalidateInBackground();
+      }
     } else if (responseSource == ResponseSource.CONDITIONAL_CACHE) {
       this.cacheResponse = candidate;
     } else if (responseSource == ResponseSource.NETWORK) {
@@ -280,13 +282,18 @@ public class HttpEngine {
       Address address = new Address(uriHost, getEffectivePort(uri), sslSocketFactory,
           hostnameVerifier, policy.requestedProxy);
       routeSelector = new RouteSelector(address, uri, policy.proxySelector, policy.connectionPool,
-          Dns.DEFAULT, policy.getFailedRoutes());
+          policy.dns, policy.getFailedRoutes());
     }
-    connection = routeSelector.next();
-    if (!connection.isConnected()) {
-      connection.connect(policy.getConnectTimeout(), policy.getReadTimeout(), getTunnelConfig());
-      policy.connectionPool.maybeShare(connection);
-      policy.getFailedRoutes().remove(connection.getRoute());
+    if (policy.routeRacing) {
+      connection = routeSelector.nextConnected(policy.getConnectTimeout(), policy.getReadTimeout(),
+          getTunnelConfig());
+    } else {
+      connection = routeSelector.next();
+      if (!connection.isConnected()) {
+        connection.connect(policy.getConnectTimeout(), policy.getReadTimeout(), getTunnelConfig());
+        policy.connectionPool.maybeShare(connection);
+        policy.getFailedRoutes().remove(connection.getRoute());
+      }
     }
     connected(connection);
     if (connection.getRoute().getProxy() != policy.requestedProxy) {
@@ -639,6 +646,10 @@ public class HttpEngine {
         policy.responseCache.trackConditionalCacheHit();
         policy.responseCache.update(cacheResponse, policy.getHttpConnectionToCache());
         return;
+      } else if (responseHeaders.getHeaders().getResponseCode() >= 500
+          && cachedResponseHeaders.isStaleIfErrorAllowed(System.currentTimeMillis())) {
+        useStaleCachedResponse();
+        return;
       } else {
         Util.closeQuietly(cachedResponseBody);
       }
@@ -651,6 +662,36 @@ public class HttpEngine {
     initContentStream(transport.getTransferStream(cacheRequest));
   }
 
+  /**
+   * Replaces a failed conditional request with the cached response, if that
+   * response's {@code stale-if-error} directive permits it. Returns true if
+   * the cached response will be used.
+   */
+  public final boolean recoverWithStaleCachedResponse() throws IOException {
+    if (responseSource != ResponseSource.CONDITIONAL_CACHE
+        || responseBodyIn != null
+        || !cachedResponseHeaders.isStaleIfErrorAllowed(System.currentTimeMillis())) {
+      return false;
+    }
+    useStaleCachedResponse();
+    return true;
+  }
+
+  /** Abandons the network exchange in favor of the stale cached response. */
+  private void useStaleCachedResponse() throws IOException {
+    if (connection != null) {
+      Util.closeQuietly(connection);
+      connection = null;
+      connectionReleased = true;
+    }
+    responseSource = ResponseSource.CACHE;
+    cachedResponseHeaders.getHeaders()
+        .add("Warning", "111 HttpURLConnection \"Revalidation failed\"");
+    cachedResponseHeaders.setResponseSource(responseSource);
+    setResponse(cachedResponseHeaders, cachedResponseBody);
+    policy.responseCache.trackConditionalCacheHit();
+  }
+
   protected TunnelRequest getTunnelConfig() {
     return null;
   }
@@ -22,6 +22,7 @@ import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.OkHttpClient;
 import com.squareup.okhttp.Route;
 import com.squareup.okhttp.internal.AbstractOutputStream;
+import com.squareup.okhttp.internal.Dns;
 import com.squareup.okhttp.internal.FaultRecoveringOutputStream;
 import com.squareup.okhttp.internal.Util;
 import java.io.FileNotFoundException;
@@ -80,6 +81,10 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
    */
   private static final int MAX_REPLAY_BUFFER_LENGTH = 8192;
 
+  /** The SPDY priority of requests that don't set one: the highest. */
+  static final int DEFAULT_PRIORITY = 0;
+
+  private final OkHttpClient client;
   private final boolean followProtocolRedirects;
 
   /** The proxy requested by the client, or null for a proxy to be selected automatically. */
@@ -89,6 +94,8 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
   final CookieHandler cookieHandler;
   final OkResponseCache responseCache;
   final ConnectionPool connectionPool;
+  final Dns dns;
+  final boolean routeRacing;
   /* SSL configuration; necessary for HTTP requests that get redirected to HTTPS. */
   SSLSocketFactory sslSocketFactory;
   HostnameVerifier hostnameVerifier;
@@ -98,6 +105,7 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
 
   private int redirectionCount;
   private FaultRecoveringOutputStream faultRecoveringRequestBody;
+  private int priority = DEFAULT_PRIORITY;
 
   protected IOException httpEngineFailure;
   protected HttpEngine httpEngine;
@@ -105,12 +113,15 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
   public HttpURLConnectionImpl(URL url, OkHttpClient client, OkResponseCache responseCache,
       Set<Route> failedRoutes) {
     super(url);
+    this.client = client;
     this.followProtocolRedirects = client.getFollowProtocolRedirects();
     this.failedRoutes = failedRoutes;
     this.requestedProxy = client.getProxy();
     this.proxySelector = client.getProxySelector();
     this.cookieHandler = client.getCookieHandler();
     this.connectionPool = client.getConnectionPool();
+    this.dns = client.getDns();
+    this.routeRacing = client.getRouteRacing();
     this.sslSocketFactory = client.getSslSocketFactory();
     this.hostnameVerifier = client.getHostnameVerifier();
     this.responseCache = responseCache;
@@ -120,6 +131,14 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
     return failedRoutes;
   }
 
+  /**
+   * Refreshes this connection's URL in the background after a stale cached
+   * response was served for it.
+   */
+  void revalidateInBackground() {
+    BackgroundRevalidator.revalidate(client, url, new RawHeaders(rawRequestHeaders));
+  }
+
   @Override public final void connect() throws IOException {
     initHttpEngine();
     boolean success;
@@ -388,6 +407,9 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
     } catch (IOException e) {
       if (handleFailure(e)) {
         return false;
+      } else if (httpEngine.recoverWithStaleCachedResponse()) {
+        httpEngineFailure = null;
+        return true;
       } else {
         throw e;
       }
@@ -443,6 +465,26 @@ public class HttpURLConnectionImpl extends HttpURLConnection {
     return httpEngine;
   }
 
+  /**
+   * Sets the priority of this request when it is carried on a SPDY connection,
+   * from 0 (highest, the default) to 7 (lowest). The data of higher priority
+   * streams on the same connection is written first, so a bulk upload given a
+   * low priority doesn't hold up other requests. Ignored for HTTP/1.x.
+   */
+  public final void setPriority(int priority) {
+    if (connected) {
+      throw new IllegalStateException("Cannot set priority after connection is made");
+    }
+    if (priority < 0 || priority > 7) {
+      throw new IllegalArgumentException("priority < 0 || priority > 7: " + priority);
+    }
+    this.priority = priority;
+  }
+
+  public final int getPriority() {
+    return priority;
+  }
+
   enum Retry {
     NONE,
     SAME_CONNECTION,
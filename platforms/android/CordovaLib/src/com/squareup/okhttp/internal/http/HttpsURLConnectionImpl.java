@@ -385,6 +385,15 @@ public final class HttpsURLConnectionImpl extends HttpsURLConnection {
     delegate.setChunkedStreamingMode(chunkLength);
   }
 
+  /** See {@link HttpURLConnectionImpl#setPriority}. */
+  public void setPriority(int priority) {
+    delegate.setPriority(priority);
+  }
+
+  public int getPriority() {
+    return delegate.getPriority();
+  }
+
   @Override public void setHostnameVerifier(HostnameVerifier hostnameVerifier) {
     delegate.hostnameVerifier = hostnameVerifier;
   }
@@ -17,7 +17,9 @@
 
 package com.squareup.okhttp.internal.http;
 
+import com.squareup.okhttp.internal.HeaderNames;
 import com.squareup.okhttp.internal.Util;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
@@ -25,9 +27,8 @@ import java.net.ProtocolException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashSet;
+import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
@@ -48,6 +49,10 @@ import java.util.TreeMap;
  *
  * <p>This class trims whitespace from values. It never returns values with
  * leading or trailing whitespace.
+ *
+ * <p>Well-known field names are shared {@link HeaderNames canonical instances}.
+ * Headers with many fields build a case-insensitive index on their first
+ * lookup, and {@link #toMultimap} is computed once until the headers change.
  */
 public final class RawHeaders {
   private static final Comparator<String> FIELD_NAME_COMPARATOR = new Comparator<String>() {
@@ -65,6 +70,9 @@ public final class RawHeaders {
     }
   };
 
+  /** Headers with fewer fields than this are searched linearly. */
+  private static final int INDEX_THRESHOLD = 8;
+
   private final List<String> namesAndValues = new ArrayList<String>(20);
   private String requestLine;
   private String statusLine;
@@ -72,6 +80,20 @@ public final class RawHeaders {
   private int responseCode = -1;
   private String responseMessage;
 
+  /*
+   * Derived from the fields above and discarded whenever they change. These
+   * are built lazily and published whole, so instances that are no longer
+   * modified may be read by several threads.
+   */
+
+  /**
+   * Open-addressed by {@link HeaderNames#hashIgnoreCase}. Each slot holds one
+   * more than the index of the last field with its name, or 0 if empty.
+   */
+  private volatile int[] index;
+  private volatile Map<String, List<String>> requestMultimap;
+  private volatile Map<String, List<String>> responseMultimap;
+
   public RawHeaders() {
   }
 
@@ -88,6 +110,7 @@ public final class RawHeaders {
   public void setRequestLine(String requestLine) {
     requestLine = requestLine.trim();
     this.requestLine = requestLine;
+    changed();
   }
 
   /** Sets the response status line (like "HTTP/1.0 200 OK"). */
@@ -120,6 +143,7 @@ public final class RawHeaders {
     this.responseCode = responseCode;
     this.statusLine = statusLine;
     this.httpMinorVersion = httpMinorVersion;
+    changed();
   }
 
   public void computeResponseStatusLineFromSpdyHeaders() throws IOException {
@@ -206,19 +230,30 @@ public final class RawHeaders {
    * appropriate for headers from the remote peer.
    */
   private void addLenient(String fieldName, String value) {
-    namesAndValues.add(fieldName);
+    namesAndValues.add(HeaderNames.intern(fieldName));
     namesAndValues.add(value.trim());
+    changed();
   }
 
   public void removeAll(String fieldName) {
-    for (int i = 0; i < namesAndValues.size(); i += 2) {
+    for (int i = 0; i < namesAndValues.size(); ) {
       if (fieldName.equalsIgnoreCase(namesAndValues.get(i))) {
         namesAndValues.remove(i); // field name
         namesAndValues.remove(i); // value
+        changed();
+      } else {
+        i += 2;
       }
     }
   }
 
+  /** Discards everything derived from this instance's fields. */
+  private void changed() {
+    index = null;
+    requestMultimap = null;
+    responseMultimap = null;
+  }
+
   public void addAll(String fieldName, List<String> headerFields) {
     for (String value : headerFields) {
       add(fieldName, value);
@@ -259,14 +294,46 @@ public final class RawHeaders {
 
   /** Returns the last value corresponding to the specified field, or null. */
   public String get(String fieldName) {
-    for (int i = namesAndValues.size() - 2; i >= 0; i -= 2) {
-      if (fieldName.equalsIgnoreCase(namesAndValues.get(i))) {
-        return namesAndValues.get(i + 1);
+    if (namesAndValues.size() < INDEX_THRESHOLD * 2) {
+      for (int i = namesAndValues.size() - 2; i >= 0; i -= 2) {
+        if (fieldName.equalsIgnoreCase(namesAndValues.get(i))) {
+          return namesAndValues.get(i + 1);
+        }
+      }
+      return null;
+    }
+
+    int[] index = this.index;
+    if (index == null) {
+      index = buildIndex();
+      this.index = index;
+    }
+    int mask = index.length - 1;
+    for (int i = HeaderNames.hashIgnoreCase(fieldName) & mask; index[i] != 0; i = (i + 1) & mask) {
+      int nameIndex = (index[i] - 1) * 2;
+      if (fieldName.equalsIgnoreCase(namesAndValues.get(nameIndex))) {
+        return namesAndValues.get(nameIndex + 1);
       }
     }
     return null;
   }
 
+  private int[] buildIndex() {
+    int fieldCount = namesAndValues.size() / 2;
+    int[] result = new int[Integer.highestOneBit(fieldCount) * 4];
+    int mask = result.length - 1;
+    for (int field = 0; field < fieldCount; field++) {
+      String name = namesAndValues.get(field * 2);
+      int i = HeaderNames.hashIgnoreCase(name) & mask;
+      // Later fields replace earlier ones with the same name.
+      while (result[i] != 0 && !name.equalsIgnoreCase(namesAndValues.get((result[i] - 1) * 2))) {
+        i = (i + 1) & mask;
+      }
+      result[i] = field + 1;
+    }
+    return result;
+  }
+
   /** @param fieldNames a case-insensitive set of HTTP header field names. */
   public RawHeaders getAll(Set<String> fieldNames) {
     RawHeaders result = new RawHeaders();
@@ -281,35 +348,139 @@ public final class RawHeaders {
 
   /** Returns bytes of a request header for sending on an HTTP transport. */
   public byte[] toBytes() throws UnsupportedEncodingException {
-    StringBuilder result = new StringBuilder(256);
-    result.append(requestLine).append("\r\n");
+    String requestLine = String.valueOf(this.requestLine);
+    int byteCount = requestLine.length() + 4; // Request line, "\r\n" and the final "\r\n".
+    for (int i = 0; i < namesAndValues.size(); i++) {
+      byteCount += namesAndValues.get(i).length() + 2; // ": " or "\r\n".
+    }
+
+    byte[] result = new byte[byteCount];
+    int pos = writeLatin1(requestLine, result, 0);
+    result[pos++] = '\r';
+    result[pos++] = '\n';
     for (int i = 0; i < namesAndValues.size(); i += 2) {
-      result.append(namesAndValues.get(i))
-          .append(": ")
-          .append(namesAndValues.get(i + 1))
-          .append("\r\n");
+      pos = writeLatin1(namesAndValues.get(i), result, pos);
+      result[pos++] = ':';
+      result[pos++] = ' ';
+      pos = writeLatin1(namesAndValues.get(i + 1), result, pos);
+      result[pos++] = '\r';
+      result[pos++] = '\n';
     }
-    result.append("\r\n");
-    return result.toString().getBytes("ISO-8859-1");
+    result[pos++] = '\r';
+    result[pos] = '\n';
+    return result;
+  }
+
+  /**
+   * Encodes {@code s} as ISO-8859-1 into {@code out} at {@code pos}, and
+   * returns the position after it. Unmappable characters become '?'.
+   */
+  private static int writeLatin1(String s, byte[] out, int pos) {
+    for (int i = 0, length = s.length(); i < length; i++) {
+      char c = s.charAt(i);
+      out[pos++] = (byte) (c <= 0xff ? c : '?');
+    }
+    return pos;
   }
 
   /** Parses bytes of a response header from an HTTP transport. */
   public static RawHeaders fromBytes(InputStream in) throws IOException {
+    LineReader reader = new LineReader(in);
     RawHeaders headers;
     do {
       headers = new RawHeaders();
-      headers.setStatusLine(Util.readAsciiLine(in));
-      readHeaders(in, headers);
+      reader.readLine();
+      headers.setStatusLine(reader.lineToString(0, reader.length));
+      readHeaders(reader, headers);
     } while (headers.getResponseCode() == HttpEngine.HTTP_CONTINUE);
     return headers;
   }
 
   /** Reads headers or trailers into {@code out}. */
   public static void readHeaders(InputStream in, RawHeaders out) throws IOException {
-    // parse the result headers until the first blank line
-    String line;
-    while ((line = Util.readAsciiLine(in)).length() != 0) {
-      out.addLine(line);
+    readHeaders(new LineReader(in), out);
+  }
+
+  /**
+   * Reads header lines into {@code out} until the first blank line. Names and
+   * values are decoded straight from the line's bytes, and well-known names
+   * aren't decoded at all.
+   */
+  private static void readHeaders(LineReader reader, RawHeaders out) throws IOException {
+    while (reader.readLine() != 0) {
+      byte[] line = reader.buffer;
+      int length = reader.length;
+      int colon = 0;
+      while (colon < length && line[colon] != ':') {
+        colon++;
+      }
+      String name;
+      int valueStart;
+      if (colon == length) {
+        name = "";
+        valueStart = 0;
+      } else {
+        name = HeaderNames.intern(line, 0, colon);
+        if (name == null) {
+          name = reader.lineToString(0, colon);
+        }
+        valueStart = colon + 1;
+      }
+
+      // Trim the value like String.trim() does.
+      int valueEnd = length;
+      while (valueStart < valueEnd && (line[valueStart] & 0xff) <= ' ') {
+        valueStart++;
+      }
+      while (valueEnd > valueStart && (line[valueEnd - 1] & 0xff) <= ' ') {
+        valueEnd--;
+      }
+      out.namesAndValues.add(name);
+      out.namesAndValues.add(reader.lineToString(valueStart, valueEnd - valueStart));
+    }
+    out.changed();
+  }
+
+  /**
+   * Reads lines terminated by "\n" or "\r\n" into a buffer that is reused
+   * from one line to the next. Like {@link Util#readAsciiLine}, each byte is
+   * one character.
+   */
+  private static final class LineReader {
+    private final InputStream in;
+    byte[] buffer = new byte[256];
+    int length;
+
+    LineReader(InputStream in) {
+      this.in = in;
+    }
+
+    /** Reads the next line and returns its length, excluding the terminator. */
+    int readLine() throws IOException {
+      int length = 0;
+      while (true) {
+        int c = in.read();
+        if (c == -1) {
+          throw new EOFException();
+        } else if (c == '\n') {
+          break;
+        }
+        if (length == buffer.length) {
+          byte[] larger = new byte[buffer.length * 2];
+          System.arraycopy(buffer, 0, larger, 0, length);
+          buffer = larger;
+        }
+        buffer[length++] = (byte) c;
+      }
+      if (length > 0 && buffer[length - 1] == '\r') {
+        length--;
+      }
+      this.length = length;
+      return length;
+    }
+
+    String lineToString(int offset, int count) {
+      return new String(buffer, offset, count, Util.ISO_8859_1);
     }
   }
 
@@ -318,25 +489,39 @@ public final class RawHeaders {
    * status line is mapped to null.
    */
   public Map<String, List<String>> toMultimap(boolean response) {
+    Map<String, List<String>> result = response ? responseMultimap : requestMultimap;
+    if (result == null) {
+      // Callers share the cached map, so it must never be handed out mutable.
+      result = Collections.unmodifiableMap(buildMultimap(response));
+      if (response) {
+        responseMultimap = result;
+      } else {
+        requestMultimap = result;
+      }
+    }
+    return result;
+  }
+
+  private Map<String, List<String>> buildMultimap(boolean response) {
     Map<String, List<String>> result = new TreeMap<String, List<String>>(FIELD_NAME_COMPARATOR);
     for (int i = 0; i < namesAndValues.size(); i += 2) {
       String fieldName = namesAndValues.get(i);
-      String value = namesAndValues.get(i + 1);
-
-      List<String> allValues = new ArrayList<String>();
-      List<String> otherValues = result.get(fieldName);
-      if (otherValues != null) {
-        allValues.addAll(otherValues);
+      List<String> values = result.get(fieldName);
+      if (values == null) {
+        values = new ArrayList<String>(1);
+        result.put(fieldName, values);
       }
-      allValues.add(value);
-      result.put(fieldName, Collections.unmodifiableList(allValues));
+      values.add(namesAndValues.get(i + 1));
+    }
+    for (Entry<String, List<String>> entry : result.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
     }
     if (response && statusLine != null) {
       result.put(null, Collections.unmodifiableList(Collections.singletonList(statusLine)));
     } else if (requestLine != null) {
       result.put(null, Collections.unmodifiableList(Collections.singletonList(requestLine)));
     }
-    return Collections.unmodifiableMap(result);
+    return result;
   }
 
   /**
@@ -368,10 +553,10 @@ public final class RawHeaders {
    * concatenated using "\0" as a delimiter.
    */
   public List<String> toNameValueBlock() {
-    Set<String> names = new HashSet<String>();
-    List<String> result = new ArrayList<String>();
+    Map<String, Integer> valueIndexes = new HashMap<String, Integer>();
+    List<String> result = new ArrayList<String>(namesAndValues.size());
     for (int i = 0; i < namesAndValues.size(); i += 2) {
-      String name = namesAndValues.get(i).toLowerCase(Locale.US);
+      String name = HeaderNames.toLowerCase(namesAndValues.get(i));
       String value = namesAndValues.get(i + 1);
 
       // Drop headers that are forbidden when layering HTTP over SPDY.
@@ -384,19 +569,16 @@ public final class RawHeaders {
       }
 
       // If we haven't seen this name before, add the pair to the end of the list...
-      if (names.add(name)) {
+      Integer valueIndex = valueIndexes.get(name);
+      if (valueIndex == null) {
+        valueIndexes.put(name, result.size() + 1);
         result.add(name);
         result.add(value);
         continue;
       }
 
       // ...otherwise concatenate the existing values and this value.
-      for (int j = 0; j < result.size(); j += 2) {
-        if (name.equals(result.get(j))) {
-          result.set(j + 1, result.get(j + 1) + "\0" + value);
-          break;
-        }
-      }
+      result.set(valueIndex, result.get(valueIndex) + "\0" + value);
     }
     return result;
   }
@@ -407,7 +589,7 @@ public final class RawHeaders {
     }
     RawHeaders result = new RawHeaders();
     for (int i = 0; i < nameValueBlock.size(); i += 2) {
-      String name = nameValueBlock.get(i);
+      String name = HeaderNames.intern(nameValueBlock.get(i));
       String values = nameValueBlock.get(i + 1);
       for (int start = 0; start < values.length(); ) {
         int end = values.indexOf('\0', start);
@@ -415,7 +597,9 @@ public final class RawHeaders {
           end = values.length();
         }
         result.namesAndValues.add(name);
-        result.namesAndValues.add(values.substring(start, end));
+        result.namesAndValues.add(start == 0 && end == values.length()
+            ? values
+            : values.substring(start, end));
         start = end + 1;
       }
     }
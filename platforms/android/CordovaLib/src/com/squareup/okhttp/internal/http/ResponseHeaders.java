@@ -93,6 +93,24 @@ public final class ResponseHeaders {
    */
   private int sMaxAgeSeconds = -1;
 
+  /**
+   * The duration past the response's freshness lifetime that it can be
+   * served while it is revalidated in the background. From RFC 5861.
+   */
+  private int staleWhileRevalidateSeconds = -1;
+
+  /**
+   * The duration past the response's freshness lifetime that it can be
+   * served if revalidating it fails. From RFC 5861.
+   */
+  private int staleIfErrorSeconds = -1;
+
+  /**
+   * True if {@link #chooseResponseSource} picked this stale response under
+   * {@code stale-while-revalidate}, and it should be refreshed.
+   */
+  private boolean backgroundRevalidationRequired;
+
   /**
    * This request header field's name "only-if-cached" is misleading. It
    * actually means "do not use the network". It is set by a client who only
@@ -127,6 +145,10 @@ public final class ResponseHeaders {
           maxAgeSeconds = HeaderParser.parseSeconds(parameter);
         } else if ("s-maxage".equalsIgnoreCase(directive)) {
           sMaxAgeSeconds = HeaderParser.parseSeconds(parameter);
+        } else if ("stale-while-revalidate".equalsIgnoreCase(directive)) {
+          staleWhileRevalidateSeconds = HeaderParser.parseSeconds(parameter);
+        } else if ("stale-if-error".equalsIgnoreCase(directive)) {
+          staleIfErrorSeconds = HeaderParser.parseSeconds(parameter);
         } else if ("public".equalsIgnoreCase(directive)) {
           isPublic = true;
         } else if ("must-revalidate".equalsIgnoreCase(directive)) {
@@ -239,6 +261,34 @@ public final class ResponseHeaders {
     return sMaxAgeSeconds;
   }
 
+  public int getStaleWhileRevalidateSeconds() {
+    return staleWhileRevalidateSeconds;
+  }
+
+  public int getStaleIfErrorSeconds() {
+    return staleIfErrorSeconds;
+  }
+
+  /**
+   * Returns true if this cached response was chosen as a stale response that
+   * should be refreshed in the background.
+   */
+  public boolean isBackgroundRevalidationRequired() {
+    return backgroundRevalidationRequired;
+  }
+
+  /**
+   * Returns true if this cached response may be used in place of a failed
+   * network response, as permitted by its {@code stale-if-error} directive.
+   */
+  public boolean isStaleIfErrorAllowed(long nowMillis) {
+    if (mustRevalidate || staleIfErrorSeconds == -1) {
+      return false;
+    }
+    long staleIfErrorMillis = TimeUnit.SECONDS.toMillis(staleIfErrorSeconds);
+    return computeAge(nowMillis) < computeFreshnessLifetime() + staleIfErrorMillis;
+  }
+
   public boolean isPublic() {
     return isPublic;
   }
@@ -417,6 +467,18 @@ public final class ResponseHeaders {
       return ResponseSource.CACHE;
     }
 
+    // Serve a recently stale response now and refresh it in the background.
+    // A request that sets its own max-age wants validation, so it blocks.
+    if (!noCache && !mustRevalidate && staleWhileRevalidateSeconds != -1
+        && request.getMaxAgeSeconds() == -1) {
+      long staleWhileRevalidateMillis = TimeUnit.SECONDS.toMillis(staleWhileRevalidateSeconds);
+      if (ageMillis + minFreshMillis < freshMillis + staleWhileRevalidateMillis) {
+        headers.add("Warning", "110 HttpURLConnection \"Response is stale\"");
+        backgroundRevalidationRequired = true;
+        return ResponseSource.CACHE;
+      }
+    }
+
     if (lastModified != null) {
       request.setIfModifiedSince(lastModified);
     } else if (servedDate != null) {
@@ -19,8 +19,13 @@ import com.squareup.okhttp.Address;
 import com.squareup.okhttp.Connection;
 import com.squareup.okhttp.ConnectionPool;
 import com.squareup.okhttp.Route;
+import com.squareup.okhttp.TunnelRequest;
+import com.squareup.okhttp.internal.CachingDns;
 import com.squareup.okhttp.internal.Dns;
+import com.squareup.okhttp.internal.NamedRunnable;
+import com.squareup.okhttp.internal.Util;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.Proxy;
@@ -28,11 +33,18 @@ import java.net.ProxySelector;
 import java.net.SocketAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
 
 import static com.squareup.okhttp.internal.Util.getEffectivePort;
@@ -50,6 +62,16 @@ public final class RouteSelector {
   /** No TLS mode. */
   private static final int TLS_MODE_NULL = -1;
 
+  /**
+   * How long a connection race waits on its attempts before it starts
+   * another one in parallel.
+   */
+  static final int RACE_STAGGER_MS = 250;
+
+  /** Runs the attempts of connection races. Threads exit after a minute idle. */
+  private static final ExecutorService raceExecutor = new ThreadPoolExecutor(0,
+      Integer.MAX_VALUE, 60L, TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+
   private final Address address;
   private final URI uri;
   private final ProxySelector proxySelector;
@@ -67,6 +89,7 @@ public final class RouteSelector {
   private Iterator<Proxy> proxySelectorProxies;
 
   /* State for negotiating the next InetSocketAddress to use. */
+  private final List<String> resolvedHosts = new ArrayList<String>();
   private InetAddress[] socketAddresses;
   private int nextSocketAddressIndex;
   private int socketPort;
@@ -110,6 +133,170 @@ public final class RouteSelector {
       return pooled;
     }
 
+    return new Connection(nextRoute());
+  }
+
+  /**
+   * Returns a connected connection, either from the pool or to the first of
+   * the remaining routes that accepts one.
+   *
+   * <p>Routes are raced rather than tried one after another: each time the
+   * attempts in progress have gone {@link #RACE_STAGGER_MS} without
+   * connecting, an attempt on the next route starts alongside them. A route
+   * that stalls or drops packets therefore costs that delay, not a full
+   * connect timeout. The first attempt to connect wins. The others are closed
+   * when they finish, and any that fail are reported to
+   * {@link #connectFailed}, so later requests try them last. A route's
+   * compatible-TLS fallback is only started when its modern-TLS attempt fails
+   * its handshake.
+   *
+   * @throws NoSuchElementException if there are no more routes to attempt.
+   */
+  public Connection nextConnected(int connectTimeout, int readTimeout,
+      TunnelRequest tunnelRequest) throws IOException {
+    Connection pooled = pool.get(address);
+    if (pooled != null) {
+      return pooled;
+    }
+
+    Race race = new Race(connectTimeout, readTimeout, tunnelRequest);
+    Connection connection = race.run();
+    pool.maybeShare(connection);
+    failedRoutes.remove(connection.getRoute());
+    return connection;
+  }
+
+  /** Connects to the first of this selector's remaining routes to succeed. */
+  private final class Race {
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final TunnelRequest tunnelRequest;
+    private final LinkedBlockingQueue<Attempt> finished = new LinkedBlockingQueue<Attempt>();
+    /** Compatible-TLS routes waiting for their modern-TLS attempt to fail its handshake. */
+    private final List<Route> fallbackRoutes = new ArrayList<Route>();
+    /** True once an attempt has connected. Guarded by this. */
+    private boolean won;
+    /** True once run() has returned. Guarded by this. */
+    private boolean decided;
+    private int inFlight;
+
+    Race(int connectTimeout, int readTimeout, TunnelRequest tunnelRequest) {
+      this.connectTimeout = connectTimeout;
+      this.readTimeout = readTimeout;
+      this.tunnelRequest = tunnelRequest;
+    }
+
+    Connection run() throws IOException {
+      IOException lastFailure = null;
+      try {
+        while (true) {
+          Route route = nextRaceRoute();
+          if (route != null) {
+            start(route);
+          } else if (inFlight == 0) {
+            if (lastFailure != null) {
+              evictResolvedHosts();
+              throw lastFailure;
+            }
+            throw new NoSuchElementException();
+          }
+
+          // Wait for an attempt to finish, but not longer than the stagger if
+          // there's another route to start.
+          Attempt attempt = hasNext() || !fallbackRoutes.isEmpty()
+              ? finished.poll(RACE_STAGGER_MS, TimeUnit.MILLISECONDS)
+              : finished.take();
+          while (attempt != null) {
+            inFlight--;
+            if (attempt.failure == null) {
+              return attempt.connection;
+            }
+            lastFailure = attempt.failure;
+            Route failedRoute = attempt.connection.getRoute();
+            if (failedRoute.isModernTls() && attempt.failure instanceof SSLException) {
+              // The server may not tolerate TLS extensions; its fallback can go now.
+              Route fallback = failedRoute.flipTlsMode();
+              if (fallbackRoutes.remove(fallback)) {
+                start(fallback);
+              }
+            }
+            attempt = finished.poll();
+          }
+        }
+      } catch (InterruptedException e) {
+        throw new InterruptedIOException("Interrupted while connecting to " + address.getUriHost());
+      } finally {
+        synchronized (this) {
+          // Attempts still in flight close themselves when they connect.
+          decided = true;
+        }
+      }
+    }
+
+    /**
+     * Returns the next route to start, holding back compatible-TLS routes
+     * until nothing else is left.
+     */
+    private Route nextRaceRoute() throws IOException {
+      while (hasNext()) {
+        Route route = nextRoute();
+        if (route.isModernTls() || address.getSslSocketFactory() == null) {
+          return route;
+        }
+        fallbackRoutes.add(route);
+      }
+      return fallbackRoutes.isEmpty() || inFlight > 0 ? null : fallbackRoutes.remove(0);
+    }
+
+    private void start(final Route route) {
+      inFlight++;
+      final Attempt attempt = new Attempt(new Connection(route));
+      raceExecutor.execute(new NamedRunnable("OkHttp connect " + route.getSocketAddress()) {
+        @Override protected void execute() {
+          try {
+            attempt.connection.connect(connectTimeout, readTimeout, tunnelRequest);
+          } catch (IOException e) {
+            attempt.failure = e;
+          } catch (Throwable t) {
+            // Android's socket and TLS code also throws unchecked exceptions.
+            attempt.failure = new IOException("Failed to connect to " + route.getSocketAddress(), t);
+          }
+          if (attempt.failure != null) {
+            try {
+              // The TCP connect may have succeeded before the handshake failed.
+              Util.closeQuietly(attempt.connection.getSocket());
+              recordFailure(attempt.connection.getRoute(), attempt.failure);
+            } finally {
+              // run() counts this attempt as in flight until it is queued.
+              finished.add(attempt);
+            }
+            return;
+          }
+          synchronized (Race.this) {
+            if (won || decided) {
+              // Another route got there first.
+              Util.closeQuietly(attempt.connection);
+              return;
+            }
+            won = true;
+          }
+          finished.add(attempt);
+        }
+      });
+    }
+  }
+
+  private static final class Attempt {
+    final Connection connection;
+    volatile IOException failure;
+
+    Attempt(Connection connection) {
+      this.connection = connection;
+    }
+  }
+
+  /** Returns the next route to attempt, skipping to failed routes last. */
+  private Route nextRoute() throws IOException {
     // Compute the next route to attempt.
     if (!hasNextTlsMode()) {
       if (!hasNextInetSocketAddress()) {
@@ -117,7 +304,7 @@ public final class RouteSelector {
           if (!hasNextPostponed()) {
             throw new NoSuchElementException();
           }
-          return new Connection(nextPostponed());
+          return nextPostponed();
         }
         lastProxy = nextProxy();
         resetNextInetSocketAddress(lastProxy);
@@ -132,10 +319,10 @@ public final class RouteSelector {
       postponedRoutes.add(route);
       // We will only recurse in order to skip previously failed routes. They will be
       // tried last.
-      return next();
+      return nextRoute();
     }
 
-    return new Connection(route);
+    return route;
   }
 
   /**
@@ -143,7 +330,14 @@ public final class RouteSelector {
    * failure on a connection returned by this route selector.
    */
   public void connectFailed(Connection connection, IOException failure) {
-    Route failedRoute = connection.getRoute();
+    recordFailure(connection.getRoute(), failure);
+    if (!hasNext()) {
+      evictResolvedHosts();
+    }
+  }
+
+  /** Remembers that {@code failedRoute} failed. Safe to call from race attempts' threads. */
+  private void recordFailure(Route failedRoute, IOException failure) {
     if (failedRoute.getProxy().type() != Proxy.Type.DIRECT && proxySelector != null) {
       // Tell the proxy selector when we fail to connect on a fresh connection.
       proxySelector.connectFailed(uri, failedRoute.getProxy().address(), failure);
@@ -157,6 +351,19 @@ public final class RouteSelector {
     }
   }
 
+  /**
+   * Forgets the cached addresses of the hosts this selector resolved, once
+   * every route has failed. The addresses may belong to a network that the
+   * device has since left, so the next request should look them up again.
+   */
+  private void evictResolvedHosts() {
+    if (dns instanceof CachingDns) {
+      for (String host : resolvedHosts) {
+        ((CachingDns) dns).evict(host);
+      }
+    }
+  }
+
   /** Resets {@link #nextProxy} to the first option. */
   private void resetNextProxy(URI uri, Proxy proxy) {
     this.hasNextProxy = true; // This includes NO_PROXY!
@@ -219,6 +426,7 @@ public final class RouteSelector {
     }
 
     // Try each address for best behavior in mixed IPv4/IPv6 environments.
+    resolvedHosts.add(socketHost);
     socketAddresses = dns.getAllByName(socketHost);
     nextSocketAddressIndex = 0;
   }
@@ -54,7 +54,7 @@ public final class SpdyTransport implements Transport {
     boolean hasRequestBody = httpEngine.hasRequestBody();
     boolean hasResponseBody = true;
     stream = spdyConnection.newStream(requestHeaders.toNameValueBlock(), hasRequestBody,
-        hasResponseBody);
+        hasResponseBody, httpEngine.policy.getPriority());
     stream.setReadTimeout(httpEngine.policy.getReadTimeout());
   }
 
@@ -0,0 +1,93 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal.spdy;
+
+/**
+ * A process-wide pool of byte arrays for SPDY stream buffers and frame
+ * encoding. Arrays are grouped into power-of-two size classes from 1 KiB to
+ * 64 KiB. Each class keeps at most {@code MAX_IDLE_BYTES_PER_CLASS} bytes of
+ * idle arrays; arrays beyond that are left to the garbage collector.
+ *
+ * <p>Arrays taken from the pool are not cleared. Callers must not use an
+ * array after recycling it.
+ */
+final class BufferPool {
+  static final int MIN_SIZE = 1024;
+  static final int MAX_SIZE = 64 * 1024;
+  private static final int MAX_IDLE_BYTES_PER_CLASS = 256 * 1024;
+  private static final int CLASS_COUNT = 7; // 1 KiB, 2 KiB, ... 64 KiB.
+
+  /** Idle arrays by size class. Each class is guarded by its array. */
+  private static final byte[][][] idle = new byte[CLASS_COUNT][][];
+  private static final int[] idleCounts = new int[CLASS_COUNT];
+  static {
+    for (int i = 0; i < CLASS_COUNT; i++) {
+      idle[i] = new byte[Math.max(1, MAX_IDLE_BYTES_PER_CLASS / (MIN_SIZE << i))][];
+    }
+  }
+
+  private BufferPool() {
+  }
+
+  /**
+   * Returns an array of at least {@code minSize} bytes. Its length is the
+   * smallest size class that fits, or exactly {@code minSize} if that is
+   * larger than any class.
+   */
+  static byte[] take(int minSize) {
+    if (minSize > MAX_SIZE) {
+      return new byte[minSize];
+    }
+    int sizeClass = sizeClass(minSize);
+    byte[][] pool = idle[sizeClass];
+    synchronized (pool) {
+      int count = idleCounts[sizeClass];
+      if (count > 0) {
+        byte[] result = pool[--count];
+        pool[count] = null;
+        idleCounts[sizeClass] = count;
+        return result;
+      }
+    }
+    return new byte[MIN_SIZE << sizeClass];
+  }
+
+  /** Returns {@code buffer} to the pool if it came from a size class. */
+  static void recycle(byte[] buffer) {
+    int length = buffer.length;
+    if (length < MIN_SIZE || length > MAX_SIZE || (length & (length - 1)) != 0) {
+      return;
+    }
+    int sizeClass = sizeClass(length);
+    byte[][] pool = idle[sizeClass];
+    synchronized (pool) {
+      int count = idleCounts[sizeClass];
+      if (count < pool.length) {
+        pool[count] = buffer;
+        idleCounts[sizeClass] = count + 1;
+      }
+    }
+  }
+
+  private static int sizeClass(int size) {
+    int sizeClass = 0;
+    while ((MIN_SIZE << sizeClass) < size) {
+      sizeClass++;
+    }
+    return sizeClass;
+  }
+}
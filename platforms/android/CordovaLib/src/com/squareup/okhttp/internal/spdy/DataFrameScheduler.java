@@ -0,0 +1,147 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal.spdy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Orders the data frames that concurrent streams write to a connection.
+ * Each writing thread queues its frame and waits. One thread at a time
+ * writes queued frames, and it hands that role on once its own frame has
+ * been written.
+ *
+ * <p>Frames are chosen by stream priority using weighted round robin: in
+ * each round, priority {@code p} may send {@code 8 - p} frames, so lower
+ * priorities are slowed but never starved. Streams of the same priority
+ * take turns. Flow control is unaffected: streams only queue frames that
+ * fit in their write window. Control frames don't pass through here.
+ */
+final class DataFrameScheduler {
+  private static final int PRIORITY_COUNT = 8;
+
+  private final SpdyWriter spdyWriter;
+
+  // Guarded by this.
+  private final List<Frame> pending = new ArrayList<Frame>();
+  private final int[] credits = new int[PRIORITY_COUNT];
+  private boolean writing;
+
+  DataFrameScheduler(SpdyWriter spdyWriter) {
+    this.spdyWriter = spdyWriter;
+  }
+
+  /**
+   * Writes a complete data frame once it is this frame's turn. Returns after
+   * the frame has been written, so the caller may reuse {@code bytes}.
+   */
+  void write(int priority, byte[] bytes, int offset, int length) throws IOException {
+    Frame frame = new Frame(Math.max(0, Math.min(priority, PRIORITY_COUNT - 1)),
+        bytes, offset, length);
+    synchronized (this) {
+      pending.add(frame);
+      boolean interrupted = false;
+      while (writing && !frame.done) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          if (pending.remove(frame)) {
+            throw new InterruptedIOException();
+          }
+          interrupted = true; // Already being written; wait for it to finish.
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+      if (!frame.done) {
+        writing = true;
+      }
+    }
+
+    // Write queued frames until ours has been written, then hand off.
+    while (!frame.done) {
+      Frame next;
+      synchronized (this) {
+        next = takeNext();
+      }
+      try {
+        synchronized (spdyWriter) {
+          spdyWriter.out.write(next.bytes, next.offset, next.length);
+        }
+      } catch (IOException e) {
+        next.failure = e;
+      }
+      synchronized (this) {
+        next.done = true;
+        if (next == frame) {
+          writing = false;
+        }
+        notifyAll();
+      }
+    }
+
+    if (frame.failure != null) {
+      throw frame.failure;
+    }
+  }
+
+  /** Removes and returns the next frame to write. There must be one pending. */
+  private Frame takeNext() {
+    Frame result = highestPriorityWithCredit();
+    if (result == null) {
+      // Every waiting priority has used its share for this round. Start another.
+      for (int p = 0; p < PRIORITY_COUNT; p++) {
+        credits[p] = PRIORITY_COUNT - p;
+      }
+      result = highestPriorityWithCredit();
+    }
+    pending.remove(result);
+    credits[result.priority]--;
+    return result;
+  }
+
+  /** Returns the oldest frame of the highest priority that has credit left. */
+  private Frame highestPriorityWithCredit() {
+    Frame result = null;
+    for (int i = 0, size = pending.size(); i < size; i++) {
+      Frame frame = pending.get(i);
+      if (credits[frame.priority] > 0 && (result == null || frame.priority < result.priority)) {
+        result = frame;
+      }
+    }
+    return result;
+  }
+
+  private static final class Frame {
+    final int priority;
+    final byte[] bytes;
+    final int offset;
+    final int length;
+    boolean done;
+    IOException failure;
+
+    Frame(int priority, byte[] bytes, int offset, int length) {
+      this.priority = priority;
+      this.bytes = bytes;
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+}
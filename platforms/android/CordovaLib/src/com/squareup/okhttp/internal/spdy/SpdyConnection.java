@@ -91,6 +91,7 @@ public final class SpdyConnection implements Closeable {
   private final IncomingStreamHandler handler;
   private final SpdyReader spdyReader;
   private final SpdyWriter spdyWriter;
+  private final DataFrameScheduler dataFrameScheduler;
 
   private final Map<Integer, SpdyStream> streams = new HashMap<Integer, SpdyStream>();
   private final String hostName;
@@ -111,6 +112,7 @@ public final class SpdyConnection implements Closeable {
     handler = builder.handler;
     spdyReader = new SpdyReader(builder.in);
     spdyWriter = new SpdyWriter(builder.out);
+    dataFrameScheduler = new DataFrameScheduler(spdyWriter);
     nextStreamId = builder.client ? 1 : 2;
     nextPingId = builder.client ? 1 : 2;
 
@@ -163,9 +165,26 @@ public final class SpdyConnection implements Closeable {
    */
   public SpdyStream newStream(List<String> requestHeaders, boolean out, boolean in)
       throws IOException {
+    return newStream(requestHeaders, out, in, 0);
+  }
+
+  /**
+   * Returns a new locally-initiated stream.
+   *
+   * @param out true to create an output stream that we can use to send data
+   * to the remote peer. Corresponds to {@code FLAG_FIN}.
+   * @param in true to create an input stream that the remote peer can use to
+   * send data to us. Corresponds to {@code FLAG_UNIDIRECTIONAL}.
+   * @param priority from 0 (highest) to 7 (lowest). The peer is told the
+   * priority, and this connection uses it to order outgoing data frames.
+   */
+  public SpdyStream newStream(List<String> requestHeaders, boolean out, boolean in, int priority)
+      throws IOException {
+    if (priority < 0 || priority > 7) {
+      throw new IllegalArgumentException("priority < 0 || priority > 7: " + priority);
+    }
     int flags = (out ? 0 : FLAG_FIN) | (in ? 0 : FLAG_UNIDIRECTIONAL);
     int associatedStreamId = 0;  // TODO: permit the caller to specify an associated stream?
-    int priority = 0; // TODO: permit the caller to specify a priority?
     int slot = 0; // TODO: permit the caller to specify a slot?
     SpdyStream stream;
     int streamId;
@@ -194,11 +213,12 @@ public final class SpdyConnection implements Closeable {
     spdyWriter.synReply(flags, streamId, alternating);
   }
 
-  /** Writes a complete data frame. */
-  void writeFrame(byte[] bytes, int offset, int length) throws IOException {
-    synchronized (spdyWriter) {
-      spdyWriter.out.write(bytes, offset, length);
-    }
+  /**
+   * Writes a complete data frame for a stream of {@code priority}, after any
+   * queued frames of streams that should go first.
+   */
+  void writeFrame(int priority, byte[] bytes, int offset, int length) throws IOException {
+    dataFrameScheduler.write(priority, bytes, offset, length);
   }
 
   void writeSynResetLater(final int streamId, final int statusCode) {
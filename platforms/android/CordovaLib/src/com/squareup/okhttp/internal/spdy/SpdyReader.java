@@ -16,6 +16,7 @@
 
 package com.squareup.okhttp.internal.spdy;
 
+import com.squareup.okhttp.internal.HeaderNames;
 import com.squareup.okhttp.internal.Util;
 import java.io.Closeable;
 import java.io.DataInputStream;
@@ -75,6 +76,9 @@ final class SpdyReader implements Closeable {
 
   private final DataInputStream in;
   private final DataInputStream nameValueBlockIn;
+
+  /** Holds each name or value while it is decoded. Grows as necessary. */
+  private byte[] stringBuffer = BufferPool.take(BufferPool.MIN_SIZE);
   private int compressedLimit;
 
   SpdyReader(InputStream in) {
@@ -246,8 +250,8 @@ final class SpdyReader implements Closeable {
       }
       List<String> entries = new ArrayList<String>(numberOfPairs * 2);
       for (int i = 0; i < numberOfPairs; i++) {
-        String name = readString();
-        String values = readString();
+        String name = readString(true);
+        String values = readString(false);
         if (name.length() == 0) throw ioException("name.length == 0");
         if (values.length() == 0) throw ioException("values.length == 0");
         entries.add(name);
@@ -264,11 +268,23 @@ final class SpdyReader implements Closeable {
     }
   }
 
-  private String readString() throws DataFormatException, IOException {
+  /**
+   * Reads a length-prefixed UTF-8 string. Well-known header names are returned
+   * as their canonical instances rather than decoded.
+   */
+  private String readString(boolean headerName) throws DataFormatException, IOException {
     int length = nameValueBlockIn.readInt();
-    byte[] bytes = new byte[length];
-    Util.readFully(nameValueBlockIn, bytes);
-    return new String(bytes, 0, length, "UTF-8");
+    if (length < 0) throw ioException("string length < 0: %d", length);
+    if (stringBuffer.length < length) {
+      BufferPool.recycle(stringBuffer);
+      stringBuffer = BufferPool.take(length);
+    }
+    Util.readFully(nameValueBlockIn, stringBuffer, 0, length);
+    if (headerName) {
+      String name = HeaderNames.intern(stringBuffer, 0, length);
+      if (name != null) return name;
+    }
+    return new String(stringBuffer, 0, length, "UTF-8");
   }
 
   private void readPing(Handler handler, int flags, int length) throws IOException {
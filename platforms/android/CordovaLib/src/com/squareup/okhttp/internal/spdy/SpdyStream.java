@@ -36,6 +36,7 @@ public final class SpdyStream {
   // blocking operations are performed while the lock is held.
 
   private static final int DATA_FRAME_HEADER_LENGTH = 8;
+  private static final int OUTPUT_BUFFER_SIZE = 8192;
 
   private static final String[] STATUS_CODE_NAMES = {
       null,
@@ -118,6 +119,10 @@ public final class SpdyStream {
     setSettings(settings);
   }
 
+  public int getId() {
+    return id;
+  }
+
   /**
    * Returns true if this stream is open. A stream is open until either:
    * <ul>
@@ -395,7 +400,15 @@ public final class SpdyStream {
     //         ^       ^
     //       limit    pos
 
-    private final byte[] buffer = new byte[Settings.DEFAULT_INITIAL_WINDOW_SIZE];
+    // Taken from the pool when the first data frame arrives, and recycled
+    // once the stream is closed or read to its end.
+    private byte[] buffer;
+
+    /** True if the buffer is no longer needed and shall be recycled. */
+    private boolean bufferReleased;
+
+    /** True while {@link #receive} is filling the buffer without the lock. */
+    private boolean receiving;
 
     /** the next byte to be read, or -1 if the buffer is empty. Never buffer.length */
     private int pos = -1;
@@ -443,6 +456,7 @@ public final class SpdyStream {
         checkNotClosed();
 
         if (pos == -1) {
+          releaseBuffer(); // Finished; no more bytes will be received.
           return -1;
         }
 
@@ -523,12 +537,18 @@ public final class SpdyStream {
       int firstNewByte;
       boolean finished;
       boolean flowControlError;
+      byte[] buffer;
       synchronized (SpdyStream.this) {
-        finished = this.finished;
+        finished = this.finished || bufferReleased;
         pos = this.pos;
         firstNewByte = this.limit;
         limit = this.limit;
-        flowControlError = byteCount > buffer.length - available();
+        if (this.buffer == null && !finished) {
+          this.buffer = BufferPool.take(Settings.DEFAULT_INITIAL_WINDOW_SIZE);
+        }
+        buffer = this.buffer;
+        flowControlError = !finished && byteCount > buffer.length - available();
+        receiving = !finished && !flowControlError;
       }
 
       // If the peer sends more data than we can handle, discard it and close the connection.
@@ -562,6 +582,11 @@ public final class SpdyStream {
       }
 
       synchronized (SpdyStream.this) {
+        receiving = false;
+        if (bufferReleased) {
+          releaseBuffer(); // Closed while receiving. Drop the bytes.
+          return;
+        }
         // Update the new limit, and mark the position as readable if necessary.
         this.limit = limit;
         if (this.pos == -1) {
@@ -574,11 +599,25 @@ public final class SpdyStream {
     @Override public void close() throws IOException {
       synchronized (SpdyStream.this) {
         closed = true;
+        pos = -1;
+        releaseBuffer();
         SpdyStream.this.notifyAll();
       }
       cancelStreamIfNecessary();
     }
 
+    /**
+     * Recycles the buffer now, or when the in-progress receive completes.
+     * Must be called while holding the stream's lock.
+     */
+    private void releaseBuffer() {
+      bufferReleased = true;
+      if (buffer != null && !receiving) {
+        BufferPool.recycle(buffer);
+        buffer = null;
+      }
+    }
+
     private void checkNotClosed() throws IOException {
       if (closed) {
         throw new IOException("stream closed");
@@ -613,7 +652,8 @@ public final class SpdyStream {
    * is not thread safe.
    */
   private final class SpdyDataOutputStream extends OutputStream {
-    private final byte[] buffer = new byte[8192];
+    /** Taken from the pool on the first write and recycled on close. */
+    private byte[] buffer;
     private int pos = DATA_FRAME_HEADER_LENGTH;
 
     /** True if the caller has closed this stream. */
@@ -640,6 +680,9 @@ public final class SpdyStream {
       assert (!Thread.holdsLock(SpdyStream.this));
       checkOffsetAndCount(bytes.length, offset, count);
       checkNotClosed();
+      if (buffer == null) {
+        buffer = BufferPool.take(OUTPUT_BUFFER_SIZE);
+      }
 
       while (count > 0) {
         if (pos == buffer.length) {
@@ -670,7 +713,15 @@ public final class SpdyStream {
         }
         closed = true;
       }
-      writeFrame(true);
+      if (buffer == null) {
+        buffer = BufferPool.take(OUTPUT_BUFFER_SIZE);
+      }
+      try {
+        writeFrame(true);
+      } finally {
+        BufferPool.recycle(buffer);
+        buffer = null;
+      }
       connection.flush();
       cancelStreamIfNecessary();
     }
@@ -689,7 +740,7 @@ public final class SpdyStream {
       }
       pokeInt(buffer, 0, id & 0x7fffffff, BIG_ENDIAN);
       pokeInt(buffer, 4, (flags & 0xff) << 24 | length & 0xffffff, BIG_ENDIAN);
-      connection.writeFrame(buffer, 0, pos);
+      connection.writeFrame(priority, buffer, 0, pos);
       pos = DATA_FRAME_HEADER_LENGTH;
     }
 
@@ -32,6 +32,9 @@ final class SpdyWriter implements Closeable {
   private final ByteArrayOutputStream nameValueBlockBuffer;
   private final DataOutputStream nameValueBlockOut;
 
+  /** Holds each name or value while it is encoded. Grows as necessary. */
+  private byte[] stringBuffer = BufferPool.take(BufferPool.MIN_SIZE);
+
   SpdyWriter(OutputStream out) {
     this.out = new DataOutputStream(out);
 
@@ -95,11 +98,11 @@ final class SpdyWriter implements Closeable {
     out.flush();
   }
 
-  public synchronized void data(int flags, int streamId, byte[] data) throws IOException {
-    int length = data.length;
+  public synchronized void data(int flags, int streamId, byte[] data, int offset, int length)
+      throws IOException {
     out.writeInt(streamId & 0x7fffffff);
     out.writeInt((flags & 0xff) << 24 | length & 0xffffff);
-    out.write(data);
+    out.write(data, offset, length);
     out.flush();
   }
 
@@ -108,12 +111,36 @@ final class SpdyWriter implements Closeable {
     int numberOfPairs = nameValueBlock.size() / 2;
     nameValueBlockOut.writeInt(numberOfPairs);
     for (String s : nameValueBlock) {
-      nameValueBlockOut.writeInt(s.length());
-      nameValueBlockOut.write(s.getBytes("UTF-8"));
+      writeString(s);
     }
     nameValueBlockOut.flush();
   }
 
+  /**
+   * Writes {@code s} as a length-prefixed UTF-8 string. Header names and
+   * values are almost always ASCII, so those are encoded directly into a
+   * reused buffer instead of allocating a byte array per string.
+   */
+  private void writeString(String s) throws IOException {
+    int length = s.length();
+    if (stringBuffer.length < length) {
+      BufferPool.recycle(stringBuffer);
+      stringBuffer = BufferPool.take(length);
+    }
+    for (int i = 0; i < length; i++) {
+      char c = s.charAt(i);
+      if (c >= 0x80) {
+        byte[] bytes = s.getBytes("UTF-8");
+        nameValueBlockOut.writeInt(bytes.length);
+        nameValueBlockOut.write(bytes);
+        return;
+      }
+      stringBuffer[i] = (byte) c;
+    }
+    nameValueBlockOut.writeInt(length);
+    nameValueBlockOut.write(stringBuffer, 0, length);
+  }
+
   public synchronized void settings(int flags, Settings settings) throws IOException {
     int type = SpdyConnection.TYPE_SETTINGS;
     int size = settings.size();
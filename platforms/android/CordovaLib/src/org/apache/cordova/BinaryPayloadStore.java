@@ -0,0 +1,92 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Holds large binary plugin results so that they can be fetched by the WebView
+ * as raw bytes rather than being Base64-encoded into the bridge payload.
+ * Each payload is served once through IceCreamCordovaWebViewClient and then discarded.
+ * Payloads that the page never fetches are dropped after a minute, or when the page is reset.
+ */
+/* package */ class BinaryPayloadStore {
+    // Must stay in sync with the 'B' message handling in cordova.js.
+    static final String URL_PREFIX = "file:///cordova_binary/";
+
+    private static final long MAX_AGE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final ConcurrentHashMap<String, Payload> payloads = new ConcurrentHashMap<String, Payload>();
+
+    /**
+     * Parks the given bytes and returns the one-time URL they can be read from.
+     */
+    public String put(byte[] data) {
+        long now = System.nanoTime();
+        removeExpired(now);
+        String url = URL_PREFIX + UUID.randomUUID().toString();
+        payloads.put(url, new Payload(data, now));
+        return url;
+    }
+
+    /**
+     * Removes the payload for the given URL and returns a stream over it, or
+     * null if the URL is unknown or has already been served.
+     */
+    public InputStream open(String url) {
+        byte[] data = remove(url);
+        return data == null ? null : new ByteArrayInputStream(data);
+    }
+
+    /**
+     * Removes the payload for the given URL and returns its bytes, or null.
+     */
+    public byte[] remove(String url) {
+        Payload payload = payloads.remove(url);
+        return payload == null ? null : payload.data;
+    }
+
+    public void clear() {
+        payloads.clear();
+    }
+
+    private void removeExpired(long now) {
+        Iterator<Payload> it = payloads.values().iterator();
+        while (it.hasNext()) {
+            if (now - it.next().createdNanos > MAX_AGE_NANOS) {
+                it.remove();
+            }
+        }
+    }
+
+    private static final class Payload {
+        final byte[] data;
+        final long createdNanos;
+
+        Payload(byte[] data, long createdNanos) {
+            this.data = data;
+            this.createdNanos = createdNanos;
+        }
+    }
+}
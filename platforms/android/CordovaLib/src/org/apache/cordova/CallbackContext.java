@@ -34,6 +34,10 @@ public class CallbackContext {
     private boolean finished;
     private int changingThreads;
 
+    // Set by PluginManager to time how long the exec() takes to complete.
+    ExecMetrics.ActionMetrics metrics;
+    long execStartNanos;
+
     public CallbackContext(String callbackId, CordovaWebView webView) {
         this.callbackId = callbackId;
         this.webView = webView;
@@ -60,6 +64,12 @@ public class CallbackContext {
                 finished = !pluginResult.getKeepCallback();
             }
         }
+        if (metrics != null) {
+            metrics.recordResult(pluginResult);
+            if (finished) {
+                metrics.completionMicros.record((System.nanoTime() - execStartNanos) / 1000);
+            }
+        }
         webView.sendPluginResult(pluginResult, callbackId);
     }
 
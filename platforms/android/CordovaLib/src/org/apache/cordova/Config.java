@@ -21,7 +21,11 @@ package org.apache.cordova;
 
 import java.io.IOException;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -34,6 +38,7 @@ import android.app.Activity;
 
 import android.content.res.XmlResourceParser;
 import android.graphics.Color;
+import android.net.Uri;
 
 import android.util.Log;
 
@@ -43,6 +48,7 @@ public class Config {
 
     private Whitelist whitelist = new Whitelist();
     private String startUrl;
+    private List<String> preloadUrls = new ArrayList<String>();
 
     private static Config self = null;
 
@@ -171,16 +177,13 @@ public class Config {
                     LOG.i("CordovaLog", "Found start page location: %s", src);
 
                     if (src != null) {
-                        Pattern schemeRegex = Pattern.compile("^[a-z-]+://");
-                        Matcher matcher = schemeRegex.matcher(src);
-                        if (matcher.find()) {
-                            startUrl = src;
-                        } else {
-                            if (src.charAt(0) == '/') {
-                                src = src.substring(1);
-                            }
-                            startUrl = "file:///android_asset/www/" + src;
-                        }
+                        startUrl = resolveUrl(src);
+                    }
+                }
+                else if (strNode.equals("preload")) {
+                    String src = xml.getAttributeValue(null, "src");
+                    if (src != null && src.length() > 0) {
+                        preloadUrls.add(resolveUrl(src));
                     }
                 }
 
@@ -196,6 +199,22 @@ public class Config {
         }
     }
 
+    /**
+     * Resolves a src attribute: absolute URLs are kept, and anything else is
+     * taken to be relative to the www directory of the assets.
+     */
+    private static String resolveUrl(String src) {
+        Pattern schemeRegex = Pattern.compile("^[a-z-]+://");
+        Matcher matcher = schemeRegex.matcher(src);
+        if (matcher.find()) {
+            return src;
+        }
+        if (src.charAt(0) == '/') {
+            src = src.substring(1);
+        }
+        return "file:///android_asset/www/" + src;
+    }
+
     /**
      * Add entry to approved list of URLs (whitelist)
      *
@@ -222,6 +241,37 @@ public class Config {
         return self.whitelist.isUrlWhiteListed(url);
     }
 
+    /**
+     * Returns the web hosts that the whitelist and start page name exactly,
+     * which are worth looking up before the app asks for them.
+     */
+    public static Set<String> getWhitelistedHostNames() {
+        if (self == null) {
+            return new LinkedHashSet<String>();
+        }
+        Set<String> hosts = self.whitelist.getHostNames();
+        if (self.startUrl != null) {
+            Uri startUri = Uri.parse(self.startUrl);
+            String scheme = startUri.getScheme();
+            if (("http".equals(scheme) || "https".equals(scheme)) && startUri.getHost() != null) {
+                hosts.add(startUri.getHost());
+            }
+        }
+        return hosts;
+    }
+
+    /**
+     * Returns the URLs of the <preload> elements, which are fetched while the
+     * start page loads so that its subresources are ready when asked for.
+     * Only file: URLs are preloaded; see PreloadCache.
+     */
+    public static List<String> getPreloadUrls() {
+        if (self == null) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(self.preloadUrls);
+    }
+
     public static String getStartUrl() {
         if (self == null || self.startUrl == null) {
             return "file:///android_asset/www/index.html";
@@ -21,90 +21,262 @@ package org.apache.cordova;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 import android.util.Base64;
 
 public class CordovaArgs {
     private JSONArray baseArgs;
 
+    // When created from the raw exec() string, elements are parsed on first access.
+    private String rawArgs;
+    private int[] elementBounds;    // start and end (exclusive) offset of each element.
+    private boolean[] materialized;
+
     public CordovaArgs(JSONArray args) {
         this.baseArgs = args;
     }
 
+    /**
+     * Wraps the raw JSON array string passed to exec(). The string is scanned once
+     * to find where each element starts and ends, but elements are only parsed when
+     * they are accessed.
+     */
+    public CordovaArgs(String rawArgs) throws JSONException {
+        this.rawArgs = rawArgs;
+        this.elementBounds = scanElements(rawArgs);
+        this.materialized = new boolean[elementBounds.length / 2];
+        this.baseArgs = new JSONArray();
+    }
+
+    /**
+     * Returns the number of arguments.
+     */
+    public int length() {
+        return rawArgs != null ? materialized.length : baseArgs.length();
+    }
+
+    /**
+     * Finds the bounds of each top-level element of a JSON array without parsing them.
+     */
+    private static int[] scanElements(String json) throws JSONException {
+        int len = json.length();
+        int pos = skipWhitespace(json, 0);
+        if (pos >= len || json.charAt(pos) != '[') {
+            throw new JSONException("Expected a JSON array of arguments");
+        }
+        int[] bounds = new int[8];
+        int numBounds = 0;
+        pos = skipWhitespace(json, pos + 1);
+        if (pos < len && json.charAt(pos) == ']') {
+            return new int[0];
+        }
+        while (true) {
+            int start = pos;
+            int depth = 0;
+            boolean inString = false;
+            for (; pos < len; ++pos) {
+                char c = json.charAt(pos);
+                if (inString) {
+                    if (c == '\\') {
+                        pos++;
+                    } else if (c == '"') {
+                        inString = false;
+                    }
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '[' || c == '{') {
+                    depth++;
+                } else if (c == ']' || c == '}') {
+                    if (depth == 0) {
+                        break;
+                    }
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    break;
+                }
+            }
+            if (pos >= len) {
+                throw new JSONException("Unterminated JSON array of arguments");
+            }
+            int end = pos;
+            while (end > start && Character.isWhitespace(json.charAt(end - 1))) {
+                end--;
+            }
+            if (end == start) {
+                throw new JSONException("Missing argument at offset " + start);
+            }
+            if (numBounds == bounds.length) {
+                int[] newBounds = new int[bounds.length * 2];
+                System.arraycopy(bounds, 0, newBounds, 0, numBounds);
+                bounds = newBounds;
+            }
+            bounds[numBounds++] = start;
+            bounds[numBounds++] = end;
+            if (json.charAt(pos) == ']') {
+                break;
+            }
+            pos = skipWhitespace(json, pos + 1);
+        }
+        int[] ret = new int[numBounds];
+        System.arraycopy(bounds, 0, ret, 0, numBounds);
+        return ret;
+    }
+
+    private static int skipWhitespace(String json, int pos) {
+        while (pos < json.length() && Character.isWhitespace(json.charAt(pos))) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Returns whether the element is a string literal with no escape sequences,
+     * which lets it be used directly without going through the JSON parser.
+     */
+    private boolean isPlainString(int start, int end) {
+        if (rawArgs.charAt(start) != '"') {
+            return false;
+        }
+        for (int i = start + 1; i < end - 1; ++i) {
+            if (rawArgs.charAt(i) == '\\') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses the element at the given index into baseArgs if it hasn't been already.
+     */
+    private void materialize(int index) throws JSONException {
+        if (rawArgs == null || index < 0 || index >= materialized.length || materialized[index]) {
+            return;
+        }
+        int start = elementBounds[index * 2];
+        int end = elementBounds[index * 2 + 1];
+        Object value;
+        if (isPlainString(start, end)) {
+            value = rawArgs.substring(start + 1, end - 1);
+        } else {
+            value = new JSONTokener(rawArgs.substring(start, end)).nextValue();
+        }
+        baseArgs.put(index, value);
+        materialized[index] = true;
+    }
+
+    private void optMaterialize(int index) {
+        try {
+            materialize(index);
+        } catch (JSONException e) {
+            // Leave the element unset, as JSONArray.opt*() would for a bad index.
+        }
+    }
 
     // Pass through the basics to the base args.
     public Object get(int index) throws JSONException {
+        materialize(index);
         return baseArgs.get(index);
     }
 
     public boolean getBoolean(int index) throws JSONException {
+        materialize(index);
         return baseArgs.getBoolean(index);
     }
 
     public double getDouble(int index) throws JSONException {
+        materialize(index);
         return baseArgs.getDouble(index);
     }
 
     public int getInt(int index) throws JSONException {
+        materialize(index);
         return baseArgs.getInt(index);
     }
 
     public JSONArray getJSONArray(int index) throws JSONException {
+        materialize(index);
         return baseArgs.getJSONArray(index);
     }
 
     public JSONObject getJSONObject(int index) throws JSONException {
+        materialize(index);
         return baseArgs.getJSONObject(index);
     }
 
     public long getLong(int index) throws JSONException {
+        materialize(index);
         return baseArgs.getLong(index);
     }
 
     public String getString(int index) throws JSONException {
+        materialize(index);
         return baseArgs.getString(index);
     }
 
 
     public Object opt(int index) {
+        optMaterialize(index);
         return baseArgs.opt(index);
     }
 
     public boolean optBoolean(int index) {
+        optMaterialize(index);
         return baseArgs.optBoolean(index);
     }
 
     public double optDouble(int index) {
+        optMaterialize(index);
         return baseArgs.optDouble(index);
     }
 
     public int optInt(int index) {
+        optMaterialize(index);
         return baseArgs.optInt(index);
     }
 
     public JSONArray optJSONArray(int index) {
+        optMaterialize(index);
         return baseArgs.optJSONArray(index);
     }
 
     public JSONObject optJSONObject(int index) {
+        optMaterialize(index);
         return baseArgs.optJSONObject(index);
     }
 
     public long optLong(int index) {
+        optMaterialize(index);
         return baseArgs.optLong(index);
     }
 
     public String optString(int index) {
+        optMaterialize(index);
         return baseArgs.optString(index);
     }
 
     public boolean isNull(int index) {
+        optMaterialize(index);
         return baseArgs.isNull(index);
     }
 
 
     // The interesting custom helpers.
+    @SuppressWarnings("deprecation")
     public byte[] getArrayBuffer(int index) throws JSONException {
+        if (rawArgs != null && index >= 0 && index < materialized.length && !materialized[index]) {
+            int start = elementBounds[index * 2];
+            int end = elementBounds[index * 2 + 1];
+            if (isPlainString(start, end)) {
+                // Decode straight from the raw args, without building an intermediate String.
+                // Base64 is pure ASCII, so the low byte of each char is exact.
+                int len = end - start - 2;
+                byte[] encoded = new byte[len];
+                rawArgs.getBytes(start + 1, end - 1, encoded, 0);
+                return Base64.decode(encoded, 0, len, Base64.DEFAULT);
+            }
+        }
+        materialize(index);
         String encoded = baseArgs.getString(index);
         return Base64.decode(encoded, Base64.DEFAULT);
     }
@@ -234,6 +234,13 @@ public class CordovaChromeClient extends WebChromeClient {
             }
         }
 
+        // Calling PluginManager.execBatch() using
+        // prompt(framedCalls, "gap_batch:");
+        else if (reqOk && defaultValue != null && defaultValue.equals("gap_batch:")) {
+            String r = this.appView.exposedJsApi.execBatch(message);
+            result.confirm(r == null ? "" : r);
+        }
+
         // Sets the native->JS bridge mode. 
         else if (reqOk && defaultValue != null && defaultValue.equals("gap_bridge_mode:")) {
         	try {
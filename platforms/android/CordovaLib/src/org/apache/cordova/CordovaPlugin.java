@@ -18,6 +18,8 @@
 */
 package org.apache.cordova;
 
+import java.lang.reflect.Method;
+
 import org.apache.cordova.CordovaArgs;
 import org.apache.cordova.CordovaWebView;
 import org.apache.cordova.CordovaInterface;
@@ -35,6 +37,8 @@ public class CordovaPlugin {
     public String id;
     public CordovaWebView webView;					// WebView object
     public CordovaInterface cordova;
+    String serviceName;                             // Set by PluginEntry
+    private Boolean overridesJSONArrayExecute;
 
     /**
      * @param cordova The context of the main Activity.
@@ -46,6 +50,22 @@ public class CordovaPlugin {
         this.webView = webView;
     }
 
+    /**
+     * Returns the name of the service this plugin was registered under, or null
+     * if it was not created through the PluginManager.
+     */
+    public String getServiceName() {
+        return serviceName;
+    }
+
+    /**
+     * Returns the bounded executor that this plugin should use for background work,
+     * so that a burst of work in one plugin does not starve the others.
+     */
+    public PluginExecutor getExecutor() {
+        return webView.pluginManager.getExecutor(serviceName != null ? serviceName : getClass().getName());
+    }
+
     /**
      * Executes the request.
      *
@@ -61,10 +81,29 @@ public class CordovaPlugin {
      * @return                Whether the action was valid.
      */
     public boolean execute(String action, String rawArgs, CallbackContext callbackContext) throws JSONException {
+        if (!overridesJSONArrayExecute()) {
+            // Skip building the JSONArray, since only the CordovaArgs variant will see it.
+            return execute(action, new CordovaArgs(rawArgs), callbackContext);
+        }
         JSONArray args = new JSONArray(rawArgs);
         return execute(action, args, callbackContext);
     }
 
+    /**
+     * Returns whether this plugin overrides execute(String, JSONArray, CallbackContext).
+     */
+    private boolean overridesJSONArrayExecute() {
+        if (overridesJSONArrayExecute == null) {
+            try {
+                Method m = getClass().getMethod("execute", String.class, JSONArray.class, CallbackContext.class);
+                overridesJSONArrayExecute = m.getDeclaringClass() != CordovaPlugin.class;
+            } catch (NoSuchMethodException e) {
+                overridesJSONArrayExecute = true;
+            }
+        }
+        return overridesJSONArrayExecute;
+    }
+
     /**
      * Executes the request.
      *
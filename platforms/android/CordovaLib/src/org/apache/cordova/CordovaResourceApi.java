@@ -29,6 +29,10 @@ import android.util.Base64;
 import android.webkit.MimeTypeMap;
 
 import com.squareup.okhttp.OkHttpClient;
+import com.squareup.okhttp.internal.CachingDns;
+import com.squareup.okhttp.internal.Dns;
+import com.squareup.okhttp.internal.http.HttpURLConnectionImpl;
+import com.squareup.okhttp.internal.http.HttpsURLConnectionImpl;
 
 import org.apache.http.util.EncodingUtils;
 
@@ -43,12 +47,18 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 import java.nio.channels.FileChannel;
+import java.util.Collection;
 import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
 public class CordovaResourceApi {
     @SuppressWarnings("unused")
     private static final String LOG_TAG = "CordovaResourceApi";
 
+    // The lowest SPDY priority, for transfers that shouldn't hold up the page's own requests.
+    public static final int PRIORITY_BULK = 7;
+
     public static final int URI_TYPE_FILE = 0;
     public static final int URI_TYPE_ASSET = 1;
     public static final int URI_TYPE_CONTENT = 2;
@@ -60,21 +70,30 @@ public class CordovaResourceApi {
     
     private static final String[] LOCAL_FILE_PROJECTION = { "_data" };
     
+    // Shared by all requests, so that a host is looked up once rather than once per connection.
+    private static final CachingDns dns = new CachingDns(Dns.DEFAULT);
+
     // Creating this is light-weight.
-    private static OkHttpClient httpClient = new OkHttpClient();
+    private static OkHttpClient httpClient = new OkHttpClient().setDns(dns).setRouteRacing(true);
     
+    // MIME types by lower-cased extension. An empty string stands for an unknown type.
+    private static final ConcurrentHashMap<String, String> mimeTypes = new ConcurrentHashMap<String, String>();
+
     static Thread jsThread;
 
     private final AssetManager assetManager;
     private final ContentResolver contentResolver;
     private final PluginManager pluginManager;
+    private final LocalAssetServer assetServer;
     private boolean threadCheckingEnabled = true;
+    private volatile boolean assetServerEnabled;
 
 
     public CordovaResourceApi(Context context, PluginManager pluginManager) {
         this.contentResolver = context.getContentResolver();
         this.assetManager = context.getAssets();
         this.pluginManager = pluginManager;
+        this.assetServer = new LocalAssetServer(assetManager);
     }
     
     public void setThreadCheckingEnabled(boolean value) {
@@ -84,6 +103,42 @@ public class CordovaResourceApi {
     public boolean isThreadCheckingEnabled() {
         return threadCheckingEnabled;
     }
+
+    /**
+     * When enabled, the WebView's requests for bundled assets are all served
+     * through openForRead() rather than by the WebView itself.
+     */
+    public void setAssetServerEnabled(boolean value) {
+        assetServerEnabled = value;
+    }
+
+    public boolean isAssetServerEnabled() {
+        return assetServerEnabled;
+    }
+
+    /**
+     * Learns the MIME type and length of every asset under the given directory
+     * (e.g. "www") on the given executor, ahead of the first requests for them.
+     */
+    public void prefetchAssetInfo(String assetDir, Executor executor) {
+        assetServer.prefetch(assetDir, executor);
+    }
+
+    /**
+     * Looks up the given hosts in the background, so that the first request to
+     * each doesn't have to wait for DNS. Safe to call from any thread.
+     */
+    public void prefetchDns(Collection<String> hosts) {
+        dns.prefetch(hosts);
+    }
+
+    /**
+     * Returns the DNS cache used by createHttpConnection(), which also keeps
+     * hit, miss and lookup time counts.
+     */
+    public CachingDns getDns() {
+        return dns;
+    }
     
     public static int getUriType(Uri uri) {
         assertNonRelative(uri);
@@ -178,18 +233,31 @@ public class CordovaResourceApi {
         return null;
     }
     
-    private String getMimeTypeFromPath(String path) {
+    static String getMimeTypeFromPath(String path) {
         String extension = path;
         int lastDot = extension.lastIndexOf('.');
         if (lastDot != -1) {
             extension = extension.substring(lastDot + 1);
         }
         // Convert the URI string to lower case to ensure compatibility with MimeTypeMap (see CB-2185).
-        extension = extension.toLowerCase(Locale.getDefault());
-        if (extension.equals("3ga")) {
-            return "audio/3gpp";
+        String lowerCaseExtension = extension.toLowerCase(Locale.getDefault());
+        // Anything longer is more likely a directory name than an extension, and isn't worth keeping.
+        boolean cacheable = lastDot != -1 && lowerCaseExtension.length() <= 8;
+        String mimeType = cacheable ? mimeTypes.get(lowerCaseExtension) : null;
+        if (mimeType == null) {
+            if (lowerCaseExtension.equals("3ga")) {
+                mimeType = "audio/3gpp";
+            } else {
+                mimeType = MimeTypeMap.getSingleton().getMimeTypeFromExtension(lowerCaseExtension);
+            }
+            if (mimeType == null) {
+                mimeType = "";
+            }
+            if (cacheable) {
+                mimeTypes.put(lowerCaseExtension, mimeType);
+            }
         }
-        return MimeTypeMap.getSingleton().getMimeTypeFromExtension(extension);
+        return mimeType.length() == 0 ? null : mimeType;
     }
     
     /**
@@ -225,19 +293,7 @@ public class CordovaResourceApi {
             }
             case URI_TYPE_ASSET: {
                 String assetPath = uri.getPath().substring(15);
-                AssetFileDescriptor assetFd = null;
-                InputStream inputStream;
-                long length = -1;
-                try {
-                    assetFd = assetManager.openFd(assetPath);
-                    inputStream = assetFd.createInputStream();
-                    length = assetFd.getLength();
-                } catch (FileNotFoundException e) {
-                    // Will occur if the file is compressed.
-                    inputStream = assetManager.open(assetPath);
-                }
-                String mimeType = getMimeTypeFromPath(assetPath);
-                return new OpenForReadResult(uri, inputStream, mimeType, length, assetFd);
+                return assetServer.open(uri, assetPath);
             }
             case URI_TYPE_CONTENT:
             case URI_TYPE_RESOURCE: {
@@ -302,6 +358,21 @@ public class CordovaResourceApi {
         assertBackgroundThread();
         return httpClient.open(new URL(uri.toString()));
     }
+
+    /**
+     * Like createHttpConnection(uri), with a SPDY priority from 0 (highest, the
+     * default) to 7 (lowest). When requests share a SPDY connection, the data of
+     * higher priority ones is sent first. Has no effect on HTTP/1.x connections.
+     */
+    public HttpURLConnection createHttpConnection(Uri uri, int priority) throws IOException {
+        HttpURLConnection conn = createHttpConnection(uri);
+        if (conn instanceof HttpURLConnectionImpl) {
+            ((HttpURLConnectionImpl)conn).setPriority(priority);
+        } else if (conn instanceof HttpsURLConnectionImpl) {
+            ((HttpsURLConnectionImpl)conn).setPriority(priority);
+        }
+        return conn;
+    }
     
     // Copies the input to the output in the most efficient manner possible.
     // Closes both streams.
@@ -40,6 +40,7 @@ import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.net.ConnectivityManager;
 import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
@@ -77,6 +78,7 @@ public class CordovaWebView extends WebView {
     private boolean paused;
 
     private BroadcastReceiver receiver;
+    private BroadcastReceiver networkReceiver;
 
 
     /** Activities and other important classes **/
@@ -98,6 +100,7 @@ public class CordovaWebView extends WebView {
 
     NativeToJsMessageQueue jsMessageQueue;
     ExposedJsApi exposedJsApi;
+    PreloadCache preloadCache;
 
     /** custom view created by the browser (a video player for example) */
     private View mCustomView;
@@ -106,6 +109,7 @@ public class CordovaWebView extends WebView {
     private ActivityResult mResult = null;
 
     private CordovaResourceApi resourceApi;
+    private boolean resourcePrefetchStarted;
 
     class ActivityResult {
         
@@ -342,6 +346,22 @@ public class CordovaWebView extends WebView {
         jsMessageQueue = new NativeToJsMessageQueue(this, cordova);
         exposedJsApi = new ExposedJsApi(pluginManager, jsMessageQueue);
         resourceApi = new CordovaResourceApi(this.getContext(), pluginManager);
+        resourceApi.prefetchDns(Config.getWhitelistedHostNames());
+        // Cached DNS answers may be wrong on the new network, e.g. behind a captive portal.
+        if (this.networkReceiver == null) {
+            this.networkReceiver = new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context context, Intent intent) {
+                    // The sticky broadcast delivered on registration is not a change.
+                    if (!isInitialStickyBroadcast()) {
+                        resourceApi.getDns().evictAll();
+                    }
+                }
+            };
+            this.cordova.getActivity().registerReceiver(this.networkReceiver,
+                    new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+        }
+        preloadCache = new PreloadCache(resourceApi);
         exposeJsInterface();
     }
 
@@ -386,6 +406,13 @@ public class CordovaWebView extends WebView {
         super.setWebViewClient(client);
     }
 
+    /**
+     * Returns whether the installed client passes requests through shouldInterceptRequest.
+     */
+    public boolean canInterceptRequests() {
+        return viewClient != null && viewClient.canInterceptRequests();
+    }
+
     /**
      * Set the WebChromeClient.
      *
@@ -455,6 +482,7 @@ public class CordovaWebView extends WebView {
 
         this.url = url;
         this.pluginManager.init();
+        this.startResourcePrefetch();
 
 
         // Create a timeout timer for loadUrl
@@ -515,6 +543,27 @@ public class CordovaWebView extends WebView {
         }
     }
 
+    /**
+     * Starts the work that readies local resources for the first page load. This
+     * waits for the first load, since the client may be replaced after setup()
+     * and the work only pays off when the client intercepts requests.
+     */
+    private void startResourcePrefetch() {
+        if (resourcePrefetchStarted) {
+            return;
+        }
+        resourcePrefetchStarted = true;
+        if (!canInterceptRequests() || cordova.getThreadPool() == null) {
+            return;
+        }
+        if ("true".equals(this.getProperty("AssetServer", "false"))) {
+            resourceApi.setAssetServerEnabled(true);
+            resourceApi.prefetchAssetInfo("www", cordova.getThreadPool());
+        }
+        // Fetch the <preload> resources while the splash screen is up and the start page loads.
+        preloadCache.start(Config.getPreloadUrls(), cordova.getThreadPool());
+    }
+
     /**
      * Load the url into the webview after waiting for period of time.
      * This is used to display the splashscreen for certain amount of time.
@@ -881,6 +930,13 @@ public class CordovaWebView extends WebView {
                 Log.e(TAG, "Error unregistering configuration receiver: " + e.getMessage(), e);
             }
         }
+        if (this.networkReceiver != null) {
+            try {
+                this.cordova.getActivity().unregisterReceiver(this.networkReceiver);
+            } catch (Exception e) {
+                Log.e(TAG, "Error unregistering network receiver: " + e.getMessage(), e);
+            }
+        }
     }
     
     public void onNewIntent(Intent intent)
@@ -95,6 +95,14 @@ public class CordovaWebViewClient extends WebViewClient {
         this.appView = view;
     }
 
+    /**
+     * Returns whether this client answers shouldInterceptRequest, and so can serve
+     * URLs such as the binary results parked by NativeToJsMessageQueue.
+     */
+    public boolean canInterceptRequests() {
+        return false;
+    }
+
 
     // Parses commands sent by setting the webView's URL to:
     // cdvbrg:service/action/callbackId#jsonArgs
@@ -270,6 +278,16 @@ public class CordovaWebViewClient extends WebViewClient {
         // Flush stale messages.
         this.appView.jsMessageQueue.reset();
 
+        // Binary results are fetched from a file: URL, which only a file: page may
+        // read, and which only an intercepting client can serve.
+        this.appView.jsMessageQueue.setBinaryTransportEnabled(this.appView.canInterceptRequests()
+                && url != null && url.startsWith("file:"));
+
+        // Preloads are only for the start page.
+        if (this.appView.preloadCache != null) {
+            this.appView.preloadCache.onPageStarted();
+        }
+
         // Broadcast message that page has loaded
         this.appView.postMessage("onPageStarted", url);
 
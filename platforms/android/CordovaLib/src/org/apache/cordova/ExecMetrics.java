@@ -0,0 +1,230 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Records how long plugin exec() calls take, per service and action.
+ *
+ * For each (service, action) pair four histograms are kept:
+ * the time execute() held the calling thread, the time until the final
+ * (non-keepCallback) result was sent, the size of the arguments and the
+ * size of each result. The status of each final result is counted too,
+ * including the errors that PluginManager sends on the plugin's behalf.
+ */
+public class ExecMetrics {
+
+    private final HashMap<String, ActionMetrics> actions = new HashMap<String, ActionMetrics>();
+
+    /**
+     * Returns the metrics for the given service and action, creating them if needed.
+     */
+    public ActionMetrics get(String service, String action) {
+        String key = service + "." + action;
+        synchronized (actions) {
+            ActionMetrics ret = actions.get(key);
+            if (ret == null) {
+                ret = new ActionMetrics(service, action);
+                actions.put(key, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Discards everything recorded so far.
+     */
+    public void reset() {
+        synchronized (actions) {
+            actions.clear();
+        }
+    }
+
+    /**
+     * Returns all recorded metrics as a JSON array with one object per (service, action).
+     */
+    public JSONArray toJSON() throws JSONException {
+        JSONArray ret = new JSONArray();
+        synchronized (actions) {
+            for (Map.Entry<String, ActionMetrics> entry : actions.entrySet()) {
+                ret.put(entry.getValue().toJSON());
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Writes the metrics as JSON to the given file, replacing its contents.
+     */
+    public void dumpToFile(File file) throws IOException, JSONException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(toJSON().toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The metrics for a single (service, action) pair.
+     */
+    public static class ActionMetrics {
+        public final String service;
+        public final String action;
+        /** Time spent inside execute() on the calling thread, in microseconds. */
+        public final Histogram dispatchMicros = new Histogram();
+        /** Time from exec() until the final result was sent, in microseconds. */
+        public final Histogram completionMicros = new Histogram();
+        /** Length of the JSON arguments, in chars. */
+        public final Histogram argsLength = new Histogram();
+        /** Length of each result's message: bytes for binary results, chars otherwise. */
+        public final Histogram resultLength = new Histogram();
+
+        private final long[] statusCounts = new long[PluginResult.Status.values().length];
+
+        ActionMetrics(String service, String action) {
+            this.service = service;
+            this.action = action;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject ret = new JSONObject();
+            ret.put("service", service);
+            ret.put("action", action);
+            ret.put("dispatchMicros", dispatchMicros.toJSON());
+            ret.put("completionMicros", completionMicros.toJSON());
+            ret.put("argsLength", argsLength.toJSON());
+            ret.put("resultLength", resultLength.toJSON());
+            JSONObject statuses = new JSONObject();
+            synchronized (statusCounts) {
+                for (PluginResult.Status status : PluginResult.Status.values()) {
+                    if (statusCounts[status.ordinal()] > 0) {
+                        statuses.put(status.name(), statusCounts[status.ordinal()]);
+                    }
+                }
+            }
+            ret.put("statuses", statuses);
+            return ret;
+        }
+
+        /**
+         * Records the size of a result sent for this action, and its status if it is the final one.
+         */
+        public void recordResult(PluginResult result) {
+            resultLength.record(result.getMessageLength());
+            if (!result.getKeepCallback()) {
+                synchronized (statusCounts) {
+                    statusCounts[result.getStatus()]++;
+                }
+            }
+        }
+
+        /**
+         * Returns how many final results were sent with the given status.
+         */
+        public long getStatusCount(PluginResult.Status status) {
+            synchronized (statusCounts) {
+                return statusCounts[status.ordinal()];
+            }
+        }
+    }
+
+    /**
+     * A histogram with power-of-two buckets. Bucket i counts values in [2^(i-1), 2^i),
+     * with bucket 0 counting zero.
+     */
+    public static class Histogram {
+        private static final int NUM_BUCKETS = 40;
+
+        private final long[] buckets = new long[NUM_BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        public synchronized void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), NUM_BUCKETS - 1);
+            buckets[bucket]++;
+            count++;
+            sum += value;
+            if (value > max) {
+                max = value;
+            }
+        }
+
+        public synchronized long getCount() {
+            return count;
+        }
+
+        public synchronized long getMax() {
+            return max;
+        }
+
+        public synchronized double getMean() {
+            return count == 0 ? 0 : (double) sum / count;
+        }
+
+        /**
+         * Returns an upper bound for the given percentile (0-100), accurate to within a factor of two.
+         */
+        public synchronized long getPercentile(double percentile) {
+            if (count == 0) {
+                return 0;
+            }
+            long threshold = (long) Math.ceil(count * percentile / 100.0);
+            long seen = 0;
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                seen += buckets[i];
+                if (seen >= threshold) {
+                    return Math.min(i == 0 ? 0 : (1L << i) - 1, max);
+                }
+            }
+            return max;
+        }
+
+        synchronized JSONObject toJSON() throws JSONException {
+            JSONObject ret = new JSONObject();
+            ret.put("count", count);
+            ret.put("mean", getMean());
+            ret.put("p50", getPercentile(50));
+            ret.put("p90", getPercentile(90));
+            ret.put("p99", getPercentile(99));
+            ret.put("max", max);
+            JSONArray bucketCounts = new JSONArray();
+            for (int i = 0; i < NUM_BUCKETS; ++i) {
+                bucketCounts.put(buckets[i]);
+            }
+            ret.put("buckets", bucketCounts);
+            return ret;
+        }
+    }
+}
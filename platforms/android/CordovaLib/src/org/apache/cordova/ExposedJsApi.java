@@ -64,6 +64,43 @@ import org.json.JSONException;
         }
     }
     
+    /**
+     * Runs several exec() calls in a single bridge crossing and returns the
+     * messages they produced as one combined response.
+     *
+     * @param batch     The calls, framed as described in PluginManager.execBatch().
+     * @return          The messages, or "@Invalid batch." if the framing was malformed and nothing ran.
+     */
+    @JavascriptInterface
+    public String execBatch(String batch) {
+        if (batch == null) {
+            return "@Null arguments.";
+        }
+
+        jsMessageQueue.setPaused(true);
+        try {
+            CordovaResourceApi.jsThread = Thread.currentThread();
+
+            try {
+                pluginManager.execBatch(batch);
+            } catch (IllegalArgumentException e) {
+                // None of the calls ran. cordova.js resends them one at a time.
+                LOG.e("ExposedJsApi", "Malformed exec batch: " + e.getMessage());
+                return "@Invalid batch.";
+            }
+            String ret = "";
+            if (!NativeToJsMessageQueue.DISABLE_EXEC_CHAINING) {
+                ret = jsMessageQueue.popAndEncode(false);
+            }
+            return ret;
+        } catch (Throwable e) {
+            e.printStackTrace();
+            return "";
+        } finally {
+            jsMessageQueue.setPaused(false);
+        }
+    }
+
     @JavascriptInterface
     public void setNativeToJsBridgeMode(int value) {
         jsMessageQueue.setBridgeMode(value);
@@ -20,6 +20,7 @@ package org.apache.cordova;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaResourceApi.OpenForReadResult;
@@ -44,9 +45,21 @@ public class IceCreamCordovaWebViewClient extends CordovaWebViewClient {
         super(cordova, view);
     }
 
+    @Override
+    public boolean canInterceptRequests() {
+        return true;
+    }
+
     @Override
     public WebResourceResponse shouldInterceptRequest(WebView view, String url) {
         try {
+            // Serve large plugin results parked by the bridge.
+            if (url.startsWith(BinaryPayloadStore.URL_PREFIX)) {
+                InputStream payload = appView.jsMessageQueue.binaryPayloads.open(url);
+                // A null stream results in a 404.
+                return new WebResourceResponse("application/octet-stream", null, payload);
+            }
+
             // Check the against the white-list.
             if ((url.startsWith("http:") || url.startsWith("https:")) && !Config.isUrlWhiteListed(url)) {
                 LOG.w(TAG, "URL blocked by whitelist: " + url);
@@ -54,12 +67,19 @@ public class IceCreamCordovaWebViewClient extends CordovaWebViewClient {
                 return new WebResourceResponse("text/plain", "UTF-8", null);
             }
 
+            // Serve resources that were fetched ahead of time from the <preload> list.
+            PreloadCache.Resource preloaded = appView.preloadCache.get(url);
+            if (preloaded != null) {
+                return new WebResourceResponse(preloaded.mimeType, preloaded.encoding, preloaded.open());
+            }
+
             CordovaResourceApi resourceApi = appView.getResourceApi();
             Uri origUri = Uri.parse(url);
             // Allow plugins to intercept WebView requests.
             Uri remappedUri = resourceApi.remapUri(origUri);
             
-            if (!origUri.equals(remappedUri) || needsSpecialsInAssetUrlFix(origUri)) {
+            if (!origUri.equals(remappedUri) || needsSpecialsInAssetUrlFix(origUri)
+                    || (resourceApi.isAssetServerEnabled() && url.startsWith("file:///android_asset/"))) {
                 OpenForReadResult result = resourceApi.openForRead(remappedUri, true);
                 return new WebResourceResponse(result.mimeType, "UTF-8", result.inputStream);
             }
@@ -0,0 +1,282 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+import org.apache.cordova.CordovaResourceApi.OpenForReadResult;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.net.Uri;
+
+/**
+ * Opens files bundled in the APK's assets for CordovaResourceApi.
+ *
+ * Assets that are stored uncompressed are memory-mapped the first time they are
+ * read, and later reads (e.g. after a reload) are served from the same mapping.
+ * Streams over a mapping skip in constant time.
+ *
+ * Range requests are not supported: WebResourceResponse has no way to return a
+ * partial response on this API level, so every intercepted request is answered
+ * with the whole asset, and media seeks are not made any cheaper.
+ *
+ * The MIME type, length and compression of each asset are remembered once known,
+ * and prefetch() learns them for a whole directory in the background.
+ */
+/* package */ class LocalAssetServer {
+    private static final String TAG = "LocalAssetServer";
+
+    // Address space given over to mappings. The least recently used are dropped beyond it.
+    private static final long MAX_MAPPED_BYTES = 64L * 1024 * 1024;
+    // Assets larger than this are streamed from their file descriptor instead.
+    private static final long MAX_MAPPED_ASSET_BYTES = 32L * 1024 * 1024;
+
+    // Stands in for assets that don't exist, since the APK can't change while we run.
+    private static final AssetInfo MISSING = new AssetInfo(null, -1, false);
+
+    private final AssetManager assetManager;
+    private final ConcurrentHashMap<String, AssetInfo> infos = new ConcurrentHashMap<String, AssetInfo>();
+
+    // Guarded by itself. In access order, so the least recently used mapping is dropped first.
+    private final LinkedHashMap<String, MappedByteBuffer> mappings =
+            new LinkedHashMap<String, MappedByteBuffer>(16, 0.75f, true);
+    private long mappedBytes;
+
+    LocalAssetServer(AssetManager assetManager) {
+        this.assetManager = assetManager;
+    }
+
+    /**
+     * Opens the asset at the given path, which is relative to the assets root.
+     * @throws FileNotFoundException if there is no such asset.
+     */
+    public OpenForReadResult open(Uri uri, String assetPath) throws IOException {
+        AssetInfo info = getInfo(assetPath);
+        if (info.compressed) {
+            return new OpenForReadResult(uri, assetManager.open(assetPath), info.mimeType, -1, null);
+        }
+        if (info.length > MAX_MAPPED_ASSET_BYTES) {
+            AssetFileDescriptor assetFd = assetManager.openFd(assetPath);
+            return new OpenForReadResult(uri, assetFd.createInputStream(), info.mimeType, info.length, assetFd);
+        }
+        ByteBuffer mapping = map(assetPath);
+        // Each stream gets its own position within the shared mapping.
+        return new OpenForReadResult(uri, new ByteBufferInputStream(mapping.duplicate()), info.mimeType, info.length, null);
+    }
+
+    /**
+     * Learns the type and length of every asset under the given directory on the
+     * given executor, so that requests for them don't have to look them up.
+     */
+    public void prefetch(final String assetDir, Executor executor) {
+        executor.execute(new Runnable() {
+            public void run() {
+                long start = System.currentTimeMillis();
+                int count = prefetchDir(assetDir);
+                LOG.d(TAG, "Indexed " + count + " assets under " + assetDir + " in "
+                        + (System.currentTimeMillis() - start) + "ms");
+            }
+        });
+    }
+
+    private int prefetchDir(String dir) {
+        String[] names;
+        try {
+            names = assetManager.list(dir);
+        } catch (IOException e) {
+            return 0;
+        }
+        int count = 0;
+        for (String name : names) {
+            String path = dir + "/" + name;
+            String[] children;
+            try {
+                children = assetManager.list(path);
+            } catch (IOException e) {
+                continue;
+            }
+            // list() returns nothing for a file.
+            if (children != null && children.length > 0) {
+                count += prefetchDir(path);
+                continue;
+            }
+            try {
+                getInfo(path);
+                count++;
+            } catch (IOException e) {
+                // An empty directory.
+            }
+        }
+        return count;
+    }
+
+    private AssetInfo getInfo(String assetPath) throws IOException {
+        AssetInfo info = infos.get(assetPath);
+        if (info == null) {
+            info = lookUp(assetPath);
+            infos.put(assetPath, info);
+        }
+        if (info == MISSING) {
+            throw new FileNotFoundException(assetPath);
+        }
+        return info;
+    }
+
+    private AssetInfo lookUp(String assetPath) throws IOException {
+        String mimeType = CordovaResourceApi.getMimeTypeFromPath(assetPath);
+        try {
+            AssetFileDescriptor assetFd = assetManager.openFd(assetPath);
+            long length = assetFd.getLength();
+            assetFd.close();
+            return new AssetInfo(mimeType, length, false);
+        } catch (FileNotFoundException e) {
+            // Will occur if the file is compressed, or doesn't exist.
+        }
+        try {
+            assetManager.open(assetPath).close();
+            return new AssetInfo(mimeType, -1, true);
+        } catch (FileNotFoundException e) {
+            return MISSING;
+        }
+    }
+
+    private ByteBuffer map(String assetPath) throws IOException {
+        synchronized (mappings) {
+            MappedByteBuffer mapping = mappings.get(assetPath);
+            if (mapping != null) {
+                return mapping;
+            }
+        }
+        AssetFileDescriptor assetFd = assetManager.openFd(assetPath);
+        MappedByteBuffer mapping;
+        // Closing the stream closes the descriptor.
+        FileInputStream in = assetFd.createInputStream();
+        try {
+            FileChannel channel = in.getChannel();
+            // The asset is a region of the APK; the mapping stays valid once the file is closed.
+            mapping = channel.map(FileChannel.MapMode.READ_ONLY, assetFd.getStartOffset(), assetFd.getLength());
+        } finally {
+            in.close();
+        }
+        synchronized (mappings) {
+            MappedByteBuffer existing = mappings.get(assetPath);
+            if (existing != null) {
+                return existing;
+            }
+            mappings.put(assetPath, mapping);
+            mappedBytes += mapping.capacity();
+            // Streams that are still open keep their mapping alive until they are collected.
+            Iterator<Map.Entry<String, MappedByteBuffer>> it = mappings.entrySet().iterator();
+            while (mappedBytes > MAX_MAPPED_BYTES && it.hasNext()) {
+                Map.Entry<String, MappedByteBuffer> eldest = it.next();
+                if (eldest.getValue() == mapping) {
+                    break;
+                }
+                mappedBytes -= eldest.getValue().capacity();
+                it.remove();
+            }
+        }
+        return mapping;
+    }
+
+    private static final class AssetInfo {
+        final String mimeType;
+        final long length;
+        final boolean compressed;
+
+        AssetInfo(String mimeType, long length, boolean compressed) {
+            this.mimeType = mimeType;
+            this.length = length;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * A stream over a buffer, which skips without reading and supports mark().
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+            // So that reset() without a mark() rewinds to the start.
+            buffer.mark();
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, buffer.remaining());
+            buffer.get(b, off, count);
+            return count;
+        }
+
+        @Override
+        public long skip(long n) {
+            if (n <= 0) {
+                return 0;
+            }
+            int count = (int) Math.min(n, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            return count;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+
+        @Override
+        public boolean markSupported() {
+            return true;
+        }
+
+        @Override
+        public synchronized void mark(int readLimit) {
+            buffer.mark();
+        }
+
+        @Override
+        public synchronized void reset() {
+            buffer.reset();
+        }
+    }
+}
@@ -20,7 +20,7 @@ package org.apache.cordova;
 
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
-import java.util.LinkedList;
+import java.util.HashMap;
 
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.PluginResult;
@@ -54,6 +54,10 @@ public class NativeToJsMessageQueue {
     // This currently only chops up on message boundaries. It may be useful
     // to allow it to break up messages.
     private static int MAX_PAYLOAD_SIZE = 50 * 1024 * 10240;
+
+    // ArrayBuffer results at least this large are fetched by JS from a one-time
+    // URL instead of being Base64-encoded into the message.
+    private static final int MIN_BINARY_TRANSPORT_SIZE = 32 * 1024;
     
     /**
      * The index into registeredListeners to treat as active. 
@@ -67,9 +71,42 @@ public class NativeToJsMessageQueue {
     private boolean paused;
     
     /**
-     * The list of JavaScript statements to be sent to JavaScript.
+     * Initial number of slots in the message ring buffer. Must be a power of two.
+     */
+    private static final int INITIAL_QUEUE_CAPACITY = 16;
+
+    /**
+     * The JavaScript statements to be sent to JavaScript, stored as a ring buffer.
+     * The buffer doubles in size when full, so its length is always a power of two.
+     */
+    private JsMessage[] queue = new JsMessage[INITIAL_QUEUE_CAPACITY];
+    private int queueHead;
+    private int queueSize;
+
+    /**
+     * Sum of the packed lengths of all queued messages. Lets popAndEncode() skip
+     * sizing the batch when everything fits in a single payload.
+     */
+    private int queuedPayloadLen;
+
+    /**
+     * Queued coalescable plugin results, keyed by callbackId. A newer coalescable
+     * result for the same callback replaces the queued one in place.
+     */
+    private final HashMap<String, JsMessage> coalescableMessages = new HashMap<String, JsMessage>();
+
+    /**
+     * Number of plugin results that were dropped because a newer result replaced them.
      */
-    private final LinkedList<JsMessage> queue = new LinkedList<JsMessage>();
+    private long coalescedMessageCount;
+
+    /**
+     * Held while popping and encoding so that messages are encoded in order
+     * without holding the queue lock, which plugin threads need in order to enqueue.
+     * Bridge modes that send from the calling thread hold it until the batch is
+     * sent as well. When both are needed, this lock must be acquired before the queue lock.
+     */
+    private final Object drainLock = new Object();
 
     /**
      * The array of listeners that can be used to send messages to JS.
@@ -79,6 +116,16 @@ public class NativeToJsMessageQueue {
     private final CordovaInterface cordova;
     private final CordovaWebView webView;
 
+    /**
+     * Large ArrayBuffer results waiting to be fetched by JS.
+     */
+    final BinaryPayloadStore binaryPayloads = new BinaryPayloadStore();
+
+    /**
+     * Whether the current page can fetch binary payloads. Otherwise they are sent inline.
+     */
+    private volatile boolean binaryTransportEnabled;
+
     public NativeToJsMessageQueue(CordovaWebView webView, CordovaInterface cordova) {
         this.cordova = cordova;
         this.webView = webView;
@@ -99,13 +146,17 @@ public class NativeToJsMessageQueue {
         } else {
             if (value != activeListenerIndex) {
                 Log.d(LOG_TAG, "Set native->JS mode to " + value);
+                BridgeMode activeListener;
                 synchronized (this) {
                     activeListenerIndex = value;
-                    BridgeMode activeListener = registeredListeners[value];
-                    if (!paused && !queue.isEmpty() && activeListener != null) {
-                        activeListener.onNativeToJsMessageAvailable();
+                    activeListener = registeredListeners[value];
+                    if (paused || queueSize == 0) {
+                        activeListener = null;
                     }
                 }
+                if (activeListener != null) {
+                    activeListener.onNativeToJsMessageAvailable();
+                }
             }
         }
     }
@@ -114,54 +165,115 @@ public class NativeToJsMessageQueue {
      * Clears all messages and resets to the default bridge mode.
      */
     public void reset() {
+        synchronized (drainLock) {
+            synchronized (this) {
+                queue = new JsMessage[INITIAL_QUEUE_CAPACITY];
+                queueHead = 0;
+                queueSize = 0;
+                queuedPayloadLen = 0;
+                coalescableMessages.clear();
+            }
+            binaryPayloads.clear();
+        }
+        setBridgeMode(DEFAULT_BRIDGE_MODE);
+    }
+
+    /**
+     * Sets whether large ArrayBuffer results may be parked in binaryPayloads and
+     * fetched by the page, rather than being Base64-encoded into the message.
+     */
+    public void setBinaryTransportEnabled(boolean value) {
+        binaryTransportEnabled = value;
+    }
+
+    /**
+     * Returns whether there are messages waiting to be sent.
+     */
+    public boolean isEmpty() {
         synchronized (this) {
-            queue.clear();
-            setBridgeMode(DEFAULT_BRIDGE_MODE);
+            return queueSize == 0;
         }
     }
 
-    private int calculatePackedMessageLength(JsMessage message) {
-        int messageLen = message.calculateEncodedLength();
-        String messageLenStr = String.valueOf(messageLen);
-        return messageLenStr.length() + messageLen + 1;        
+    /**
+     * Returns the number of plugin results that were replaced by a newer result
+     * for the same callback before they could be sent.
+     */
+    public long getCoalescedMessageCount() {
+        synchronized (this) {
+            return coalescedMessageCount;
+        }
     }
-    
+
     private void packMessage(JsMessage message, StringBuilder sb) {
-        int len = message.calculateEncodedLength();
-        sb.append(len)
+        sb.append(message.encodedLength)
           .append(' ');
         message.encodeAsMessage(sb);
     }
-    
+
     /**
-     * Combines and returns queued messages combined into a single string.
-     * Combines as many messages as possible, while staying under MAX_PAYLOAD_SIZE.
-     * Returns null if the queue is empty.
+     * Removes as many messages as possible from the head of the queue while
+     * staying under MAX_PAYLOAD_SIZE. At least one message is always removed.
+     * Must be called with the queue lock held, and the queue must not be empty.
      */
-    public String popAndEncode(boolean fromOnlineEvent) {
-        synchronized (this) {
-            registeredListeners[activeListenerIndex].notifyOfFlush(fromOnlineEvent);
-            if (queue.isEmpty()) {
-                return null;
-            }
+    private JsMessage[] popMessages(int perMessageOverhead) {
+        int mask = queue.length - 1;
+        int numMessagesToSend = queueSize;
+        if (MAX_PAYLOAD_SIZE > 0 && queuedPayloadLen + perMessageOverhead * queueSize > MAX_PAYLOAD_SIZE) {
             int totalPayloadLen = 0;
-            int numMessagesToSend = 0;
-            for (JsMessage message : queue) {
-                int messageSize = calculatePackedMessageLength(message);
-                if (numMessagesToSend > 0 && totalPayloadLen + messageSize > MAX_PAYLOAD_SIZE && MAX_PAYLOAD_SIZE > 0) {
+            numMessagesToSend = 0;
+            for (int i = 0; i < queueSize; ++i) {
+                int messageSize = queue[(queueHead + i) & mask].packedLength + perMessageOverhead;
+                if (numMessagesToSend > 0 && totalPayloadLen + messageSize > MAX_PAYLOAD_SIZE) {
                     break;
                 }
                 totalPayloadLen += messageSize;
                 numMessagesToSend += 1;
             }
+        }
+        JsMessage[] ret = new JsMessage[numMessagesToSend];
+        for (int i = 0; i < numMessagesToSend; ++i) {
+            JsMessage message = queue[queueHead];
+            queue[queueHead] = null;
+            queueHead = (queueHead + 1) & mask;
+            queuedPayloadLen -= message.packedLength;
+            if (message.coalescable) {
+                coalescableMessages.remove(message.jsPayloadOrCallbackId);
+            }
+            ret[i] = message;
+        }
+        queueSize -= numMessagesToSend;
+        return ret;
+    }
 
-            StringBuilder sb = new StringBuilder(totalPayloadLen);
-            for (int i = 0; i < numMessagesToSend; ++i) {
-                JsMessage message = queue.removeFirst();
+    /**
+     * Combines and returns queued messages combined into a single string.
+     * Combines as many messages as possible, while staying under MAX_PAYLOAD_SIZE.
+     * Returns null if the queue is empty.
+     */
+    public String popAndEncode(boolean fromOnlineEvent) {
+        synchronized (drainLock) {
+            JsMessage[] messages;
+            boolean morePending;
+            synchronized (this) {
+                registeredListeners[activeListenerIndex].notifyOfFlush(fromOnlineEvent);
+                if (queueSize == 0) {
+                    return null;
+                }
+                messages = popMessages(0);
+                morePending = queueSize > 0;
+            }
+            // Encoding happens outside of the queue lock so that producers are not held up.
+            int totalPayloadLen = 0;
+            for (JsMessage message : messages) {
+                totalPayloadLen += message.packedLength;
+            }
+            StringBuilder sb = new StringBuilder(totalPayloadLen + 1);
+            for (JsMessage message : messages) {
                 packMessage(message, sb);
             }
             
-            if (!queue.isEmpty()) {
+            if (morePending) {
                 // Attach a char to indicate that there are more messages pending.
                 sb.append('*');
             }
@@ -174,27 +286,31 @@ public class NativeToJsMessageQueue {
      * Same as popAndEncode(), except encodes in a form that can be executed as JS.
      */
     private String popAndEncodeAsJs() {
-        synchronized (this) {
-            int length = queue.size();
-            if (length == 0) {
-                return null;
+        synchronized (drainLock) {
+            JsMessage[] messages;
+            boolean willSendAllMessages;
+            synchronized (this) {
+                if (queueSize == 0) {
+                    return null;
+                }
+                messages = popMessages(50); // overestimate.
+                willSendAllMessages = queueSize == 0;
             }
+            int numMessagesToSend = messages.length;
             int totalPayloadLen = 0;
-            int numMessagesToSend = 0;
-            for (JsMessage message : queue) {
-                int messageSize = message.calculateEncodedLength() + 50; // overestimate.
-                if (numMessagesToSend > 0 && totalPayloadLen + messageSize > MAX_PAYLOAD_SIZE && MAX_PAYLOAD_SIZE > 0) {
-                    break;
+            for (JsMessage message : messages) {
+                if (message.binaryUrl != null) {
+                    // Eval-based bridges can't fetch the bytes, so send them inline.
+                    binaryPayloads.remove(message.binaryUrl);
+                    message.binaryUrl = null;
                 }
-                totalPayloadLen += messageSize;
-                numMessagesToSend += 1;
+                totalPayloadLen += message.encodedLength + 50;
             }
-            boolean willSendAllMessages = numMessagesToSend == queue.size();
             StringBuilder sb = new StringBuilder(totalPayloadLen + (willSendAllMessages ? 0 : 100));
             // Wrap each statement in a try/finally so that if one throws it does 
             // not affect the next.
             for (int i = 0; i < numMessagesToSend; ++i) {
-                JsMessage message = queue.removeFirst();
+                JsMessage message = messages[i];
                 if (willSendAllMessages && (i + 1 == numMessagesToSend)) {
                     message.encodeAsJsMessage(sb);
                 } else {
@@ -236,23 +352,71 @@ public class NativeToJsMessageQueue {
         if (noResult && keepCallback) {
             return;
         }
-        JsMessage message = new JsMessage(result, callbackId);
+        JsMessage message;
+        byte[] arrayBuffer = result.getArrayBuffer();
+        if (arrayBuffer != null && arrayBuffer.length >= MIN_BINARY_TRANSPORT_SIZE && binaryTransportEnabled && !FORCE_ENCODE_USING_EVAL) {
+            message = new JsMessage(result, callbackId, binaryPayloads.put(arrayBuffer));
+        } else {
+            message = new JsMessage(result, callbackId, null);
+        }
         if (FORCE_ENCODE_USING_EVAL) {
-            StringBuilder sb = new StringBuilder(message.calculateEncodedLength() + 50);
+            StringBuilder sb = new StringBuilder(message.encodedLength + 50);
             message.encodeAsJsMessage(sb);
             message = new JsMessage(sb.toString());
+        } else {
+            message.coalescable = result.getCoalesce();
         }
 
         enqueueMessage(message);
     }
     
     private void enqueueMessage(JsMessage message) {
+        BridgeMode activeListener;
         synchronized (this) {
-            queue.add(message);
-            if (!paused && registeredListeners[activeListenerIndex] != null) {
-                registeredListeners[activeListenerIndex].onNativeToJsMessageAvailable();
+            if (message.coalescable) {
+                JsMessage queued = coalescableMessages.get(message.jsPayloadOrCallbackId);
+                if (queued != null) {
+                    // The older result has not been sent yet, so swap in the newer one
+                    // in place. The listener was already notified for it.
+                    queuedPayloadLen += message.packedLength - queued.packedLength;
+                    if (queued.binaryUrl != null) {
+                        binaryPayloads.remove(queued.binaryUrl);
+                    }
+                    queued.replaceWith(message);
+                    coalescedMessageCount += 1;
+                    return;
+                }
+                coalescableMessages.put(message.jsPayloadOrCallbackId, message);
+            } else if (message.pluginResult != null) {
+                // A later coalescable result must not jump ahead of this one by
+                // replacing an earlier result in place.
+                coalescableMessages.remove(message.jsPayloadOrCallbackId);
+            }
+            if (queueSize == queue.length) {
+                growQueue();
             }
-        }        
+            queue[(queueHead + queueSize) & (queue.length - 1)] = message;
+            queueSize += 1;
+            queuedPayloadLen += message.packedLength;
+            activeListener = paused ? null : registeredListeners[activeListenerIndex];
+        }
+        // Notify outside of the lock, since some bridge modes drain the queue synchronously.
+        if (activeListener != null) {
+            activeListener.onNativeToJsMessageAvailable();
+        }
+    }
+
+    /**
+     * Doubles the capacity of the ring buffer, unwrapping it so that the head is at index 0.
+     * Must be called with the queue lock held.
+     */
+    private void growQueue() {
+        JsMessage[] newQueue = new JsMessage[queue.length * 2];
+        int firstPart = queue.length - queueHead;
+        System.arraycopy(queue, queueHead, newQueue, 0, firstPart);
+        System.arraycopy(queue, 0, newQueue, firstPart, queueHead);
+        queue = newQueue;
+        queueHead = 0;
     }
     
     public void setPaused(boolean value) {
@@ -263,11 +427,13 @@ public class NativeToJsMessageQueue {
         }
         paused = value;
         if (!value) {
+            BridgeMode activeListener;
             synchronized (this) {
-                if (!queue.isEmpty() && registeredListeners[activeListenerIndex] != null) {
-                    registeredListeners[activeListenerIndex].onNativeToJsMessageAvailable();
-                }
-            }   
+                activeListener = queueSize == 0 ? null : registeredListeners[activeListenerIndex];
+            }
+            if (activeListener != null) {
+                activeListener.onNativeToJsMessageAvailable();
+            }
         }
     }
     
@@ -301,7 +467,7 @@ public class NativeToJsMessageQueue {
         boolean online = false;
         final Runnable runnable = new Runnable() {
             public void run() {
-                if (!queue.isEmpty()) {
+                if (!isEmpty()) {
                     webView.setNetworkAvailable(online);
                 }
             }                
@@ -363,37 +529,69 @@ public class NativeToJsMessageQueue {
     	}
     	
         @Override void onNativeToJsMessageAvailable() {
-        	if (sendMessageMethod == null && !initFailed) {
-        		initReflection();
-        	}
-        	// webViewCore is lazily initialized, and so may not be available right away.
-        	if (sendMessageMethod != null) {
-	        	String js = popAndEncodeAsJs();
-	        	Message execJsMessage = Message.obtain(null, EXECUTE_JS, js);
-				try {
-				    sendMessageMethod.invoke(webViewCore, execJsMessage);
-				} catch (Throwable e) {
-					Log.e(LOG_TAG, "Reflection message bridge failed.", e);
-				}
-        	}
+            // Producers notify outside of the queue lock, so hold drainLock until the
+            // batch is posted. Otherwise two threads could pop batches in order and
+            // then post them to WebViewCore in the opposite order.
+            synchronized (drainLock) {
+                if (sendMessageMethod == null && !initFailed) {
+                    initReflection();
+                }
+                // webViewCore is lazily initialized, and so may not be available right away.
+                if (sendMessageMethod != null) {
+                    String js = popAndEncodeAsJs();
+                    if (js == null) {
+                        // Another thread already sent everything.
+                        return;
+                    }
+                    Message execJsMessage = Message.obtain(null, EXECUTE_JS, js);
+                    try {
+                        sendMessageMethod.invoke(webViewCore, execJsMessage);
+                    } catch (Throwable e) {
+                        Log.e(LOG_TAG, "Reflection message bridge failed.", e);
+                    }
+                }
+            }
         }
     }    
     private static class JsMessage {
         final String jsPayloadOrCallbackId;
-        final PluginResult pluginResult;
+        // Only changed by replaceWith() while the message is queued, under the queue lock.
+        PluginResult pluginResult;
+        // Set when the result's bytes are parked in the BinaryPayloadStore.
+        String binaryUrl;
+        // Computed once on the enqueueing thread rather than on every drain.
+        int encodedLength;
+        int packedLength;
+        boolean coalescable;
         JsMessage(String js) {
             if (js == null) {
                 throw new NullPointerException();
             }
             jsPayloadOrCallbackId = js;
             pluginResult = null;
+            encodedLength = calculateEncodedLength();
+            packedLength = calculatePackedLength(encodedLength);
         }
-        JsMessage(PluginResult pluginResult, String callbackId) {
+        JsMessage(PluginResult pluginResult, String callbackId, String binaryUrl) {
             if (callbackId == null || pluginResult == null) {
                 throw new NullPointerException();
             }
             jsPayloadOrCallbackId = callbackId;
             this.pluginResult = pluginResult;
+            this.binaryUrl = binaryUrl;
+            encodedLength = calculateEncodedLength();
+            packedLength = calculatePackedLength(encodedLength);
+        }
+
+        void replaceWith(JsMessage newer) {
+            pluginResult = newer.pluginResult;
+            binaryUrl = newer.binaryUrl;
+            encodedLength = newer.encodedLength;
+            packedLength = newer.packedLength;
+        }
+
+        private static int calculatePackedLength(int messageLen) {
+            return String.valueOf(messageLen).length() + messageLen + 1;
         }
         
         int calculateEncodedLength() {
@@ -417,7 +615,7 @@ public class NativeToJsMessageQueue {
                     ret += 1 + pluginResult.getMessage().length();
                     break;
                 case PluginResult.MESSAGE_TYPE_ARRAYBUFFER:
-                    ret += 1 + pluginResult.getMessage().length();
+                    ret += 1 + (binaryUrl != null ? binaryUrl.length() : pluginResult.getMessage().length());
                     break;
                 case PluginResult.MESSAGE_TYPE_JSON:
                 default:
@@ -462,9 +660,14 @@ public class NativeToJsMessageQueue {
                     sb.append('S');
                     sb.append(pluginResult.getMessage());
                     break;                    
-                case PluginResult.MESSAGE_TYPE_ARRAYBUFFER: // A
-                    sb.append('A');
-                    sb.append(pluginResult.getMessage());
+                case PluginResult.MESSAGE_TYPE_ARRAYBUFFER: // A, or B when sent by URL
+                    if (binaryUrl != null) {
+                        sb.append('B');
+                        sb.append(binaryUrl);
+                    } else {
+                        sb.append('A');
+                        sb.append(pluginResult.getMessage());
+                    }
                     break;
                 case PluginResult.MESSAGE_TYPE_JSON:
                 default:
@@ -0,0 +1,339 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.xmlpull.v1.XmlPullParserException;
+
+import android.app.Activity;
+import android.content.res.XmlResourceParser;
+import android.util.Log;
+
+/**
+ * The plugins declared in res/xml/config.xml, parsed once and kept in a compact form.
+ *
+ * The result is kept in memory for later PluginManagers, and in a file in the cache
+ * directory for later launches, so a cold start reads a few hundred bytes instead of
+ * walking the XML. config.xml only changes when the app is updated, so the file is
+ * ignored and rewritten whenever the APK is newer than it.
+ */
+class PluginConfigIndex {
+    private static final String TAG = "PluginConfigIndex";
+    private static final String FILE_NAME = "cordova-plugins.idx";
+    private static final int MAGIC = 0x43504c49;
+    private static final int VERSION = 1;
+
+    private static PluginConfigIndex cached;
+
+    private final int resourceId;
+    private final long apkModified;
+    final List<Feature> features = new ArrayList<Feature>();
+    final HashMap<String, List<String>> urlFilters = new HashMap<String, List<String>>();
+
+    /**
+     * The settings of one <feature>.
+     */
+    static class Feature {
+        String service;
+        String pluginClass;
+        boolean onload;
+        int startup;
+        int maxConcurrency;
+        int maxQueueDepth;
+        List<String> intercepts;
+
+        PluginEntry toEntry() {
+            PluginEntry entry = new PluginEntry(service, pluginClass, onload);
+            entry.startup = startup;
+            entry.maxConcurrency = maxConcurrency;
+            entry.maxQueueDepth = maxQueueDepth;
+            entry.intercepts = intercepts;
+            return entry;
+        }
+    }
+
+    private PluginConfigIndex(int resourceId, long apkModified) {
+        this.resourceId = resourceId;
+        this.apkModified = apkModified;
+    }
+
+    /**
+     * Returns the plugins declared in the config.xml resource with the given id.
+     */
+    static synchronized PluginConfigIndex load(Activity activity, int resourceId) {
+        if (cached != null && cached.resourceId == resourceId) {
+            return cached;
+        }
+        long start = System.nanoTime();
+        long apkModified = new File(activity.getApplicationInfo().sourceDir).lastModified();
+        File file = new File(activity.getCacheDir(), FILE_NAME);
+        PluginConfigIndex index = read(file, resourceId, apkModified);
+        if (index != null) {
+            LOG.d(TAG, "Read " + index.features.size() + " plugins from " + FILE_NAME + " in " + (System.nanoTime() - start) / 1000 + "us");
+        } else {
+            index = new PluginConfigIndex(resourceId, apkModified);
+            index.parse(activity.getResources().getXml(resourceId));
+            LOG.d(TAG, "Parsed " + index.features.size() + " plugins from config.xml in " + (System.nanoTime() - start) / 1000 + "us");
+            index.write(file);
+        }
+        cached = index;
+        return index;
+    }
+
+    private void parse(XmlResourceParser xml) {
+        int eventType = -1;
+        String service = "", pluginClass = "", paramType = "";
+        boolean onload = false;
+        int startup = PluginEntry.STARTUP_EAGER;
+        int maxConcurrency = PluginManager.DEFAULT_MAX_CONCURRENCY;
+        int maxQueueDepth = Integer.MAX_VALUE;
+        List<String> intercepts = null;
+        boolean insideFeature = false;
+        while (eventType != XmlResourceParser.END_DOCUMENT) {
+            if (eventType == XmlResourceParser.START_TAG) {
+                String strNode = xml.getName();
+                if (strNode.equals("url-filter")) {
+                    if (urlFilters.get(service) == null) {
+                        urlFilters.put(service, new ArrayList<String>(2));
+                    }
+                    List<String> filters = urlFilters.get(service);
+                    filters.add(xml.getAttributeValue(null, "value"));
+                }
+                else if (strNode.equals("feature")) {
+                    //Check for supported feature sets  aka. plugins (Accelerometer, Geolocation, etc)
+                    //Set the bit for reading params
+                    insideFeature = true;
+                    service = xml.getAttributeValue(null, "name");
+                }
+                else if (insideFeature && strNode.equals("param")) {
+                    paramType = xml.getAttributeValue(null, "name");
+                    if (paramType.equals("service")) // check if it is using the older service param
+                        service = xml.getAttributeValue(null, "value");
+                    else if (paramType.equals("package") || paramType.equals("android-package"))
+                        pluginClass = xml.getAttributeValue(null,"value");
+                    else if (paramType.equals("onload")) {
+                        String value = xml.getAttributeValue(null, "value");
+                        onload = "true".equals(value) || "background".equals(value) || "deferred".equals(value);
+                        startup = "background".equals(value) ? PluginEntry.STARTUP_BACKGROUND
+                                : "deferred".equals(value) ? PluginEntry.STARTUP_DEFERRED
+                                : PluginEntry.STARTUP_EAGER;
+                    }
+                    else if (paramType.equals("max-concurrency"))
+                        maxConcurrency = parsePositiveInt(xml.getAttributeValue(null, "value"), PluginManager.DEFAULT_MAX_CONCURRENCY);
+                    else if (paramType.equals("max-queue-depth"))
+                        maxQueueDepth = parsePositiveInt(xml.getAttributeValue(null, "value"), Integer.MAX_VALUE);
+                    else if (paramType.equals("intercept")) {
+                        if (intercepts == null) {
+                            intercepts = new ArrayList<String>(2);
+                        }
+                        String value = xml.getAttributeValue(null, "value");
+                        for (String pattern : (value != null ? value : "").split(",")) {
+                            if (pattern.trim().length() > 0) {
+                                intercepts.add(pattern.trim());
+                            }
+                        }
+                    }
+                }
+            }
+            else if (eventType == XmlResourceParser.END_TAG)
+            {
+                String strNode = xml.getName();
+                if (strNode.equals("feature") || strNode.equals("plugin"))
+                {
+                    Feature feature = new Feature();
+                    feature.service = service;
+                    feature.pluginClass = pluginClass;
+                    feature.onload = onload;
+                    feature.startup = startup;
+                    feature.maxConcurrency = maxConcurrency;
+                    feature.maxQueueDepth = maxQueueDepth;
+                    feature.intercepts = intercepts;
+                    features.add(feature);
+
+                    //Empty the strings to prevent plugin loading bugs
+                    service = "";
+                    pluginClass = "";
+                    maxConcurrency = PluginManager.DEFAULT_MAX_CONCURRENCY;
+                    onload = false;
+                    startup = PluginEntry.STARTUP_EAGER;
+                    maxQueueDepth = Integer.MAX_VALUE;
+                    intercepts = null;
+                    insideFeature = false;
+                }
+            }
+            try {
+                eventType = xml.next();
+            } catch (XmlPullParserException e) {
+                e.printStackTrace();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private static int parsePositiveInt(String value, int defaultValue) {
+        try {
+            int ret = Integer.parseInt(value);
+            if (ret > 0) {
+                return ret;
+            }
+        } catch (NumberFormatException e) {
+        }
+        Log.w(TAG, "Ignoring invalid plugin param value: " + value);
+        return defaultValue;
+    }
+
+    /**
+     * Returns the index stored in the file, or null if it is missing, unreadable, or was
+     * written for a different resource or APK.
+     */
+    private static PluginConfigIndex read(File file, int resourceId, long apkModified) {
+        if (!file.exists()) {
+            return null;
+        }
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || in.readInt() != resourceId
+                    || in.readLong() != apkModified) {
+                return null;
+            }
+            PluginConfigIndex index = new PluginConfigIndex(resourceId, apkModified);
+            for (int i = in.readInt(); i > 0; i--) {
+                Feature feature = new Feature();
+                feature.service = readString(in);
+                feature.pluginClass = readString(in);
+                feature.onload = in.readBoolean();
+                feature.startup = in.readByte();
+                feature.maxConcurrency = in.readInt();
+                feature.maxQueueDepth = in.readInt();
+                feature.intercepts = readStrings(in);
+                index.features.add(feature);
+            }
+            for (int i = in.readInt(); i > 0; i--) {
+                String service = readString(in);
+                index.urlFilters.put(service, readStrings(in));
+            }
+            return index;
+        } catch (IOException e) {
+            LOG.d(TAG, "Ignoring unreadable " + FILE_NAME + ": " + e);
+            return null;
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    /** Reads a string written by writeString(), which may be null. */
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /** Reads a list written by writeStrings(), which may be null. */
+    private static List<String> readStrings(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            return null;
+        }
+        List<String> ret = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            ret.add(readString(in));
+        }
+        return ret;
+    }
+
+    /**
+     * Stores the index for the next launch. Failures are logged and otherwise ignored.
+     */
+    private void write(File file) {
+        File tmp = new File(file.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(resourceId);
+            out.writeLong(apkModified);
+            out.writeInt(features.size());
+            for (Feature feature : features) {
+                writeString(out, feature.service);
+                writeString(out, feature.pluginClass);
+                out.writeBoolean(feature.onload);
+                out.writeByte(feature.startup);
+                out.writeInt(feature.maxConcurrency);
+                out.writeInt(feature.maxQueueDepth);
+                writeStrings(out, feature.intercepts);
+            }
+            out.writeInt(urlFilters.size());
+            for (Map.Entry<String, List<String>> entry : urlFilters.entrySet()) {
+                writeString(out, entry.getKey());
+                writeStrings(out, entry.getValue());
+            }
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file)) {
+                throw new IOException("Couldn't rename " + tmp);
+            }
+        } catch (IOException e) {
+            LOG.d(TAG, "Couldn't write " + FILE_NAME + ": " + e);
+            tmp.delete();
+        } finally {
+            closeQuietly(out);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings) throws IOException {
+        if (strings == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            writeString(out, s);
+        }
+    }
+
+    private static void closeQuietly(Closeable c) {
+        if (c != null) {
+            try {
+                c.close();
+            } catch (IOException ignored) {
+            }
+        }
+    }
+}
@@ -18,6 +18,8 @@
  */
 package org.apache.cordova;
 
+import java.util.List;
+
 import org.apache.cordova.CordovaWebView;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
@@ -30,6 +32,13 @@ import org.apache.cordova.CordovaPlugin;
  */
 public class PluginEntry {
 
+    /** Created on the UI thread before the first page loads. */
+    public static final int STARTUP_EAGER = 0;
+    /** Created on a background thread, in parallel with other plugins, as the first page loads. */
+    public static final int STARTUP_BACKGROUND = 1;
+    /** Created on first exec() or the first URI it intercepts. */
+    public static final int STARTUP_DEFERRED = 2;
+
     /**
      * The name of the service that this plugin implements
      */
@@ -45,13 +54,50 @@ public class PluginEntry {
      * Plugin objects are only created when they are called from JavaScript.  (see PluginManager.exec)
      * The exception is if the onload flag is set, then they are created when PluginManager is initialized.
      */
-    public CordovaPlugin plugin = null;
+    public volatile CordovaPlugin plugin = null;
+
+    /**
+     * The plugin while its initialize() runs, so that it can look itself up.
+     * Guarded by this; plugin is only set once initialize() has returned.
+     */
+    CordovaPlugin pluginInProgress;
 
     /**
      * Flag that indicates the plugin object should be created when PluginManager is initialized.
      */
     public boolean onload = false;
 
+    /**
+     * When an onload plugin is created: STARTUP_EAGER, STARTUP_BACKGROUND or STARTUP_DEFERRED.
+     * Set with the "onload" <param>'s value "true", "background" or "deferred". Plugins
+     * should only ask for "background" if their constructor and initialize() are safe to
+     * run off the UI thread.
+     */
+    public int startup = STARTUP_EAGER;
+
+    /**
+     * The maximum number of background tasks the plugin's executor runs at once.
+     * Set with the "max-concurrency" <param>.
+     */
+    public int maxConcurrency = PluginManager.DEFAULT_MAX_CONCURRENCY;
+
+    /**
+     * The maximum number of tasks waiting in the plugin's executor before new ones are rejected.
+     * Set with the "max-queue-depth" <param>.
+     */
+    public int maxQueueDepth = Integer.MAX_VALUE;
+
+    // How long the last createPlugin() spent loading and constructing the class, and in initialize().
+    long constructNanos;
+    long initializeNanos;
+
+    /**
+     * The URIs the plugin's remapUri() and onOverrideUrlLoading() want to see, each a
+     * scheme ("content:"), a host ("//example.com") or a URL prefix. Set with "intercept"
+     * <param>s. If null, the plugin sees every URI.
+     */
+    public List<String> intercepts = null;
+
     /**
      * Constructor
      *
@@ -74,27 +120,46 @@ public class PluginEntry {
     public PluginEntry(String service, CordovaPlugin plugin) {
         this.service = service;
         this.plugin = plugin;
+        this.plugin.serviceName = service;
         this.pluginClass = plugin.getClass().getName();
         this.onload = false;
     }
 
     /**
      * Create plugin object.
-     * If plugin is already created, then just return it.
+     * If plugin is already created, then just return it. If another thread is creating it,
+     * this waits until that thread has initialized it. The plugin field is only set once
+     * initialize() has returned, so threads that read it without the lock never see a
+     * half-initialized plugin.
      *
      * @return                      The plugin object
      */
-    public CordovaPlugin createPlugin(CordovaWebView webView, CordovaInterface ctx) {
+    public synchronized CordovaPlugin createPlugin(CordovaWebView webView, CordovaInterface ctx) {
         if (this.plugin != null) {
             return this.plugin;
         }
+        if (this.pluginInProgress != null) {
+            // The plugin looked itself up from its own initialize().
+            return this.pluginInProgress;
+        }
         try {
+            long start = System.nanoTime();
             @SuppressWarnings("rawtypes")
             Class c = getClassByName(this.pluginClass);
             if (isCordovaPlugin(c)) {
-                this.plugin = (CordovaPlugin) c.newInstance();
-                this.plugin.initialize(ctx, webView);
-                return plugin;
+                CordovaPlugin newPlugin = (CordovaPlugin) c.newInstance();
+                newPlugin.serviceName = this.service;
+                long constructed = System.nanoTime();
+                this.pluginInProgress = newPlugin;
+                try {
+                    newPlugin.initialize(ctx, webView);
+                } finally {
+                    this.pluginInProgress = null;
+                }
+                this.constructNanos = constructed - start;
+                this.initializeNanos = System.nanoTime() - constructed;
+                this.plugin = newPlugin;
+                return newPlugin;
             }
         } catch (Exception e) {
             e.printStackTrace();
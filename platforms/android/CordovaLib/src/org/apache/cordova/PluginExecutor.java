@@ -0,0 +1,162 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Process;
+
+/**
+ * A bounded thread pool owned by a single plugin service.
+ *
+ * Tasks are run in priority order (lowest value first), and in submission order
+ * within a priority. Background tasks run with a lowered thread priority so they
+ * yield the CPU to interactive work in other plugins.
+ */
+public class PluginExecutor extends ThreadPoolExecutor {
+    public static final int PRIORITY_INTERACTIVE = 0;
+    public static final int PRIORITY_DEFAULT = 1;
+    public static final int PRIORITY_BACKGROUND = 2;
+
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private final String service;
+    private final int maxQueueDepth;
+    private final AtomicLong sequence = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param service           The name of the service that owns this executor.
+     * @param maxConcurrency    The maximum number of tasks to run at once.
+     * @param maxQueueDepth     The maximum number of tasks waiting to run before new ones are rejected.
+     */
+    public PluginExecutor(String service, int maxConcurrency, int maxQueueDepth) {
+        super(maxConcurrency, maxConcurrency, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(), new PluginThreadFactory(service));
+        this.service = service;
+        this.maxQueueDepth = maxQueueDepth;
+        allowCoreThreadTimeOut(true);
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                rejectedCount.incrementAndGet();
+                throw new RejectedExecutionException("Executor for " + PluginExecutor.this.service + " is shut down");
+            }
+        });
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    @Override
+    public void execute(Runnable command) {
+        execute(command, PRIORITY_DEFAULT);
+    }
+
+    /**
+     * Runs the given task once all queued tasks of the same or higher priority have started.
+     *
+     * @param command           The task to run.
+     * @param priority          One of the PRIORITY_* constants.
+     */
+    public void execute(Runnable command, int priority) {
+        if (command == null) {
+            throw new NullPointerException();
+        }
+        if (getQueue().size() >= maxQueueDepth) {
+            rejectedCount.incrementAndGet();
+            throw new RejectedExecutionException("Too many pending tasks for " + service);
+        }
+        super.execute(new PrioritizedTask(command, priority, sequence.getAndIncrement()));
+    }
+
+    /**
+     * Returns the number of tasks waiting for a thread.
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * Returns the number of tasks that were rejected because the queue was full
+     * or the executor was shut down.
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return service + ": active=" + getActiveCount() + " queued=" + getQueueDepth()
+                + " completed=" + getCompletedTaskCount() + " rejected=" + getRejectedCount();
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        final Runnable command;
+        final int priority;
+        final long sequence;
+
+        PrioritizedTask(Runnable command, int priority, long sequence) {
+            this.command = command;
+            this.priority = priority;
+            this.sequence = sequence;
+        }
+
+        public void run() {
+            boolean background = priority >= PRIORITY_BACKGROUND;
+            if (background) {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            }
+            try {
+                command.run();
+            } finally {
+                if (background) {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DEFAULT);
+                }
+            }
+        }
+
+        public int compareTo(PrioritizedTask other) {
+            if (priority != other.priority) {
+                return priority < other.priority ? -1 : 1;
+            }
+            return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+        }
+    }
+
+    private static class PluginThreadFactory implements ThreadFactory {
+        private final String service;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        PluginThreadFactory(String service) {
+            this.service = service;
+        }
+
+        public Thread newThread(Runnable r) {
+            return new Thread(r, "Cordova-" + service + "-" + threadCount.incrementAndGet());
+        }
+    }
+}
@@ -18,11 +18,13 @@
  */
 package org.apache.cordova;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.cordova.CordovaArgs;
@@ -32,11 +34,11 @@ import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.PluginEntry;
 import org.apache.cordova.PluginResult;
+import org.json.JSONArray;
 import org.json.JSONException;
-import org.xmlpull.v1.XmlPullParserException;
+import org.json.JSONObject;
 
 import android.content.Intent;
-import android.content.res.XmlResourceParser;
 
 import android.net.Uri;
 import android.os.Debug;
@@ -52,6 +54,9 @@ public class PluginManager {
     private static String TAG = "PluginManager";
     private static final int SLOW_EXEC_WARNING_THRESHOLD = Debug.isDebuggerConnected() ? 60 : 16;
 
+    // Used for plugins that don't set the "max-concurrency" <param>.
+    static final int DEFAULT_MAX_CONCURRENCY = 4;
+
     // List of service entries
     private final HashMap<String, PluginEntry> entries = new HashMap<String, PluginEntry>();
 
@@ -65,8 +70,19 @@ public class PluginManager {
     // Using <url-filter> is deprecated.
     protected HashMap<String, List<String>> urlMap = new HashMap<String, List<String>>();
 
+    private final UriInterceptRegistry interceptRegistry = new UriInterceptRegistry(this, urlMap);
+
+    // Plugin creations since the last startupPlugins().
+    private final ArrayList<StartupRecord> startupTrace = new ArrayList<StartupRecord>();
+    private volatile long startupNanos;
+
     private AtomicInteger numPendingUiExecs;
 
+    private final ExecMetrics execMetrics = new ExecMetrics();
+
+    // Per-service executors, created on first use.
+    private final HashMap<String, PluginExecutor> executors = new HashMap<String, PluginExecutor>();
+
     /**
      * Constructor.
      *
@@ -121,59 +137,14 @@ public class PluginManager {
                 return;
             }
         }
-        XmlResourceParser xml = this.ctx.getActivity().getResources().getXml(id);
-        int eventType = -1;
-        String service = "", pluginClass = "", paramType = "";
-        boolean onload = false;
-        boolean insideFeature = false;
-        while (eventType != XmlResourceParser.END_DOCUMENT) {
-            if (eventType == XmlResourceParser.START_TAG) {
-                String strNode = xml.getName();
-                if (strNode.equals("url-filter")) {
-                    Log.w(TAG, "Plugin " + service + " is using deprecated tag <url-filter>");
-                    if (urlMap.get(service) == null) {
-                        urlMap.put(service, new ArrayList<String>(2));
-                    }
-                    List<String> filters = urlMap.get(service);
-                    filters.add(xml.getAttributeValue(null, "value"));
-                }
-                else if (strNode.equals("feature")) {
-                    //Check for supported feature sets  aka. plugins (Accelerometer, Geolocation, etc)
-                    //Set the bit for reading params
-                    insideFeature = true;
-                    service = xml.getAttributeValue(null, "name");
-                }
-                else if (insideFeature && strNode.equals("param")) {
-                    paramType = xml.getAttributeValue(null, "name");
-                    if (paramType.equals("service")) // check if it is using the older service param
-                        service = xml.getAttributeValue(null, "value");
-                    else if (paramType.equals("package") || paramType.equals("android-package"))
-                        pluginClass = xml.getAttributeValue(null,"value");
-                    else if (paramType.equals("onload"))
-                        onload = "true".equals(xml.getAttributeValue(null, "value"));
-                }
-            }
-            else if (eventType == XmlResourceParser.END_TAG)
-            {
-                String strNode = xml.getName();
-                if (strNode.equals("feature") || strNode.equals("plugin"))
-                {
-                    PluginEntry entry = new PluginEntry(service, pluginClass, onload);
-                    this.addService(entry);
-
-                    //Empty the strings to prevent plugin loading bugs
-                    service = "";
-                    pluginClass = "";
-                    insideFeature = false;
-                }
-            }
-            try {
-                eventType = xml.next();
-            } catch (XmlPullParserException e) {
-                e.printStackTrace();
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
+        PluginConfigIndex index = PluginConfigIndex.load(this.ctx.getActivity(), id);
+        for (Map.Entry<String, List<String>> filters : index.urlFilters.entrySet()) {
+            Log.w(TAG, "Plugin " + filters.getKey() + " is using deprecated tag <url-filter>");
+            urlMap.put(filters.getKey(), new ArrayList<String>(filters.getValue()));
+        }
+        interceptRegistry.invalidate();
+        for (PluginConfigIndex.Feature feature : index.features) {
+            this.addService(feature.toEntry());
         }
     }
 
@@ -188,15 +159,127 @@ public class PluginManager {
 
     /**
      * Create plugins objects that have onload set.
+     *
+     * Plugins that start in the background are handed to the thread pool first, so
+     * they are created while the others are created here. Deferred plugins are left
+     * for getPlugin().
      */
     public void startupPlugins() {
+        startupNanos = System.nanoTime();
+        synchronized (startupTrace) {
+            startupTrace.clear();
+        }
+        ExecutorService threadPool = this.ctx.getThreadPool();
+        for (final PluginEntry entry : this.entries.values()) {
+            if (entry.onload && entry.startup == PluginEntry.STARTUP_BACKGROUND && threadPool != null) {
+                threadPool.execute(new Runnable() {
+                    public void run() {
+                        createPlugin(entry, "background");
+                    }
+                });
+            }
+        }
         for (PluginEntry entry : this.entries.values()) {
-            if (entry.onload) {
-                entry.createPlugin(this.app, this.ctx);
+            if (entry.onload && (entry.startup == PluginEntry.STARTUP_EAGER
+                    || (entry.startup == PluginEntry.STARTUP_BACKGROUND && threadPool == null))) {
+                createPlugin(entry, "onload");
             }
         }
     }
 
+    /**
+     * Creates the entry's plugin if it doesn't exist yet, and records how long that took.
+     * The entry only publishes its plugin once it is initialized, so callers that find
+     * none wait on the entry's lock for a thread that is still creating it.
+     */
+    private CordovaPlugin createPlugin(PluginEntry entry, String reason) {
+        CordovaPlugin plugin = entry.plugin;
+        if (plugin != null) {
+            return plugin;
+        }
+        StartupRecord record;
+        synchronized (entry) {
+            if (entry.plugin != null) {
+                return entry.plugin;
+            }
+            if (entry.pluginInProgress != null) {
+                // The plugin looked itself up from its own initialize().
+                return entry.pluginInProgress;
+            }
+            long start = System.nanoTime();
+            plugin = entry.createPlugin(this.app, this.ctx);
+            if (plugin == null) {
+                return null;
+            }
+            record = new StartupRecord(entry.service, reason, Thread.currentThread().getName(),
+                    start - startupNanos, entry.constructNanos, entry.initializeNanos);
+        }
+        synchronized (startupTrace) {
+            startupTrace.add(record);
+        }
+        LOG.d(TAG, record.toString());
+        return plugin;
+    }
+
+    /**
+     * Returns when each plugin was created since the page was loaded, and how long it took.
+     */
+    public List<StartupRecord> getStartupTrace() {
+        synchronized (startupTrace) {
+            return new ArrayList<StartupRecord>(startupTrace);
+        }
+    }
+
+    private JSONArray startupTraceToJSON() throws JSONException {
+        JSONArray ret = new JSONArray();
+        for (StartupRecord record : getStartupTrace()) {
+            ret.put(record.toJSON());
+        }
+        return ret;
+    }
+
+    /**
+     * The creation of one plugin object.
+     */
+    public static class StartupRecord {
+        public final String service;
+        /** "onload", "background", or what first needed the plugin: "exec" or "intercept". */
+        public final String reason;
+        public final String thread;
+        /** When creation started, in milliseconds after startupPlugins(). */
+        public final long startMillis;
+        /** Time spent loading the class and running its constructor, in microseconds. */
+        public final long constructMicros;
+        /** Time spent in initialize(), in microseconds. */
+        public final long initializeMicros;
+
+        StartupRecord(String service, String reason, String thread, long startNanos, long constructNanos, long initializeNanos) {
+            this.service = service;
+            this.reason = reason;
+            this.thread = thread;
+            this.startMillis = startNanos / 1000000;
+            this.constructMicros = constructNanos / 1000;
+            this.initializeMicros = initializeNanos / 1000;
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject ret = new JSONObject();
+            ret.put("service", service);
+            ret.put("reason", reason);
+            ret.put("thread", thread);
+            ret.put("startMillis", startMillis);
+            ret.put("constructMicros", constructMicros);
+            ret.put("initializeMicros", initializeMicros);
+            return ret;
+        }
+
+        @Override
+        public String toString() {
+            return "Created " + service + " (" + reason + ") on " + thread + " at +" + startMillis + "ms: construct "
+                    + constructMicros + "us, initialize " + initializeMicros + "us";
+        }
+    }
+
     /**
      * Receives a request for execution and fulfills it by finding the appropriate
      * Java class and calling it's execute method.
@@ -228,38 +311,124 @@ public class PluginManager {
         }
     }
 
+    /**
+     * Runs a batch of exec() calls that arrived in a single bridge crossing.
+     *
+     * The batch is a sequence of calls, each made of four fields in the order
+     * service, action, callbackId, args. Every field is encoded as its length in
+     * chars, a space, and then the field itself, e.g. "6 Device14 getDeviceInfo...".
+     * args is the same JSON array string that exec() receives.
+     *
+     * The whole batch is parsed before any call runs, so a framing error runs
+     * none of them. A call that throws doesn't stop the ones after it, just as
+     * with separate exec() calls.
+     *
+     * @param batch         The framed list of calls.
+     * @return              The number of calls that were dispatched.
+     * @throws IllegalArgumentException if the batch is not framed correctly.
+     */
+    public int execBatch(String batch) {
+        List<String> fields = new ArrayList<String>();
+        int[] pos = new int[1];
+        while (pos[0] < batch.length()) {
+            fields.add(readBatchField(batch, pos));
+        }
+        if (fields.size() % 4 != 0) {
+            throw new IllegalArgumentException("Incomplete call at the end of exec batch");
+        }
+        for (int i = 0; i < fields.size(); i += 4) {
+            String service = fields.get(i);
+            String action = fields.get(i + 1);
+            try {
+                exec(service, action, fields.get(i + 2), fields.get(i + 3));
+            } catch (RuntimeException e) {
+                Log.e(TAG, "exec() call to " + service + "." + action + " in batch failed", e);
+            }
+        }
+        return fields.size() / 4;
+    }
+
+    private static String readBatchField(String batch, int[] pos) {
+        int spaceIdx = batch.indexOf(' ', pos[0]);
+        if (spaceIdx < 0) {
+            throw new IllegalArgumentException("Truncated exec batch at offset " + pos[0]);
+        }
+        int start = spaceIdx + 1;
+        int length = Integer.parseInt(batch.substring(pos[0], spaceIdx));
+        // Compared before adding, since start + length can overflow.
+        if (length < 0 || length > batch.length() - start) {
+            throw new IllegalArgumentException("Truncated exec batch at offset " + pos[0]);
+        }
+        int end = start + length;
+        pos[0] = end;
+        return batch.substring(start, end);
+    }
+
     private void execHelper(final String service, final String action, final String callbackId, final String rawArgs) {
+        ExecMetrics.ActionMetrics metrics = execMetrics.get(service, action);
+        metrics.argsLength.record(rawArgs.length());
         CordovaPlugin plugin = getPlugin(service);
         if (plugin == null) {
             Log.d(TAG, "exec() call to unknown plugin: " + service);
             PluginResult cr = new PluginResult(PluginResult.Status.CLASS_NOT_FOUND_EXCEPTION);
-            app.sendPluginResult(cr, callbackId);
+            sendExecResult(metrics, cr, callbackId);
             return;
         }
         try {
             CallbackContext callbackContext = new CallbackContext(callbackId, app);
-            long pluginStartTime = System.currentTimeMillis();
+            callbackContext.metrics = metrics;
+            long pluginStartTime = System.nanoTime();
+            callbackContext.execStartNanos = pluginStartTime;
             boolean wasValidAction = plugin.execute(action, rawArgs, callbackContext);
-            long duration = System.currentTimeMillis() - pluginStartTime;
+            long durationNanos = System.nanoTime() - pluginStartTime;
+            metrics.dispatchMicros.record(durationNanos / 1000);
+            long duration = durationNanos / 1000000;
             
             if (duration > SLOW_EXEC_WARNING_THRESHOLD) {
                 Log.w(TAG, "THREAD WARNING: exec() call to " + service + "." + action + " blocked the main thread for " + duration + "ms. Plugin should use CordovaInterface.getThreadPool().");
             }
             if (!wasValidAction) {
                 PluginResult cr = new PluginResult(PluginResult.Status.INVALID_ACTION);
-                app.sendPluginResult(cr, callbackId);
+                sendExecResult(metrics, cr, callbackId);
             }
         } catch (JSONException e) {
             PluginResult cr = new PluginResult(PluginResult.Status.JSON_EXCEPTION);
-            app.sendPluginResult(cr, callbackId);
+            sendExecResult(metrics, cr, callbackId);
+        } catch (RejectedExecutionException e) {
+            // The plugin's executor is full or shut down, so its work was never queued.
+            Log.w(TAG, "exec() call to " + service + "." + action + " was rejected: " + e.getMessage());
+            PluginResult cr = new PluginResult(PluginResult.Status.ERROR, e.getMessage());
+            sendExecResult(metrics, cr, callbackId);
         }
     }
 
+    /**
+     * Sends a result on the plugin's behalf, recording it like the ones the plugin sends itself.
+     */
+    private void sendExecResult(ExecMetrics.ActionMetrics metrics, PluginResult cr, String callbackId) {
+        metrics.recordResult(cr);
+        app.sendPluginResult(cr, callbackId);
+    }
+
     @Deprecated
     public void exec(String service, String action, String callbackId, String jsonArgs, boolean async) {
         exec(service, action, callbackId, jsonArgs);
     }
 
+    /**
+     * Returns the latency and payload size metrics recorded for exec() calls.
+     */
+    public ExecMetrics getExecMetrics() {
+        return execMetrics;
+    }
+
+    /**
+     * Returns how often each plugin was asked to remap or block a URI, and how long it took.
+     */
+    public List<UriInterceptRegistry.Stats> getInterceptStats() {
+        return interceptRegistry.getStats();
+    }
+
     /**
      * Get the plugin object that implements the service.
      * If the plugin object does not already exist, then create it.
@@ -273,11 +442,46 @@ public class PluginManager {
         if (entry == null) {
             return null;
         }
-        CordovaPlugin plugin = entry.plugin;
-        if (plugin == null) {
-            plugin = entry.createPlugin(this.app, this.ctx);
+        return createPlugin(entry, "exec");
+    }
+
+    /**
+     * Creates a deferred plugin for the first URI it intercepts.
+     */
+    CordovaPlugin createDeferredPlugin(PluginEntry entry) {
+        return createPlugin(entry, "intercept");
+    }
+
+    /**
+     * Get the executor that runs background work for the given service.
+     * The executor is created on first use with the limits from the service's
+     * <param> tags, or the defaults for services not declared in config.xml.
+     *
+     * @param service       The name of the service.
+     * @return              PluginExecutor
+     */
+    public PluginExecutor getExecutor(String service) {
+        synchronized (executors) {
+            PluginExecutor executor = executors.get(service);
+            if (executor == null || executor.isShutdown()) {
+                PluginEntry entry = this.entries.get(service);
+                int maxConcurrency = entry != null ? entry.maxConcurrency : DEFAULT_MAX_CONCURRENCY;
+                int maxQueueDepth = entry != null ? entry.maxQueueDepth : Integer.MAX_VALUE;
+                executor = new PluginExecutor(service, maxConcurrency, maxQueueDepth);
+                executors.put(service, executor);
+            }
+            return executor;
+        }
+    }
+
+    /**
+     * Returns the executors that have been created so far, keyed by service name.
+     * Use these to read per-service queue depth, active thread and rejection counts.
+     */
+    public HashMap<String, PluginExecutor> getExecutors() {
+        synchronized (executors) {
+            return new HashMap<String, PluginExecutor>(executors);
         }
-        return plugin;
     }
 
     /**
@@ -300,6 +504,7 @@ public class PluginManager {
      */
     public void addService(PluginEntry entry) {
         this.entries.put(entry.service, entry);
+        interceptRegistry.register(entry);
     }
 
     /**
@@ -337,6 +542,13 @@ public class PluginManager {
                 entry.plugin.onDestroy();
             }
         }
+        // Let queued work finish, but don't accept more. Executors are recreated on next use.
+        synchronized (executors) {
+            for (PluginExecutor executor : executors.values()) {
+                executor.shutdown();
+            }
+            executors.clear();
+        }
     }
 
     /**
@@ -384,21 +596,11 @@ public class PluginManager {
         // Instead, plugins should not include <url-filter> and instead ensure
         // that they are loaded before this function is called (either by setting
         // the onload <param> or by making an exec() call to them)
-        for (PluginEntry entry : this.entries.values()) {
-            List<String> urlFilters = urlMap.get(entry.service);
-            if (urlFilters != null) {
-                for (String s : urlFilters) {
-                    if (url.startsWith(s)) {
-                        return getPlugin(entry.service).onOverrideUrlLoading(url);
-                    }
-                }
-            } else if (entry.plugin != null) {
-                if (entry.plugin.onOverrideUrlLoading(url)) {
-                    return true;
-                }
-            }
+        String filteredService = interceptRegistry.findUrlFilter(url);
+        if (filteredService != null) {
+            return interceptRegistry.onOverrideUrlLoading(filteredService, getPlugin(filteredService), url);
         }
-        return false;
+        return interceptRegistry.onOverrideUrlLoading(url);
     }
 
     /**
@@ -422,16 +624,11 @@ public class PluginManager {
         LOG.e(TAG, "=====================================================================================");
     }
 
+    /**
+     * Asks the plugins interested in the URI to remap it. See {@link UriInterceptRegistry}.
+     */
     Uri remapUri(Uri uri) {
-        for (PluginEntry entry : this.entries.values()) {
-            if (entry.plugin != null) {
-                Uri ret = entry.plugin.remapUri(uri);
-                if (ret != null) {
-                    return ret;
-                }
-            }
-        }
-        return null;
+        return interceptRegistry.remapUri(uri);
     }
 
     private class PluginManagerService extends CordovaPlugin {
@@ -451,6 +648,18 @@ public class PluginManager {
                     }
                 });
                 return true;
+            } else if ("getExecMetrics".equals(action)) {
+                callbackContext.success(execMetrics.toJSON());
+                return true;
+            } else if ("getInterceptStats".equals(action)) {
+                callbackContext.success(interceptRegistry.statsToJSON());
+                return true;
+            } else if ("getStartupTrace".equals(action)) {
+                callbackContext.success(startupTraceToJSON());
+                return true;
+            } else if ("getPreloadStats".equals(action)) {
+                callbackContext.success(app.preloadCache.statsToJSON());
+                return true;
             }
             return false;
         }
@@ -27,8 +27,10 @@ public class PluginResult {
     private final int status;
     private final int messageType;
     private boolean keepCallback = false;
+    private boolean coalesce = false;
     private String strMessage;
     private String encodedMessage;
+    private byte[] binaryData;
 
     public PluginResult(Status status) {
         this(status, PluginResult.StatusMessages[status.ordinal()]);
@@ -77,13 +79,23 @@ public class PluginResult {
     public PluginResult(Status status, byte[] data, boolean binaryString) {
         this.status = status.ordinal();
         this.messageType = binaryString ? MESSAGE_TYPE_BINARYSTRING : MESSAGE_TYPE_ARRAYBUFFER;
-        this.encodedMessage = Base64.encodeToString(data, Base64.NO_WRAP);
+        // Encoded lazily, since large results may be sent to JS without Base64.
+        this.binaryData = data;
     }
     
     public void setKeepCallback(boolean b) {
         this.keepCallback = b;
     }
 
+    /**
+     * Marks this result as superseding any earlier result for the same callback
+     * that is still waiting to be sent to JS. Use this for keepCallback results
+     * where only the latest value matters, such as progress events.
+     */
+    public void setCoalesce(boolean b) {
+        this.coalesce = b;
+    }
+
     public int getStatus() {
         return status;
     }
@@ -94,11 +106,31 @@ public class PluginResult {
 
     public String getMessage() {
         if (encodedMessage == null) {
-            encodedMessage = JSONObject.quote(strMessage);
+            if (binaryData != null) {
+                encodedMessage = Base64.encodeToString(binaryData, Base64.NO_WRAP);
+            } else {
+                encodedMessage = JSONObject.quote(strMessage);
+            }
         }
         return encodedMessage;
     }
 
+    /**
+     * Returns the size of the message without encoding binary data: the
+     * number of bytes for binary results, or chars of getMessage() otherwise.
+     */
+    /* package */ int getMessageLength() {
+        return binaryData != null ? binaryData.length : getMessage().length();
+    }
+
+    /**
+     * If messageType == MESSAGE_TYPE_ARRAYBUFFER, then returns the raw bytes.
+     * Otherwise, returns null.
+     */
+    /* package */ byte[] getArrayBuffer() {
+        return messageType == MESSAGE_TYPE_ARRAYBUFFER ? binaryData : null;
+    }
+
     /**
      * If messageType == MESSAGE_TYPE_STRING, then returns the message string.
      * Otherwise, returns null.
@@ -111,6 +143,10 @@ public class PluginResult {
         return this.keepCallback;
     }
 
+    public boolean getCoalesce() {
+        return this.coalesce;
+    }
+
     @Deprecated // Use sendPluginResult instead of sendJavascript.
     public String getJSONString() {
         return "{\"status\":" + this.status + ",\"message\":" + this.getMessage() + ",\"keepCallback\":" + this.keepCallback + "}";
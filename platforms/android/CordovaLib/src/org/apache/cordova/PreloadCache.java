@@ -0,0 +1,317 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.cordova.CordovaResourceApi.OpenForReadResult;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.net.Uri;
+
+/**
+ * Fetches the resources listed by the <preload> elements of config.xml in
+ * parallel while the start page loads, and keeps them in memory so that
+ * IceCreamCordovaWebViewClient can answer the WebView's requests for them
+ * without going back to the assets or the network.
+ *
+ * A request for a resource that is still being fetched waits for that fetch
+ * rather than starting another one. Each preload answers only the first request
+ * for its URL, so later requests get fresh responses with their headers, and
+ * preloads that the start page didn't use are dropped when the next page starts.
+ *
+ * Only file: URLs, which include the bundled assets, are preloaded. A remote
+ * fetch here would be made without the WebView's cookies, and the response
+ * handed to the WebView can't carry its Set-Cookie or caching headers.
+ */
+/* package */ class PreloadCache {
+    private static final String TAG = "PreloadCache";
+
+    // Larger resources are left for the WebView to fetch itself.
+    private static final int MAX_RESOURCE_BYTES = 4 * 1024 * 1024;
+    private static final int MAX_TOTAL_BYTES = 16 * 1024 * 1024;
+    // How long a request waits for a preload that is still running before fetching it itself.
+    private static final long MAX_WAIT_MS = 5000;
+
+    private final CordovaResourceApi resourceApi;
+    private final ConcurrentHashMap<String, Preload> preloads = new ConcurrentHashMap<String, Preload>();
+    // Bytes held by fetched preloads that haven't been served or dropped.
+    private final AtomicInteger totalBytes = new AtomicInteger();
+    private final AtomicInteger pagesStarted = new AtomicInteger();
+
+    private final AtomicInteger listed = new AtomicInteger();
+    private final AtomicInteger fetched = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong waitedMillis = new AtomicLong();
+    private final AtomicLong savedMillis = new AtomicLong();
+
+    PreloadCache(CordovaResourceApi resourceApi) {
+        this.resourceApi = resourceApi;
+    }
+
+    /**
+     * Starts fetching each of the given URLs on the executor. URLs that
+     * aren't file: URLs are skipped.
+     */
+    public void start(List<String> urls, Executor executor) {
+        for (String url : urls) {
+            if (!url.startsWith("file:")) {
+                LOG.w(TAG, "Not preloading " + url + ", only file: URLs are preloaded");
+                continue;
+            }
+            Preload preload = new Preload(url);
+            if (preloads.putIfAbsent(url, preload) != null) {
+                continue;
+            }
+            try {
+                executor.execute(preload);
+                listed.incrementAndGet();
+            } catch (RejectedExecutionException e) {
+                preloads.remove(url);
+            }
+        }
+    }
+
+    /**
+     * Drops the preloads that are left over from the start page once another
+     * page starts loading. The start page's own onPageStarted is ignored.
+     */
+    public void onPageStarted() {
+        if (pagesStarted.incrementAndGet() > 1) {
+            for (Preload preload : preloads.values()) {
+                discard(preload);
+            }
+        }
+    }
+
+    /**
+     * Returns the preloaded resource for the given URL, waiting for it if it is
+     * still being fetched, or null if the URL isn't preloaded or couldn't be.
+     * Either way the preload is used up.
+     */
+    public Resource get(String url) {
+        Preload preload = preloads.get(url);
+        if (preload == null) {
+            return null;
+        }
+        long start = System.nanoTime();
+        boolean done;
+        try {
+            done = preload.done.await(MAX_WAIT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            done = false;
+        }
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        Resource resource = done ? preload.resource : null;
+        if (!discard(preload)) {
+            // Another request for the same URL used it up first.
+            return null;
+        }
+        if (resource == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        waitedMillis.addAndGet(waited);
+        savedMillis.addAndGet(Math.max(0, preload.fetchMillis - waited));
+        return resource;
+    }
+
+    /**
+     * Returns how many preloads were used, and roughly how much time they saved:
+     * the time each fetch took, less the time the WebView spent waiting for it.
+     */
+    public JSONObject statsToJSON() throws JSONException {
+        long hitCount = hits.get();
+        long missCount = misses.get();
+        JSONObject ret = new JSONObject();
+        ret.put("listed", listed.get());
+        ret.put("fetched", fetched.get());
+        ret.put("failed", failed.get());
+        ret.put("unused", Math.max(0, fetched.get() - hitCount));
+        ret.put("bytes", totalBytes.get());
+        ret.put("hits", hitCount);
+        ret.put("misses", missCount);
+        ret.put("hitRate", hitCount + missCount == 0 ? 0 : (double) hitCount / (hitCount + missCount));
+        ret.put("waitedMillis", waitedMillis.get());
+        ret.put("savedMillis", savedMillis.get());
+        return ret;
+    }
+
+    /**
+     * Removes the preload and releases its bytes. Returns false if it was already removed.
+     */
+    private boolean discard(Preload preload) {
+        if (!preloads.remove(preload.url, preload)) {
+            return false;
+        }
+        preload.release();
+        return true;
+    }
+
+    private boolean reserve(int bytes) {
+        while (true) {
+            int current = totalBytes.get();
+            if (current + bytes > MAX_TOTAL_BYTES) {
+                return false;
+            }
+            if (totalBytes.compareAndSet(current, current + bytes)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads the whole stream, or returns null if it is longer than MAX_RESOURCE_BYTES.
+     */
+    private static byte[] readFully(InputStream inputStream, long length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0 ? (int) length : 8192);
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) != -1) {
+            if (out.size() + count > MAX_RESOURCE_BYTES) {
+                return null;
+            }
+            out.write(buffer, 0, count);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * A preloaded resource, held as bytes.
+     */
+    static final class Resource {
+        final String mimeType;
+        final String encoding;
+        final byte[] bytes;
+
+        Resource(String mimeType, String encoding, byte[] bytes) {
+            this.mimeType = mimeType;
+            this.encoding = encoding;
+            this.bytes = bytes;
+        }
+
+        InputStream open() {
+            return new ByteArrayInputStream(bytes);
+        }
+    }
+
+    private class Preload implements Runnable {
+        final String url;
+        final CountDownLatch done = new CountDownLatch(1);
+        // Written before done is counted down.
+        Resource resource;
+        long fetchMillis;
+        private boolean released;
+
+        Preload(String url) {
+            this.url = url;
+        }
+
+        public void run() {
+            long start = System.nanoTime();
+            try {
+                resource = fetch();
+            } catch (IOException e) {
+                LOG.w(TAG, "Failed to preload " + url + ": " + e);
+            } catch (RuntimeException e) {
+                LOG.w(TAG, "Failed to preload " + url + ": " + e);
+            } finally {
+                fetchMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                if (resource != null) {
+                    fetched.incrementAndGet();
+                } else {
+                    failed.incrementAndGet();
+                }
+                done.countDown();
+            }
+            if (preloads.get(url) != this) {
+                // Discarded while it was being fetched, e.g. because the request for it gave up waiting.
+                release();
+            }
+        }
+
+        /**
+         * Gives back the bytes reserved for the resource, once it is fetched.
+         */
+        synchronized void release() {
+            if (done.getCount() > 0 || released) {
+                return;
+            }
+            released = true;
+            if (resource != null) {
+                totalBytes.addAndGet(-resource.bytes.length);
+            }
+        }
+
+        private Resource fetch() throws IOException {
+            Uri uri = resourceApi.remapUri(Uri.parse(url));
+            OpenForReadResult result = resourceApi.openForRead(uri, true);
+            byte[] bytes;
+            try {
+                if (result.length > MAX_RESOURCE_BYTES) {
+                    LOG.d(TAG, "Not preloading " + url + ", it is too large");
+                    return null;
+                }
+                bytes = readFully(result.inputStream, result.length);
+            } finally {
+                result.inputStream.close();
+            }
+            if (bytes == null) {
+                LOG.d(TAG, "Not preloading " + url + ", it is too large");
+                return null;
+            }
+            if (!reserve(bytes.length)) {
+                LOG.d(TAG, "Not preloading " + url + ", it doesn't fit in the cache");
+                return null;
+            }
+            String mimeType = result.mimeType;
+            String encoding = "UTF-8";
+            if (mimeType != null) {
+                // Split "text/css; charset=utf-8" into its type and encoding.
+                int semicolon = mimeType.indexOf(';');
+                if (semicolon != -1) {
+                    int charset = mimeType.toLowerCase(Locale.US).indexOf("charset=", semicolon);
+                    if (charset != -1) {
+                        int end = mimeType.indexOf(';', charset);
+                        encoding = mimeType.substring(charset + 8, end == -1 ? mimeType.length() : end).trim().replace("\"", "");
+                    }
+                    mimeType = mimeType.substring(0, semicolon).trim();
+                }
+            }
+            return new Resource(mimeType, encoding, bytes);
+        }
+    }
+}
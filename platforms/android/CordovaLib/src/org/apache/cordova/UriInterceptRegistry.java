@@ -0,0 +1,344 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.net.Uri;
+
+/**
+ * Decides which plugins see a URI in remapUri() and onOverrideUrlLoading().
+ *
+ * A plugin that declares "intercept" <param>s is only called for URIs that match
+ * one of them: a scheme ("content:"), a host ("//example.com"), or else a URL prefix.
+ * A plugin that declares none is called for every URI, but only if its class
+ * overrides the hook. The deprecated <url-filter> prefixes are indexed here too.
+ *
+ * Onload plugins whose startup is deferred are created for the first URI they would see.
+ *
+ * Calls, hits and the time spent in each plugin are counted.
+ */
+public class UriInterceptRegistry {
+    private static final int REMAPS_URIS = 1;
+    private static final int OVERRIDES_URL_LOADING = 2;
+
+    private final PluginManager pluginManager;
+
+    // Guarded by this.
+    private final HashMap<String, PluginEntry> entries = new HashMap<String, PluginEntry>();
+    private final Map<String, List<String>> urlFilters;
+    private Index index;
+    private final HashMap<String, Integer> hooksByClass = new HashMap<String, Integer>();
+    private final HashMap<String, Stats> stats = new HashMap<String, Stats>();
+
+    /**
+     * @param urlFilters        The <url-filter> prefixes of each service. Call
+     *                          {@link #invalidate()} after changing them.
+     */
+    UriInterceptRegistry(PluginManager pluginManager, Map<String, List<String>> urlFilters) {
+        this.pluginManager = pluginManager;
+        this.urlFilters = urlFilters;
+    }
+
+    synchronized void register(PluginEntry entry) {
+        entries.put(entry.service, entry);
+        index = null;
+    }
+
+    synchronized void invalidate() {
+        index = null;
+    }
+
+    private synchronized Index getIndex() {
+        if (index == null) {
+            index = new Index(entries.values(), urlFilters);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the first non-null result of the interested plugins' remapUri(), or null.
+     */
+    Uri remapUri(Uri uri) {
+        Index index = getIndex();
+        String url = index.prefixes.isEmpty() ? null : uri.toString();
+        for (PluginEntry entry : index.candidates(url, uri.getScheme(), uri.getHost())) {
+            CordovaPlugin plugin = pluginFor(entry, REMAPS_URIS);
+            if (plugin != null) {
+                Stats s = statsFor(entry.service);
+                long start = System.nanoTime();
+                Uri ret = plugin.remapUri(uri);
+                s.record(start, ret != null);
+                if (ret != null) {
+                    return ret;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the service whose <url-filter> matches the URL, or null.
+     */
+    String findUrlFilter(String url) {
+        for (Prefix p : getIndex().urlFilters) {
+            if (url.startsWith(p.prefix)) {
+                return p.entry.service;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Asks the plugin matched by findUrlFilter() whether to block the URL.
+     */
+    boolean onOverrideUrlLoading(String service, CordovaPlugin plugin, String url) {
+        Stats s = statsFor(service);
+        long start = System.nanoTime();
+        boolean ret = plugin.onOverrideUrlLoading(url);
+        s.record(start, ret);
+        return ret;
+    }
+
+    /**
+     * Returns true if one of the interested plugins' onOverrideUrlLoading() returns true.
+     */
+    boolean onOverrideUrlLoading(String url) {
+        Index index = getIndex();
+        String scheme = null;
+        String host = null;
+        if (!index.schemes.isEmpty() || !index.hosts.isEmpty()) {
+            Uri uri = Uri.parse(url);
+            scheme = uri.getScheme();
+            host = uri.getHost();
+        }
+        for (PluginEntry entry : index.candidates(url, scheme, host)) {
+            CordovaPlugin plugin = pluginFor(entry, OVERRIDES_URL_LOADING);
+            if (plugin != null && onOverrideUrlLoading(entry.service, plugin, url)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the entry's plugin if it implements the hook, creating it if its startup
+     * was deferred. Returns null if the plugin doesn't exist or doesn't implement the hook.
+     */
+    private CordovaPlugin pluginFor(PluginEntry entry, int hook) {
+        CordovaPlugin plugin = entry.plugin;
+        if (plugin != null) {
+            return hasHook(plugin.getClass().getName(), hook) ? plugin : null;
+        }
+        if (entry.onload && entry.startup == PluginEntry.STARTUP_DEFERRED && hasHook(entry.pluginClass, hook)) {
+            return pluginManager.createDeferredPlugin(entry);
+        }
+        return null;
+    }
+
+    private boolean hasHook(String className, int hook) {
+        if (className == null) {
+            return false;
+        }
+        Integer hooks;
+        synchronized (hooksByClass) {
+            hooks = hooksByClass.get(className);
+        }
+        if (hooks == null) {
+            try {
+                Class<?> c = Class.forName(className);
+                hooks = (overrides(c, "remapUri", Uri.class) ? REMAPS_URIS : 0)
+                        | (overrides(c, "onOverrideUrlLoading", String.class) ? OVERRIDES_URL_LOADING : 0);
+            } catch (ClassNotFoundException e) {
+                hooks = 0;
+            }
+            synchronized (hooksByClass) {
+                hooksByClass.put(className, hooks);
+            }
+        }
+        return (hooks & hook) != 0;
+    }
+
+    private static boolean overrides(Class<?> c, String name, Class<?> parameterType) {
+        try {
+            return c.getMethod(name, parameterType).getDeclaringClass() != CordovaPlugin.class;
+        } catch (NoSuchMethodException e) {
+            return true;
+        }
+    }
+
+    private Stats statsFor(String service) {
+        synchronized (stats) {
+            Stats ret = stats.get(service);
+            if (ret == null) {
+                ret = new Stats(service);
+                stats.put(service, ret);
+            }
+            return ret;
+        }
+    }
+
+    /**
+     * Returns the counters of every plugin that has been asked about a URI.
+     */
+    public List<Stats> getStats() {
+        synchronized (stats) {
+            return new ArrayList<Stats>(stats.values());
+        }
+    }
+
+    public JSONArray statsToJSON() throws JSONException {
+        JSONArray ret = new JSONArray();
+        for (Stats s : getStats()) {
+            ret.put(s.toJSON());
+        }
+        return ret;
+    }
+
+    /**
+     * How often a plugin was asked about a URI, how often it remapped or blocked
+     * it, and how long it took to answer.
+     */
+    public static class Stats {
+        public final String service;
+        public final AtomicLong calls = new AtomicLong();
+        public final AtomicLong hits = new AtomicLong();
+        /** Time spent in the plugin's hook, in microseconds. */
+        public final ExecMetrics.Histogram micros = new ExecMetrics.Histogram();
+
+        Stats(String service) {
+            this.service = service;
+        }
+
+        void record(long startNanos, boolean hit) {
+            micros.record((System.nanoTime() - startNanos) / 1000);
+            calls.incrementAndGet();
+            if (hit) {
+                hits.incrementAndGet();
+            }
+        }
+
+        JSONObject toJSON() throws JSONException {
+            JSONObject ret = new JSONObject();
+            ret.put("service", service);
+            ret.put("calls", calls.get());
+            ret.put("hits", hits.get());
+            ret.put("micros", micros.toJSON());
+            return ret;
+        }
+    }
+
+    private static class Prefix {
+        final String prefix;
+        final PluginEntry entry;
+
+        Prefix(String prefix, PluginEntry entry) {
+            this.prefix = prefix;
+            this.entry = entry;
+        }
+    }
+
+    /**
+     * An immutable snapshot of who intercepts what, rebuilt when plugins are registered.
+     */
+    private static class Index {
+        final List<Prefix> urlFilters = new ArrayList<Prefix>();
+        final List<Prefix> prefixes = new ArrayList<Prefix>();
+        final HashMap<String, List<PluginEntry>> schemes = new HashMap<String, List<PluginEntry>>();
+        final HashMap<String, List<PluginEntry>> hosts = new HashMap<String, List<PluginEntry>>();
+        final List<PluginEntry> undeclared = new ArrayList<PluginEntry>();
+
+        Index(Iterable<PluginEntry> entries, Map<String, List<String>> filters) {
+            for (PluginEntry entry : entries) {
+                List<String> entryFilters = filters.get(entry.service);
+                if (entryFilters != null) {
+                    // Plugins using <url-filter> only see the URLs it matches.
+                    for (String prefix : entryFilters) {
+                        urlFilters.add(new Prefix(prefix, entry));
+                    }
+                } else if (entry.intercepts == null || entry.intercepts.isEmpty()) {
+                    undeclared.add(entry);
+                } else {
+                    for (String pattern : entry.intercepts) {
+                        add(pattern, entry);
+                    }
+                }
+            }
+        }
+
+        private void add(String pattern, PluginEntry entry) {
+            if (pattern.endsWith(":") && pattern.indexOf('/') == -1) {
+                put(schemes, pattern.substring(0, pattern.length() - 1).toLowerCase(Locale.US), entry);
+            } else if (pattern.startsWith("//") && pattern.indexOf('/', 2) == -1) {
+                put(hosts, pattern.substring(2).toLowerCase(Locale.US), entry);
+            } else {
+                prefixes.add(new Prefix(pattern, entry));
+            }
+        }
+
+        private static void put(HashMap<String, List<PluginEntry>> map, String key, PluginEntry entry) {
+            List<PluginEntry> list = map.get(key);
+            if (list == null) {
+                list = new ArrayList<PluginEntry>(1);
+                map.put(key, list);
+            }
+            list.add(entry);
+        }
+
+        /**
+         * Returns the plugins to ask about the URI: those whose declarations match it,
+         * then those that declared nothing. {@code url} may be null if there are no
+         * prefixes, and {@code scheme} and {@code host} if there are no schemes or hosts.
+         */
+        List<PluginEntry> candidates(String url, String scheme, String host) {
+            if (prefixes.isEmpty() && schemes.isEmpty() && hosts.isEmpty()) {
+                return undeclared;
+            }
+            List<PluginEntry> ret = new ArrayList<PluginEntry>();
+            for (Prefix p : prefixes) {
+                if (url.startsWith(p.prefix) && !ret.contains(p.entry)) {
+                    ret.add(p.entry);
+                }
+            }
+            addAll(ret, host == null ? null : hosts.get(host.toLowerCase(Locale.US)));
+            addAll(ret, scheme == null ? null : schemes.get(scheme.toLowerCase(Locale.US)));
+            ret.addAll(undeclared);
+            return ret;
+        }
+
+        private static void addAll(List<PluginEntry> ret, List<PluginEntry> entries) {
+            if (entries != null) {
+                for (PluginEntry entry : entries) {
+                    if (!ret.contains(entry)) {
+                        ret.add(entry);
+                    }
+                }
+            }
+        }
+    }
+}
@@ -20,7 +20,12 @@ package org.apache.cordova;
 
 import java.net.MalformedURLException;
 import java.util.ArrayList;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -28,71 +33,78 @@ import org.apache.cordova.LOG;
 
 import android.net.Uri;
 
+/**
+ * Decides which URLs the app may load, from the access origins in config.xml.
+ *
+ * Patterns are filed in a trie of host labels, read from the right, so a
+ * URL is only tested against the patterns for its own host, its parent
+ * domains' "*." patterns and the "*" host. Paths are matched as globs.
+ * Decisions are remembered for recently seen origins, so most checks don't
+ * parse the URL at all.
+ */
 public class Whitelist {
+    private static final int MAX_CACHED_ORIGINS = 64;
+
+    /** An origin decision: some pattern without a path matches the origin. */
+    private static final List<URLPattern> ALLOW = new ArrayList<URLPattern>(0);
+    /** An origin decision: no pattern matches the origin. */
+    private static final List<URLPattern> DENY = new ArrayList<URLPattern>(0);
+
     private static class URLPattern {
-        public Pattern scheme;
-        public Pattern host;
+        public String scheme;
         public Integer port;
-        public Pattern path;
-
-        private String regexFromPattern(String pattern, boolean allowWildcards) {
-            final String toReplace = "\\.[]{}()^$?+|";
-            StringBuilder regex = new StringBuilder();
-            for (int i=0; i < pattern.length(); i++) {
-                char c = pattern.charAt(i);
-                if (c == '*' && allowWildcards) {
-                    regex.append(".");
-                } else if (toReplace.indexOf(c) > -1) {
-                    regex.append('\\');
-                }
-                regex.append(c);
-            }
-            return regex.toString();
-        }
+        public String path;
+        // The host, if this pattern names exactly one web host.
+        public String hostName;
 
-        public URLPattern(String scheme, String host, String port, String path) throws MalformedURLException {
+        public URLPattern(String scheme, String port, String path) throws MalformedURLException {
             try {
-                if (scheme == null || "*".equals(scheme)) {
-                    this.scheme = null;
-                } else {
-                    this.scheme = Pattern.compile(regexFromPattern(scheme, false));
-                }
-                if ("*".equals(host)) {
-                    this.host = null;
-                } else if (host.startsWith("*.")) {
-                    this.host = Pattern.compile("([a-z0-9.-]*\\.)?" + regexFromPattern(host.substring(2), false));
-                } else {
-                    this.host = Pattern.compile(regexFromPattern(host, false));
-                }
+                this.scheme = "*".equals(scheme) ? null : scheme;
                 if (port == null || "*".equals(port)) {
                     this.port = null;
                 } else {
                     this.port = Integer.parseInt(port,10);
                 }
-                if (path == null || "/*".equals(path)) {
-                    this.path = null;
-                } else {
-                    this.path = Pattern.compile(regexFromPattern(path, true));
-                }
+                this.path = (path == null || "/*".equals(path)) ? null : path;
             } catch (NumberFormatException e) {
                 throw new MalformedURLException("Port must be a number");
             }
         }
 
-        public boolean matches(Uri uri) {
-            try {
-                return ((scheme == null || scheme.matcher(uri.getScheme()).matches()) &&
-                        (host == null || host.matcher(uri.getHost()).matches()) &&
-                        (port == null || port.equals(uri.getPort())) &&
-                        (path == null || path.matcher(uri.getPath()).matches()));
-            } catch (Exception e) {
-                LOG.d(TAG, e.toString());
-                return false;
-            }
+        public boolean matchesOrigin(String scheme, int port) {
+            return (this.scheme == null || this.scheme.equals(scheme)) &&
+                    (this.port == null || this.port == port);
+        }
+
+        public boolean matchesPath(String path) {
+            return this.path == null || (path != null && globMatches(this.path, path));
         }
     }
 
+    /** The patterns for one host, and for its subdomains in its children. */
+    private static class HostNode {
+        // Keyed by the next label to the left.
+        public final Map<String, HostNode> children = new HashMap<String, HostNode>();
+        // Patterns naming exactly this host.
+        public final List<URLPattern> exact = new ArrayList<URLPattern>();
+        // Patterns naming this host with a "*." prefix.
+        public final List<URLPattern> wildcard = new ArrayList<URLPattern>();
+    }
+
     private ArrayList<URLPattern> whiteList;
+    // Patterns whose host is "*".
+    private final List<URLPattern> anyHost = new ArrayList<URLPattern>();
+    private final HostNode hosts = new HostNode();
+
+    // Keyed by the URL up to the end of its authority. Values are ALLOW, DENY,
+    // or the patterns with paths that match the origin.
+    private final Map<String, List<URLPattern>> originDecisions =
+            new LinkedHashMap<String, List<URLPattern>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, List<URLPattern>> eldest) {
+            return size() > MAX_CACHED_ORIGINS;
+        }
+    };
 
     public static final String TAG = "Whitelist";
 
@@ -111,7 +123,7 @@ public class Whitelist {
      * the scheme to be omitted for backwards compatibility. (Also host is not required
      * to begin with a "*" or "*.".)
      */
-    public void addWhiteListEntry(String origin, boolean subdomains) {
+    public synchronized void addWhiteListEntry(String origin, boolean subdomains) {
         if (whiteList != null) {
             try {
                 // Unlimited access to network resources
@@ -131,19 +143,56 @@ public class Whitelist {
                         String path = m.group(8);
                         if (scheme == null) {
                             // XXX making it stupid friendly for people who forget to include protocol/SSL
-                            whiteList.add(new URLPattern("http", host, port, path));
-                            whiteList.add(new URLPattern("https", host, port, path));
+                            addPattern("http", host, port, path);
+                            addPattern("https", host, port, path);
                         } else {
-                            whiteList.add(new URLPattern(scheme, host, port, path));
+                            addPattern(scheme, host, port, path);
                         }
                     }
                 }
             } catch (Exception e) {
                 LOG.d(TAG, "Failed to add origin %s", origin);
             }
+            originDecisions.clear();
         }
     }
 
+    private void addPattern(String scheme, String host, String port, String path) throws MalformedURLException {
+        URLPattern pattern = new URLPattern(scheme, port, path);
+        if ("*".equals(host)) {
+            anyHost.add(pattern);
+        } else if (host.startsWith("*.")) {
+            nodeFor(host.substring(2), true).wildcard.add(pattern);
+        } else {
+            nodeFor(host, true).exact.add(pattern);
+            if ("http".equals(scheme) || "https".equals(scheme)) {
+                pattern.hostName = host;
+            }
+        }
+        whiteList.add(pattern);
+    }
+
+    /**
+     * Returns the trie node for {@code host}, or null if there is none and
+     * {@code create} is false.
+     */
+    private HostNode nodeFor(String host, boolean create) {
+        HostNode node = hosts;
+        int end = host.length();
+        while (node != null && end >= 0) {
+            int start = host.lastIndexOf('.', end - 1) + 1;
+            String label = host.substring(start, end);
+            HostNode child = node.children.get(label);
+            if (child == null && create) {
+                child = new HostNode();
+                node.children.put(label, child);
+            }
+            node = child;
+            end = start - 1;
+        }
+        return node;
+    }
+
 
     /**
      * Determine if URL is in approved list of URLs to load.
@@ -151,20 +200,155 @@ public class Whitelist {
      * @param uri
      * @return true if wide open or whitelisted
      */
-    public boolean isUrlWhiteListed(String uri) {
+    public synchronized boolean isUrlWhiteListed(String uri) {
         // If there is no whitelist, then it's wide open
         if (whiteList == null) return true;
 
-        Uri parsedUri = Uri.parse(uri);
-        // Look for match in white list
-        Iterator<URLPattern> pit = whiteList.iterator();
-        while (pit.hasNext()) {
-            URLPattern p = pit.next();
-            if (p.matches(parsedUri)) {
+        String originKey = originKey(uri);
+        List<URLPattern> decision = originKey != null ? originDecisions.get(originKey) : null;
+        Uri parsedUri = null;
+        if (decision == null) {
+            parsedUri = Uri.parse(uri);
+            decision = decide(parsedUri.getScheme(), parsedUri.getHost(), parsedUri.getPort());
+            if (originKey != null) {
+                originDecisions.put(originKey, decision);
+            }
+        }
+        if (decision == ALLOW) return true;
+        if (decision == DENY) return false;
+
+        if (parsedUri == null) {
+            parsedUri = Uri.parse(uri);
+        }
+        String path = parsedUri.getPath();
+        for (URLPattern p : decision) {
+            if (p.matchesPath(path)) {
                 return true;
             }
         }
         return false;
     }
 
+    /**
+     * Returns the prefix of {@code uri} that determines its scheme, host and
+     * port, or null if it has no scheme.
+     */
+    private static String originKey(String uri) {
+        int colon = uri.indexOf(':');
+        if (colon == -1) return null;
+        if (!uri.startsWith("//", colon + 1)) {
+            // No authority, so no host or port.
+            return uri.substring(0, colon + 1);
+        }
+        int end = colon + 3;
+        while (end < uri.length()) {
+            char c = uri.charAt(end);
+            if (c == '/' || c == '?' || c == '#') break;
+            end++;
+        }
+        return uri.substring(0, end);
+    }
+
+    /**
+     * Returns ALLOW or DENY if the origin alone decides, or else the patterns
+     * whose paths must be checked.
+     */
+    private List<URLPattern> decide(String scheme, String host, int port) {
+        List<URLPattern> withPaths = new ArrayList<URLPattern>();
+        if (collect(anyHost, scheme, port, withPaths)) return ALLOW;
+        if (host != null) {
+            HostNode node = hosts;
+            int end = host.length();
+            while (end >= 0) {
+                int start = host.lastIndexOf('.', end - 1) + 1;
+                node = node.children.get(host.substring(start, end));
+                if (node == null) break;
+                // "*.example.com" also matches subdomains whose remaining labels
+                // use only [a-z0-9.-].
+                if (!node.wildcard.isEmpty() && (start == 0 || isSubdomainPrefix(host, start - 1))
+                        && collect(node.wildcard, scheme, port, withPaths)) {
+                    return ALLOW;
+                }
+                if (start == 0 && collect(node.exact, scheme, port, withPaths)) {
+                    return ALLOW;
+                }
+                end = start - 1;
+            }
+        }
+        return withPaths.isEmpty() ? DENY : withPaths;
+    }
+
+    /**
+     * Adds the patterns matching the origin to {@code withPaths}, and returns
+     * true if one of them has no path.
+     */
+    private static boolean collect(List<URLPattern> patterns, String scheme, int port,
+            List<URLPattern> withPaths) {
+        for (URLPattern p : patterns) {
+            if (p.matchesOrigin(scheme, port)) {
+                if (p.path == null) return true;
+                withPaths.add(p);
+            }
+        }
+        return false;
+    }
+
+    private static boolean isSubdomainPrefix(String host, int end) {
+        for (int i = 0; i < end; i++) {
+            char c = host.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '.' || c == '-')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if {@code glob} matches all of {@code path}. Each '*' in the
+     * glob matches any run of characters other than line terminators.
+     */
+    private static boolean globMatches(String glob, String path) {
+        int g = 0;
+        int p = 0;
+        int starG = -1;
+        int starP = 0;
+        while (p < path.length()) {
+            if (g < glob.length() && glob.charAt(g) == '*') {
+                starG = g++;
+                starP = p;
+            } else if (g < glob.length() && glob.charAt(g) == path.charAt(p)) {
+                g++;
+                p++;
+            } else if (starG != -1 && !isLineTerminator(path.charAt(starP))) {
+                // Let the last '*' absorb one more character and retry.
+                g = starG + 1;
+                p = ++starP;
+            } else {
+                return false;
+            }
+        }
+        while (g < glob.length() && glob.charAt(g) == '*') {
+            g++;
+        }
+        return g == glob.length();
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * Returns the hosts that http and https entries name without wildcards.
+     */
+    public synchronized Set<String> getHostNames() {
+        Set<String> hosts = new LinkedHashSet<String>();
+        if (whiteList != null) {
+            for (URLPattern p : whiteList) {
+                if (p.hostName != null) {
+                    hosts.add(p.hostName);
+                }
+            }
+        }
+        return hosts;
+    }
 }
@@ -0,0 +1,217 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp;
+
+import com.squareup.okhttp.internal.Util;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/** Checks that the memory tier of the cache stays consistent with the disk tier. */
+public final class HttpResponseCacheTest {
+  /** Four responses of this size overflow the disk cache; three fit. */
+  private static final int BODY_SIZE = 4000;
+  private static final long DISK_SIZE = 14000;
+
+  private final Server server = new Server();
+  private File directory;
+  private HttpResponseCache cache;
+  private OkHttpClient client;
+
+  @Before public void setUp() throws Exception {
+    directory = File.createTempFile("HttpResponseCacheTest", "");
+    assertTrue(directory.delete());
+    cache = new HttpResponseCache(directory, DISK_SIZE, 1024 * 1024);
+    client = new OkHttpClient().setResponseCache(cache);
+    server.start();
+  }
+
+  @After public void tearDown() throws Exception {
+    server.close();
+    cache.delete();
+  }
+
+  @Test public void repeatedReadsComeFromMemory() throws Exception {
+    fetch("/a"); // Network.
+    fetch("/a"); // Disk.
+    fetch("/a"); // Memory.
+    assertEquals(1, server.count("/a"));
+    assertEquals(1, cache.getDiskHitCount());
+    assertEquals(1, cache.getMemoryHitCount());
+  }
+
+  /** A response served from memory is recently used on disk too, so it isn't evicted there. */
+  @Test public void memoryHitsKeepTheEntryOnDisk() throws Exception {
+    fetch("/a");
+    fetch("/a"); // Now in memory.
+    fetch("/b");
+    fetch("/c");
+    fetch("/a"); // Memory hit; /b is now the least recently used on disk.
+    fetch("/d");
+    cache.flush();
+
+    fetch("/a");
+    fetch("/b");
+    assertEquals(1, server.count("/a"));
+    assertEquals(2, server.count("/b"));
+  }
+
+  @Test public void diskEvictionDropsTheMemoryCopy() throws Exception {
+    fetch("/a");
+    fetch("/a"); // Now in memory.
+    assertTrue(cache.getMemorySize() > 0);
+    fetch("/b");
+    fetch("/c");
+    fetch("/d"); // /a is the least recently used on disk.
+    cache.flush();
+    assertEquals(0, cache.getMemorySize());
+
+    fetch("/a");
+    assertEquals(2, server.count("/a"));
+  }
+
+  /** Revalidating a response replaces its headers, so the copy in memory must go. */
+  @Test public void conditionalHitDropsTheMemoryCopy() throws Exception {
+    fetch("/a");
+    fetch("/a"); // Now in memory.
+    assertTrue(cache.getMemorySize() > 0);
+    fetch("/a", "max-age=0"); // Revalidated from memory.
+    assertEquals(0, cache.getMemorySize());
+    assertEquals(1, server.count("/a"));
+    assertEquals(1, server.notModifiedCount.get());
+  }
+
+  private String fetch(String path) throws IOException {
+    return fetch(path, null);
+  }
+
+  private String fetch(String path, String cacheControl) throws IOException {
+    HttpURLConnection connection = client.open(new URL("http://127.0.0.1:" + server.port() + path));
+    if (cacheControl != null) {
+      connection.addRequestProperty("Cache-Control", cacheControl);
+    }
+    InputStream in = connection.getInputStream();
+    try {
+      byte[] body = new byte[BODY_SIZE];
+      Util.readFully(in, body);
+      assertEquals(-1, in.read());
+      return new String(body, "US-ASCII");
+    } finally {
+      in.close();
+    }
+  }
+
+  /** Serves a cacheable body for every path, and 304 to conditional requests. */
+  static final class Server implements Runnable {
+    private final Map<String, AtomicInteger> counts = new ConcurrentHashMap<String, AtomicInteger>();
+    final AtomicInteger notModifiedCount = new AtomicInteger();
+    private ServerSocket serverSocket;
+
+    void start() throws IOException {
+      serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+      Thread thread = new Thread(this, "HttpResponseCacheTest server");
+      thread.setDaemon(true);
+      thread.start();
+    }
+
+    int port() {
+      return serverSocket.getLocalPort();
+    }
+
+    int count(String path) {
+      AtomicInteger count = counts.get(path);
+      return count != null ? count.get() : 0;
+    }
+
+    void close() throws IOException {
+      serverSocket.close();
+    }
+
+    @Override public void run() {
+      try {
+        while (true) {
+          final Socket socket = serverSocket.accept();
+          Thread thread = new Thread("HttpResponseCacheTest connection") {
+            @Override public void run() {
+              try {
+                serve(socket);
+              } catch (IOException ignored) {
+              } finally {
+                Util.closeQuietly(socket);
+              }
+            }
+          };
+          thread.setDaemon(true);
+          thread.start();
+        }
+      } catch (IOException closed) {
+      }
+    }
+
+    private void serve(Socket socket) throws IOException {
+      BufferedReader reader = new BufferedReader(
+          new InputStreamReader(socket.getInputStream(), "US-ASCII"));
+      OutputStream out = socket.getOutputStream();
+      String requestLine;
+      while ((requestLine = reader.readLine()) != null) {
+        String path = requestLine.split(" ")[1];
+        boolean conditional = false;
+        for (String line; (line = reader.readLine()) != null && line.length() > 0; ) {
+          if (line.toLowerCase().startsWith("if-none-match:")) {
+            conditional = true;
+          }
+        }
+
+        String headers = "Cache-Control: max-age=60\r\nETag: \"v1\"\r\n";
+        if (conditional) {
+          notModifiedCount.incrementAndGet();
+          out.write(("HTTP/1.1 304 Not Modified\r\n" + headers + "\r\n").getBytes("US-ASCII"));
+        } else {
+          AtomicInteger count = counts.get(path);
+          if (count == null) {
+            count = new AtomicInteger();
+            counts.put(path, count);
+          }
+          count.incrementAndGet();
+          char[] body = new char[BODY_SIZE];
+          Arrays.fill(body, 'x');
+          out.write(("HTTP/1.1 200 OK\r\n" + headers + "Content-Length: " + BODY_SIZE + "\r\n\r\n"
+              + new String(body)).getBytes("US-ASCII"));
+        }
+        out.flush();
+      }
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.benchmarks;
+
+import com.squareup.okhttp.Address;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Route;
+import com.squareup.okhttp.internal.Util;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures ConnectionPool acquire/release throughput as the number of threads
+ * and of distinct addresses grows. Each operation takes a connection to a
+ * random address from the pool and recycles it. All addresses route to one
+ * loopback server socket.
+ *
+ * <p>Usage: ConnectionPoolBenchmark [operations per thread]
+ */
+public final class ConnectionPoolBenchmark {
+  private static final int[] THREAD_COUNTS = { 1, 4, 16, 64 };
+  private static final int[] ADDRESS_COUNTS = { 1, 10, 100 };
+  private static final int CONNECTIONS_PER_ADDRESS = 2;
+
+  public static void main(String[] args) throws Exception {
+    int operations = args.length > 0 ? Integer.parseInt(args[0]) : 50000;
+    final ServerSocket serverSocket = new ServerSocket(0, 1000, InetAddress.getByName("127.0.0.1"));
+    final List<Socket> accepted = new ArrayList<Socket>();
+    Thread acceptThread = new Thread("ConnectionPoolBenchmark accept") {
+      @Override public void run() {
+        try {
+          while (true) {
+            Socket socket = serverSocket.accept();
+            synchronized (accepted) {
+              accepted.add(socket);
+            }
+          }
+        } catch (Exception ignored) {
+        }
+      }
+    };
+    acceptThread.setDaemon(true);
+    acceptThread.start();
+    InetSocketAddress serverAddress =
+        new InetSocketAddress(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+
+    System.out.printf("%8s %9s %14s %8s%n", "threads", "addresses", "ops/s", "hits");
+    for (int addressCount : ADDRESS_COUNTS) {
+      Address[] addresses = new Address[addressCount];
+      for (int i = 0; i < addressCount; i++) {
+        addresses[i] = new Address("host" + i, 80, null, null, Proxy.NO_PROXY);
+      }
+      for (int threads : THREAD_COUNTS) {
+        ConnectionPool pool =
+            new ConnectionPool(addressCount * CONNECTIONS_PER_ADDRESS, 5 * 60 * 1000);
+        for (Address address : addresses) {
+          for (int i = 0; i < CONNECTIONS_PER_ADDRESS; i++) {
+            Connection connection =
+                new Connection(new Route(address, Proxy.NO_PROXY, serverAddress, false));
+            connection.connect(1000, 1000, null);
+            pool.recycle(connection);
+          }
+        }
+
+        run(pool, addresses, threads, operations / 10); // Warm up.
+        long start = System.nanoTime();
+        long hits = run(pool, addresses, threads, operations);
+        long elapsed = System.nanoTime() - start;
+        pool.evictAll();
+        closeAll(accepted);
+
+        long total = (long) threads * operations;
+        System.out.printf("%8d %9d %,14d %7d%%%n",
+            threads, addressCount, total * 1000000000L / elapsed, hits * 100 / total);
+      }
+    }
+    serverSocket.close();
+    System.exit(0); // Don't wait for idle pool threads to time out.
+  }
+
+  /** Returns the number of operations that found a pooled connection. */
+  private static long run(final ConnectionPool pool, final Address[] addresses, int threads,
+      final int operations) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+    for (int t = 0; t < threads; t++) {
+      final Random random = new Random(t);
+      futures.add(executor.submit(new Callable<Integer>() {
+        @Override public Integer call() {
+          int hits = 0;
+          for (int i = 0; i < operations; i++) {
+            Connection connection = pool.get(addresses[random.nextInt(addresses.length)]);
+            if (connection != null) {
+              pool.recycle(connection);
+              hits++;
+            }
+          }
+          return hits;
+        }
+      }));
+    }
+    long hits = 0;
+    for (Future<Integer> future : futures) {
+      hits += future.get();
+    }
+    executor.shutdown();
+    return hits;
+  }
+
+  private static void closeAll(List<Socket> sockets) {
+    synchronized (sockets) {
+      for (Socket socket : sockets) {
+        Util.closeQuietly(socket);
+      }
+      sockets.clear();
+    }
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.benchmarks;
+
+import com.squareup.okhttp.internal.DiskLruCache;
+import com.squareup.okhttp.internal.Util;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures DiskLruCache throughput as the number of threads using it grows.
+ * Each operation is a read of a random key, or one time in five an edit.
+ *
+ * <p>Usage: DiskLruCacheBenchmark [operations per thread]
+ */
+public final class DiskLruCacheBenchmark {
+  private static final int KEYS = 500;
+  private static final int[] THREAD_COUNTS = { 1, 2, 4, 8 };
+
+  public static void main(String[] args) throws Exception {
+    int operations = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    File directory = File.createTempFile("DiskLruCacheBenchmark", "");
+    directory.delete();
+    directory.mkdir();
+
+    for (int threads : THREAD_COUNTS) {
+      Util.deleteContents(directory);
+      DiskLruCache cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+      for (int i = 0; i < KEYS; i++) {
+        DiskLruCache.Editor editor = cache.edit("k" + i);
+        editor.set(0, "value " + i);
+        editor.commit();
+      }
+
+      run(cache, threads, operations / 10); // Warm up.
+      long start = System.nanoTime();
+      run(cache, threads, operations);
+      long elapsed = System.nanoTime() - start;
+      cache.close();
+
+      long total = (long) threads * operations;
+      System.out.printf("%d threads: %,d ops in %d ms, %,d ops/s%n",
+          threads, total, elapsed / 1000000, total * 1000000000L / elapsed);
+    }
+    Util.deleteContents(directory);
+    directory.delete();
+  }
+
+  private static void run(final DiskLruCache cache, int threads, final int operations)
+      throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int t = 0; t < threads; t++) {
+      final Random random = new Random(t);
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override public Void call() throws Exception {
+          for (int i = 0; i < operations; i++) {
+            String key = "k" + random.nextInt(KEYS);
+            if (random.nextInt(5) == 0) {
+              DiskLruCache.Editor editor = cache.edit(key);
+              if (editor != null) {
+                editor.set(0, "value " + i);
+                editor.commit();
+              }
+            } else {
+              DiskLruCache.Snapshot snapshot = cache.get(key);
+              if (snapshot != null) {
+                snapshot.getString(0);
+                snapshot.close();
+              }
+            }
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.benchmarks;
+
+import com.squareup.okhttp.internal.http.RawHeaders;
+import java.io.ByteArrayInputStream;
+import java.util.List;
+
+/**
+ * Measures the cost of parsing, querying and serializing a realistic set of
+ * response headers. Lookups are the ones the HTTP engine and the response
+ * cache make for each response.
+ *
+ * <p>Usage: RawHeadersBenchmark [iterations]
+ */
+public final class RawHeadersBenchmark {
+  private static final String RESPONSE = "HTTP/1.1 200 OK\r\n"
+      + "Server: nginx\r\n"
+      + "Date: Sat, 17 Oct 2026 10:00:00 GMT\r\n"
+      + "Content-Type: text/html; charset=utf-8\r\n"
+      + "Content-Length: 12345\r\n"
+      + "Connection: keep-alive\r\n"
+      + "Vary: Accept-Encoding\r\n"
+      + "Cache-Control: max-age=600, stale-while-revalidate=30\r\n"
+      + "ETag: \"abc123\"\r\n"
+      + "Last-Modified: Fri, 16 Oct 2026 10:00:00 GMT\r\n"
+      + "Set-Cookie: a=1; Path=/\r\n"
+      + "Set-Cookie: b=2; Path=/\r\n"
+      + "X-Frame-Options: DENY\r\n"
+      + "Strict-Transport-Security: max-age=31536000\r\n"
+      + "Accept-Ranges: bytes\r\n"
+      + "Age: 3\r\n"
+      + "\r\n";
+  private static final String[] LOOKUPS = {
+      "Content-Type", "Content-Length", "Transfer-Encoding", "Cache-Control", "Expires",
+      "Date", "Last-Modified", "ETag", "Age", "Vary", "Content-Encoding", "Connection"
+  };
+
+  public static void main(String[] args) throws Exception {
+    int iterations = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+    byte[] bytes = RESPONSE.getBytes("ISO-8859-1");
+    for (int round = 0; round < 5; round++) {
+      int sink = 0;
+
+      long start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        sink += RawHeaders.fromBytes(new ByteArrayInputStream(bytes)).length();
+      }
+      long parse = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        RawHeaders headers = RawHeaders.fromBytes(new ByteArrayInputStream(bytes));
+        for (String name : LOOKUPS) {
+          if (headers.get(name) != null) sink++;
+        }
+        sink += headers.toMultimap(true).size();
+        sink += headers.toMultimap(true).size();
+      }
+      long parseAndQuery = System.nanoTime() - start;
+
+      RawHeaders headers = RawHeaders.fromBytes(new ByteArrayInputStream(bytes));
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        sink += headers.toBytes().length;
+      }
+      long toBytes = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < iterations; i++) {
+        List<String> block = headers.toNameValueBlock();
+        sink += RawHeaders.fromNameValueBlock(block).length();
+      }
+      long nameValueBlock = System.nanoTime() - start;
+
+      System.out.printf("parse %d ns, parse+query %d ns, toBytes %d ns, "
+          + "SPDY block round trip %d ns (%d)%n",
+          parse / iterations, parseAndQuery / iterations, toBytes / iterations,
+          nameValueBlock / iterations, sink);
+    }
+  }
+}
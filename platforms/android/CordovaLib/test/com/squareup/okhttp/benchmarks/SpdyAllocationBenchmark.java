@@ -0,0 +1,133 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.benchmarks;
+
+import com.squareup.okhttp.internal.Util;
+import com.squareup.okhttp.internal.spdy.IncomingStreamHandler;
+import com.squareup.okhttp.internal.spdy.SpdyConnection;
+import com.squareup.okhttp.internal.spdy.SpdyStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Measures the heap allocated while opening and closing many short streams
+ * over an in-process SpdyConnection pair. Each stream posts a small body and
+ * reads a small response. Allocation is counted across all threads, so it
+ * includes both peers' readers and writers.
+ *
+ * <p>Usage: SpdyAllocationBenchmark [streams]
+ */
+public final class SpdyAllocationBenchmark {
+  private static final int REQUEST_BYTES = 3000;
+  private static final byte[] RESPONSE = "ok".getBytes();
+
+  public static void main(String[] args) throws Exception {
+    int streams = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    ServerSocket serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    Socket clientSocket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    Socket acceptedSocket = serverSocket.accept();
+    clientSocket.setTcpNoDelay(true);
+    acceptedSocket.setTcpNoDelay(true);
+
+    SpdyConnection server = new SpdyConnection.Builder(false, acceptedSocket)
+        .handler(new IncomingStreamHandler() {
+          @Override public void receive(SpdyStream stream) throws IOException {
+            drain(stream.getInputStream());
+            stream.reply(Arrays.asList("status", "200 OK", "version", "HTTP/1.1"), true);
+            OutputStream out = stream.getOutputStream();
+            out.write(RESPONSE);
+            out.close();
+          }
+        })
+        .build();
+    SpdyConnection client = new SpdyConnection.Builder(true, clientSocket).build();
+
+    run(client, streams / 10); // Warm up.
+    long allocatedBefore = allocatedBytes();
+    long start = System.nanoTime();
+    run(client, streams);
+    long elapsed = System.nanoTime() - start;
+    long allocated = allocatedBytes() - allocatedBefore;
+
+    System.out.printf("%,d streams in %d ms%n", streams, elapsed / 1000000);
+    if (allocatedBefore >= 0) {
+      System.out.printf("%,d bytes allocated, %,d per stream%n", allocated, allocated / streams);
+    } else {
+      System.out.println("allocation counting is not supported by this VM");
+    }
+
+    Util.closeQuietly(client);
+    Util.closeQuietly(server);
+    Util.closeQuietly(clientSocket);
+    Util.closeQuietly(acceptedSocket);
+    serverSocket.close();
+    System.exit(0); // Don't wait for idle connection threads to time out.
+  }
+
+  private static void run(SpdyConnection client, int streams) throws IOException {
+    byte[] body = new byte[REQUEST_BYTES];
+    List<String> requestHeaders = Arrays.asList(":method", "POST", ":path", "/", ":host", "a");
+    for (int i = 0; i < streams; i++) {
+      SpdyStream stream = client.newStream(requestHeaders, true, true);
+      OutputStream out = stream.getOutputStream();
+      out.write(body);
+      out.close();
+      stream.getResponseHeaders();
+      if (drain(stream.getInputStream()) != RESPONSE.length) {
+        throw new AssertionError("short response on stream " + stream.getId());
+      }
+    }
+  }
+
+  private static int drain(InputStream in) throws IOException {
+    byte[] buffer = new byte[1024];
+    int total = 0;
+    for (int count; (count = in.read(buffer)) != -1; ) {
+      total += count;
+    }
+    in.close();
+    return total;
+  }
+
+  /** Returns the bytes allocated so far by all live threads, or -1 if the VM can't tell. */
+  private static long allocatedBytes() {
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+      return -1;
+    }
+    com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean) threads;
+    if (!hotspotThreads.isThreadAllocatedMemorySupported()) {
+      return -1;
+    }
+    hotspotThreads.setThreadAllocatedMemoryEnabled(true);
+    long total = 0;
+    for (long allocated : hotspotThreads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+      if (allocated > 0) {
+        total += allocated;
+      }
+    }
+    return total;
+  }
+}
@@ -0,0 +1,259 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class CachingDnsTest {
+  private final FakeDns delegate = new FakeDns();
+
+  @Test public void cachesSuccessfulLookups() throws Exception {
+    CachingDns dns = new CachingDns(delegate);
+    assertEquals("1.1.1.1", dns.getAllByName("a.test")[0].getHostAddress());
+    assertEquals("1.1.1.1", dns.getAllByName("A.TEST")[0].getHostAddress());
+    assertEquals(1, delegate.calls.get());
+    assertEquals(1, dns.getHitCount());
+    assertEquals(1, dns.getMissCount());
+  }
+
+  @Test public void callersCannotCorruptTheCache() throws Exception {
+    CachingDns dns = new CachingDns(delegate);
+    dns.getAllByName("a.test")[0] = null;
+    assertEquals("1.1.1.1", dns.getAllByName("a.test")[0].getHostAddress());
+  }
+
+  @Test public void successfulLookupsExpire() throws Exception {
+    CachingDns dns = new CachingDns(delegate, 50, 50, 10);
+    dns.getAllByName("a.test");
+    Thread.sleep(100);
+    dns.getAllByName("a.test");
+    assertEquals(2, delegate.calls.get());
+  }
+
+  @Test public void cachesUnknownHosts() throws Exception {
+    delegate.failure = new UnknownHostException("no.test");
+    CachingDns dns = new CachingDns(delegate);
+    for (int i = 0; i < 2; i++) {
+      try {
+        dns.getAllByName("no.test");
+        fail();
+      } catch (UnknownHostException expected) {
+        assertEquals("no.test", expected.getMessage());
+      }
+    }
+    assertEquals(1, delegate.calls.get());
+    assertEquals(1, dns.getNegativeHitCount());
+    assertEquals(1, dns.getLookupFailureCount());
+  }
+
+  @Test public void unknownHostsExpireSooner() throws Exception {
+    delegate.failure = new UnknownHostException("no.test");
+    CachingDns dns = new CachingDns(delegate, 60 * 1000, 50, 10);
+    lookUpAndIgnoreFailure(dns, "no.test");
+    Thread.sleep(100);
+    lookUpAndIgnoreFailure(dns, "no.test");
+    assertEquals(2, delegate.calls.get());
+  }
+
+  @Test public void otherFailuresAreNotCached() throws Exception {
+    delegate.failure = new IllegalArgumentException("bad host");
+    CachingDns dns = new CachingDns(delegate);
+    lookUpAndIgnoreFailure(dns, "a.test");
+    lookUpAndIgnoreFailure(dns, "a.test");
+    assertEquals(2, delegate.calls.get());
+  }
+
+  @Test public void concurrentLookupsShareOneCall() throws Exception {
+    delegate.block = new CountDownLatch(1);
+    final CachingDns dns = new CachingDns(delegate);
+    final AtomicReference<InetAddress[]> waiterResult = new AtomicReference<InetAddress[]>();
+    Thread owner = lookUpInBackground(dns, "a.test", null);
+    delegate.awaitCalls(1);
+    Thread waiter = lookUpInBackground(dns, "a.test", waiterResult);
+    awaitCoalesced(dns, 1);
+
+    delegate.block.countDown();
+    owner.join(5000);
+    waiter.join(5000);
+    assertEquals("1.1.1.1", waiterResult.get()[0].getHostAddress());
+    assertEquals(1, delegate.calls.get());
+  }
+
+  /** An Error from the delegate reaches every caller and leaves nothing in flight. */
+  @Test public void errorReleasesWaiters() throws Exception {
+    final Error error = new StackOverflowError("boom");
+    delegate.failure = error;
+    delegate.block = new CountDownLatch(1);
+    final CachingDns dns = new CachingDns(delegate);
+    final AtomicReference<Throwable> ownerFailure = new AtomicReference<Throwable>();
+    final AtomicReference<Throwable> waiterFailure = new AtomicReference<Throwable>();
+    Thread owner = failInBackground(dns, ownerFailure);
+    delegate.awaitCalls(1);
+    Thread waiter = failInBackground(dns, waiterFailure);
+    awaitCoalesced(dns, 1);
+
+    delegate.block.countDown();
+    owner.join(5000);
+    waiter.join(5000);
+    assertSame(error, ownerFailure.get());
+    assertSame(error, waiterFailure.get());
+
+    // The next lookup isn't stuck behind the failed one.
+    delegate.failure = null;
+    delegate.block = null;
+    assertEquals("1.1.1.1", dns.getAllByName("a.test")[0].getHostAddress());
+    assertEquals(2, delegate.calls.get());
+  }
+
+  @Test public void evictForgetsOneHost() throws Exception {
+    CachingDns dns = new CachingDns(delegate);
+    dns.getAllByName("a.test");
+    dns.getAllByName("b.test");
+    dns.evict("A.test");
+    dns.getAllByName("a.test");
+    dns.getAllByName("b.test");
+    assertEquals(3, delegate.calls.get());
+  }
+
+  @Test public void evictAllForgetsEveryHost() throws Exception {
+    CachingDns dns = new CachingDns(delegate);
+    dns.getAllByName("a.test");
+    dns.getAllByName("b.test");
+    dns.evictAll();
+    dns.getAllByName("a.test");
+    dns.getAllByName("b.test");
+    assertEquals(4, delegate.calls.get());
+  }
+
+  @Test public void leastRecentlyUsedHostIsEvicted() throws Exception {
+    CachingDns dns = new CachingDns(delegate, 60 * 1000, 60 * 1000, 2);
+    dns.getAllByName("a.test");
+    dns.getAllByName("b.test");
+    dns.getAllByName("a.test");
+    dns.getAllByName("c.test"); // Evicts b.test.
+    dns.getAllByName("a.test");
+    assertEquals(3, delegate.calls.get());
+    dns.getAllByName("b.test");
+    assertEquals(4, delegate.calls.get());
+  }
+
+  @Test public void prefetchResolvesInTheBackground() throws Exception {
+    CachingDns dns = new CachingDns(delegate);
+    dns.prefetch(Arrays.asList("a.test", "b.test"));
+    delegate.awaitCalls(2);
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (dns.getLookupCount() < 2 && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    dns.getAllByName("a.test");
+    dns.getAllByName("b.test");
+    assertEquals(2, delegate.calls.get());
+    assertEquals(2, dns.getHitCount());
+  }
+
+  private static void lookUpAndIgnoreFailure(CachingDns dns, String host) {
+    try {
+      dns.getAllByName(host);
+      fail();
+    } catch (UnknownHostException expected) {
+    } catch (RuntimeException expected) {
+    }
+  }
+
+  private static Thread lookUpInBackground(final CachingDns dns, final String host,
+      final AtomicReference<InetAddress[]> result) {
+    Thread thread = new Thread() {
+      @Override public void run() {
+        try {
+          InetAddress[] addresses = dns.getAllByName(host);
+          if (result != null) result.set(addresses);
+        } catch (UnknownHostException e) {
+          throw new AssertionError(e);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static Thread failInBackground(final CachingDns dns,
+      final AtomicReference<Throwable> failure) {
+    Thread thread = new Thread() {
+      @Override public void run() {
+        try {
+          dns.getAllByName("a.test");
+        } catch (Throwable t) {
+          failure.set(t);
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitCoalesced(CachingDns dns, int count) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (dns.getCoalescedCount() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, dns.getCoalescedCount());
+  }
+
+  /** Resolves every host to 1.1.1.1, or fails as told. */
+  static final class FakeDns implements Dns {
+    final AtomicInteger calls = new AtomicInteger();
+    volatile Throwable failure;
+    volatile CountDownLatch block;
+
+    @Override public InetAddress[] getAllByName(String host) throws UnknownHostException {
+      calls.incrementAndGet();
+      CountDownLatch latch = block;
+      if (latch != null) {
+        try {
+          assertTrue(latch.await(5, TimeUnit.SECONDS));
+        } catch (InterruptedException e) {
+          throw new AssertionError(e);
+        }
+      }
+      Throwable t = failure;
+      if (t instanceof UnknownHostException) throw (UnknownHostException) t;
+      if (t instanceof RuntimeException) throw (RuntimeException) t;
+      if (t instanceof Error) throw (Error) t;
+      return new InetAddress[] { InetAddress.getByAddress(host, new byte[] { 1, 1, 1, 1 }) };
+    }
+
+    void awaitCalls(int count) throws InterruptedException {
+      long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+      while (calls.get() < count && System.nanoTime() < deadline) {
+        Thread.sleep(10);
+      }
+      assertEquals(count, calls.get());
+    }
+  }
+}
@@ -0,0 +1,169 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class DiskLruCacheTest {
+  private File directory;
+  private DiskLruCache cache;
+
+  @Before public void setUp() throws Exception {
+    directory = File.createTempFile("DiskLruCacheTest", "");
+    assertTrue(directory.delete());
+    cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+  }
+
+  @After public void tearDown() throws Exception {
+    cache.delete();
+  }
+
+  @Test public void entriesSurviveReopening() throws Exception {
+    set("a", "apple");
+    set("b", "banana");
+    assertTrue(cache.remove("a"));
+    cache.close();
+
+    cache = DiskLruCache.open(directory, 1, 1, Long.MAX_VALUE);
+    assertNull(cache.get("a"));
+    assertEquals("banana", get("b"));
+  }
+
+  /** Concurrent edits, reads and removals of many keys end in a consistent, reopenable cache. */
+  @Test public void concurrentOperations() throws Exception {
+    cache.close();
+    cache = DiskLruCache.open(directory, 1, 1, 5000);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<Void>> futures = new ArrayList<Future<Void>>();
+    for (int t = 0; t < 8; t++) {
+      final int thread = t;
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override public Void call() throws Exception {
+          Random random = new Random(thread);
+          for (int i = 0; i < 2000; i++) {
+            String key = "k" + thread + "_" + random.nextInt(50);
+            int op = random.nextInt(10);
+            if (op < 2) {
+              DiskLruCache.Editor editor = cache.edit(key);
+              if (editor != null) {
+                editor.set(0, key + ":" + i);
+                editor.commit();
+              }
+            } else if (op < 3) {
+              cache.remove(key);
+            } else {
+              DiskLruCache.Snapshot snapshot = cache.get(key);
+              if (snapshot != null) {
+                assertTrue(snapshot.getString(0).startsWith(key + ":"));
+                snapshot.close();
+              }
+            }
+          }
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    cache.flush();
+    assertTrue(cache.size() <= 5000);
+    cache.close();
+
+    cache = DiskLruCache.open(directory, 1, 1, 5000);
+    assertTrue(cache.size() <= 5000);
+  }
+
+  /**
+   * Once the journal can't be written, nothing that changes the cache may
+   * appear to succeed, since the change would be lost on reopening.
+   */
+  @Test public void journalFailureMakesTheCacheReadOnly() throws Exception {
+    set("a", "apple");
+    DiskLruCache.Editor inProgress = cache.edit("b");
+    inProgress.set(0, "banana");
+
+    // Rebuilding the journal fails while its temporary file is a directory.
+    assertTrue(new File(directory, DiskLruCache.JOURNAL_FILE_TEMP).mkdir());
+    for (int i = 0; i < 2000; i++) {
+      assertTrue(cache.touch("a"));
+    }
+    awaitJournalFailure();
+
+    try {
+      cache.remove("a");
+      fail();
+    } catch (IOException expected) {
+    }
+    assertEquals("apple", get("a"));
+
+    inProgress.commit(); // Discarded rather than published unrecorded.
+    assertNull(cache.get("b"));
+    assertFalse(new File(directory, "b.0").exists());
+    assertFalse(new File(directory, "b.0.tmp").exists());
+  }
+
+  private void awaitJournalFailure() throws Exception {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (System.nanoTime() < deadline) {
+      try {
+        DiskLruCache.Editor editor = cache.edit("c");
+        assertNotNull(editor);
+        editor.abort();
+      } catch (IOException expected) {
+        return;
+      }
+      Thread.sleep(10);
+    }
+    fail("journal did not fail");
+  }
+
+  private void set(String key, String value) throws IOException {
+    DiskLruCache.Editor editor = cache.edit(key);
+    editor.set(0, value);
+    editor.commit();
+  }
+
+  private String get(String key) throws IOException {
+    DiskLruCache.Snapshot snapshot = cache.get(key);
+    try {
+      return snapshot.getString(0);
+    } finally {
+      snapshot.close();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal.http;
+
+import java.io.ByteArrayInputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public final class RawHeadersTest {
+  private static final String RESPONSE = "HTTP/1.1 200 OK\r\n"
+      + "Server: nginx\r\n"
+      + "Content-Type: text/html; charset=utf-8\r\n"
+      + "Content-Length: 12345\r\n"
+      + "Connection: keep-alive\r\n"
+      + "Cache-Control: max-age=600\r\n"
+      + "ETag: \"abc123\"\r\n"
+      + "Set-Cookie: a=1\r\n"
+      + "Set-Cookie: b=2\r\n"
+      + "X-Custom:   spaced value  \r\n"
+      + "x-frame-options: DENY\r\n"
+      + "Café: é\r\n"
+      + "\r\n";
+
+  @Test public void parseResponse() throws Exception {
+    RawHeaders headers = parse(RESPONSE);
+    assertEquals("HTTP/1.1 200 OK", headers.getStatusLine());
+    assertEquals(200, headers.getResponseCode());
+    assertEquals(11, headers.length());
+    assertEquals("text/html; charset=utf-8", headers.get("content-type"));
+    assertEquals("b=2", headers.get("SET-COOKIE"));
+    assertEquals("spaced value", headers.get("x-custom"));
+    assertEquals("DENY", headers.get("X-Frame-Options"));
+    assertEquals("é", headers.get("café"));
+    assertNull(headers.get("expires"));
+  }
+
+  /** Headers with enough fields are looked up through an index; it must agree with a scan. */
+  @Test public void indexedLookupMatchesScan() throws Exception {
+    RawHeaders headers = new RawHeaders();
+    for (int i = 0; i < 40; i++) {
+      headers.add("Name-" + (i % 25), "value " + i);
+    }
+    for (int i = 0; i < 25; i++) {
+      String expected = "value " + (i < 15 ? i + 25 : i);
+      assertEquals(expected, headers.get("name-" + i));
+      assertEquals(expected, headers.get("NAME-" + i));
+    }
+    assertNull(headers.get("name-25"));
+
+    headers.set("Name-3", "changed");
+    assertEquals("changed", headers.get("name-3"));
+    headers.removeAll("name-4");
+    assertNull(headers.get("Name-4"));
+    headers.add("Name-4", "back");
+    assertEquals("back", headers.get("name-4"));
+  }
+
+  @Test public void removeAllRemovesAdjacentFields() {
+    RawHeaders headers = new RawHeaders();
+    headers.add("A", "1");
+    headers.add("a", "2");
+    headers.add("B", "3");
+    headers.add("A", "4");
+    headers.removeAll("a");
+    assertEquals(1, headers.length());
+    assertEquals("B", headers.getFieldName(0));
+  }
+
+  @Test public void multimapIsCachedUntilChanged() throws Exception {
+    RawHeaders headers = parse(RESPONSE);
+    Map<String, List<String>> multimap = headers.toMultimap(true);
+    assertSame(multimap, headers.toMultimap(true));
+    assertEquals(Arrays.asList("a=1", "b=2"), multimap.get("set-cookie"));
+    assertEquals(Arrays.asList("HTTP/1.1 200 OK"), multimap.get(null));
+    try {
+      multimap.put("X", Arrays.asList("y"));
+      fail();
+    } catch (UnsupportedOperationException expected) {
+    }
+
+    headers.add("Expires", "0");
+    assertEquals(Arrays.asList("0"), headers.toMultimap(true).get("expires"));
+  }
+
+  @Test public void toBytesRoundTrip() throws Exception {
+    RawHeaders request = new RawHeaders();
+    request.setRequestLine("GET / HTTP/1.1");
+    request.add("Host", "example.com");
+    request.add("X-Latin", "café");
+    assertEquals("GET / HTTP/1.1\r\nHost: example.com\r\nX-Latin: café\r\n\r\n",
+        new String(request.toBytes(), "ISO-8859-1"));
+  }
+
+  @Test public void nameValueBlockRoundTrip() throws Exception {
+    List<String> block = parse(RESPONSE).toNameValueBlock();
+    assertEquals(Arrays.asList(
+        "server", "nginx",
+        "content-type", "text/html; charset=utf-8",
+        "content-length", "12345",
+        "cache-control", "max-age=600",
+        "etag", "\"abc123\"",
+        "set-cookie", "a=1\0b=2",
+        "x-custom", "spaced value",
+        "x-frame-options", "DENY",
+        "café", "é"), block);
+
+    RawHeaders headers = RawHeaders.fromNameValueBlock(block);
+    assertEquals(10, headers.length());
+    assertEquals(Arrays.asList("a=1", "b=2"), headers.toMultimap(false).get("Set-Cookie"));
+  }
+
+  private static RawHeaders parse(String headers) throws Exception {
+    return RawHeaders.fromBytes(new ByteArrayInputStream(headers.getBytes("ISO-8859-1")));
+  }
+}
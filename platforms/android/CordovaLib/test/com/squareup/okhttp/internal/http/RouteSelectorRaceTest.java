@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2012 Square, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.squareup.okhttp.internal.http;
+
+import com.squareup.okhttp.Address;
+import com.squareup.okhttp.Connection;
+import com.squareup.okhttp.ConnectionPool;
+import com.squareup.okhttp.Route;
+import com.squareup.okhttp.internal.CachingDns;
+import com.squareup.okhttp.internal.Dns;
+import com.squareup.okhttp.internal.Util;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.ProxySelector;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Races routes against loopback listeners that accept, stall or refuse
+ * connections. Each listener has its own loopback address on one shared port,
+ * since every route of an address uses the same port. This relies on the
+ * whole of 127.0.0.0/8 being routed to the loopback interface, as on Linux.
+ */
+public final class RouteSelectorRaceTest {
+  private static final String HOST = "race.test";
+  private static final int CONNECT_TIMEOUT = 5000;
+
+  /** Sockets accepted by the accepting listener. */
+  private final List<Socket> sockets = new CopyOnWriteArrayList<Socket>();
+  private final List<Socket> fillers = new ArrayList<Socket>();
+  private final Set<Route> failedRoutes =
+      Collections.synchronizedSet(new LinkedHashSet<Route>());
+  private final ConnectionPool pool = new ConnectionPool(0, 1000);
+  private ServerSocket accepting;
+  private ServerSocket stalled;
+  private int port;
+
+  @Before public void setUp() throws Exception {
+    // A listener whose backlog is full drops further SYNs, so connecting to it stalls.
+    stalled = new ServerSocket();
+    stalled.bind(new InetSocketAddress("127.0.0.2", 0), 1);
+    port = stalled.getLocalPort();
+    for (int i = 0; i < 3; i++) {
+      Socket filler = new Socket();
+      try {
+        filler.connect(stalled.getLocalSocketAddress(), 200);
+        fillers.add(filler);
+      } catch (IOException expected) {
+      }
+    }
+
+    accepting = new ServerSocket();
+    accepting.bind(new InetSocketAddress("127.0.0.1", port), 50);
+    new Thread("accept") {
+      @Override public void run() {
+        try {
+          while (true) {
+            sockets.add(accepting.accept());
+          }
+        } catch (IOException closed) {
+        }
+      }
+    }.start();
+  }
+
+  @After public void tearDown() throws Exception {
+    Util.closeQuietly(accepting);
+    Util.closeQuietly(stalled);
+    for (Socket socket : sockets) {
+      Util.closeQuietly(socket);
+    }
+    for (Socket socket : fillers) {
+      Util.closeQuietly(socket);
+    }
+  }
+
+  @Test(timeout = 20000) public void stalledRouteCostsOnlyTheStagger() throws Exception {
+    RouteSelector routeSelector = newRouteSelector(null, "127.0.0.2", "127.0.0.1");
+    long start = System.nanoTime();
+    Connection connection = routeSelector.nextConnected(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null);
+    long elapsedMs = (System.nanoTime() - start) / 1000000;
+
+    assertEquals("127.0.0.1", connection.getRoute().getSocketAddress().getAddress()
+        .getHostAddress());
+    assertTrue("took " + elapsedMs + "ms", elapsedMs < CONNECT_TIMEOUT / 2);
+    connection.close();
+  }
+
+  @Test(timeout = 20000) public void refusedRouteIsReportedAndSkipped() throws Exception {
+    // Nothing listens on 127.0.0.3.
+    RouteSelector routeSelector = newRouteSelector(null, "127.0.0.3", "127.0.0.1");
+    Connection connection = routeSelector.nextConnected(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null);
+
+    assertEquals("127.0.0.1", connection.getRoute().getSocketAddress().getAddress()
+        .getHostAddress());
+    assertEquals(Collections.singleton("127.0.0.3"), failedIps());
+    connection.close();
+  }
+
+  @Test(timeout = 20000) public void allRoutesRefusedThrowsLastFailure() throws Exception {
+    RouteSelector routeSelector = newRouteSelector(null, "127.0.0.3", "127.0.0.4");
+    try {
+      routeSelector.nextConnected(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null);
+      fail();
+    } catch (IOException expected) {
+    }
+    assertEquals(new LinkedHashSet<String>(Arrays.asList("127.0.0.3", "127.0.0.4")), failedIps());
+  }
+
+  @Test(timeout = 20000) public void failedRaceEvictsTheCachedHost() throws Exception {
+    CountingDns counting = new CountingDns("127.0.0.3");
+    CachingDns dns = new CachingDns(counting);
+    RouteSelector routeSelector = newRouteSelector(null, dns);
+    try {
+      routeSelector.nextConnected(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null);
+      fail();
+    } catch (IOException expected) {
+    }
+    dns.getAllByName(HOST);
+    assertEquals(2, counting.calls);
+  }
+
+  @Test(timeout = 20000) public void lastFailedRouteEvictsTheCachedHost() throws Exception {
+    CountingDns counting = new CountingDns("127.0.0.3");
+    CachingDns dns = new CachingDns(counting);
+    RouteSelector routeSelector = newRouteSelector(null, dns);
+    Connection connection = routeSelector.next();
+    try {
+      connection.connect(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null);
+      fail();
+    } catch (IOException e) {
+      routeSelector.connectFailed(connection, e);
+    }
+    assertTrue(!routeSelector.hasNext());
+    dns.getAllByName(HOST);
+    assertEquals(2, counting.calls);
+  }
+
+  @Test(timeout = 20000) public void successfulRaceKeepsTheCachedHost() throws Exception {
+    CountingDns counting = new CountingDns("127.0.0.3", "127.0.0.1");
+    CachingDns dns = new CachingDns(counting);
+    RouteSelector routeSelector = newRouteSelector(null, dns);
+    routeSelector.nextConnected(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null).close();
+    dns.getAllByName(HOST);
+    assertEquals(1, counting.calls);
+  }
+
+  /** Both TLS modes fail their handshake, and neither may leave its socket open. */
+  @Test(timeout = 20000) public void failedHandshakesCloseTheirSockets() throws Exception {
+    SSLSocketFactory sslSocketFactory = SSLContext.getDefault().getSocketFactory();
+    RouteSelector routeSelector = newRouteSelector(sslSocketFactory, "127.0.0.1");
+
+    // The server answers the ClientHello with plain text and then waits.
+    new Thread("not tls") {
+      @Override public void run() {
+        try {
+          for (int i = 0; i < 2; i++) {
+            while (sockets.size() <= i) Thread.sleep(10);
+            OutputStream out = sockets.get(i).getOutputStream();
+            out.write("HTTP/1.1 400 Bad Request\r\n\r\n".getBytes("US-ASCII"));
+            out.flush();
+          }
+        } catch (Exception ignored) {
+        }
+      }
+    }.start();
+
+    try {
+      routeSelector.nextConnected(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null);
+      fail();
+    } catch (IOException expected) {
+    }
+    awaitAccepted(2);
+    for (Socket socket : sockets) {
+      assertClosedByPeer(socket);
+    }
+  }
+
+  /** An unchecked exception from connect() must fail the attempt, not hang the race. */
+  @Test(timeout = 20000) public void uncheckedExceptionFailsTheAttempt() throws Exception {
+    final RuntimeException thrown = new IllegalStateException("boom");
+    SSLSocketFactory sslSocketFactory = new ThrowingSslSocketFactory(thrown);
+    RouteSelector routeSelector = newRouteSelector(sslSocketFactory, "127.0.0.1");
+
+    try {
+      routeSelector.nextConnected(CONNECT_TIMEOUT, CONNECT_TIMEOUT, null);
+      fail();
+    } catch (IOException expected) {
+      assertTrue(expected.getCause() == thrown);
+    }
+    // The modern and compatible TLS attempts both connected and were both closed.
+    awaitAccepted(2);
+    for (Socket socket : sockets) {
+      assertClosedByPeer(socket);
+    }
+  }
+
+  private RouteSelector newRouteSelector(SSLSocketFactory sslSocketFactory, String... ips)
+      throws Exception {
+    return newRouteSelector(sslSocketFactory, new CountingDns(ips));
+  }
+
+  private RouteSelector newRouteSelector(SSLSocketFactory sslSocketFactory, Dns dns)
+      throws Exception {
+    Address address = new Address(HOST, port, sslSocketFactory,
+        sslSocketFactory != null ? HttpsURLConnection.getDefaultHostnameVerifier() : null,
+        Proxy.NO_PROXY);
+    URI uri = new URI((sslSocketFactory != null ? "https" : "http") + "://" + HOST + ":" + port);
+    return new RouteSelector(address, uri, ProxySelector.getDefault(), pool, dns, failedRoutes);
+  }
+
+  /** Returns the addresses of the failed routes. Both TLS modes of a refused route are failed. */
+  private Set<String> failedIps() {
+    Set<String> result = new LinkedHashSet<String>();
+    synchronized (failedRoutes) {
+      for (Route route : failedRoutes) {
+        result.add(route.getSocketAddress().getAddress().getHostAddress());
+      }
+    }
+    return result;
+  }
+
+  /** The client may give up before the listener has accepted its last connection. */
+  private void awaitAccepted(int count) throws InterruptedException {
+    long deadline = System.nanoTime() + CONNECT_TIMEOUT * 1000000L;
+    while (sockets.size() < count && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertEquals(count, sockets.size());
+  }
+
+  private static void assertClosedByPeer(Socket socket) throws IOException {
+    socket.setSoTimeout(CONNECT_TIMEOUT);
+    InputStream in = socket.getInputStream();
+    byte[] buffer = new byte[1024];
+    try {
+      while (in.read(buffer) != -1) {
+      }
+    } catch (SocketException reset) {
+      // A reset also means the client closed it.
+    }
+  }
+
+  /** Resolves every host to the same addresses, counting the lookups. */
+  private static final class CountingDns implements Dns {
+    private final String[] ips;
+    volatile int calls;
+
+    CountingDns(String... ips) {
+      this.ips = ips;
+    }
+
+    @Override public InetAddress[] getAllByName(String host) throws UnknownHostException {
+      calls++;
+      List<InetAddress> result = new ArrayList<InetAddress>();
+      for (String ip : ips) {
+        result.add(InetAddress.getByName(ip));
+      }
+      return result.toArray(new InetAddress[result.size()]);
+    }
+  }
+
+  private static final class ThrowingSslSocketFactory extends SSLSocketFactory {
+    private final RuntimeException exception;
+
+    ThrowingSslSocketFactory(RuntimeException exception) {
+      this.exception = exception;
+    }
+
+    @Override public Socket createSocket(Socket s, String host, int port, boolean autoClose) {
+      throw exception;
+    }
+
+    @Override public String[] getDefaultCipherSuites() {
+      return new String[0];
+    }
+
+    @Override public String[] getSupportedCipherSuites() {
+      return new String[0];
+    }
+
+    @Override public Socket createSocket(String host, int port) {
+      throw exception;
+    }
+
+    @Override public Socket createSocket(String host, int port, InetAddress localHost,
+        int localPort) {
+      throw exception;
+    }
+
+    @Override public Socket createSocket(InetAddress host, int port) {
+      throw exception;
+    }
+
+    @Override public Socket createSocket(InetAddress address, int port,
+        InetAddress localAddress, int localPort) {
+      throw exception;
+    }
+  }
+}
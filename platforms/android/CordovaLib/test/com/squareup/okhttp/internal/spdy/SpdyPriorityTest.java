@@ -0,0 +1,258 @@
+/*
+ *  Licensed to the Apache Software Foundation (ASF) under one or more
+ *  contributor license agreements.  See the NOTICE file distributed with
+ *  this work for additional information regarding copyright ownership.
+ *  The ASF licenses this file to You under the Apache License, Version 2.0
+ *  (the "License"); you may not use this file except in compliance with
+ *  the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+package com.squareup.okhttp.internal.spdy;
+
+import com.squareup.okhttp.internal.Util;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs a SPDY client and server over a loopback socket pair whose client side
+ * is throttled, so that data frames queue up, and checks the order in which
+ * they reach the wire.
+ */
+public final class SpdyPriorityTest {
+  private static final int BULK_STREAMS = 8;
+  private static final int BULK_BYTES = 256 * 1024;
+  private static final int SMALL_BYTES = 1024;
+
+  private final Map<Integer, Integer> bytesReceived = new ConcurrentHashMap<Integer, Integer>();
+  private ServerSocket serverSocket;
+  private Socket clientSocket;
+  private Socket acceptedSocket;
+  private FrameRecorder recorder;
+  private SpdyConnection client;
+  private SpdyConnection server;
+
+  @Before public void setUp() throws Exception {
+    serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+    clientSocket = new Socket(serverSocket.getInetAddress(), serverSocket.getLocalPort());
+    acceptedSocket = serverSocket.accept();
+
+    server = new SpdyConnection.Builder(false, acceptedSocket)
+        .handler(new IncomingStreamHandler() {
+          @Override public void receive(SpdyStream stream) throws IOException {
+            InputStream in = stream.getInputStream();
+            byte[] buffer = new byte[8192];
+            int total = 0;
+            for (int count; (count = in.read(buffer)) != -1; ) {
+              total += count;
+            }
+            bytesReceived.put(stream.getId(), total);
+            stream.reply(Arrays.asList("status", "200 OK", "version", "HTTP/1.1"), false);
+          }
+        })
+        .build();
+    recorder = new FrameRecorder(clientSocket.getOutputStream());
+    client = new SpdyConnection.Builder(true, clientSocket.getInputStream(), recorder).build();
+  }
+
+  @After public void tearDown() throws Exception {
+    // Whichever side closes second may find the socket already gone.
+    Util.closeQuietly(client);
+    Util.closeQuietly(server);
+    Util.closeQuietly(clientSocket);
+    Util.closeQuietly(acceptedSocket);
+    serverSocket.close();
+  }
+
+  /** A small request's data goes out next, even with many bulk frames queued ahead of it. */
+  @Test(timeout = 30000) public void smallStreamOvertakesBulkUploads() throws Exception {
+    List<Thread> uploads = startBulkUploads(7);
+    recorder.awaitDataFrames(BULK_STREAMS * 4);
+    SpdyStream small = upload(0, SMALL_BYTES);
+
+    int bulkFramesBetween = recorder.dataFramesSinceOpened(small.getId());
+    assertTrue("bulk frames sent ahead of the small stream: " + bulkFramesBetween,
+        bulkFramesBetween <= 2);
+    assertEquals(SMALL_BYTES, awaitReceived(small));
+
+    // The bulk uploads were slowed, not starved.
+    for (Thread upload : uploads) {
+      upload.join();
+    }
+    assertEquals(BULK_STREAMS + 1, bytesReceived.size());
+  }
+
+  /** Without a higher priority, a small request waits its turn behind the bulk streams. */
+  @Test(timeout = 30000) public void samePriorityTakesTurns() throws Exception {
+    List<Thread> uploads = startBulkUploads(7);
+    recorder.awaitDataFrames(BULK_STREAMS * 4);
+    SpdyStream small = upload(7, SMALL_BYTES);
+
+    int bulkFramesBetween = recorder.dataFramesSinceOpened(small.getId());
+    assertTrue("bulk frames sent ahead of the small stream: " + bulkFramesBetween,
+        bulkFramesBetween >= BULK_STREAMS / 2);
+    assertEquals(SMALL_BYTES, awaitReceived(small));
+    for (Thread upload : uploads) {
+      upload.join();
+    }
+  }
+
+  private List<Thread> startBulkUploads(final int priority) {
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < BULK_STREAMS; i++) {
+      Thread thread = new Thread("bulk upload " + i) {
+        @Override public void run() {
+          try {
+            SpdyStream stream = upload(priority, BULK_BYTES);
+            assertEquals(BULK_BYTES, awaitReceived(stream));
+          } catch (Exception e) {
+            throw new AssertionError(e);
+          }
+        }
+      };
+      thread.start();
+      threads.add(thread);
+    }
+    return threads;
+  }
+
+  /** Sends {@code byteCount} bytes on a new stream and waits for the reply. */
+  private SpdyStream upload(int priority, int byteCount) throws IOException {
+    SpdyStream stream = client.newStream(
+        Arrays.asList(":method", "POST", ":path", "/"), true, true, priority);
+    OutputStream out = stream.getOutputStream();
+    byte[] chunk = new byte[4096];
+    for (int written = 0; written < byteCount; written += chunk.length) {
+      out.write(chunk, 0, Math.min(chunk.length, byteCount - written));
+    }
+    out.close();
+    stream.getResponseHeaders();
+    return stream;
+  }
+
+  private int awaitReceived(SpdyStream stream) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (!bytesReceived.containsKey(stream.getId()) && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    Integer received = bytesReceived.get(stream.getId());
+    return received != null ? received : -1;
+  }
+
+  /**
+   * Records the stream IDs of the data frames written through it, and where
+   * each stream was opened among them. Large writes are slowed down as a slow
+   * link would.
+   */
+  static final class FrameRecorder extends FilterOutputStream {
+    // Guarded by this.
+    private final List<Integer> dataFrameStreamIds = new ArrayList<Integer>();
+    private final Map<Integer, Integer> dataFramesAtOpen = new HashMap<Integer, Integer>();
+    private final byte[] header = new byte[8];
+    private int headerLength;
+    private long payloadRemaining;
+    private boolean synStream;
+    private int synStreamIdLength;
+    private int synStreamId;
+
+    FrameRecorder(OutputStream out) {
+      super(out);
+    }
+
+    @Override public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override public void write(byte[] bytes, int offset, int count) throws IOException {
+      if (count >= 1024) {
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          throw new InterruptedIOException();
+        }
+      }
+      record(bytes, offset, count);
+      out.write(bytes, offset, count);
+    }
+
+    private synchronized void record(byte[] bytes, int offset, int count) {
+      for (int end = offset + count; offset < end; ) {
+        if (synStream && payloadRemaining > 0) {
+          // The first four bytes of a SYN_STREAM payload are its stream ID.
+          synStreamId = synStreamId << 8 | (bytes[offset++] & 0xff);
+          payloadRemaining--;
+          if (++synStreamIdLength == 4) {
+            dataFramesAtOpen.put(synStreamId & 0x7fffffff, dataFrameStreamIds.size());
+            synStream = false;
+          }
+          continue;
+        }
+        if (payloadRemaining > 0) {
+          int skip = (int) Math.min(payloadRemaining, end - offset);
+          payloadRemaining -= skip;
+          offset += skip;
+          continue;
+        }
+        header[headerLength++] = bytes[offset++];
+        if (headerLength == header.length) {
+          headerLength = 0;
+          payloadRemaining = (header[5] & 0xff) << 16 | (header[6] & 0xff) << 8 | (header[7] & 0xff);
+          if ((header[0] & 0x80) == 0) {
+            dataFrameStreamIds.add((header[0] & 0x7f) << 24 | (header[1] & 0xff) << 16
+                | (header[2] & 0xff) << 8 | (header[3] & 0xff));
+            notifyAll();
+          } else if (((header[2] & 0xff) << 8 | (header[3] & 0xff)) == SpdyConnection.TYPE_SYN_STREAM) {
+            synStream = true;
+            synStreamIdLength = 0;
+            synStreamId = 0;
+          }
+        }
+      }
+    }
+
+    /** Waits until {@code count} data frames have been written, and returns how many have. */
+    synchronized int awaitDataFrames(int count) throws InterruptedException {
+      while (dataFrameStreamIds.size() < count) {
+        wait();
+      }
+      return dataFrameStreamIds.size();
+    }
+
+    /**
+     * Returns the number of data frames written between the SYN_STREAM of
+     * {@code streamId} and its first data frame.
+     */
+    synchronized int dataFramesSinceOpened(int streamId) {
+      Integer opened = dataFramesAtOpen.get(streamId);
+      int index = dataFrameStreamIds.indexOf(streamId);
+      assertTrue("stream " + streamId + " not opened", opened != null);
+      assertTrue("no data frame for stream " + streamId, index != -1);
+      return index - opened;
+    }
+  }
+}
@@ -82,7 +82,10 @@ var FileTransfer = function() {
 * @param server {String}             URL of the server to receive the file
 * @param successCallback (Function}  Callback to be invoked when upload has completed
 * @param errorCallback {Function}    Callback to be invoked upon error
-* @param options {FileUploadOptions} Optional parameters such as file name and mimetype
+* @param options {FileUploadOptions} Optional parameters such as file name and mimetype. With
+*                                   resumable set, the file is sent as raw bytes and a failed upload
+*                                   continues from where the server says it got to; uploadId names the
+*                                   upload on the server and defaults to one derived from the file and URL.
 * @param trustAllHosts {Boolean} Optional trust all hosts (e.g. for self-signed certs), defaults to false
 */
 FileTransfer.prototype.upload = function(filePath, server, successCallback, errorCallback, options, trustAllHosts) {
@@ -95,6 +98,8 @@ FileTransfer.prototype.upload = function(filePath, server, successCallback, erro
     var chunkedMode = true;
     var headers = null;
     var httpMethod = null;
+    var resumable = false;
+    var uploadId = null;
     var basicAuthHeader = getBasicAuthHeader(server);
     if (basicAuthHeader) {
         options = options || {};
@@ -122,6 +127,8 @@ FileTransfer.prototype.upload = function(filePath, server, successCallback, erro
         else {
             params = {};
         }
+        resumable = !!options.resumable;
+        uploadId = options.uploadId || null;
     }
 
     var fail = errorCallback && function(e) {
@@ -139,7 +146,7 @@ FileTransfer.prototype.upload = function(filePath, server, successCallback, erro
             successCallback && successCallback(result);
         }
     };
-    exec(win, fail, 'FileTransfer', 'upload', [filePath, server, fileKey, fileName, mimeType, params, trustAllHosts, chunkedMode, headers, this._id, httpMethod]);
+    exec(win, fail, 'FileTransfer', 'upload', [filePath, server, fileKey, fileName, mimeType, params, trustAllHosts, chunkedMode, headers, this._id, httpMethod, resumable, uploadId]);
 };
 
 /**
@@ -149,7 +156,9 @@ FileTransfer.prototype.upload = function(filePath, server, successCallback, erro
  * @param successCallback (Function}  Callback to be invoked when upload has completed
  * @param errorCallback {Function}    Callback to be invoked upon error
  * @param trustAllHosts {Boolean} Optional trust all hosts (e.g. for self-signed certs), defaults to false
- * @param options {FileDownloadOptions} Optional parameters such as headers
+ * @param options {FileDownloadOptions} Optional parameters such as headers, and segments: the
+ *                                     number of ranges to fetch in parallel, at most 8 (interrupted segmented
+ *                                     downloads resume if the server sends an ETag or Last-Modified)
  */
 FileTransfer.prototype.download = function(source, target, successCallback, errorCallback, trustAllHosts, options) {
     argscheck.checkArgs('ssFF*', 'FileTransfer.download', arguments);
@@ -163,8 +172,10 @@ FileTransfer.prototype.download = function(source, target, successCallback, erro
     }
 
     var headers = null;
+    var segments = 1;
     if (options) {
         headers = options.headers || null;
+        segments = options.segments || 1;
     }
 
     var win = function(result) {
@@ -195,7 +206,7 @@ FileTransfer.prototype.download = function(source, target, successCallback, erro
         errorCallback(error);
     };
 
-    exec(win, fail, 'FileTransfer', 'download', [source, target, trustAllHosts, this._id, headers]);
+    exec(win, fail, 'FileTransfer', 'download', [source, target, trustAllHosts, this._id, headers, segments]);
 };
 
 /**
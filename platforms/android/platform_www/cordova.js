@@ -356,6 +356,9 @@ module.exports = {
     },
     retrieveJsMessages: function(fromOnlineEvent) {
         return prompt(+fromOnlineEvent, 'gap_poll:');
+    },
+    execBatch: function(batch) {
+        return prompt(batch, 'gap_batch:');
     }
 };
 
@@ -924,6 +927,62 @@ function androidExec(success, fail, service, action, args) {
     }
 }
 
+// Sends several exec() calls to native in a single bridge crossing.
+// Each call is an array of [success, fail, service, action, args].
+// The framing must match PluginManager.execBatch().
+androidExec.execBatch = function(calls) {
+    if (jsToNativeBridgeMode === undefined) {
+        androidExec.setJsToNativeBridgeMode(jsToNativeModes.JS_OBJECT);
+    }
+    if (jsToNativeBridgeMode == jsToNativeModes.LOCATION_CHANGE || !nativeApiProvider.get().execBatch) {
+        for (var i = 0; i < calls.length; i++) {
+            androidExec.apply(null, calls[i]);
+        }
+        return;
+    }
+
+    var frames = [],
+        callbackIds = [];
+    function addField(value) {
+        frames.push(value.length, ' ', value);
+    }
+    for (var i = 0; i < calls.length; i++) {
+        var call = calls[i],
+            args = call[4] || [];
+        for (var j = 0; j < args.length; j++) {
+            if (utils.typeName(args[j]) == 'ArrayBuffer') {
+                args[j] = base64.fromArrayBuffer(args[j]);
+            }
+        }
+        var callbackId = call[2] + cordova.callbackId++;
+        if (call[0] || call[1]) {
+            cordova.callbacks[callbackId] = {success:call[0], fail:call[1]};
+        }
+        callbackIds.push(callbackId);
+        addField(call[2]);
+        addField(call[3]);
+        addField(callbackId);
+        addField(JSON.stringify(args));
+    }
+
+    var messages = nativeApiProvider.get().execBatch(frames.join(''));
+    if (jsToNativeBridgeMode == jsToNativeModes.JS_OBJECT && messages === "@Null arguments.") {
+        androidExec.setJsToNativeBridgeMode(jsToNativeModes.PROMPT);
+        messages = nativeApiProvider.get().execBatch(frames.join(''));
+        androidExec.setJsToNativeBridgeMode(jsToNativeModes.JS_OBJECT);
+    }
+    if (messages === "@Invalid batch.") {
+        // Native ran none of the calls, so send them one at a time instead.
+        console.log("execBatch: native rejected the batch, falling back to exec()");
+        for (var i = 0; i < calls.length; i++) {
+            delete cordova.callbacks[callbackIds[i]];
+            androidExec(calls[i][0], calls[i][1], calls[i][2], calls[i][3], calls[i][4] || []);
+        }
+        return;
+    }
+    androidExec.processMessages(messages);
+};
+
 function pollOnceFromOnlineEvent() {
     pollOnce(true);
 }
@@ -988,6 +1047,52 @@ androidExec.setNativeToJsBridgeMode = function(mode) {
     }
 };
 
+// Results per callbackId that are queued behind a binary payload fetch, so that
+// each callback still sees its results in the order they were sent.
+var pendingBinaryResults = {};
+
+function fetchBinaryResult(url, callbackId, success, status, keepCallback) {
+    var entry = {ready:false, args:[callbackId, success, status, [null], keepCallback]};
+    (pendingBinaryResults[callbackId] = pendingBinaryResults[callbackId] || []).push(entry);
+    var xhr = new XMLHttpRequest();
+    xhr.open('GET', url, true);
+    xhr.responseType = 'arraybuffer';
+    function fail(reason) {
+        console.log("processMessage failed: could not fetch binary payload for " + callbackId + ": " + reason);
+        // Deliver an error rather than a null success.
+        entry.args[1] = false;
+        entry.args[2] = 9; // PluginResult.Status.ERROR
+        entry.args[3] = ["Could not fetch binary result: " + reason];
+        entry.ready = true;
+        flushBinaryResults(callbackId);
+    }
+    xhr.onload = function() {
+        // Local URLs report a status of 0. Payloads are never empty, so an empty response is a 404.
+        var ok = (xhr.status == 200 || xhr.status == 0) && xhr.response instanceof ArrayBuffer && xhr.response.byteLength > 0;
+        if (!ok) {
+            fail("status " + xhr.status);
+            return;
+        }
+        entry.args[3] = [xhr.response];
+        entry.ready = true;
+        flushBinaryResults(callbackId);
+    };
+    xhr.onerror = function() {
+        fail("network error");
+    };
+    xhr.send();
+}
+
+function flushBinaryResults(callbackId) {
+    var queue = pendingBinaryResults[callbackId];
+    while (queue.length && queue[0].ready) {
+        cordova.callbackFromNative.apply(cordova, queue.shift().args);
+    }
+    if (!queue.length) {
+        delete pendingBinaryResults[callbackId];
+    }
+}
+
 // Processes a single message, as encoded by NativeToJsMessageQueue.java.
 function processMessage(message) {
     try {
@@ -1021,12 +1126,21 @@ function processMessage(message) {
                     arraybuffer[i] = bytes.charCodeAt(i);
                 }
                 payload = arraybuffer.buffer;
+            } else if (payloadKind == 'B') {
+                // Large ArrayBuffers are fetched from a one-time URL instead of being sent inline.
+                fetchBinaryResult(message.slice(nextSpaceIdx + 2), callbackId, success, status, keepCallback);
+                return;
             } else if (payloadKind == 'S') {
                 payload = window.atob(message.slice(nextSpaceIdx + 2));
             } else {
                 payload = JSON.parse(message.slice(nextSpaceIdx + 1));
             }
-            cordova.callbackFromNative(callbackId, success, status, [payload], keepCallback);
+            if (pendingBinaryResults[callbackId]) {
+                // Wait for earlier results that are still being fetched.
+                pendingBinaryResults[callbackId].push({ready:true, args:[callbackId, success, status, [payload], keepCallback]});
+            } else {
+                cordova.callbackFromNative(callbackId, success, status, [payload], keepCallback);
+            }
         } else {
             console.log("processMessage failed: invalid message:" + message);
         }
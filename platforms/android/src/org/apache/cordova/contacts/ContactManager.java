@@ -74,7 +74,7 @@ public class ContactManager extends CordovaPlugin {
         if (action.equals("search")) {
             final JSONArray filter = args.getJSONArray(0);
             final JSONObject options = args.getJSONObject(1);
-            this.cordova.getThreadPool().execute(new Runnable() {
+            this.getExecutor().execute(new Runnable() {
                 public void run() {
                     JSONArray res = contactAccessor.search(filter, options);
                     callbackContext.success(res);
@@ -83,7 +83,7 @@ public class ContactManager extends CordovaPlugin {
         }
         else if (action.equals("save")) {
             final JSONObject contact = args.getJSONObject(0);
-            this.cordova.getThreadPool().execute(new Runnable() {
+            this.getExecutor().execute(new Runnable() {
                 public void run() {
                     JSONObject res = null;
                     String id = contactAccessor.save(contact);
@@ -104,7 +104,7 @@ public class ContactManager extends CordovaPlugin {
         }
         else if (action.equals("remove")) {
             final String contactId = args.getString(0);
-            this.cordova.getThreadPool().execute(new Runnable() {
+            this.getExecutor().execute(new Runnable() {
                 public void run() {
                     if (contactAccessor.remove(contactId)) {
                         callbackContext.success();
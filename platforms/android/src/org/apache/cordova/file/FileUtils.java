@@ -25,6 +25,7 @@ import android.util.Base64;
 import android.util.Log;
 
 import org.apache.cordova.CallbackContext;
+import org.apache.cordova.CordovaArgs;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
@@ -42,6 +43,8 @@ import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URLDecoder;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.Executor;
 
 /**
  * This class provides file and directory services to JavaScript.
@@ -76,6 +79,13 @@ public class FileUtils extends CordovaPlugin {
     
     private ArrayList<Filesystem> filesystems;
 
+    // Chunked reads that are still running, keyed by the read ID that JS assigned.
+    private final HashMap<String, ChunkedRead> activeChunkedReads = new HashMap<String, ChunkedRead>();
+
+    // Used when JS doesn't specify a chunk size or number of initial credits.
+    private static final int DEFAULT_READ_CHUNK_SIZE = 256 * 1024;
+    private static final int DEFAULT_READ_CREDITS = 2;
+
     public void registerFilesystem(Filesystem fs) {
     	if (fs != null && filesystemForName(fs.name)== null) {
     		this.filesystems.add(fs);
@@ -184,11 +194,11 @@ public class FileUtils extends CordovaPlugin {
      * Executes the request and returns whether the action was valid.
      *
      * @param action 		The action to execute.
-     * @param args 		JSONArray of arguments for the plugin.
+     * @param args 		Arguments for the plugin, parsed only as they are read.
      * @param callbackContext	The callback context used when calling back into JavaScript.
      * @return 			True if the action was valid, false otherwise.
      */
-    public boolean execute(String action, final JSONArray args, final CallbackContext callbackContext) throws JSONException {
+    public boolean execute(String action, final CordovaArgs args, final CallbackContext callbackContext) throws JSONException {
         if (!configured) {
             callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.ERROR, "File plugin is not configured. Please see the README.md file for details on how to update config.xml"));
             return true;
@@ -258,6 +268,52 @@ public class FileUtils extends CordovaPlugin {
                 }
             },callbackContext);
         }
+        else if (action.equals("readAsArrayBufferChunked")) {
+            final String fname=args.getString(0);
+            final int start = args.getInt(1);
+            final int end = args.getInt(2);
+            final String readId = args.getString(3);
+            int chunkSize = args.optInt(4);
+            int credits = args.optInt(5);
+            final ChunkedRead read = new ChunkedRead(chunkSize > 0 ? chunkSize : DEFAULT_READ_CHUNK_SIZE,
+                    credits > 0 ? credits : DEFAULT_READ_CREDITS);
+            synchronized (activeChunkedReads) {
+                activeChunkedReads.put(readId, read);
+            }
+            // A chunked read waits on JS for credits, so it runs on the shared pool rather
+            // than this plugin's executor, where waiting reads would hold up every other file op.
+            threadhelper( new FileOp( ){
+                public void run() throws MalformedURLException  {
+                    try {
+                        readFileInChunks(fname, start, end, callbackContext, read);
+                    } finally {
+                        synchronized (activeChunkedReads) {
+                            activeChunkedReads.remove(readId);
+                        }
+                    }
+                }
+            }, callbackContext, cordova.getThreadPool());
+        }
+        else if (action.equals("grantReadCredits")) {
+            ChunkedRead read;
+            synchronized (activeChunkedReads) {
+                read = activeChunkedReads.get(args.getString(0));
+            }
+            if (read != null) {
+                read.grantCredits(args.getInt(1));
+            }
+            callbackContext.success();
+        }
+        else if (action.equals("abortChunkedRead")) {
+            ChunkedRead read;
+            synchronized (activeChunkedReads) {
+                read = activeChunkedReads.get(args.getString(0));
+            }
+            if (read != null) {
+                read.abort();
+            }
+            callbackContext.success();
+        }
         else if (action.equals("readAsBinaryString")) {
             final int start = args.getInt(1);
             final int end = args.getInt(2);
@@ -471,7 +527,11 @@ public class FileUtils extends CordovaPlugin {
      *
      */
     private void threadhelper(final FileOp f, final CallbackContext callbackContext){
-        cordova.getThreadPool().execute(new Runnable() {
+        threadhelper(f, callbackContext, getExecutor());
+    }
+
+    private void threadhelper(final FileOp f, final CallbackContext callbackContext, Executor executor){
+        executor.execute(new Runnable() {
             public void run() {
                 try {
                     f.run();
@@ -885,6 +945,149 @@ public class FileUtils extends CordovaPlugin {
     }
 
 
+    /**
+     * Read the contents of a file as a series of ArrayBuffer chunks, sent as keepCallback
+     * results. Only as many chunks as JS has granted credits for are sent ahead of what
+     * it has consumed, so memory use stays bounded regardless of the file size. The
+     * final result is an object holding the total number of bytes read.
+     *
+     * @param srcURLstr         The url of the file to read.
+     * @param start             Start position in the file.
+     * @param end               End position to stop at (exclusive).
+     * @param callbackContext   The context through which to send the chunks.
+     * @param read              Tracks the credits that JS has granted.
+     * @throws MalformedURLException
+     */
+    private void readFileInChunks(final String srcURLstr, final int start, final int end, final CallbackContext callbackContext, final ChunkedRead read) throws MalformedURLException {
+        try {
+            LocalFilesystemURL inputURL = new LocalFilesystemURL(srcURLstr);
+            Filesystem fs = this.filesystemForURL(inputURL);
+            if (fs == null) {
+                throw new MalformedURLException("No installed handlers for this URL");
+            }
+
+            fs.readFileAtURL(inputURL, start, end, new Filesystem.ReadFileCallback() {
+                public void handleData(InputStream inputStream, String contentType) throws IOException {
+                    long totalBytes = 0;
+                    for (;;) {
+                        byte[] chunk = new byte[read.chunkSize];
+                        int chunkLength = 0;
+                        while (chunkLength < chunk.length) {
+                            int bytesRead = inputStream.read(chunk, chunkLength, chunk.length - chunkLength);
+                            if (bytesRead <= 0) {
+                                break;
+                            }
+                            chunkLength += bytesRead;
+                        }
+                        if (chunkLength == 0) {
+                            break;
+                        }
+                        if (!read.acquireCredit()) {
+                            Log.d(LOG_TAG, "Chunked read of " + srcURLstr + " aborted.");
+                            callbackContext.error(ABORT_ERR);
+                            return;
+                        }
+                        if (chunkLength < chunk.length) {
+                            byte[] lastChunk = new byte[chunkLength];
+                            System.arraycopy(chunk, 0, lastChunk, 0, chunkLength);
+                            chunk = lastChunk;
+                        }
+                        PluginResult result = new PluginResult(PluginResult.Status.OK, chunk);
+                        result.setKeepCallback(true);
+                        callbackContext.sendPluginResult(result);
+                        totalBytes += chunkLength;
+                    }
+                    try {
+                        JSONObject done = new JSONObject();
+                        done.put("loaded", totalBytes);
+                        callbackContext.success(done);
+                    } catch (JSONException e) {
+                        callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.JSON_EXCEPTION));
+                    }
+                }
+            });
+        } catch (IllegalArgumentException e) {
+            throw new MalformedURLException("Unrecognized filesystem URL");
+        } catch (FileNotFoundException e) {
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.IO_EXCEPTION, NOT_FOUND_ERR));
+        } catch (IOException e) {
+            Log.d(LOG_TAG, e.getLocalizedMessage());
+            callbackContext.sendPluginResult(new PluginResult(PluginResult.Status.IO_EXCEPTION, NOT_READABLE_ERR));
+        }
+    }
+
+    /**
+     * Aborts any chunked reads that are waiting for JS, since the page that
+     * would grant them more credits is going away.
+     */
+    @Override
+    public void onReset() {
+        synchronized (activeChunkedReads) {
+            for (ChunkedRead read : activeChunkedReads.values()) {
+                read.abort();
+            }
+            activeChunkedReads.clear();
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        onReset();
+    }
+
+    /**
+     * Credit-based flow control for a chunked read. Each chunk sent to JS uses up
+     * one credit, and JS grants a new one after it has consumed a chunk.
+     */
+    private static class ChunkedRead {
+        // A page that stops granting credits this long has lost the read, e.g. to a failed chunk.
+        private static final long CREDIT_TIMEOUT_MS = 2 * 60 * 1000;
+
+        final int chunkSize;
+        private int credits;
+        private boolean aborted;
+
+        ChunkedRead(int chunkSize, int credits) {
+            this.chunkSize = chunkSize;
+            this.credits = credits;
+        }
+
+        synchronized void grantCredits(int count) {
+            credits += count;
+            notifyAll();
+        }
+
+        synchronized void abort() {
+            aborted = true;
+            notifyAll();
+        }
+
+        /**
+         * Blocks until a credit is available and takes it. Returns false if the
+         * read was aborted, or no credit was granted within CREDIT_TIMEOUT_MS.
+         */
+        synchronized boolean acquireCredit() {
+            long deadline = System.currentTimeMillis() + CREDIT_TIMEOUT_MS;
+            while (credits <= 0 && !aborted) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    aborted = true;
+                    break;
+                }
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    aborted = true;
+                }
+            }
+            if (aborted) {
+                return false;
+            }
+            credits--;
+            return true;
+        }
+    }
+
     /**
      * Write contents of file.
      *
@@ -52,6 +52,7 @@ import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaResourceApi;
 import org.apache.cordova.CordovaResourceApi.OpenForReadResult;
+import org.apache.cordova.PluginExecutor;
 import org.apache.cordova.PluginResult;
 import org.apache.cordova.file.FileUtils;
 import org.json.JSONArray;
@@ -85,6 +86,7 @@ public class FileTransfer extends CordovaPlugin {
         CallbackContext callbackContext;
         InputStream currentInputStream;
         OutputStream currentOutputStream;
+        SegmentedDownload currentDownload;
         boolean aborted;
         RequestContext(String source, String target, CallbackContext callbackContext) {
             this.source = source;
@@ -243,6 +245,8 @@ public class FileTransfer extends CordovaPlugin {
         final JSONObject headers = args.optJSONObject(8) == null ? params.optJSONObject("headers") : args.optJSONObject(8);
         final String objectId = args.getString(9);
         final String httpMethod = getArgument(args, 10, "POST");
+        final boolean resumable = args.optBoolean(11);
+        final String uploadId = getArgument(args, 12, null);
         
         final CordovaResourceApi resourceApi = webView.getResourceApi();
 
@@ -255,6 +259,7 @@ public class FileTransfer extends CordovaPlugin {
         Log.d(LOG_TAG, "headers: " + headers);
         Log.d(LOG_TAG, "objectId: " + objectId);
         Log.d(LOG_TAG, "httpMethod: " + httpMethod);
+        Log.d(LOG_TAG, "resumable: " + resumable);
         
         final Uri targetUri = resourceApi.remapUri(Uri.parse(target));
         // Accept a path or a URI for the source.
@@ -276,7 +281,7 @@ public class FileTransfer extends CordovaPlugin {
             activeRequests.put(objectId, context);
         }
         
-        cordova.getThreadPool().execute(new Runnable() {
+        getExecutor().execute(new Runnable() {
             public void run() {
                 if (context.aborted) {
                     return;
@@ -286,155 +291,162 @@ public class FileTransfer extends CordovaPlugin {
                 SSLSocketFactory oldSocketFactory = null;
                 int totalBytes = 0;
                 int fixedLength = -1;
+                OpenForReadResult readResult = null;
                 try {
                     // Create return object
                     FileUploadResult result = new FileUploadResult();
                     FileProgressResult progress = new FileProgressResult();
 
-                    //------------------ CLIENT REQUEST
-                    // Open a HTTP connection to the URL based on protocol
-                    conn = resourceApi.createHttpConnection(targetUri);
-                    if (useHttps && trustEveryone) {
-                        // Setup the HTTPS connection class to trust everyone
-                        HttpsURLConnection https = (HttpsURLConnection)conn;
-                        oldSocketFactory  = trustAllHosts(https);
-                        // Save the current hostnameVerifier
-                        oldHostnameVerifier = https.getHostnameVerifier();
-                        // Setup the connection not to verify hostnames
-                        https.setHostnameVerifier(DO_NOT_VERIFY);
-                    }
+                    // Get a input stream of the file on the phone
+                    readResult = resourceApi.openForRead(sourceUri);
 
-                    // Allow Inputs
-                    conn.setDoInput(true);
+                    if (resumable && readResult.length >= 0) {
+                        safeClose(readResult.inputStream);
+                        ResumableUpload upload = createResumableUpload(sourceUri, targetUri, readResult.length,
+                                uploadId != null ? uploadId : ResumableUpload.defaultUploadId(source, target, readResult.length),
+                                headers, trustEveryone && useHttps, context);
+                        conn = upload.upload();
+                        result.setBytesSent(upload.getBytesSent());
+                        Log.d(LOG_TAG, "Sent " + upload.getBytesSent() + " of " + readResult.length + " resumably");
+                    } else {
+                        //------------------ CLIENT REQUEST
+                        // Open a HTTP connection to the URL based on protocol
+                        conn = resourceApi.createHttpConnection(targetUri, CordovaResourceApi.PRIORITY_BULK);
+                        if (useHttps && trustEveryone) {
+                            // Setup the HTTPS connection class to trust everyone
+                            HttpsURLConnection https = (HttpsURLConnection)conn;
+                            oldSocketFactory  = trustAllHosts(https);
+                            // Save the current hostnameVerifier
+                            oldHostnameVerifier = https.getHostnameVerifier();
+                            // Setup the connection not to verify hostnames
+                            https.setHostnameVerifier(DO_NOT_VERIFY);
+                        }
 
-                    // Allow Outputs
-                    conn.setDoOutput(true);
+                        // Allow Inputs
+                        conn.setDoInput(true);
 
-                    // Don't use a cached copy.
-                    conn.setUseCaches(false);
+                        // Allow Outputs
+                        conn.setDoOutput(true);
 
-                    // Use a post method.
-                    conn.setRequestMethod(httpMethod);
-                    conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+                        // Don't use a cached copy.
+                        conn.setUseCaches(false);
 
-                    // Set the cookies on the response
-                    String cookie = CookieManager.getInstance().getCookie(target);
-                    if (cookie != null) {
-                        conn.setRequestProperty("Cookie", cookie);
-                    }
+                        // Use a post method.
+                        conn.setRequestMethod(httpMethod);
+                        conn.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
 
-                    // Handle the other headers
-                    if (headers != null) {
-                        addHeadersToRequest(conn, headers);
-                    }
+                        // Set the cookies on the response
+                        String cookie = CookieManager.getInstance().getCookie(target);
+                        if (cookie != null) {
+                            conn.setRequestProperty("Cookie", cookie);
+                        }
 
-                    /*
-                        * Store the non-file portions of the multipart data as a string, so that we can add it
-                        * to the contentSize, since it is part of the body of the HTTP request.
-                        */
-                    StringBuilder beforeData = new StringBuilder();
-                    try {
-                        for (Iterator<?> iter = params.keys(); iter.hasNext();) {
-                            Object key = iter.next();
-                            if(!String.valueOf(key).equals("headers"))
-                            {
-                              beforeData.append(LINE_START).append(BOUNDARY).append(LINE_END);
-                              beforeData.append("Content-Disposition: form-data; name=\"").append(key.toString()).append('"');
-                              beforeData.append(LINE_END).append(LINE_END);
-                              beforeData.append(params.getString(key.toString()));
-                              beforeData.append(LINE_END);
+                        // Handle the other headers
+                        if (headers != null) {
+                            addHeadersToRequest(conn, headers);
+                        }
+
+                        /*
+                            * Store the non-file portions of the multipart data as a string, so that we can add it
+                            * to the contentSize, since it is part of the body of the HTTP request.
+                            */
+                        StringBuilder beforeData = new StringBuilder();
+                        try {
+                            for (Iterator<?> iter = params.keys(); iter.hasNext();) {
+                                Object key = iter.next();
+                                if(!String.valueOf(key).equals("headers"))
+                                {
+                                  beforeData.append(LINE_START).append(BOUNDARY).append(LINE_END);
+                                  beforeData.append("Content-Disposition: form-data; name=\"").append(key.toString()).append('"');
+                                  beforeData.append(LINE_END).append(LINE_END);
+                                  beforeData.append(params.getString(key.toString()));
+                                  beforeData.append(LINE_END);
+                                }
                             }
+                        } catch (JSONException e) {
+                            Log.e(LOG_TAG, e.getMessage(), e);
                         }
-                    } catch (JSONException e) {
-                        Log.e(LOG_TAG, e.getMessage(), e);
-                    }
 
-                    beforeData.append(LINE_START).append(BOUNDARY).append(LINE_END);
-                    beforeData.append("Content-Disposition: form-data; name=\"").append(fileKey).append("\";");
-                    beforeData.append(" filename=\"").append(fileName).append('"').append(LINE_END);
-                    beforeData.append("Content-Type: ").append(mimeType).append(LINE_END).append(LINE_END);
-                    byte[] beforeDataBytes = beforeData.toString().getBytes("UTF-8");
-                    byte[] tailParamsBytes = (LINE_END + LINE_START + BOUNDARY + LINE_START + LINE_END).getBytes("UTF-8");
+                        beforeData.append(LINE_START).append(BOUNDARY).append(LINE_END);
+                        beforeData.append("Content-Disposition: form-data; name=\"").append(fileKey).append("\";");
+                        beforeData.append(" filename=\"").append(fileName).append('"').append(LINE_END);
+                        beforeData.append("Content-Type: ").append(mimeType).append(LINE_END).append(LINE_END);
+                        byte[] beforeDataBytes = beforeData.toString().getBytes("UTF-8");
+                        byte[] tailParamsBytes = (LINE_END + LINE_START + BOUNDARY + LINE_START + LINE_END).getBytes("UTF-8");
 
-                    
-                    // Get a input stream of the file on the phone
-                    OpenForReadResult readResult = resourceApi.openForRead(sourceUri);
-                    
-                    int stringLength = beforeDataBytes.length + tailParamsBytes.length;
-                    if (readResult.length >= 0) {
-                        fixedLength = (int)readResult.length + stringLength;
-                        progress.setLengthComputable(true);
-                        progress.setTotal(fixedLength);
-                    }
-                    Log.d(LOG_TAG, "Content Length: " + fixedLength);
-                    // setFixedLengthStreamingMode causes and OutOfMemoryException on pre-Froyo devices.
-                    // http://code.google.com/p/android/issues/detail?id=3164
-                    // It also causes OOM if HTTPS is used, even on newer devices.
-                    boolean useChunkedMode = chunkedMode && (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO || useHttps);
-                    useChunkedMode = useChunkedMode || (fixedLength == -1);
-
-                    if (useChunkedMode) {
-                        conn.setChunkedStreamingMode(MAX_BUFFER_SIZE);
-                        // Although setChunkedStreamingMode sets this header, setting it explicitly here works
-                        // around an OutOfMemoryException when using https.
-                        conn.setRequestProperty("Transfer-Encoding", "chunked");
-                    } else {
-                        conn.setFixedLengthStreamingMode(fixedLength);
-                    }
 
-                    conn.connect();
+                        int stringLength = beforeDataBytes.length + tailParamsBytes.length;
+                        if (readResult.length >= 0 && readResult.length + stringLength <= Integer.MAX_VALUE) {
+                            fixedLength = (int)readResult.length + stringLength;
+                            progress.setLengthComputable(true);
+                            progress.setTotal(fixedLength);
+                        }
+                        Log.d(LOG_TAG, "Content Length: " + fixedLength);
+                        // setFixedLengthStreamingMode causes and OutOfMemoryException on pre-Froyo devices.
+                        // http://code.google.com/p/android/issues/detail?id=3164
+                        // It also causes OOM if HTTPS is used, even on newer devices.
+                        boolean useChunkedMode = chunkedMode && (Build.VERSION.SDK_INT < Build.VERSION_CODES.FROYO || useHttps);
+                        useChunkedMode = useChunkedMode || (fixedLength == -1);
+
+                        if (useChunkedMode) {
+                            conn.setChunkedStreamingMode(MAX_BUFFER_SIZE);
+                            // Although setChunkedStreamingMode sets this header, setting it explicitly here works
+                            // around an OutOfMemoryException when using https.
+                            conn.setRequestProperty("Transfer-Encoding", "chunked");
+                        } else {
+                            conn.setFixedLengthStreamingMode(fixedLength);
+                        }
+
+                        conn.connect();
                     
-                    OutputStream sendStream = null;
-                    try {
-                        sendStream = conn.getOutputStream();
-                        synchronized (context) {
-                            if (context.aborted) {
-                                return;
+                        OutputStream sendStream = null;
+                        try {
+                            sendStream = conn.getOutputStream();
+                            synchronized (context) {
+                                if (context.aborted) {
+                                    return;
+                                }
+                                context.currentOutputStream = sendStream;
                             }
-                            context.currentOutputStream = sendStream;
-                        }
-                        //We don't want to change encoding, we just want this to write for all Unicode.
-                        sendStream.write(beforeDataBytes);
-                        totalBytes += beforeDataBytes.length;
+                            //We don't want to change encoding, we just want this to write for all Unicode.
+                            sendStream.write(beforeDataBytes);
+                            totalBytes += beforeDataBytes.length;
     
-                        // create a buffer of maximum size
-                        int bytesAvailable = readResult.inputStream.available();
-                        int bufferSize = Math.min(bytesAvailable, MAX_BUFFER_SIZE);
-                        byte[] buffer = new byte[bufferSize];
+                            // Stream the file straight into the request. available() is only a hint
+                            // and is often 0 for content and asset streams, so it isn't used to
+                            // size the buffer or to decide when the file has ended.
+                            byte[] buffer = new byte[MAX_BUFFER_SIZE];
+                            int bytesRead;
     
-                        // read file and write it into form...
-                        int bytesRead = readResult.inputStream.read(buffer, 0, bufferSize);
-    
-                        long prevBytesRead = 0;
-                        while (bytesRead > 0) {
-                            result.setBytesSent(totalBytes);
-                            sendStream.write(buffer, 0, bytesRead);
-                            totalBytes += bytesRead;
-                            if (totalBytes > prevBytesRead + 102400) {
-                                prevBytesRead = totalBytes;
-                                Log.d(LOG_TAG, "Uploaded " + totalBytes + " of " + fixedLength + " bytes");
+                            long prevBytesRead = 0;
+                            while ((bytesRead = readResult.inputStream.read(buffer)) != -1) {
+                                sendStream.write(buffer, 0, bytesRead);
+                                totalBytes += bytesRead;
+                                result.setBytesSent(totalBytes);
+                                if (totalBytes > prevBytesRead + 102400) {
+                                    prevBytesRead = totalBytes;
+                                    Log.d(LOG_TAG, "Uploaded " + totalBytes + " of " + fixedLength + " bytes");
+                                }
+
+                                // Send a progress event.
+                                progress.setLoaded(totalBytes);
+                                PluginResult progressResult = new PluginResult(PluginResult.Status.OK, progress.toJSONObject());
+                                progressResult.setKeepCallback(true);
+                                progressResult.setCoalesce(true);
+                                context.sendPluginResult(progressResult);
                             }
-                            bytesAvailable = readResult.inputStream.available();
-                            bufferSize = Math.min(bytesAvailable, MAX_BUFFER_SIZE);
-                            bytesRead = readResult.inputStream.read(buffer, 0, bufferSize);
-
-                            // Send a progress event.
-                            progress.setLoaded(totalBytes);
-                            PluginResult progressResult = new PluginResult(PluginResult.Status.OK, progress.toJSONObject());
-                            progressResult.setKeepCallback(true);
-                            context.sendPluginResult(progressResult);
-                        }
     
-                        // send multipart form data necessary after file data...
-                        sendStream.write(tailParamsBytes);
-                        totalBytes += tailParamsBytes.length;
-                        sendStream.flush();
-                    } finally {
-                        safeClose(readResult.inputStream);
-                        safeClose(sendStream);
+                            // send multipart form data necessary after file data...
+                            sendStream.write(tailParamsBytes);
+                            totalBytes += tailParamsBytes.length;
+                            sendStream.flush();
+                        } finally {
+                            safeClose(readResult.inputStream);
+                            safeClose(sendStream);
+                        }
+                        context.currentOutputStream = null;
+                        Log.d(LOG_TAG, "Sent " + totalBytes + " of " + fixedLength);
                     }
-                    context.currentOutputStream = null;
-                    Log.d(LOG_TAG, "Sent " + totalBytes + " of " + fixedLength);
 
                     //------------------ read the SERVER RESPONSE
                     String responseString;
@@ -490,14 +502,16 @@ public class FileTransfer extends CordovaPlugin {
                     Log.e(LOG_TAG, error.toString(), t);
                     context.sendPluginResult(new PluginResult(PluginResult.Status.IO_EXCEPTION, error));
                 } finally {
+                    if (readResult != null) {
+                        safeClose(readResult.inputStream);
+                    }
                     synchronized (activeRequests) {
                         activeRequests.remove(objectId);
                     }
 
                     if (conn != null) {
                         // Revert back to the proper verifier and socket factories
-                        // Revert back to the proper verifier and socket factories
-                        if (trustEveryone && useHttps) {
+                        if (trustEveryone && useHttps && oldHostnameVerifier != null) {
                             HttpsURLConnection https = (HttpsURLConnection) conn;
                             https.setHostnameVerifier(oldHostnameVerifier);
                             https.setSSLSocketFactory(oldSocketFactory);
@@ -505,7 +519,70 @@ public class FileTransfer extends CordovaPlugin {
                     }
                 }                
             }
-        });
+        }, PluginExecutor.PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Creates an upload that sends the file as raw bytes and can pick up where an
+     * earlier failed attempt with the same upload ID left off.
+     */
+    private ResumableUpload createResumableUpload(final Uri sourceUri, final Uri targetUri, long length, String uploadId,
+            final JSONObject headers, final boolean trustEveryone, final RequestContext context) {
+        final CordovaResourceApi resourceApi = webView.getResourceApi();
+        final String cookie = CookieManager.getInstance().getCookie(targetUri.toString());
+        final FileProgressResult progress = new FileProgressResult();
+        progress.setLengthComputable(true);
+        progress.setTotal(length);
+        return new ResumableUpload(uploadId, length) {
+            @Override
+            protected HttpURLConnection openConnection() throws IOException {
+                HttpURLConnection connection = resourceApi.createHttpConnection(targetUri, CordovaResourceApi.PRIORITY_BULK);
+                if (trustEveryone) {
+                    HttpsURLConnection https = (HttpsURLConnection)connection;
+                    trustAllHosts(https);
+                    https.setHostnameVerifier(DO_NOT_VERIFY);
+                }
+                connection.setUseCaches(false);
+                if (cookie != null) {
+                    connection.setRequestProperty("Cookie", cookie);
+                }
+                if (headers != null) {
+                    addHeadersToRequest(connection, headers);
+                }
+                return connection;
+            }
+
+            @Override
+            protected InputStream openSource() throws IOException {
+                return resourceApi.openForRead(sourceUri).inputStream;
+            }
+
+            @Override
+            protected boolean isAborted() {
+                return context.aborted;
+            }
+
+            @Override
+            protected void setCurrentOutputStream(OutputStream stream) {
+                // Lets abort() close the request body to interrupt a blocked write.
+                synchronized (context) {
+                    context.currentOutputStream = stream;
+                }
+            }
+
+            @Override
+            protected void onProgress(long sent, long total) {
+                progress.setLoaded(sent);
+                try {
+                    PluginResult progressResult = new PluginResult(PluginResult.Status.OK, progress.toJSONObject());
+                    progressResult.setKeepCallback(true);
+                    progressResult.setCoalesce(true);
+                    context.sendPluginResult(progressResult);
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, e.getMessage(), e);
+                }
+            }
+        };
     }
 
     private static void safeClose(Closeable stream) {
@@ -663,6 +740,7 @@ public class FileTransfer extends CordovaPlugin {
         final boolean trustEveryone = args.optBoolean(2);
         final String objectId = args.getString(3);
         final JSONObject headers = args.optJSONObject(4);
+        final int segments = Math.min(args.optInt(5, 1), SegmentedDownload.MAX_SEGMENTS);
         
         final Uri sourceUri = resourceApi.remapUri(Uri.parse(source));
         // Accept a path or a URI for the source.
@@ -694,7 +772,7 @@ public class FileTransfer extends CordovaPlugin {
             activeRequests.put(objectId, context);
         }
         
-        cordova.getThreadPool().execute(new Runnable() {
+        getExecutor().execute(new Runnable() {
             public void run() {
                 if (context.aborted) {
                     return;
@@ -709,91 +787,99 @@ public class FileTransfer extends CordovaPlugin {
                 OutputStream outputStream = null;
                 try {
                     OpenForReadResult readResult = null;
-                    outputStream = resourceApi.openOutputStream(targetUri);
-
                     file = resourceApi.mapUriToFile(targetUri);
                     context.targetFile = file;
                     
                     Log.d(LOG_TAG, "Download file:" + sourceUri);
 
-                    FileProgressResult progress = new FileProgressResult();
+                    boolean downloaded = false;
+                    if (!isLocalTransfer && segments > 1 && file != null) {
+                        downloaded = downloadSegmented(sourceUri, file, segments, headers, trustEveryone && useHttps, context);
+                    }
 
-                    if (isLocalTransfer) {
-                        readResult = resourceApi.openForRead(sourceUri);
-                        if (readResult.length != -1) {
-                            progress.setLengthComputable(true);
-                            progress.setTotal(readResult.length);
-                        }
-                        inputStream = new SimpleTrackingInputStream(readResult.inputStream);
-                    } else {
-                        // connect to server
-                        // Open a HTTP connection to the URL based on protocol
-                        connection = resourceApi.createHttpConnection(sourceUri);
-                        if (useHttps && trustEveryone) {
-                            // Setup the HTTPS connection class to trust everyone
-                            HttpsURLConnection https = (HttpsURLConnection)connection;
-                            oldSocketFactory = trustAllHosts(https);
-                            // Save the current hostnameVerifier
-                            oldHostnameVerifier = https.getHostnameVerifier();
-                            // Setup the connection not to verify hostnames
-                            https.setHostnameVerifier(DO_NOT_VERIFY);
-                        }
+                    if (!downloaded) {
+                        outputStream = resourceApi.openOutputStream(targetUri);
+
+                        FileProgressResult progress = new FileProgressResult();
+
+                        if (isLocalTransfer) {
+                            readResult = resourceApi.openForRead(sourceUri);
+                            if (readResult.length != -1) {
+                                progress.setLengthComputable(true);
+                                progress.setTotal(readResult.length);
+                            }
+                            inputStream = new SimpleTrackingInputStream(readResult.inputStream);
+                        } else {
+                            // connect to server
+                            // Open a HTTP connection to the URL based on protocol
+                            connection = resourceApi.createHttpConnection(sourceUri, CordovaResourceApi.PRIORITY_BULK);
+                            if (useHttps && trustEveryone) {
+                                // Setup the HTTPS connection class to trust everyone
+                                HttpsURLConnection https = (HttpsURLConnection)connection;
+                                oldSocketFactory = trustAllHosts(https);
+                                // Save the current hostnameVerifier
+                                oldHostnameVerifier = https.getHostnameVerifier();
+                                // Setup the connection not to verify hostnames
+                                https.setHostnameVerifier(DO_NOT_VERIFY);
+                            }
         
-                        connection.setRequestMethod("GET");
+                            connection.setRequestMethod("GET");
         
-                        // TODO: Make OkHttp use this CookieManager by default.
-                        String cookie = CookieManager.getInstance().getCookie(sourceUri.toString());
-                        if(cookie != null)
-                        {
-                            connection.setRequestProperty("cookie", cookie);
-                        }
+                            // TODO: Make OkHttp use this CookieManager by default.
+                            String cookie = CookieManager.getInstance().getCookie(sourceUri.toString());
+                            if(cookie != null)
+                            {
+                                connection.setRequestProperty("cookie", cookie);
+                            }
                         
-                        // This must be explicitly set for gzip progress tracking to work.
-                        connection.setRequestProperty("Accept-Encoding", "gzip");
+                            // This must be explicitly set for gzip progress tracking to work.
+                            connection.setRequestProperty("Accept-Encoding", "gzip");
     
-                        // Handle the other headers
-                        if (headers != null) {
-                            addHeadersToRequest(connection, headers);
-                        }
+                            // Handle the other headers
+                            if (headers != null) {
+                                addHeadersToRequest(connection, headers);
+                            }
         
-                        connection.connect();
+                            connection.connect();
     
-                        if (connection.getContentEncoding() == null || connection.getContentEncoding().equalsIgnoreCase("gzip")) {
-                            // Only trust content-length header if we understand
-                            // the encoding -- identity or gzip
-                            if (connection.getContentLength() != -1) {
-                                progress.setLengthComputable(true);
-                                progress.setTotal(connection.getContentLength());
+                            if (connection.getContentEncoding() == null || connection.getContentEncoding().equalsIgnoreCase("gzip")) {
+                                // Only trust content-length header if we understand
+                                // the encoding -- identity or gzip
+                                if (connection.getContentLength() != -1) {
+                                    progress.setLengthComputable(true);
+                                    progress.setTotal(connection.getContentLength());
+                                }
                             }
+                            inputStream = getInputStream(connection);
                         }
-                        inputStream = getInputStream(connection);
-                    }
                     
-                    try {
-                        synchronized (context) {
-                            if (context.aborted) {
-                                return;
+                        try {
+                            synchronized (context) {
+                                if (context.aborted) {
+                                    return;
+                                }
+                                context.currentInputStream = inputStream;
                             }
-                            context.currentInputStream = inputStream;
-                        }
                         
-                        // write bytes to file
-                        byte[] buffer = new byte[MAX_BUFFER_SIZE];
-                        int bytesRead = 0;
-                        while ((bytesRead = inputStream.read(buffer)) > 0) {
-                            outputStream.write(buffer, 0, bytesRead);
-                            // Send a progress event.
-                            progress.setLoaded(inputStream.getTotalRawBytesRead());
-                            PluginResult progressResult = new PluginResult(PluginResult.Status.OK, progress.toJSONObject());
-                            progressResult.setKeepCallback(true);
-                            context.sendPluginResult(progressResult);
+                            // write bytes to file
+                            byte[] buffer = new byte[MAX_BUFFER_SIZE];
+                            int bytesRead = 0;
+                            while ((bytesRead = inputStream.read(buffer)) > 0) {
+                                outputStream.write(buffer, 0, bytesRead);
+                                // Send a progress event.
+                                progress.setLoaded(inputStream.getTotalRawBytesRead());
+                                PluginResult progressResult = new PluginResult(PluginResult.Status.OK, progress.toJSONObject());
+                                progressResult.setKeepCallback(true);
+                                progressResult.setCoalesce(true);
+                                context.sendPluginResult(progressResult);
+                            }
+                        } finally {
+                            context.currentInputStream = null;
+                            safeClose(inputStream);
+                            safeClose(outputStream);
                         }
-                    } finally {
-                        context.currentInputStream = null;
-                        safeClose(inputStream);
-                        safeClose(outputStream);
                     }
-    
+
                     Log.d(LOG_TAG, "Saved file: " + target);
     
                     // create FileEntry object
@@ -852,7 +938,72 @@ public class FileTransfer extends CordovaPlugin {
                     context.sendPluginResult(result);
                 }
             }
-        });
+        }, PluginExecutor.PRIORITY_BACKGROUND);
+    }
+
+    /**
+     * Downloads the source as several byte ranges in parallel, resuming an
+     * earlier interrupted attempt if there is one.
+     *
+     * @return false if the server doesn't support range requests, in which case nothing was downloaded.
+     */
+    private boolean downloadSegmented(final Uri sourceUri, File file, int segments, final JSONObject headers,
+            final boolean trustEveryone, final RequestContext context) throws IOException {
+        final CordovaResourceApi resourceApi = webView.getResourceApi();
+        final String cookie = CookieManager.getInstance().getCookie(sourceUri.toString());
+        // Segments run on the shared pool rather than this plugin's executor, which
+        // may already be full of the downloads that are waiting on them.
+        SegmentedDownload download = new SegmentedDownload(sourceUri.toString(), file, segments, cordova.getThreadPool()) {
+            @Override
+            protected HttpURLConnection openConnection() throws IOException {
+                HttpURLConnection connection = resourceApi.createHttpConnection(sourceUri, CordovaResourceApi.PRIORITY_BULK);
+                if (trustEveryone) {
+                    HttpsURLConnection https = (HttpsURLConnection)connection;
+                    trustAllHosts(https);
+                    https.setHostnameVerifier(DO_NOT_VERIFY);
+                }
+                connection.setRequestMethod("GET");
+                if (cookie != null) {
+                    connection.setRequestProperty("cookie", cookie);
+                }
+                if (headers != null) {
+                    addHeadersToRequest(connection, headers);
+                }
+                return connection;
+            }
+
+            @Override
+            protected boolean isAborted() {
+                return context.aborted;
+            }
+
+            @Override
+            protected void onProgress(long loaded, long total) {
+                FileProgressResult progress = new FileProgressResult();
+                progress.setLengthComputable(true);
+                progress.setTotal(total);
+                progress.setLoaded(loaded);
+                try {
+                    PluginResult progressResult = new PluginResult(PluginResult.Status.OK, progress.toJSONObject());
+                    progressResult.setKeepCallback(true);
+                    progressResult.setCoalesce(true);
+                    context.sendPluginResult(progressResult);
+                } catch (JSONException e) {
+                    Log.e(LOG_TAG, e.getMessage(), e);
+                }
+            }
+        };
+        // Lets abort() close the streams of all the ranges at once.
+        synchronized (context) {
+            context.currentDownload = download;
+        }
+        try {
+            return download.download();
+        } finally {
+            synchronized (context) {
+                context.currentDownload = null;
+            }
+        }
     }
 
     /**
@@ -880,6 +1031,9 @@ public class FileTransfer extends CordovaPlugin {
                     synchronized (context) {
                         safeClose(context.currentInputStream);
                         safeClose(context.currentOutputStream);
+                        if (context.currentDownload != null) {
+                            context.currentDownload.cancel();
+                        }
                     }
                 }
             });
@@ -0,0 +1,265 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.filetransfer;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.HttpURLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import android.util.Log;
+
+/**
+ * Uploads a file as raw bytes in a way that can continue after a failure,
+ * instead of starting again from the first byte.
+ *
+ * The protocol has two requests, both of which carry an Upload-Id header
+ * naming the upload:
+ *
+ *   HEAD <url>   asks how much of the upload the server already has. The server
+ *                answers with an Upload-Offset header (or "Range: bytes=0-<last>"),
+ *                or with 404 if it has never seen the upload.
+ *   PATCH <url>  sends the rest of the file, described by
+ *                "Content-Range: bytes <offset>-<last>/<length>". The response to
+ *                the final PATCH is the response to the upload. A 409 means the
+ *                server disagrees about the offset, and the offset is asked for again.
+ *
+ * HttpURLConnection doesn't allow PATCH, so it is sent as a POST with an
+ * X-HTTP-Method-Override header.
+ */
+abstract class ResumableUpload {
+    private static final String LOG_TAG = "FileTransfer";
+    static final String UPLOAD_ID_HEADER = "Upload-Id";
+    static final String UPLOAD_OFFSET_HEADER = "Upload-Offset";
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    private static final int HTTP_CONFLICT = 409;
+
+    private final String uploadId;
+    private final long length;
+    private long bytesSent;
+
+    ResumableUpload(String uploadId, long length) {
+        this.uploadId = uploadId;
+        this.length = length;
+    }
+
+    /**
+     * Returns an ID for an upload that doesn't have one, which stays the same
+     * across attempts to upload the same file to the same place.
+     */
+    static String defaultUploadId(String source, String target, long length) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            byte[] hash = digest.digest((source + "\n" + target + "\n" + length).getBytes("UTF-8"));
+            StringBuilder id = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                id.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return id.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns a new connection to the upload URL, with any headers, cookies and
+     * TLS settings that the upload needs.
+     */
+    protected abstract HttpURLConnection openConnection() throws IOException;
+
+    /**
+     * Returns a new stream of the file, starting at its first byte.
+     */
+    protected abstract InputStream openSource() throws IOException;
+
+    protected abstract boolean isAborted();
+
+    protected abstract void onProgress(long sent, long total);
+
+    /**
+     * Called with the request body's stream while it is being written, and with
+     * null afterwards, so that an abort can close it.
+     */
+    protected void setCurrentOutputStream(OutputStream stream) {
+    }
+
+    /**
+     * Returns the number of bytes of the file sent so far, including those the
+     * server already had. After a failed attempt this can count bytes that
+     * never arrived; the next attempt starts from the server's offset instead.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * Sends whatever part of the file the server doesn't have yet, retrying
+     * from the server's offset if the connection fails part way.
+     *
+     * @return The connection for the final PATCH, with its response not yet read.
+     */
+    public HttpURLConnection upload() throws IOException {
+        IOException failure = null;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; ++attempt) {
+            if (isAborted()) {
+                throw new IOException("Upload " + uploadId + " was aborted");
+            }
+            try {
+                HttpURLConnection connection = sendFrom(queryOffset());
+                if (connection != null) {
+                    return connection;
+                }
+                failure = new IOException("Server rejected the offset for upload " + uploadId);
+            } catch (FileNotFoundException e) {
+                // Either the file went away or the server refused the upload; trying again won't help.
+                throw e;
+            } catch (IOException e) {
+                failure = e;
+            }
+            Log.w(LOG_TAG, "Upload " + uploadId + " failed at " + bytesSent + " of " + length + " bytes: " + failure.getMessage());
+        }
+        throw failure;
+    }
+
+    private long queryOffset() throws IOException {
+        HttpURLConnection connection = openConnection();
+        try {
+            connection.setRequestMethod("HEAD");
+            connection.setRequestProperty(UPLOAD_ID_HEADER, uploadId);
+            int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                return 0;
+            }
+            if (responseCode / 100 != 2) {
+                throw new IOException("Offset query for upload " + uploadId + " returned HTTP " + responseCode);
+            }
+            long offset = 0;
+            try {
+                String header = connection.getHeaderField(UPLOAD_OFFSET_HEADER);
+                if (header != null) {
+                    offset = Long.parseLong(header.trim());
+                } else {
+                    // Range: bytes=0-<last byte received>
+                    header = connection.getHeaderField("Range");
+                    if (header != null && header.startsWith("bytes=0-")) {
+                        offset = Long.parseLong(header.substring(8).trim()) + 1;
+                    }
+                }
+            } catch (NumberFormatException e) {
+                Log.w(LOG_TAG, "Ignoring unreadable offset for upload " + uploadId);
+            }
+            return Math.max(0, Math.min(offset, length));
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Sends the file from the given offset onwards.
+     *
+     * @return The connection, or null if the server rejected the offset.
+     */
+    private HttpURLConnection sendFrom(long offset) throws IOException {
+        bytesSent = offset;
+        onProgress(bytesSent, length);
+        InputStream inputStream = openSource();
+        try {
+            skipFully(inputStream, offset);
+
+            HttpURLConnection connection = openConnection();
+            connection.setDoInput(true);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST");
+            connection.setRequestProperty("X-HTTP-Method-Override", "PATCH");
+            connection.setRequestProperty(UPLOAD_ID_HEADER, uploadId);
+            connection.setRequestProperty("Content-Type", "application/octet-stream");
+            long remaining = length - offset;
+            if (remaining > 0) {
+                connection.setRequestProperty("Content-Range", "bytes " + offset + "-" + (length - 1) + "/" + length);
+            } else {
+                // Everything was already sent; this just asks for the final response.
+                connection.setRequestProperty("Content-Range", "bytes */" + length);
+            }
+            if (remaining <= Integer.MAX_VALUE) {
+                connection.setFixedLengthStreamingMode((int) remaining);
+            } else {
+                connection.setChunkedStreamingMode(BUFFER_SIZE);
+            }
+
+            OutputStream outputStream = connection.getOutputStream();
+            setCurrentOutputStream(outputStream);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                while (remaining > 0) {
+                    if (isAborted()) {
+                        throw new IOException("Upload " + uploadId + " was aborted");
+                    }
+                    int bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                    if (bytesRead < 0) {
+                        throw new IOException("File ended " + remaining + " bytes early");
+                    }
+                    outputStream.write(buffer, 0, bytesRead);
+                    remaining -= bytesRead;
+                    bytesSent += bytesRead;
+                    onProgress(bytesSent, length);
+                }
+            } finally {
+                setCurrentOutputStream(null);
+                outputStream.close();
+            }
+
+            if (connection.getResponseCode() == HTTP_CONFLICT) {
+                connection.disconnect();
+                return null;
+            }
+            return connection;
+        } finally {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    private static void skipFully(InputStream inputStream, long count) throws IOException {
+        byte[] buffer = null;
+        while (count > 0) {
+            long skipped = inputStream.skip(count);
+            if (skipped <= 0) {
+                // Some streams can't skip; read and discard instead.
+                if (buffer == null) {
+                    buffer = new byte[BUFFER_SIZE];
+                }
+                int bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, count));
+                if (bytesRead < 0) {
+                    throw new IOException("File is shorter than the uploaded offset");
+                }
+                skipped = bytesRead;
+            }
+            count -= skipped;
+        }
+    }
+}
@@ -0,0 +1,431 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.filetransfer;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.util.Log;
+
+/**
+ * Downloads a file as several HTTP byte ranges in parallel, writing each range
+ * directly to its position in the file.
+ *
+ * Data is written to "<target>.part" and progress is recorded in a small
+ * "<target>.part.manifest" sidecar file. If the download is interrupted, the
+ * next download of the same URL to the same target resumes each range where
+ * it left off, provided the server still reports the same length and validator.
+ * Resources without a strong ETag or a Last-Modified date are never resumed.
+ */
+abstract class SegmentedDownload {
+    private static final String LOG_TAG = "FileTransfer";
+    private static final int MANIFEST_VERSION = 1;
+    private static final int BUFFER_SIZE = 16 * 1024;
+    // The most ranges fetched at once, whatever the caller asks for.
+    static final int MAX_SEGMENTS = 8;
+    // Ranges smaller than this aren't worth a connection of their own.
+    private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+    // How many bytes to write between saves of the manifest.
+    private static final long MANIFEST_SAVE_INTERVAL = 1024 * 1024;
+
+    private final String source;
+    private final File targetFile;
+    private final File partialFile;
+    private final File manifestFile;
+    private final int maxSegments;
+    private final ExecutorService executor;
+
+    private long length;
+    private String validator;
+    private long[] segmentStarts;
+    private long[] segmentEnds;         // Exclusive.
+    private long[] segmentPositions;
+    private final AtomicLong bytesLoaded = new AtomicLong();
+    private long bytesSinceManifestSave;
+    private boolean manifestDiscarded;
+    private FileChannel channel;
+
+    // The response streams of the ranges in progress. Also guards the two fields below.
+    private final List<InputStream> openStreams = new ArrayList<InputStream>();
+    private boolean cancelled;
+    private IOException failure;
+
+    /**
+     * @param source        The URL being downloaded.
+     * @param targetFile    Where the finished download should end up.
+     * @param maxSegments   The maximum number of ranges to fetch at once, up to MAX_SEGMENTS.
+     * @param executor      Runs all ranges but the first, which runs on the calling thread.
+     */
+    SegmentedDownload(String source, File targetFile, int maxSegments, ExecutorService executor) {
+        this.source = source;
+        this.targetFile = targetFile;
+        this.partialFile = new File(targetFile.getPath() + ".part");
+        this.manifestFile = new File(targetFile.getPath() + ".part.manifest");
+        this.maxSegments = Math.max(1, Math.min(maxSegments, MAX_SEGMENTS));
+        this.executor = executor;
+    }
+
+    /**
+     * Returns a new connection to the source, with any headers, cookies and
+     * TLS settings that the download needs. The Range headers are added by the caller.
+     */
+    protected abstract HttpURLConnection openConnection() throws IOException;
+
+    protected abstract boolean isAborted();
+
+    protected abstract void onProgress(long loaded, long total);
+
+    /**
+     * Downloads the file into place.
+     *
+     * @return false if the server doesn't support range requests for this URL,
+     *         in which case nothing has been written and a regular download should be used.
+     */
+    public boolean download() throws IOException {
+        if (!probe()) {
+            return false;
+        }
+        if (validator == null) {
+            // Nothing would tell a later attempt whether the saved ranges still
+            // match the resource, so don't leave a manifest for it to resume.
+            discardManifest();
+            createSegments();
+        } else if (!loadManifest()) {
+            createSegments();
+        }
+        RandomAccessFile file = new RandomAccessFile(partialFile, "rw");
+        try {
+            file.setLength(length);
+            channel = file.getChannel();
+            saveManifest();
+            onProgress(bytesLoaded.get(), length);
+
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int i = 1; i < segmentStarts.length; ++i) {
+                final int segment = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() {
+                        runSegment(segment);
+                        return null;
+                    }
+                }));
+            }
+            runSegment(0);
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    // runSegment() records its own failures, so this is unexpected.
+                    fail(new IOException(String.valueOf(e.getCause())));
+                } catch (InterruptedException e) {
+                    fail(new IOException("Interrupted while downloading " + source));
+                }
+            }
+            // Record how far each range got, so that the next attempt can resume.
+            saveManifest();
+            IOException failure;
+            synchronized (openStreams) {
+                failure = this.failure;
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            channel.force(true);
+        } finally {
+            channel = null;
+            file.close();
+        }
+
+        manifestFile.delete();
+        if (targetFile.exists() && !targetFile.delete()) {
+            throw new IOException("Could not replace " + targetFile);
+        }
+        if (!partialFile.renameTo(targetFile)) {
+            throw new IOException("Could not move " + partialFile + " to " + targetFile);
+        }
+        return true;
+    }
+
+    /**
+     * Asks for the first byte to find out whether ranges are supported,
+     * and reads the total length and validator of the resource.
+     */
+    private boolean probe() throws IOException {
+        HttpURLConnection connection = openConnection();
+        try {
+            connection.setRequestProperty("Range", "bytes=0-0");
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            connection.connect();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                return false;
+            }
+            // Content-Range: bytes 0-0/12345
+            String contentRange = connection.getHeaderField("Content-Range");
+            int slash = contentRange == null ? -1 : contentRange.lastIndexOf('/');
+            if (slash < 0) {
+                return false;
+            }
+            try {
+                length = Long.parseLong(contentRange.substring(slash + 1).trim());
+            } catch (NumberFormatException e) {
+                // The length is "*" when the server doesn't know it.
+                return false;
+            }
+            String etag = connection.getHeaderField("ETag");
+            if (etag != null && !etag.startsWith("W/")) {
+                validator = etag;
+            } else {
+                validator = connection.getHeaderField("Last-Modified");
+            }
+            return length > 0;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private void createSegments() {
+        int count = (int) Math.max(1, Math.min(maxSegments, length / MIN_SEGMENT_SIZE));
+        segmentStarts = new long[count];
+        segmentEnds = new long[count];
+        segmentPositions = new long[count];
+        long segmentSize = length / count;
+        for (int i = 0; i < count; ++i) {
+            segmentStarts[i] = i * segmentSize;
+            segmentEnds[i] = (i + 1 == count) ? length : (i + 1) * segmentSize;
+            segmentPositions[i] = segmentStarts[i];
+        }
+        bytesLoaded.set(0);
+    }
+
+    /**
+     * Stops every range that is still downloading by closing its response
+     * stream. Closing can block, so don't call this on the UI thread.
+     */
+    public void cancel() {
+        List<InputStream> streams;
+        synchronized (openStreams) {
+            cancelled = true;
+            streams = new ArrayList<InputStream>(openStreams);
+        }
+        for (InputStream stream : streams) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Records the first failure and cancels the other ranges, since the
+     * download can no longer succeed.
+     */
+    private void fail(IOException e) {
+        synchronized (openStreams) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+        cancel();
+    }
+
+    private void runSegment(int segment) {
+        try {
+            downloadSegment(segment);
+        } catch (IOException e) {
+            fail(e);
+        } catch (RuntimeException e) {
+            fail(new IOException(e.toString()));
+        }
+    }
+
+    private boolean isCancelled() {
+        synchronized (openStreams) {
+            return cancelled;
+        }
+    }
+
+    private void downloadSegment(int segment) throws IOException {
+        long position;
+        long end = segmentEnds[segment];
+        synchronized (this) {
+            position = segmentPositions[segment];
+        }
+        if (position >= end || isCancelled()) {
+            return;
+        }
+        HttpURLConnection connection = openConnection();
+        InputStream inputStream = null;
+        try {
+            connection.setRequestProperty("Range", "bytes=" + position + "-" + (end - 1));
+            connection.setRequestProperty("Accept-Encoding", "identity");
+            if (validator != null) {
+                connection.setRequestProperty("If-Range", validator);
+            }
+            connection.connect();
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                // The resource changed since the download started, so what we have is useless.
+                discardManifest();
+                throw new IOException("Range request for " + source + " returned HTTP " + connection.getResponseCode());
+            }
+            inputStream = connection.getInputStream();
+            synchronized (openStreams) {
+                if (cancelled) {
+                    throw new IOException("Download of " + source + " was cancelled");
+                }
+                openStreams.add(inputStream);
+            }
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (position < end) {
+                if (isAborted() || isCancelled()) {
+                    throw new IOException("Download of " + source + " was aborted");
+                }
+                int bytesRead = inputStream.read(buffer, 0, (int) Math.min(buffer.length, end - position));
+                if (bytesRead <= 0) {
+                    throw new IOException("Connection closed with " + (end - position) + " bytes left in range");
+                }
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, bytesRead);
+                long writePosition = position;
+                while (data.hasRemaining()) {
+                    writePosition += channel.write(data, writePosition);
+                }
+                position += bytesRead;
+                boolean saveManifest;
+                synchronized (this) {
+                    segmentPositions[segment] = position;
+                    bytesSinceManifestSave += bytesRead;
+                    saveManifest = bytesSinceManifestSave >= MANIFEST_SAVE_INTERVAL;
+                }
+                if (saveManifest) {
+                    saveManifest();
+                }
+                onProgress(bytesLoaded.addAndGet(bytesRead), length);
+            }
+        } finally {
+            if (inputStream != null) {
+                synchronized (openStreams) {
+                    openStreams.remove(inputStream);
+                }
+                try {
+                    inputStream.close();
+                } catch (IOException e) {
+                }
+            }
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Loads the progress of an earlier attempt, if it was for the same resource.
+     */
+    private boolean loadManifest() {
+        if (!manifestFile.exists() || !partialFile.exists() || partialFile.length() != length) {
+            return false;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), "UTF-8"));
+            if (Integer.parseInt(reader.readLine()) != MANIFEST_VERSION
+                    || !source.equals(reader.readLine())
+                    || Long.parseLong(reader.readLine()) != length
+                    || !validator.equals(reader.readLine())) {
+                return false;
+            }
+            int count = Integer.parseInt(reader.readLine());
+            segmentStarts = new long[count];
+            segmentEnds = new long[count];
+            segmentPositions = new long[count];
+            long loaded = 0;
+            for (int i = 0; i < count; ++i) {
+                String[] parts = reader.readLine().split(" ");
+                segmentStarts[i] = Long.parseLong(parts[0]);
+                segmentEnds[i] = Long.parseLong(parts[1]);
+                segmentPositions[i] = Long.parseLong(parts[2]);
+                loaded += segmentPositions[i] - segmentStarts[i];
+            }
+            bytesLoaded.set(loaded);
+            Log.d(LOG_TAG, "Resuming download of " + source + " at " + loaded + " of " + length + " bytes");
+            return true;
+        } catch (Exception e) {
+            // Missing lines or bad numbers: start over.
+            Log.w(LOG_TAG, "Ignoring unreadable download manifest " + manifestFile);
+            return false;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Deletes the manifest and stops it from being written again, so that no
+     * later attempt resumes from data that no longer matches the resource.
+     */
+    private synchronized void discardManifest() {
+        manifestDiscarded = true;
+        manifestFile.delete();
+    }
+
+    /**
+     * Flushes the data written so far and then records each range's position.
+     */
+    private synchronized void saveManifest() throws IOException {
+        if (manifestDiscarded) {
+            return;
+        }
+        if (channel != null) {
+            channel.force(false);
+        }
+        bytesSinceManifestSave = 0;
+        File tmpFile = new File(manifestFile.getPath() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmpFile), "UTF-8");
+        try {
+            writer.write(MANIFEST_VERSION + "\n" + source + "\n" + length + "\n" + validator + "\n" + segmentStarts.length + "\n");
+            for (int i = 0; i < segmentStarts.length; ++i) {
+                writer.write(segmentStarts[i] + " " + segmentEnds[i] + " " + segmentPositions[i] + "\n");
+            }
+        } finally {
+            writer.close();
+        }
+        if (!tmpFile.renameTo(manifestFile)) {
+            manifestFile.delete();
+            tmpFile.renameTo(manifestFile);
+        }
+    }
+}
@@ -162,6 +162,8 @@ public class GeoBroker extends CordovaPlugin {
     public void win(Location loc, CallbackContext callbackContext, boolean keepCallback) {
     	PluginResult result = new PluginResult(PluginResult.Status.OK, this.returnLocationJSON(loc));
     	result.setKeepCallback(keepCallback);
+    	// Watches only care about the latest position.
+    	result.setCoalesce(keepCallback);
         callbackContext.sendPluginResult(result);
     }
 
@@ -22,6 +22,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.util.concurrent.RejectedExecutionException;
 
 import android.os.Build;
 
@@ -279,7 +280,7 @@ public class Capture extends CordovaPlugin {
                         }
                     }
                 };
-                this.cordova.getThreadPool().execute(captureAudio);
+                this.runInBackground(captureAudio);
             } else if (requestCode == CAPTURE_IMAGE) {
                 // For some reason if I try to do:
                 // Uri data = intent.getData();
@@ -338,7 +339,7 @@ public class Capture extends CordovaPlugin {
                         }
                     }
                 };
-                this.cordova.getThreadPool().execute(captureImage);
+                this.runInBackground(captureImage);
             } else if (requestCode == CAPTURE_VIDEO) {
 
                 final Capture that = this;
@@ -378,7 +379,7 @@ public class Capture extends CordovaPlugin {
                         }
                     }
                 };
-                this.cordova.getThreadPool().execute(captureVideo);
+                this.runInBackground(captureVideo);
             }
         }
         // If canceled
@@ -462,6 +463,20 @@ public class Capture extends CordovaPlugin {
         this.callbackContext.error(err);
     }
 
+    /**
+     * Runs the given task on this plugin's executor, or fails the capture if the
+     * executor is full or shut down. This is called from onActivityResult, where
+     * an exception would crash the app.
+     */
+    private void runInBackground(Runnable task) {
+        try {
+            this.getExecutor().execute(task);
+        } catch (RejectedExecutionException e) {
+            LOG.e(LOG_TAG, "Could not process the captured media: " + e.getMessage());
+            this.fail(createErrorObject(CAPTURE_INTERNAL_ERR, "Error processing capture - too many pending tasks."));
+        }
+    }
+
 
     /**
      * Creates a cursor that can be used to determine how many images we have.
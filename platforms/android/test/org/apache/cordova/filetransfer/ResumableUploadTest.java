@@ -0,0 +1,294 @@
+/*
+       Licensed to the Apache Software Foundation (ASF) under one
+       or more contributor license agreements.  See the NOTICE file
+       distributed with this work for additional information
+       regarding copyright ownership.  The ASF licenses this file
+       to you under the Apache License, Version 2.0 (the
+       "License"); you may not use this file except in compliance
+       with the License.  You may obtain a copy of the License at
+
+         http://www.apache.org/licenses/LICENSE-2.0
+
+       Unless required by applicable law or agreed to in writing,
+       software distributed under the License is distributed on an
+       "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+       KIND, either express or implied.  See the License for the
+       specific language governing permissions and limitations
+       under the License.
+*/
+package org.apache.cordova.filetransfer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs ResumableUpload against a stand-in server that keeps whatever part of
+ * the body it received, and can drop connections part way or reject offsets.
+ */
+public final class ResumableUploadTest {
+    private static final int LENGTH = 100000;
+    private static final String UPLOAD_ID = ResumableUpload.defaultUploadId("source", "target", LENGTH);
+
+    private final byte[] data = new byte[LENGTH];
+    private final UploadServer server = new UploadServer();
+
+    @Before
+    public void setUp() throws Exception {
+        new Random(0).nextBytes(data);
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server.close();
+    }
+
+    @Test
+    public void newUploadStartsAtZero() throws Exception {
+        HttpURLConnection connection = newUpload().upload();
+        assertEquals(201, connection.getResponseCode());
+        assertEquals(Arrays.asList(
+                "HEAD",
+                "POST PATCH bytes 0-99999/100000"), server.requests);
+        assertTrue(Arrays.equals(data, server.received.toByteArray()));
+        assertEquals(UPLOAD_ID, server.uploadId);
+    }
+
+    @Test
+    public void resumesFromTheOffsetTheServerReports() throws Exception {
+        server.received.write(data, 0, 40000);
+        ResumableUpload upload = newUpload();
+        assertEquals(201, upload.upload().getResponseCode());
+        assertEquals(Arrays.asList(
+                "HEAD",
+                "POST PATCH bytes 40000-99999/100000"), server.requests);
+        assertEquals(60000, server.bodyLengths.get(0).intValue());
+        assertTrue(Arrays.equals(data, server.received.toByteArray()));
+        assertEquals(LENGTH, upload.getBytesSent());
+    }
+
+    /** Servers may report their offset as the received range rather than an Upload-Offset. */
+    @Test
+    public void acceptsARangeHeaderForTheOffset() throws Exception {
+        server.received.write(data, 0, 100);
+        server.offsetAsRange = true;
+        assertEquals(201, newUpload().upload().getResponseCode());
+        assertEquals("POST PATCH bytes 100-99999/100000", server.requests.get(1));
+    }
+
+    @Test
+    public void completeUploadOnlyAsksForTheResponse() throws Exception {
+        server.received.write(data, 0, LENGTH);
+        assertEquals(201, newUpload().upload().getResponseCode());
+        assertEquals("POST PATCH bytes */100000", server.requests.get(1));
+        assertEquals(0, server.bodyLengths.get(0).intValue());
+    }
+
+    @Test
+    public void retriesFromTheServerOffsetAfterADroppedConnection() throws Exception {
+        server.dropAfter = 30000;
+        server.dropCount = 2;
+        assertEquals(201, newUpload().upload().getResponseCode());
+        assertEquals(Arrays.asList(
+                "HEAD",
+                "POST PATCH bytes 0-99999/100000",
+                "HEAD",
+                "POST PATCH bytes 30000-99999/100000",
+                "HEAD",
+                "POST PATCH bytes 60000-99999/100000"), server.requests);
+        assertTrue(Arrays.equals(data, server.received.toByteArray()));
+    }
+
+    @Test
+    public void givesUpAfterThreeAttempts() throws Exception {
+        server.dropAfter = 10000;
+        server.dropCount = Integer.MAX_VALUE;
+        try {
+            newUpload().upload();
+            fail();
+        } catch (IOException expected) {
+        }
+        assertEquals(6, server.requests.size());
+        assertEquals("POST PATCH bytes 20000-99999/100000", server.requests.get(5));
+    }
+
+    /** A 409 means the server disagrees about the offset; it is asked for again. */
+    @Test
+    public void conflictAsksForTheOffsetAgain() throws Exception {
+        server.conflictCount = 1;
+        assertEquals(201, newUpload().upload().getResponseCode());
+        assertEquals(Arrays.asList(
+                "HEAD",
+                "POST PATCH bytes 0-99999/100000",
+                "HEAD",
+                "POST PATCH bytes 0-99999/100000"), server.requests);
+        assertTrue(Arrays.equals(data, server.received.toByteArray()));
+    }
+
+    private ResumableUpload newUpload() {
+        final URL url;
+        try {
+            url = new URL("http://127.0.0.1:" + server.serverSocket.getLocalPort() + "/upload");
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return new ResumableUpload(UPLOAD_ID, LENGTH) {
+            @Override
+            protected HttpURLConnection openConnection() throws IOException {
+                return (HttpURLConnection) url.openConnection();
+            }
+
+            @Override
+            protected InputStream openSource() {
+                return new ByteArrayInputStream(data);
+            }
+
+            @Override
+            protected boolean isAborted() {
+                return false;
+            }
+
+            @Override
+            protected void onProgress(long sent, long total) {
+            }
+        };
+    }
+
+    /**
+     * Serves one request per connection. HEAD reports how many bytes have been
+     * received; POST appends its body if its Content-Range starts there.
+     */
+    static final class UploadServer implements Runnable {
+        final ByteArrayOutputStream received = new ByteArrayOutputStream();
+        final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+        final List<Integer> bodyLengths = Collections.synchronizedList(new ArrayList<Integer>());
+        volatile String uploadId;
+        volatile boolean offsetAsRange;
+        volatile int dropAfter;
+        volatile int dropCount;
+        volatile int conflictCount;
+        ServerSocket serverSocket;
+
+        void start() throws IOException {
+            serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            Thread thread = new Thread(this, "ResumableUploadTest server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void close() throws IOException {
+            serverSocket.close();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    Socket socket = serverSocket.accept();
+                    try {
+                        serve(socket);
+                    } catch (IOException ignored) {
+                    } finally {
+                        socket.close();
+                    }
+                }
+            } catch (IOException closed) {
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            String method = readLine(in).split(" ")[0];
+            Map<String, String> headers = new HashMap<String, String>();
+            for (String line; (line = readLine(in)).length() > 0; ) {
+                int colon = line.indexOf(':');
+                headers.put(line.substring(0, colon).toLowerCase(), line.substring(colon + 1).trim());
+            }
+            uploadId = headers.get("upload-id");
+
+            if (method.equals("HEAD")) {
+                requests.add(method);
+                if (received.size() == 0) {
+                    respond(out, "404 Not Found", "");
+                } else if (offsetAsRange) {
+                    respond(out, "200 OK", "Range: bytes=0-" + (received.size() - 1) + "\r\n");
+                } else {
+                    respond(out, "200 OK", "Upload-Offset: " + received.size() + "\r\n");
+                }
+                return;
+            }
+
+            String contentRange = headers.get("content-range");
+            requests.add(method + " " + headers.get("x-http-method-override") + " " + contentRange);
+            int contentLength = Integer.parseInt(headers.get("content-length"));
+            bodyLengths.add(contentLength);
+            boolean atOffset = contentRange.startsWith("bytes " + received.size() + "-")
+                    || contentRange.startsWith("bytes */");
+            if (!atOffset || conflictCount > 0) {
+                conflictCount--;
+                respond(out, "409 Conflict", "");
+                return;
+            }
+
+            byte[] buffer = new byte[4096];
+            for (int read = 0; read < contentLength; ) {
+                boolean dropping = dropCount > 0;
+                int limit = dropping ? Math.min(dropAfter - read, buffer.length) : buffer.length;
+                if (limit <= 0) {
+                    dropCount--;
+                    return; // Closed without a response.
+                }
+                int count = in.read(buffer, 0, Math.min(limit, contentLength - read));
+                if (count == -1) {
+                    return;
+                }
+                received.write(buffer, 0, count);
+                read += count;
+            }
+            respond(out, "201 Created", "");
+        }
+
+        private static void respond(OutputStream out, String status, String headers) throws IOException {
+            out.write(("HTTP/1.1 " + status + "\r\n" + headers
+                    + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes("US-ASCII"));
+            out.flush();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            StringBuilder line = new StringBuilder();
+            for (int c; (c = in.read()) != '\n'; ) {
+                if (c == -1) {
+                    throw new IOException("connection closed");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}